@@ -0,0 +1,1547 @@
+package components.inventory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe implementation of Inventory on an array of slots guarded by
+ * striped locks. The slots are split into stripes of {@code STRIPE_SIZE}
+ * consecutive slots, each with its own lock, so changes to slots in
+ * different stripes go ahead in parallel. Every kernel method is atomic:
+ * methods on one slot hold only its stripe's lock, while {@code restrict},
+ * {@code freeRestrictions}, {@code clear} and {@code transferFrom} hold every
+ * lock. {@code transferItem}, {@code swapItems} and {@code moveItem} between
+ * two ConcurrentInventories are atomic too, holding the stripe lock of each
+ * slot, so no thread sees the Item in both slots or in neither. Locks are
+ * always taken in one global order, by representation and then by stripe,
+ * so none of these can deadlock with each other. The occupancy of each
+ * stripe is one long, and a concurrent index maps each name id in
+ * {@code SymbolTable.NAMES} to the slots that may hold it.
+ *
+ * <p>
+ * Searches are weakly consistent, like the iterators of
+ * {@code java.util.concurrent}: they take one stripe at a time, so
+ * {@code nextIndexOf}, {@code nextEmptySlot} and {@code nextPlacement}
+ * return a slot that qualified at some moment during the call, or -1 if none
+ * qualified then; a slot that qualified throughout the call is never
+ * missed. The iterator is weakly consistent too, and never throws
+ * {@code ConcurrentModificationException}. A slot found by a search may have
+ * changed by the time it is used, so callers racing for slots should be
+ * ready for that.
+ *
+ * <p>
+ * Stacking a {@code BasicItem} without tags onto a {@code BasicItem}, and
+ * {@code useItem} on a {@code BasicItem}, take no lock, so threads hammering
+ * the same few stacks do not queue up on a stripe. They compare-and-set the
+ * count word of the Item in the slot, whose high half holds a
+ * {@code RETIRING} flag and a stamp. Every removal of an Item from a slot
+ * sets the flag first and advances the stamp as it clears it, and
+ * {@code useItem} sets the flag when it takes the last unit of a stack; a
+ * lock-free change checks that the Item is still in its slot after reading
+ * the word, so it lands on an Item that was in the slot when it took effect,
+ * and is linearizable with every other kernel method. A slot whose Item is
+ * retiring reads as empty; {@code nextEmptySlot} may pass over it until the
+ * thread that used it up has cleared it. Items watched by an
+ * {@code Inventory1}, Items of other classes and stacking with tags take the
+ * stripe lock as before.
+ *
+ * <p>
+ * Items are aliased as in {@code Inventory1}. Changing an Item through an
+ * alias, or reading one that other threads may stack onto, is up to the
+ * caller to synchronize.
+ *
+ * @convention <pre>
+ * $this.rep is not null and
+ * for the fields of $this.rep:
+ *  size > 0 and |slots| = size and
+ *  |locks| = |occupied| = ceiling(size / STRIPE_SIZE) and
+ *  [slots[i] and bit (i mod STRIPE_SIZE) of occupied[i / STRIPE_SIZE] are
+ *   guarded by locks[i / STRIPE_SIZE], and slots[i] is written with release
+ *   semantics] and
+ *  [the count of a BasicItem in slots[i] changes only by compare-and-set of
+ *   its count word, unless it is watched] and
+ *  [RETIRING is set in the count word of a BasicItem in slots[i] only while
+ *   a thread taking it out holds locks[i / STRIPE_SIZE], or after useItem
+ *   took its last unit and until it is taken out] and
+ *  [reqBits and reqHigh are only changed while every lock is held] and
+ *  for all 0 <= i < size:
+ *   [slots[i] is null or slots[i] is not an empty Item] and
+ *   [bit (i mod STRIPE_SIZE) of occupied[i / STRIPE_SIZE] is set iff
+ *    slots[i] is not null] and
+ *   [if slots[i] is not null, i is in index[id of slots[i].name], and
+ *    slots[i] has all the entries in this.restrictions as tags]
+ *  and
+ *  for each name id n and each i in index[n], while locks[i / STRIPE_SIZE]
+ *  is not held, slots[i] is not null and slots[i].name has id n
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = [$this.rep.slots[i] for 0 <= i < $this.rep.size, with an empty
+ *          Item for each null and for each Item with RETIRING set]
+ *  this.restrictions = {SymbolTable.TAGS.symbol(t) :
+ *                       bit t of $this.rep.reqBits is set or
+ *                       t is in $this.rep.reqHigh}
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public class ConcurrentInventory extends InventorySecondary {
+
+    /** log2 of the number of slots in each stripe. */
+    static final int STRIPE_BITS = 6;
+
+    /** The number of slots in each stripe, one per bit of a long. */
+    static final int STRIPE_SIZE = 1 << STRIPE_BITS;
+
+    /**
+     * Flag in the count word of a {@code BasicItem} that makes lock-free
+     * changes to it fail, set while it is taken out of a slot.
+     */
+    private static final long RETIRING = Long.MIN_VALUE;
+
+    /**
+     * One step of the stamp kept in the high half of the count word of a
+     * {@code BasicItem}, below {@code RETIRING}.
+     */
+    private static final long STAMP = 1L << Integer.SIZE;
+
+    /** Handle for ordered access to the elements of the slot arrays. */
+    private static final VarHandle SLOTS = MethodHandles
+            .arrayElementVarHandle(Item[].class);
+
+    /** Source of the numbers that order the locks of representations. */
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    /**
+     * The representation of a ConcurrentInventory. {@code clear} and
+     * {@code transferFrom} swap in a new one, and a thread that locks a
+     * stripe checks afterwards that it locked the current one.
+     */
+    private static final class Rep {
+
+        /** The position of the locks of this in the global lock order. */
+        private final long order;
+
+        /** The number of slots. */
+        private final int size;
+
+        /** The Items in the slots, with null for an empty slot. */
+        private final Item[] slots;
+
+        /** One bit per slot, set when it holds an Item, by stripe. */
+        private final long[] occupied;
+
+        /** The lock of each stripe. */
+        private final ReentrantLock[] locks;
+
+        /** The slots that may hold each name, by name id. */
+        private final ConcurrentHashMap<Integer,
+                ConcurrentSkipListSet<Integer>> index;
+
+        /** Bit t is set iff the tag with id t < 64 is required. */
+        private long reqBits;
+
+        /** The ids of required tags that are too large for reqBits. */
+        private int[] reqHigh;
+
+        /**
+         * Creates an empty, unrestricted representation of {@code size}
+         * slots.
+         *
+         * @param size
+         *            the number of slots
+         */
+        private Rep(int size) {
+            int stripes = (size + STRIPE_SIZE - 1) >>> STRIPE_BITS;
+
+            this.order = NEXT_ORDER.getAndIncrement();
+            this.size = size;
+            this.slots = new Item[size];
+            this.occupied = new long[stripes];
+            this.locks = new ReentrantLock[stripes];
+
+            for (int s = 0; s < stripes; s++) {
+                this.locks[s] = new ReentrantLock();
+            }
+
+            this.index = new ConcurrentHashMap<>();
+            this.reqBits = 0;
+            this.reqHigh = new int[0];
+        }
+    }
+
+    /** The representation, swapped whole by clear and transferFrom. */
+    private volatile Rep rep;
+
+    /**
+     * Creates initial representation.
+     *
+     * @param size
+     *            - the number of slots this will have
+     */
+    private void createNewRep(int size) {
+        this.rep = new Rep(size);
+    }
+
+    /**
+     * Creates a new Inventory with a single slot.
+     */
+    public ConcurrentInventory() {
+        this.createNewRep(1);
+    }
+
+    /**
+     * Create a new Inventory with one or more slots.
+     *
+     * @param size
+     *            - the number of slots in the new Inventory
+     *
+     * @requires size > 0
+     */
+    public ConcurrentInventory(int size) {
+        assert size > 0 : "Violation of size > 0";
+
+        this.createNewRep(size);
+    }
+
+    /**
+     * Locks the stripe holding {@code slot} in the current representation
+     * and returns that representation.
+     *
+     * @param slot
+     *            the slot
+     * @return the representation whose lock for {@code slot} is now held
+     */
+    private Rep lockSlot(int slot) {
+        Rep locked = this.rep;
+        locked.locks[slot >>> STRIPE_BITS].lock();
+
+        while (locked != this.rep) {
+            locked.locks[slot >>> STRIPE_BITS].unlock();
+            locked = this.rep;
+            locked.locks[slot >>> STRIPE_BITS].lock();
+        }
+
+        return locked;
+    }
+
+    /**
+     * Locks stripe {@code a} of {@code ra} and stripe {@code b} of
+     * {@code rb}, which may be the same stripe, in the global lock order.
+     *
+     * @param ra
+     *            the first representation
+     * @param a
+     *            the stripe of {@code ra}
+     * @param rb
+     *            the second representation
+     * @param b
+     *            the stripe of {@code rb}
+     */
+    private static void lockOrdered(Rep ra, int a, Rep rb, int b) {
+        if (ra.order < rb.order || (ra == rb && a <= b)) {
+            ra.locks[a].lock();
+            rb.locks[b].lock();
+        } else {
+            rb.locks[b].lock();
+            ra.locks[a].lock();
+        }
+    }
+
+    /**
+     * Locks the stripe of {@code slot} in the current representation of
+     * {@code this} and the stripe of {@code otherSlot} in the current
+     * representation of {@code other}, in the global lock order.
+     *
+     * @param slot
+     *            the slot of {@code this}
+     * @param other
+     *            the other Inventory, which may be {@code this}
+     * @param otherSlot
+     *            the slot of {@code other}
+     * @return the representations locked, of {@code this} and of
+     *         {@code other} in that order
+     */
+    private Rep[] lockPair(int slot, ConcurrentInventory other,
+            int otherSlot) {
+        Rep[] locked = null;
+
+        while (locked == null) {
+            Rep mine = this.rep;
+            Rep theirs = other.rep;
+            lockOrdered(mine, slot >>> STRIPE_BITS, theirs,
+                    otherSlot >>> STRIPE_BITS);
+
+            if (mine == this.rep && theirs == other.rep) {
+                locked = new Rep[] {mine, theirs };
+            } else {
+                unlockPair(mine, slot, theirs, otherSlot);
+            }
+        }
+
+        return locked;
+    }
+
+    /**
+     * Unlocks the stripe of {@code slot} in {@code mine} and the stripe of
+     * {@code otherSlot} in {@code theirs}.
+     *
+     * @param mine
+     *            the first representation
+     * @param slot
+     *            the slot of {@code mine}
+     * @param theirs
+     *            the second representation
+     * @param otherSlot
+     *            the slot of {@code theirs}
+     */
+    private static void unlockPair(Rep mine, int slot, Rep theirs,
+            int otherSlot) {
+        theirs.locks[otherSlot >>> STRIPE_BITS].unlock();
+        mine.locks[slot >>> STRIPE_BITS].unlock();
+    }
+
+    /**
+     * Locks every stripe of {@code ra} and of {@code rb}, in the global lock
+     * order.
+     *
+     * @param ra
+     *            a representation
+     * @param rb
+     *            another representation
+     */
+    private static void lockStripes(Rep ra, Rep rb) {
+        if (ra.order < rb.order) {
+            lockStripes(ra);
+            lockStripes(rb);
+        } else {
+            lockStripes(rb);
+            lockStripes(ra);
+        }
+    }
+
+    /**
+     * Locks every stripe of {@code rep}, in stripe order.
+     *
+     * @param rep
+     *            the representation to lock
+     */
+    private static void lockStripes(Rep rep) {
+        for (ReentrantLock lock : rep.locks) {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Unlocks every stripe of {@code rep}.
+     *
+     * @param rep
+     *            the representation to unlock
+     */
+    private static void unlockStripes(Rep rep) {
+        for (int s = rep.locks.length - 1; s >= 0; s--) {
+            rep.locks[s].unlock();
+        }
+    }
+
+    /**
+     * Locks every stripe of the current representation and returns it.
+     *
+     * @return the representation whose locks are now all held
+     */
+    private Rep lockAll() {
+        Rep locked = this.rep;
+        lockStripes(locked);
+
+        while (locked != this.rep) {
+            unlockStripes(locked);
+            locked = this.rep;
+            lockStripes(locked);
+        }
+
+        return locked;
+    }
+
+    /**
+     * Returns the id of the name of {@code item} in {@code SymbolTable.NAMES}.
+     *
+     * @param item
+     *            the Item
+     * @return the id of {@code item.name}
+     */
+    private static int nameIdOf(Item item) {
+        int id;
+
+        if (item instanceof BasicItem) {
+            id = ((BasicItem) item).nameId();
+        } else {
+            id = SymbolTable.NAMES.intern(item.getName());
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns whether {@code item} has the tag with id {@code t}.
+     *
+     * @param item
+     *            the Item
+     * @param t
+     *            the tag id in {@code SymbolTable.TAGS}
+     * @return true if {@code item} has that tag
+     */
+    private static boolean hasTagId(Item item, int t) {
+        boolean has;
+
+        if (item instanceof BasicItem) {
+            has = ((BasicItem) item).hasTagId(t);
+        } else {
+            has = item.hasTag(SymbolTable.TAGS.symbol(t));
+        }
+
+        return has;
+    }
+
+    /**
+     * Returns {@code item} as a {@code BasicItem} whose count may be changed
+     * lock-free, or null if it is not a {@code BasicItem} or is watched.
+     *
+     * @param item
+     *            the Item, or null
+     * @return {@code item}, or null
+     */
+    private static BasicItem lockFree(Item item) {
+        BasicItem basic = null;
+
+        if (item instanceof BasicItem && !((BasicItem) item).watched()) {
+            basic = (BasicItem) item;
+        }
+
+        return basic;
+    }
+
+    /**
+     * Returns whether {@code item} is a {@code BasicItem} with
+     * {@code RETIRING} set, so that its slot is logically empty or about to
+     * be.
+     *
+     * @param item
+     *            the Item, not null
+     * @return true if {@code item} is retiring
+     */
+    private static boolean retiring(Item item) {
+        return item instanceof BasicItem
+                && ((BasicItem) item).countWord() < 0;
+    }
+
+    /**
+     * Returns the count of {@code item}, read with volatile semantics if it
+     * is a {@code BasicItem}.
+     *
+     * @param item
+     *            the Item
+     * @return its count
+     */
+    private static int countOf(Item item) {
+        int count;
+
+        if (item instanceof BasicItem) {
+            count = (int) ((BasicItem) item).countWord();
+        } else {
+            count = item.getCount();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns {@code word} after one unit of the stack is used: the count
+     * less one, or {@code RETIRING} set if that was the last unit.
+     *
+     * @param word
+     *            the count word of a stack, without {@code RETIRING}
+     * @return the new count word
+     */
+    private static long usedOnce(long word) {
+        long used = word | RETIRING;
+
+        if ((int) word > 1) {
+            used = BasicItem.withCount(word, (int) word - 1);
+        }
+
+        return used;
+    }
+
+    /**
+     * Sets {@code RETIRING} in the count word of {@code item}, if it is a
+     * {@code BasicItem}, so that lock-free changes to it fail from now on.
+     *
+     * @param item
+     *            the Item
+     * @return true if the flag was already set, because {@code useItem} took
+     *         its last unit
+     */
+    private static boolean retire(Item item) {
+        boolean used = false;
+
+        if (item instanceof BasicItem) {
+            BasicItem basic = (BasicItem) item;
+            long word = basic.countWord();
+
+            while (word >= 0
+                    && !basic.compareAndSetCountWord(word, word | RETIRING)) {
+                word = basic.countWord();
+            }
+
+            used = word < 0;
+        }
+
+        return used;
+    }
+
+    /**
+     * Clears {@code RETIRING} in the count word of {@code item}, if it is a
+     * {@code BasicItem}, and advances its stamp, so that no lock-free change
+     * that read the word before {@code retire} can succeed.
+     *
+     * @param item
+     *            the Item
+     */
+    private static void release(Item item) {
+        if (item instanceof BasicItem) {
+            BasicItem basic = (BasicItem) item;
+            long word = basic.countWord();
+
+            while (!basic.compareAndSetCountWord(word,
+                    (word + STAMP) & ~RETIRING)) {
+                word = basic.countWord();
+            }
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the count of {@code dest}, which is in a slot
+     * whose stripe lock is held, unless it is retiring.
+     *
+     * @param dest
+     *            the Item in the slot
+     * @param delta
+     *            the amount to add
+     * @return false if {@code dest} is retiring and was left alone
+     */
+    private static boolean addCount(Item dest, int delta) {
+        boolean added = true;
+        BasicItem stack = lockFree(dest);
+
+        if (stack == null) {
+            dest.addCount(delta);
+        } else {
+            long word = stack.countWord();
+
+            while (word >= 0 && !stack.compareAndSetCountWord(word,
+                    BasicItem.withCount(word, (int) word + delta))) {
+                word = stack.countWord();
+            }
+
+            added = word >= 0;
+        }
+
+        return added;
+    }
+
+    /**
+     * Returns whether {@code stack} is still in {@code slot} of
+     * {@code current}, and {@code current} is still the representation.
+     *
+     * @param current
+     *            the representation read before
+     * @param slot
+     *            the slot
+     * @param stack
+     *            the Item read from the slot before
+     * @return true if neither has changed
+     */
+    private boolean resident(Rep current, int slot, Item stack) {
+        return SLOTS.getAcquire(current.slots, slot) == stack
+                && this.rep == current;
+    }
+
+    /**
+     * Stacks {@code item}, which has no tags, onto the Item in {@code slot}
+     * without taking a lock.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item to stack
+     * @return false if the slot did not hold a {@code BasicItem} with the
+     *         same name that could be changed lock-free, and nothing was done
+     */
+    private boolean tryStack(int slot, BasicItem item) {
+        assert this.isAllowed(item) : "Violation of isAllowed(item)";
+
+        boolean stacked = false;
+        Rep current = this.rep;
+        BasicItem stack = null;
+
+        if (slot < current.size) {
+            stack = lockFree((Item) SLOTS.getAcquire(current.slots, slot));
+        }
+
+        if (stack != null && stack.nameId() == item.nameId()) {
+            long word = stack.countWord();
+
+            while (!stacked && word >= 0
+                    && this.resident(current, slot, stack)) {
+                stacked = stack.compareAndSetCountWord(word, BasicItem
+                        .withCount(word, (int) word + item.getCount()));
+                word = stack.countWord();
+            }
+        }
+
+        return stacked;
+    }
+
+    /**
+     * Uses one unit of the Item in {@code slot} without taking a lock, and
+     * takes the Item out if that was its last unit.
+     *
+     * @param slot
+     *            the slot
+     * @return the name of the Item used, or null if the slot did not hold a
+     *         {@code BasicItem} that could be changed lock-free, and nothing
+     *         was done
+     */
+    private String tryUse(int slot) {
+        String name = null;
+        Rep current = this.rep;
+        BasicItem stack = null;
+
+        if (slot < current.size) {
+            stack = lockFree((Item) SLOTS.getAcquire(current.slots, slot));
+        }
+
+        if (stack != null) {
+            long word = stack.countWord();
+
+            while (name == null && word >= 0
+                    && this.resident(current, slot, stack)) {
+                if (stack.compareAndSetCountWord(word, usedOnce(word))) {
+                    name = stack.getName();
+
+                    if ((int) word <= 1) {
+                        clearRetired(current, slot, stack);
+                    }
+                } else {
+                    word = stack.countWord();
+                }
+            }
+        }
+
+        return name;
+    }
+
+    /**
+     * Takes {@code stack}, whose last unit was used, out of {@code slot} of
+     * {@code rep}, unless another thread has already done so.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @param stack
+     *            the retiring Item
+     */
+    private static void clearRetired(Rep rep, int slot, Item stack) {
+        ReentrantLock lock = rep.locks[slot >>> STRIPE_BITS];
+
+        lock.lock();
+
+        try {
+            if (rep.slots[slot] == stack) {
+                displace(rep, slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets {@code rep}, whose locks are all held, ready to be swapped out:
+     * takes out the Items whose last unit was used, and sets
+     * {@code RETIRING} on the others, so that lock-free changes wait for the
+     * swap and then find the new representation.
+     *
+     * @param rep
+     *            the representation
+     */
+    private static void freeze(Rep rep) {
+        for (int s = 0; s < rep.occupied.length; s++) {
+            long bits = rep.occupied[s];
+
+            while (bits != 0) {
+                int i = (s << STRIPE_BITS) + Long.numberOfTrailingZeros(bits);
+
+                if (retire(rep.slots[i])) {
+                    displace(rep, i);
+                }
+
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Releases the Items of {@code rep}, whose locks are all held, once it
+     * has been swapped out after {@code freeze}.
+     *
+     * @param rep
+     *            the representation
+     */
+    private static void thaw(Rep rep) {
+        for (int s = 0; s < rep.occupied.length; s++) {
+            long bits = rep.occupied[s];
+
+            while (bits != 0) {
+                release(rep.slots[(s << STRIPE_BITS)
+                        + Long.numberOfTrailingZeros(bits)]);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the Item in {@code slot} of {@code rep}, whose stripe lock is
+     * held, or null if the slot is logically empty.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @return the Item, or null
+     */
+    private static Item itemAt(Rep rep, int slot) {
+        Item item = rep.slots[slot];
+
+        if (item != null && retiring(item)) {
+            item = null;
+        }
+
+        return item;
+    }
+
+    /**
+     * Returns the Item in {@code slot} of {@code rep}, read under its stripe
+     * lock, or null if the slot is empty.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @return the Item, or null
+     */
+    private static Item read(Rep rep, int slot) {
+        ReentrantLock lock = rep.locks[slot >>> STRIPE_BITS];
+        Item item;
+
+        lock.lock();
+
+        try {
+            item = itemAt(rep, slot);
+        } finally {
+            lock.unlock();
+        }
+
+        return item;
+    }
+
+    /**
+     * Stores the non-empty {@code item} in the empty {@code slot} of
+     * {@code rep}, whose stripe lock is held.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item
+     */
+    private static void place(Rep rep, int slot, Item item) {
+        rep.index.computeIfAbsent(nameIdOf(item),
+                n -> new ConcurrentSkipListSet<Integer>()).add(slot);
+        rep.occupied[slot >>> STRIPE_BITS] |= 1L << slot;
+        SLOTS.setRelease(rep.slots, slot, item);
+    }
+
+    /**
+     * Empties the occupied {@code slot} of {@code rep}, whose stripe lock is
+     * held, and returns the Item that was there, unless its last unit had
+     * been used.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @return the Item removed, or null if it was retiring
+     */
+    private static Item displace(Rep rep, int slot) {
+        Item item = rep.slots[slot];
+        boolean used = retire(item);
+
+        SLOTS.setRelease(rep.slots, slot, null);
+        rep.occupied[slot >>> STRIPE_BITS] &= ~(1L << slot);
+        rep.index.get(nameIdOf(item)).remove(slot);
+        release(item);
+
+        if (used) {
+            item = null;
+        }
+
+        return item;
+    }
+
+    /**
+     * Empties {@code slot} of {@code rep}, whose stripe lock is held, and
+     * returns the Item that was there.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @return the Item removed, or null if the slot was logically empty
+     */
+    private static Item take(Rep rep, int slot) {
+        Item item = null;
+
+        if (rep.slots[slot] != null) {
+            item = displace(rep, slot);
+        }
+
+        return item;
+    }
+
+    /**
+     * Adds {@code item} to {@code slot} of {@code rep}, whose stripe lock is
+     * held, stacking it onto the Item there unless that is retiring.
+     *
+     * @param rep
+     *            the representation
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item to add
+     */
+    private static void put(Rep rep, int slot, Item item) {
+        Item dest = rep.slots[slot];
+
+        if (dest != null && !addCount(dest, item.getCount())) {
+            displace(rep, slot);
+            dest = null;
+        }
+
+        if (dest != null) {
+            for (String tag : item.getTags().keySet()) {
+                if (!tag.equals(Item.COUNT)) {
+                    dest.putTag(tag, item.tagValue(tag));
+                }
+            }
+        } else if (!item.isEmpty()) {
+            place(rep, slot, item);
+        }
+    }
+
+    /**
+     * Swaps the Items in slot {@code a} of {@code ra} and slot {@code b} of
+     * {@code rb}, whose stripe locks are held.
+     *
+     * @param ra
+     *            the first representation
+     * @param a
+     *            the slot of {@code ra}
+     * @param rb
+     *            the second representation, which may be {@code ra}
+     * @param b
+     *            the slot of {@code rb}
+     */
+    private static void swap(Rep ra, int a, Rep rb, int b) {
+        Item first = take(ra, a);
+        Item second = take(rb, b);
+
+        if (second != null) {
+            place(ra, a, second);
+        }
+
+        if (first != null) {
+            place(rb, b, first);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItem(int slot, Item item) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert item != null : "Violation of item is not null";
+
+        boolean stacked = item instanceof BasicItem
+                && ((BasicItem) item).tagCount() == 0 && !item.isEmpty()
+                && this.tryStack(slot, (BasicItem) item);
+
+        if (!stacked) {
+            this.lockedAddItem(slot, item);
+        }
+    }
+
+    /**
+     * Adds {@code item} to {@code slot} while holding its stripe lock.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item to add
+     */
+    private void lockedAddItem(int slot, Item item) {
+        Rep locked = this.lockSlot(slot);
+
+        try {
+            assert slot < locked.size : "Violation of slot < |this|";
+
+            Item dest = locked.slots[slot];
+
+            assert dest == null || retiring(dest) || nameIdOf(dest) == nameIdOf(
+                    item) : "Violation of slot is empty or has Item with same name";
+            assert Inventory1.allows(locked.reqBits, locked.reqHigh,
+                    item) : "Violation of isAllowed(item)";
+
+            put(locked, slot, item);
+        } finally {
+            locked.locks[slot >>> STRIPE_BITS].unlock();
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item removeItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+
+        Rep locked = this.lockSlot(slot);
+        Item removed;
+
+        try {
+            assert slot < locked.size : "Violation of slot < |this|";
+
+            removed = take(locked, slot);
+
+            if (removed == null) {
+                removed = new BasicItem();
+            }
+        } finally {
+            locked.locks[slot >>> STRIPE_BITS].unlock();
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+
+        Rep locked = this.lockSlot(slot);
+        Item item;
+
+        try {
+            assert slot < locked.size : "Violation of slot < |this|";
+
+            item = itemAt(locked, slot);
+        } finally {
+            locked.locks[slot >>> STRIPE_BITS].unlock();
+        }
+
+        if (item == null) {
+            item = EMPTY_ITEM;
+        }
+
+        return item;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        int t = SymbolTable.TAGS.intern(tag);
+        ArrayList<Item> removed = new ArrayList<>();
+        Rep locked = this.lockAll();
+
+        try {
+            if (t < Long.SIZE) {
+                locked.reqBits |= 1L << t;
+            } else if (Arrays.binarySearch(locked.reqHigh, t) < 0) {
+                int[] high = Arrays.copyOf(locked.reqHigh,
+                        locked.reqHigh.length + 1);
+                high[high.length - 1] = t;
+                Arrays.sort(high);
+                locked.reqHigh = high;
+            }
+
+            for (int s = 0; s < locked.occupied.length; s++) {
+                long bits = locked.occupied[s];
+
+                while (bits != 0) {
+                    int i = (s << STRIPE_BITS)
+                            + Long.numberOfTrailingZeros(bits);
+
+                    if (!hasTagId(locked.slots[i], t)) {
+                        Item item = displace(locked, i);
+
+                        if (item != null) {
+                            removed.add(item);
+                        }
+                    }
+
+                    bits &= bits - 1;
+                }
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void freeRestrictions() {
+        Rep locked = this.lockAll();
+
+        try {
+            locked.reqBits = 0;
+            locked.reqHigh = new int[0];
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAllowed(Item item) {
+        assert item != null : "Violation of item is not null";
+
+        Rep locked = this.lockSlot(0);
+        boolean allow;
+
+        try {
+            allow = Inventory1.allows(locked.reqBits, locked.reqHigh, item);
+        } finally {
+            locked.locks[0].unlock();
+        }
+
+        return allow;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Weakly consistent: returns a slot that held an Item called
+     * {@code name} at some moment during the call.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+
+        int next = -1;
+        int n = SymbolTable.NAMES.idOf(name);
+
+        if (n == 0) {
+            next = this.nextEmptySlot(pos);
+        } else if (n != SymbolTable.NO_ID) {
+            Rep current = this.rep;
+            ConcurrentSkipListSet<Integer> named = current.index.get(n);
+
+            if (named != null) {
+                Iterator<Integer> candidates = named.tailSet(pos).iterator();
+
+                while (next < 0 && candidates.hasNext()) {
+                    int i = candidates.next();
+                    Item item = read(current, i);
+
+                    if (item != null && nameIdOf(item) == n) {
+                        next = i;
+                    }
+                }
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Weakly consistent: returns a slot that was empty at some moment during
+     * the call.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextEmptySlot(int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+
+        int next = -1;
+        Rep current = this.rep;
+        long mask = -1L << pos;
+
+        for (int s = pos >>> STRIPE_BITS; next < 0
+                && s < current.locks.length; s++) {
+            current.locks[s].lock();
+
+            try {
+                long free = ~current.occupied[s] & mask;
+
+                if (free != 0) {
+                    next = (s << STRIPE_BITS)
+                            + Long.numberOfTrailingZeros(free);
+                }
+            } finally {
+                current.locks[s].unlock();
+            }
+
+            mask = -1L;
+        }
+
+        if (next >= current.size) {
+            next = -1;
+        }
+
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Weakly consistent: returns a slot that, at some moment during the
+     * call, held a stack of {@code item} with room for it, or else a slot
+     * that was empty at some moment during the call.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextPlacement(Item item, int maxStack) {
+        assert item != null : "Violation of item is not null";
+
+        int pos = -1;
+        int n = SymbolTable.NAMES.idOf(item.getName());
+        Rep current = this.rep;
+        ConcurrentSkipListSet<Integer> named = null;
+
+        if (n > 0) {
+            named = current.index.get(n);
+        }
+
+        if (named != null) {
+            Iterator<Integer> candidates = named.iterator();
+
+            while (pos < 0 && candidates.hasNext()) {
+                int i = candidates.next();
+                ReentrantLock lock = current.locks[i >>> STRIPE_BITS];
+
+                lock.lock();
+
+                try {
+                    Item stack = current.slots[i];
+
+                    if (stack != null && !retiring(stack)
+                            && nameIdOf(stack) == n
+                            && (maxStack <= 0 || countOf(stack)
+                                    + item.getCount() <= maxStack)) {
+                        pos = i;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        if (pos < 0) {
+            pos = this.nextEmptySlot(0);
+        }
+
+        return pos;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Linearizable, and lock-free when the slot holds a {@code BasicItem}.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public String useItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+
+        String name = this.tryUse(slot);
+
+        if (name == null) {
+            name = Item.EMPTY_NAME;
+            Rep locked = this.lockSlot(slot);
+
+            try {
+                assert slot < locked.size : "Violation of slot < |this|";
+
+                Item dest = locked.slots[slot];
+                BasicItem stack = lockFree(dest);
+
+                if (stack != null) {
+                    long word = stack.countWord();
+
+                    while (word >= 0 && !stack.compareAndSetCountWord(word,
+                            usedOnce(word))) {
+                        word = stack.countWord();
+                    }
+
+                    if (word >= 0) {
+                        name = stack.getName();
+                    }
+
+                    if (word < 0 || (int) word <= 1) {
+                        displace(locked, slot);
+                    }
+                } else if (dest != null) {
+                    name = dest.getName();
+
+                    if (dest.getCount() > 1) {
+                        dest.addCount(-1);
+                    } else {
+                        displace(locked, slot);
+                    }
+                }
+            } finally {
+                locked.locks[slot >>> STRIPE_BITS].unlock();
+            }
+        }
+
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Atomic if {@code src} is a ConcurrentInventory.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferItem(Inventory src, int srcSlot, int destSlot) {
+        assert src != null : "Violation of src is not null";
+        assert 0 <= srcSlot : "Violation of 0 <= srcSlot";
+        assert 0 <= destSlot : "Violation of 0 <= destSlot";
+
+        if (src instanceof ConcurrentInventory) {
+            Rep[] locked = this.lockPair(destSlot, (ConcurrentInventory) src,
+                    srcSlot);
+
+            try {
+                assert srcSlot < locked[1].size : ""
+                        + "Violation of srcSlot < |src|";
+                assert destSlot < locked[0].size : ""
+                        + "Violation of destSlot < |this|";
+
+                Item moved = take(locked[1], srcSlot);
+
+                if (moved != null) {
+                    Item dest = itemAt(locked[0], destSlot);
+
+                    assert dest == null
+                            || nameIdOf(dest) == nameIdOf(moved) : ""
+                                    + "Violation of this[destSlot] = empty OR "
+                                    + "this[destSlot].name = src[srcSlot].name";
+                    assert Inventory1.allows(locked[0].reqBits,
+                            locked[0].reqHigh, moved) : "Violation of "
+                                    + "this.isAllowed(src[srcSlot])";
+
+                    put(locked[0], destSlot, moved);
+                }
+            } finally {
+                unlockPair(locked[0], destSlot, locked[1], srcSlot);
+            }
+        } else {
+            super.transferItem(src, srcSlot, destSlot);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Atomic.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void swapItems(int slot1, int slot2) {
+        assert 0 <= slot1 : "Violation of 0 <= slot1";
+        assert 0 <= slot2 : "Violation of 0 <= slot2";
+
+        Rep[] locked = this.lockPair(slot1, this, slot2);
+
+        try {
+            assert slot1 < locked[0].size : "Violation of slot1 < |this|";
+            assert slot2 < locked[0].size : "Violation of slot2 < |this|";
+
+            swap(locked[0], slot1, locked[1], slot2);
+        } finally {
+            unlockPair(locked[0], slot1, locked[1], slot2);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Atomic if {@code src} is a ConcurrentInventory.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void swapItems(Inventory src, int srcSlot, int destSlot) {
+        assert src != null : "Violation of src is not null";
+        assert 0 <= srcSlot : "Violation of 0 <= srcSlot";
+        assert 0 <= destSlot : "Violation of 0 <= destSlot";
+
+        if (src instanceof ConcurrentInventory) {
+            Rep[] locked = this.lockPair(destSlot, (ConcurrentInventory) src,
+                    srcSlot);
+
+            try {
+                assert srcSlot < locked[1].size : ""
+                        + "Violation of srcSlot < |src|";
+                assert destSlot < locked[0].size : ""
+                        + "Violation of destSlot < |this|";
+                assert allowedMove(locked[1], srcSlot, locked[0]) : ""
+                        + "Violation of this.isAllowed(src[srcSlot])";
+                assert allowedMove(locked[0], destSlot, locked[1]) : ""
+                        + "Violation of src.isAllowed(this[destSlot])";
+
+                swap(locked[1], srcSlot, locked[0], destSlot);
+            } finally {
+                unlockPair(locked[0], destSlot, locked[1], srcSlot);
+            }
+        } else {
+            super.swapItems(src, srcSlot, destSlot);
+        }
+    }
+
+    /**
+     * Moves the Item in {@code srcSlot} of {@code src} to {@code destSlot} of
+     * {@code this} as one atomic step: it is stacked onto the Item there if
+     * both have the same name, and the two are swapped otherwise. Nothing
+     * changes if an Item that would move is not allowed where it would go.
+     *
+     * @param src
+     *            the Inventory to move from, which may be {@code this}
+     * @param srcSlot
+     *            the slot in {@code src}
+     * @param destSlot
+     *            the slot in {@code this}
+     * @return true if the move was made
+     * @updates this, src
+     *
+     * @requires src is not null, 0 <= srcSlot < |src|, 0 <= destSlot < |this|
+     *
+     * @ensures <pre>
+     * if #src[srcSlot].name = #this[destSlot].name then
+     *   moveItem = this.isAllowed(#src[srcSlot]) and
+     *   if moveItem, this[destSlot] = #src[srcSlot] stacked onto
+     *     #this[destSlot], and src[srcSlot] = Item.EMPTY unless it is the
+     *     same slot
+     * else
+     *   moveItem = this.isAllowed(#src[srcSlot]) and
+     *              src.isAllowed(#this[destSlot]) and
+     *   if moveItem, this[destSlot] = #src[srcSlot] and
+     *     src[srcSlot] = #this[destSlot]
+     * </pre>
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public boolean moveItem(ConcurrentInventory src, int srcSlot,
+            int destSlot) {
+        assert src != null : "Violation of src is not null";
+        assert 0 <= srcSlot : "Violation of 0 <= srcSlot";
+        assert 0 <= destSlot : "Violation of 0 <= destSlot";
+
+        boolean moved;
+        Rep[] locked = this.lockPair(destSlot, src, srcSlot);
+
+        try {
+            assert srcSlot < locked[1].size : "Violation of srcSlot < |src|";
+            assert destSlot < locked[0].size : "Violation of destSlot < |this|";
+
+            Item from = itemAt(locked[1], srcSlot);
+            Item to = itemAt(locked[0], destSlot);
+            boolean stack = from != null && to != null
+                    && nameIdOf(from) == nameIdOf(to);
+
+            moved = allowedMove(locked[1], srcSlot, locked[0])
+                    && (stack || allowedMove(locked[0], destSlot, locked[1]));
+
+            if (moved && stack) {
+                put(locked[0], destSlot, take(locked[1], srcSlot));
+            } else if (moved) {
+                swap(locked[1], srcSlot, locked[0], destSlot);
+            }
+        } finally {
+            unlockPair(locked[0], destSlot, locked[1], srcSlot);
+        }
+
+        return moved;
+    }
+
+    /**
+     * Returns whether the Item in {@code slot} of {@code from}, whose stripe
+     * lock is held, may move into {@code to}, whose restrictions are guarded
+     * by a lock that is held too.
+     *
+     * @param from
+     *            the representation moved from
+     * @param slot
+     *            the slot of {@code from}
+     * @param to
+     *            the representation moved to
+     * @return true if the slot is logically empty or its Item is allowed in
+     *         {@code to}
+     */
+    private static boolean allowedMove(Rep from, int slot, Rep to) {
+        Item item = itemAt(from, slot);
+
+        return item == null || Inventory1.allows(to.reqBits, to.reqHigh, item);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int size() {
+        return this.rep.size;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void clear() {
+        Rep locked = this.lockAll();
+
+        try {
+            freeze(locked);
+            this.createNewRep(1);
+            thaw(locked);
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Inventory newInstance() {
+        return new ConcurrentInventory();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferFrom(Inventory src) {
+        assert src != null : "Violation of: source is not null";
+        assert src != this : "Violation of: source is not this";
+        assert src instanceof ConcurrentInventory : ""
+                + "Violation of: source is of dynamic type ConcurrentInventory";
+
+        ConcurrentInventory localSrc = (ConcurrentInventory) src;
+        Rep mine = this.rep;
+        Rep theirs = localSrc.rep;
+        lockStripes(mine, theirs);
+
+        while (mine != this.rep || theirs != localSrc.rep) {
+            unlockStripes(theirs);
+            unlockStripes(mine);
+            mine = this.rep;
+            theirs = localSrc.rep;
+            lockStripes(mine, theirs);
+        }
+
+        try {
+            freeze(mine);
+            freeze(theirs);
+            this.rep = theirs;
+            localSrc.createNewRep(1);
+            thaw(mine);
+            thaw(theirs);
+        } finally {
+            unlockStripes(theirs);
+            unlockStripes(mine);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The iterator is weakly consistent: each slot is read when
+     * {@code next} reaches it, and changes made meanwhile, by any thread, do
+     * not make it fail.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Iterator<Item> iterator() {
+        return new InventoryIterator();
+    }
+
+    /**
+     * Weakly consistent implementation of {@code Iterator} interface for
+     * {@code ConcurrentInventory}, over the slots of the representation
+     * current when it was created.
+     */
+    private final class InventoryIterator implements Iterator<Item> {
+
+        /** The representation being iterated over. */
+        private final Rep iterated;
+
+        /** The next slot to visit. */
+        private int i;
+
+        /**
+         * Creates a new Iterator.
+         */
+        private InventoryIterator() {
+            this.iterated = ConcurrentInventory.this.rep;
+            this.i = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.i < this.iterated.size;
+        }
+
+        @Override
+        public Item next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Item next = read(this.iterated, this.i);
+            this.i++;
+
+            if (next == null) {
+                next = EMPTY_ITEM;
+            }
+
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package components.inventory;
 
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * {@code InventoryKernel} enhanced with secondary methods.
@@ -112,7 +114,11 @@ public interface Inventory extends InventoryKernel {
 
     /**
      * Moves some of the Items at {@code srcSlot} to the unoccupied slot
-     * {@code destSlot}.
+     * {@code destSlot}. The move is made as one {@code InventoryTransaction},
+     * so if a step of it fails, both Inventories are put back as they were
+     * before the failure is passed on. When both are plain kernels and
+     * {@code this} allows the Item, no step can fail, and the move is made
+     * directly without the transaction and its log.
      *
      * @param src
      *            the Inventory to transfer from
@@ -139,6 +145,66 @@ public interface Inventory extends InventoryKernel {
      */
     void splitItem(Inventory src, int srcSlot, int destSlot, int count);
 
+    /**
+     * Adds {@code items[k]} to {@code this} at {@code slots[k]} for each k,
+     * in order, as that many calls to {@code addItem} would.
+     *
+     * @param slots
+     *            the slots at which to add the Items
+     * @param items
+     *            the Items to add
+     * @updates this
+     *
+     * @requires <pre>
+     * - slots and items are not null and |slots| = |items|
+     *- for each k in order, addItem(slots[k], items[k]) would be a valid
+     *  call after the ones before it
+     *</pre>
+     * @ensures this = #this with addItem(slots[k], items[k]) applied for
+     *          each k, in order
+     *
+     * @aliases this[slots[k]] will be an alias of items[k]
+     */
+    void addItems(int[] slots, Item[] items);
+
+    /**
+     * Removes the Items at {@code slots} from {@code this}, in order, as that
+     * many calls to {@code removeItem} would.
+     *
+     * @param slots
+     *            the slots to remove from
+     * @return the Items removed, in the order of {@code slots}
+     * @updates this
+     *
+     * @requires slots is not null and 0 <= slots[k] < |this| for each k
+     *
+     * @ensures <pre>
+     * - this[slots[k]] = empty for each k
+     *- removeItems[k] = #this[slots[k]] for the first k naming each slot,
+     *  and an empty Item for any later k naming it again
+     *</pre>
+     */
+    ArrayList<Item> removeItems(int[] slots);
+
+    /**
+     * Applies the operations recorded in {@code batch} to {@code this}, in
+     * order, as the matching calls to {@code addItem} and {@code removeItem}
+     * would.
+     *
+     * @param batch
+     *            the operations to apply
+     * @return the Items removed by the removals in {@code batch}, in order
+     * @updates this
+     *
+     * @requires <pre>
+     * - batch is not null
+     *- each operation in batch would be a valid call after the ones
+     *  before it
+     *</pre>
+     * @ensures this = #this with the operations in batch applied in order
+     */
+    ArrayList<Item> applyBatch(InventoryBatch batch);
+
     /**
      * Returns position of the first slot in {@code this} at which {@code item}
      * could be added to {@code this}, or -1 if no such slot exists. The method
@@ -198,6 +264,49 @@ public interface Inventory extends InventoryKernel {
      */
     boolean isAt(int slot, String name);
 
+    /**
+     * Returns position of the first slot in the Inventory at or after
+     * position {@code pos} holding a non-empty Item with tag {@code tag}.
+     *
+     * @param tag
+     *            the tag to look for
+     * @param pos
+     *            the starting position
+     * @return the index of the first such slot, or -1 if there are none
+     *
+     * @requires 0 <= pos < |this|
+     *
+     * @ensures nextIndexWithTag >= 0 iff a non-empty Item with tag
+     *          {@code tag} is in {@code this} at slot pos or higher
+     */
+    int nextIndexWithTag(String tag, int pos);
+
+    /**
+     * Returns a sequential {@code Stream} over the slots of {@code this}, in
+     * order. Empty slots are included as empty Items, which may be shared and
+     * then throw {@code UnsupportedOperationException} if they are changed.
+     *
+     * @return a stream of the Items in {@code this}
+     *
+     * @ensures stream = [this[i] for 0 <= i < |this|]
+     *
+     * @aliases the Items in the slots
+     */
+    Stream<Item> stream();
+
+    /**
+     * Returns a possibly parallel {@code Stream} over the slots of
+     * {@code this}. {@code this} must not be changed while the stream is in
+     * use.
+     *
+     * @return a stream of the Items in {@code this}
+     *
+     * @ensures parallelStream = [this[i] for 0 <= i < |this|]
+     *
+     * @aliases the Items in the slots
+     */
+    Stream<Item> parallelStream();
+
     /** Representation of a single item in the Inventory. */
     interface Item {
 
@@ -287,5 +396,42 @@ public interface Inventory extends InventoryKernel {
          * @ensures tagValue = x
          */
         int tagValue(String tag);
+
+        /**
+         * Returns the count of this Item. Equivalent to
+         * {@code tagValue(Item.COUNT)}, without the tag lookup.
+         *
+         * @return the value of the count tag of {@code this}
+         *
+         * @ensures getCount = this.count
+         */
+        int getCount();
+
+        /**
+         * Sets the count of this Item. Equivalent to
+         * {@code putTag(Item.COUNT, count)}, without the tag lookup.
+         *
+         * @param count
+         *            the new count
+         *
+         * @updates this
+         *
+         * @ensures this.count = count
+         */
+        void setCount(int count);
+
+        /**
+         * Adds {@code delta} to the count of this Item and returns the new
+         * count.
+         *
+         * @param delta
+         *            the amount to add, which may be negative
+         * @return the new count of {@code this}
+         *
+         * @updates this
+         *
+         * @ensures this.count = #this.count + delta and addCount = this.count
+         */
+        int addCount(int delta);
     }
 }
@@ -1,47 +1,520 @@
 package components.inventory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 /**
- * Implementation of Inventory on Array and Set.
+ * Implementation of Inventory on chunked Array, with a name index on ArrayList
+ * and an occupancy bitmap on long[]. Item names are indexed by their id in
+ * {@code SymbolTable.NAMES}, each to a {@code SlotSet} of the slots holding
+ * it. Restrictions are compiled to a bitmask over tag ids in
+ * {@code SymbolTable.TAGS}, so checking a {@code BasicItem} against them is
+ * a single mask test when every restricted tag id is below 64. A
+ * {@code TagIndex} maps tag ids to the slots carrying them, so
+ * {@code restrict} only visits the slots that lack the tag. Empty slots are
+ * stored as null, and a fresh empty Item is only created when one is handed
+ * out. A lazy Inventory1
+ * only allocates a chunk of slots once an Item is added to it, and releases
+ * the chunk again once it is empty. {@code snapshot} shares the chunks with
+ * an {@code InventorySnapshot}, and a shared chunk is copied for the
+ * snapshots just before it, or an Item in it, first changes. Storage may be
+ * allocated for more slots than {@code this} has, so {@code resize} can grow
+ * it in place most of the time; the spare slots are always empty.
  *
  * @convention <pre>
- * |$this.slots| > 0 and
- * for all 0 <= i < |$this.slots|:
- *  [$this.slots[i] is defined and is not null] and
- *  [if $this.slots[i] is not an empty Item, it has all the entries in this.reqs as tags]
+ * 0 < $this.size <= $this.capacity <= MAX_CAPACITY and
+ * |$this.slots| = ceiling($this.capacity / CHUNK_SIZE) and
+ * for all 0 <= c < |$this.slots|:
+ *  [$this.slots[c] is null or
+ *   |$this.slots[c]| = min(CHUNK_SIZE, $this.capacity - c * CHUNK_SIZE)] and
+ *  [if not $this.lazy, $this.slots[c] is not null]
+ * and
+ * where SLOT(i) = ($this.slots[i / CHUNK_SIZE] is null ? null :
+ *                  $this.slots[i / CHUNK_SIZE][i mod CHUNK_SIZE]),
+ * for all $this.size <= i < $this.capacity: [SLOT(i) is null]
+ * and
+ * for all 0 <= i < $this.size:
+ *  [SLOT(i) is null or SLOT(i) is not an empty Item] and
+ *  [if SLOT(i) is not null, it has all the entries in this.restrictions as
+ *   tags]
+ * and
+ * for all names n != Item.EMPTY_NAME, where id = SymbolTable.NAMES id of n:
+ *  [$this.index[id] is defined and not null iff there is a slot i with
+ *   SLOT(i).name = n] and
+ *  [if $this.index[id] is not null, $this.index[id] = {i : SLOT(i).name = n}]
+ * and
+ * |$this.occupied| = ceiling($this.capacity / 64) and
+ * for all 0 <= i < $this.size:
+ *  [bit (i mod 64) of $this.occupied[i / 64] is set iff SLOT(i) is not null]
+ * and
+ * all bits of $this.occupied at positions >= $this.size are clear
+ * and
+ * $this.reqHigh is sorted in ascending order, with no duplicates, and all its
+ * entries are >= 64
+ * and
+ * for all 0 <= i < $this.size where SLOT(i) is not null:
+ *  [bit i of $this.tags.unwatched is set iff SLOT(i) is not watched by
+ *   $this.tags] and
+ *  [if SLOT(i) is watched by $this.tags, bit i of $this.tags.tagged(t) is
+ *   set iff SLOT(i) has the tag with id t != id of Item.COUNT]
+ * and
+ * $this.tags reports changing Items to $this.itemChanging
+ * and
+ * if $this.shared is not null, |$this.shared| = |$this.slots| and
+ * for all 0 <= c < |$this.slots| where $this.shared[c] is not null:
+ *  [$this.shared[c].items is $this.slots[c]] and
+ *  [no Item in $this.slots[c] is unwatched]
  * </pre>
  *
  * @correspondence <pre>
- *  this = [the Items in $this.slots]
+ *  this = [SLOT(i) for 0 <= i < $this.size, with an empty Item for each null]
+ *  this.restrictions = {SymbolTable.TAGS.symbol(t) :
+ *                       bit t of $this.reqBits is set or t is in $this.reqHigh}
  *</pre>
  *
  * @author David Stuckey
  */
 public class Inventory1 extends InventorySecondary {
 
-    /** The primary representation variable: the slots of this. */
-    private Item[] slots;
+    /** log2 of the number of slots in each chunk. */
+    static final int CHUNK_BITS = 10;
 
-    /** The requirements for an Item to be added to this. */
-    private Set<String> reqs;
+    /** The number of slots in each chunk. */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /** Mask for the position of a slot within its chunk. */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** The most slots storage is ever allocated for. */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - CHUNK_SIZE;
+
+    /**
+     * Storage is given back once at most one in this many allocated slots is
+     * in use.
+     */
+    private static final int SHRINK_RATIO = 4;
+
+    /** The primary representation variable: the slots of this, by chunk. */
+    private Item[][] slots;
+
+    /** The number of slots in this. */
+    private int size;
+
+    /** The number of slots storage is allocated for. */
+    private int capacity;
+
+    /** Whether chunks are only allocated once they hold an Item. */
+    private boolean lazy;
+
+    /**
+     * The requirements for an Item to be added to this: bit t is set iff the
+     * tag with id t < 64 is required.
+     */
+    private long reqBits;
+
+    /** The ids of required tags that are too large for {@code reqBits}. */
+    private int[] reqHigh;
+
+    /**
+     * The slots holding each non-empty Item name in this, in order, by name
+     * id. Entries for names not in this are null or missing.
+     */
+    private ArrayList<SlotSet> index;
+
+    /** One bit per slot, set when that slot holds a non-empty Item. */
+    private long[] occupied;
+
+    /** The slots carrying each tag. */
+    private TagIndex tags;
+
+    /**
+     * The number of times the slots of this have been changed, so iterators
+     * can detect changes made behind their backs.
+     */
+    private int modCount;
+
+    /**
+     * The chunk views shared with snapshots, by chunk, or null if none has
+     * been taken; an entry is null once its chunk is no longer shared.
+     */
+    private InventorySnapshot.Chunk[] shared;
 
     /**
      * Creates initial representation.
      *
      * @param size
      *            - the number of slots this will have
+     * @param lazy
+     *            - whether chunks are allocated on first write only
+     */
+    private void createNewRep(int size, boolean lazy) {
+        this.size = size;
+        this.capacity = size;
+        this.lazy = lazy;
+        this.slots = new Item[(size + CHUNK_SIZE - 1) >>> CHUNK_BITS][];
+
+        if (!lazy) {
+            for (int c = 0; c < this.slots.length; c++) {
+                this.slots[c] = this.newChunk(c);
+            }
+        }
+
+        this.reqBits = 0;
+        this.reqHigh = new int[0];
+        this.index = new ArrayList<SlotSet>();
+        this.occupied = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        this.tags = new TagIndex(size);
+        this.tags.setChangeListener(this::itemChanging);
+        this.shared = null;
+    }
+
+    /**
+     * Allocates the array backing chunk {@code c}.
+     *
+     * @param c
+     *            the chunk to allocate
+     * @return an array of null slots with the length of chunk {@code c}
+     */
+    private Item[] newChunk(int c) {
+        return new Item[this.chunkLength(c, this.capacity)];
+    }
+
+    /**
+     * Returns the length of chunk {@code c} when storage is allocated for
+     * {@code capacity} slots.
+     *
+     * @param c
+     *            the chunk
+     * @param capacity
+     *            the number of slots allocated
+     * @return the number of slots in chunk {@code c}
+     */
+    private int chunkLength(int c, int capacity) {
+        return Math.min(CHUNK_SIZE, capacity - (c << CHUNK_BITS));
+    }
+
+    /**
+     * Moves the slots of this into storage for {@code newCapacity} slots.
+     * Chunks past the new capacity are dropped, the last chunk kept is
+     * copied if its length changes, and new chunks are allocated unless this
+     * is lazy. The occupancy bitmap and tag index are resized to match; the
+     * name index and restrictions do not depend on the capacity.
+     *
+     * @param newCapacity
+     *            the number of slots to allocate
+     */
+    private void reallocate(int newCapacity) {
+        int chunks = (newCapacity + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+        int kept = Math.min(chunks, this.slots.length);
+        int last = kept - 1;
+        int length = this.chunkLength(last, newCapacity);
+
+        if (this.slots[last] != null && this.slots[last].length != length) {
+            this.unshare(last);
+            this.slots[last] = Arrays.copyOf(this.slots[last], length);
+        }
+
+        this.capacity = newCapacity;
+        this.slots = Arrays.copyOf(this.slots, chunks);
+
+        if (this.shared != null) {
+            this.shared = Arrays.copyOf(this.shared, chunks);
+        }
+
+        for (int c = kept; !this.lazy && c < chunks; c++) {
+            this.slots[c] = this.newChunk(c);
+        }
+
+        this.occupied = Arrays.copyOf(this.occupied,
+                (newCapacity + Long.SIZE - 1) / Long.SIZE);
+        this.tags.resize(newCapacity);
+    }
+
+    /**
+     * Returns whether every slot from {@code pos} on is empty.
+     *
+     * @param pos
+     *            the first slot to check
+     * @return true if no Item is at a slot {@code >= pos}
+     *
+     * @requires 0 <= pos < $this.capacity
+     */
+    private boolean emptyFrom(int pos) {
+        int w = pos / Long.SIZE;
+        boolean empty = (this.occupied[w] & (-1L << pos)) == 0;
+
+        for (w++; empty && w < this.occupied.length; w++) {
+            empty = this.occupied[w] == 0;
+        }
+
+        return empty;
+    }
+
+    /**
+     * Returns the Item stored at {@code slot}, or null if it is empty.
+     *
+     * @param slot
+     *            the slot to read
+     * @return the Item at {@code slot}, or null
+     */
+    private Item slotAt(int slot) {
+        Item[] chunk = this.slots[slot >>> CHUNK_BITS];
+
+        Item item = null;
+
+        if (chunk != null) {
+            item = chunk[slot & CHUNK_MASK];
+        }
+
+        return item;
+    }
+
+    /**
+     * Stores {@code item} at {@code slot}, allocating or releasing its chunk
+     * as needed. The occupancy bitmap must already reflect the new state.
+     *
+     * @param slot
+     *            the slot to write
+     * @param item
+     *            the Item to store, or null to empty the slot
+     */
+    private void setSlot(int slot, Item item) {
+        int c = slot >>> CHUNK_BITS;
+        this.unshare(c);
+
+        if (this.slots[c] == null) {
+            this.slots[c] = this.newChunk(c);
+        }
+
+        this.slots[c][slot & CHUNK_MASK] = item;
+
+        if (item == null && this.lazy) {
+            int first = (c << CHUNK_BITS) / Long.SIZE;
+            int last = Math.min(first + CHUNK_SIZE / Long.SIZE,
+                    this.occupied.length);
+            boolean unused = true;
+
+            for (int w = first; unused && w < last; w++) {
+                unused = this.occupied[w] == 0;
+            }
+
+            if (unused) {
+                this.slots[c] = null;
+            }
+        }
+    }
+
+    /**
+     * Hands chunk {@code c} over to the snapshots sharing it, if any, so that
+     * it can be changed. The snapshots get their own copy of it and of its
+     * Items.
+     *
+     * @param c
+     *            the chunk about to change
+     */
+    private void unshare(int c) {
+        if (this.shared != null && this.shared[c] != null) {
+            this.shared[c].detach();
+            this.shared[c] = null;
+        }
+    }
+
+    /**
+     * Hands every chunk over to the snapshots sharing it.
+     */
+    private void unshareAll() {
+        if (this.shared != null) {
+            for (int c = 0; c < this.shared.length; c++) {
+                this.unshare(c);
+            }
+        }
+    }
+
+    /**
+     * Stops {@code this.tags} watching every Item in {@code this}, so that
+     * Items left behind when the representation is replaced no longer report
+     * their changes to it.
+     */
+    private void unwatchAll() {
+        for (int w = 0; w < this.occupied.length; w++) {
+            long bits = this.occupied[w];
+
+            while (bits != 0) {
+                int i = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                this.tags.remove(i, this.slotAt(i));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Called before the Item at {@code slot} changes through an alias.
+     *
+     * @param slot
+     *            the slot of the changing Item
+     */
+    private void itemChanging(int slot) {
+        this.unshare(slot >>> CHUNK_BITS);
+    }
+
+    /**
+     * Returns the id of the name of {@code item} in {@code SymbolTable.NAMES}.
+     *
+     * @param item
+     *            the Item
+     * @return the id of {@code item.name}
      */
-    private void createNewRep(int size) {
-        this.slots = new Item[size];
-        this.reqs = new HashSet<String>();
+    private static int nameIdOf(Item item) {
+        int id;
 
-        for (int i = 0; i < size; i++) {
-            this.slots[i] = new BasicItem();
+        if (item instanceof BasicItem) {
+            id = ((BasicItem) item).nameId();
+        } else {
+            id = SymbolTable.NAMES.intern(item.getName());
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns whether {@code item} has the tag with id {@code t} in
+     * {@code SymbolTable.TAGS}.
+     *
+     * @param item
+     *            the Item
+     * @param t
+     *            the tag id
+     * @return true if {@code item} has that tag
+     */
+    private static boolean hasTagId(Item item, int t) {
+        boolean has;
+
+        if (item instanceof BasicItem) {
+            has = ((BasicItem) item).hasTagId(t);
+        } else {
+            has = item.hasTag(SymbolTable.TAGS.symbol(t));
+        }
+
+        return has;
+    }
+
+    /**
+     * Returns whether {@code item} has every tag required by
+     * {@code reqBits} and {@code reqHigh}.
+     *
+     * @param reqBits
+     *            bit t is set iff the tag with id t < 64 is required
+     * @param reqHigh
+     *            the ids of the other required tags
+     * @param item
+     *            the Item to check
+     * @return true if {@code item} is empty or has every required tag
+     */
+    static boolean allows(long reqBits, int[] reqHigh, Item item) {
+        boolean allow = true;
+
+        if (item instanceof BasicItem && !item.isEmpty()) {
+            BasicItem basic = (BasicItem) item;
+            allow = (basic.tagBits() & reqBits) == reqBits;
+
+            for (int k = 0; allow && k < reqHigh.length; k++) {
+                allow = basic.hasTagId(reqHigh[k]);
+            }
+
+        } else if (!item.isEmpty()) {
+            long bits = reqBits;
+
+            while (allow && bits != 0) {
+                allow = item.hasTag(SymbolTable.TAGS
+                        .symbol(Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+
+            for (int k = 0; allow && k < reqHigh.length; k++) {
+                allow = item.hasTag(SymbolTable.TAGS.symbol(reqHigh[k]));
+            }
+        }
+
+        return allow;
+    }
+
+    /**
+     * Returns the slots holding the Item with name id {@code id}, or null if
+     * there are none.
+     *
+     * @param id
+     *            the name id
+     * @return the indexed slots, or null
+     */
+    private SlotSet indexed(int id) {
+        SlotSet named = null;
+
+        if (id < this.index.size()) {
+            named = this.index.get(id);
+        }
+
+        return named;
+    }
+
+    /**
+     * Records that the non-empty Item {@code item} now occupies {@code slot}.
+     *
+     * @param slot
+     *            the slot it was placed at
+     * @param item
+     *            the Item placed
+     */
+    private void indexSlot(int slot, Item item) {
+        int id = nameIdOf(item);
+
+        this.occupied[slot / Long.SIZE] |= 1L << slot;
+        this.tags.add(slot, item);
+
+        while (this.index.size() <= id) {
+            this.index.add(null);
+        }
+
+        SlotSet named = this.index.get(id);
+
+        if (named == null) {
+            named = new SlotSet();
+            this.index.set(id, named);
+        }
+
+        named.add(slot);
+    }
+
+    /**
+     * Records that the non-empty Item {@code item} no longer occupies
+     * {@code slot}.
+     *
+     * @param slot
+     *            the slot it was removed from
+     * @param item
+     *            the Item removed
+     */
+    private void unindexSlot(int slot, Item item) {
+        this.occupied[slot / Long.SIZE] &= ~(1L << slot);
+        this.tags.remove(slot, item);
+
+        int id = nameIdOf(item);
+        SlotSet named = this.index.get(id);
+        named.remove(slot);
+
+        if (named.isEmpty()) {
+            this.index.set(id, null);
         }
     }
 
@@ -49,7 +522,7 @@ public class Inventory1 extends InventorySecondary {
      * Creates a new Inventory with a single slot.
      */
     public Inventory1() {
-        this.createNewRep(1);
+        this.createNewRep(1, false);
     }
 
     /**
@@ -61,37 +534,68 @@ public class Inventory1 extends InventorySecondary {
      * @requires size > 0
      */
     public Inventory1(int size) {
+        this(size, false);
+    }
+
+    /**
+     * Create a new Inventory with one or more slots, optionally deferring the
+     * allocation of slot storage until Items are added. A lazy Inventory1 is
+     * cheap to construct and its memory use grows with the number of occupied
+     * slots rather than with {@code size}, which suits large, mostly empty
+     * Inventories.
+     *
+     * @param size
+     *            the number of slots this will have
+     * @param lazy
+     *            whether slot storage is allocated only on first write
+     *
+     * @requires size > 0
+     */
+    public Inventory1(int size, boolean lazy) {
         assert size > 0 : "Violation of size > 0";
 
-        this.createNewRep(size);
+        this.createNewRep(size, lazy);
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public void addItem(int slot, Item item) {
         assert 0 <= slot : "Violation of 0 <= slot";
-        assert slot < this.slots.length : "Violation of slot < |this|";
+        assert slot < this.size : "Violation of slot < |this|";
         assert item != null : "Violation of item is not null";
-        assert this.slots[slot].isEmpty() || this.slots[slot].getName().equals(
-                item.getName()) : "Violation of slot is empty or has Item with same name";
+        assert this.slotAt(slot) == null || nameIdOf(
+                this.slotAt(slot)) == nameIdOf(item) : "Violation of slot is empty or has Item with same name";
         assert this.isAllowed(item) : "Violation of isAllowed(item)";
 
-        Item dest = this.slots[slot];
+        Item dest = this.slotAt(slot);
+        this.modCount++;
 
-        if (dest.getName().equals(item.getName())) {
-            dest.putTag(Item.COUNT,
-                    dest.tagValue(Item.COUNT) + item.tagValue(Item.COUNT));
+        if (dest != null) {
+            this.unshare(slot >>> CHUNK_BITS);
+            dest.addCount(item.getCount());
 
-            for (String tag : item.getTags().keySet()) {
+            if (dest instanceof BasicItem && item instanceof BasicItem) {
+                BasicItem from = (BasicItem) item;
 
-                if (!tag.equals(Item.COUNT)) {
-                    dest.putTag(tag, item.tagValue(tag));
+                for (int k = 0; k < from.tagCount(); k++) {
+                    ((BasicItem) dest).putTagId(from.tagIdAt(k),
+                            from.tagValueAt(k));
                 }
 
+            } else {
+
+                for (String tag : item.getTags().keySet()) {
+
+                    if (!tag.equals(Item.COUNT)) {
+                        dest.putTag(tag, item.tagValue(tag));
+                    }
+
+                }
             }
 
-        } else {
-            this.slots[slot] = item;
+        } else if (!item.isEmpty()) {
+            this.indexSlot(slot, item);
+            this.setSlot(slot, item);
         }
     }
 
@@ -99,29 +603,67 @@ public class Inventory1 extends InventorySecondary {
     @Override
     public Item removeItem(int slot) {
         assert 0 <= slot : "Violation of 0 <= slot";
-        assert slot < this.slots.length : "Violation of slot < |this|";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item removed = this.slotAt(slot);
 
-        Item removed = this.slots[slot];
-        this.slots[slot] = new BasicItem();
+        if (removed == null) {
+            removed = new BasicItem();
+        } else {
+            this.modCount++;
+            this.unindexSlot(slot, removed);
+            this.setSlot(slot, null);
+        }
 
         return removed;
     }
 
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item item = this.slotAt(slot);
+
+        if (item == null) {
+            item = EMPTY_ITEM;
+        }
+
+        return item;
+    }
+
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public ArrayList<Item> restrict(String tag) {
-        if (!this.reqs.contains(tag)) {
-            this.reqs.add(tag);
+        int t = SymbolTable.TAGS.intern(tag);
+
+        if (t < Long.SIZE) {
+            this.reqBits |= 1L << t;
+        } else if (Arrays.binarySearch(this.reqHigh, t) < 0) {
+            this.reqHigh = Arrays.copyOf(this.reqHigh, this.reqHigh.length + 1);
+            this.reqHigh[this.reqHigh.length - 1] = t;
+            Arrays.sort(this.reqHigh);
         }
 
         ArrayList<Item> removed = new ArrayList<>();
 
-        for (int i = 0; i < this.slots.length; i++) {
+        for (int w = 0; w < this.occupied.length; w++) {
+            long suspects = this.occupied[w]
+                    & (~this.tags.tagged(t, w) | this.tags.unwatched(w));
+
+            while (suspects != 0) {
+                int i = w * Long.SIZE + Long.numberOfTrailingZeros(suspects);
+                Item item = this.slotAt(i);
 
-            if (!this.slots[i].hasTag(tag) && !this.slots[i].isEmpty()) {
+                if (!hasTagId(item, t)) {
+                    this.modCount++;
+                    removed.add(item);
+                    this.unindexSlot(i, item);
+                    this.setSlot(i, null);
+                }
 
-                removed.add(this.slots[i]);
-                this.slots[i] = new BasicItem();
+                suspects &= suspects - 1;
             }
         }
 
@@ -131,7 +673,8 @@ public class Inventory1 extends InventorySecondary {
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public void freeRestrictions() {
-        this.reqs = new HashSet<>();
+        this.reqBits = 0;
+        this.reqHigh = new int[0];
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -139,52 +682,229 @@ public class Inventory1 extends InventorySecondary {
     public boolean isAllowed(Item item) {
         assert item != null : "Violation of item is not null";
 
-        boolean allow = true;
+        return allows(this.reqBits, this.reqHigh, item);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
 
-        for (String t : this.reqs) {
-            if (!item.hasTag(t)) {
-                allow = false;
+        int next = -1;
+        int id = SymbolTable.NAMES.idOf(name);
+
+        if (id == 0) {
+            next = this.nextEmptySlot(pos);
+        } else if (id != SymbolTable.NO_ID) {
+            SlotSet named = this.indexed(id);
+
+            if (named != null) {
+                next = named.ceiling(pos);
             }
         }
 
-        if (item.getName().equals(Item.EMPTY_NAME)) {
-            allow = true;
+        return next;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexWithTag(String tag, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+        int t = SymbolTable.TAGS.idOf(tag);
+
+        if (t != SymbolTable.NO_ID) {
+            long mask = -1L << pos;
+
+            for (int w = pos / Long.SIZE; next < 0
+                    && w < this.occupied.length; w++) {
+                long found = this.occupied[w] & mask
+                        & (this.tags.tagged(t, w) | this.tags.unwatched(w));
+
+                while (next < 0 && found != 0) {
+                    int i = w * Long.SIZE + Long.numberOfTrailingZeros(found);
+
+                    if (hasTagId(this.slotAt(i), t)) {
+                        next = i;
+                    }
+
+                    found &= found - 1;
+                }
+
+                mask = -1L;
+            }
         }
 
-        return allow;
+        return next;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
-    public int nextIndexOf(String name, int pos) {
+    public int nextEmptySlot(int pos) {
         assert 0 <= pos : "Violation of 0 <= pos";
-        assert pos < this.slots.length : "Violation of pos < |this|";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+        int w = pos / Long.SIZE;
+        long free = ~this.occupied[w] & (-1L << pos);
 
-        int i = pos;
-        boolean hasItem = false;
+        while (free == 0 && w < this.occupied.length - 1) {
+            w++;
+            free = ~this.occupied[w];
+        }
 
-        while (!hasItem && i < this.slots.length) {
-            hasItem = this.slots[i].getName().equals(name);
-            i++;
+        if (free != 0) {
+            next = w * Long.SIZE + Long.numberOfTrailingZeros(free);
         }
 
-        if (!hasItem) {
-            i = 0;
+        if (next >= this.size) {
+            next = -1;
         }
 
-        return i - 1;
+        return next;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public int size() {
-        return this.slots.length;
+        return this.size;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public void clear() {
-        this.createNewRep(1);
+        this.unshareAll();
+        this.unwatchAll();
+        this.createNewRep(1, false);
+        this.modCount++;
+    }
+
+    /**
+     * Empties every slot of {@code this} and frees its restrictions, like
+     * {@code clear()}, but if {@code keepCapacity} keeps the number of slots
+     * and the storage already allocated for them, so that refilling
+     * {@code this} allocates nothing. The cost is proportional to the number
+     * of Items removed plus {@code |this| / 64}.
+     *
+     * @param keepCapacity
+     *            whether to keep the slots and their storage
+     *
+     * @clears this.restrictions
+     *
+     * @ensures <pre>
+     * if keepCapacity
+     *  then |this| = |#this| and every slot of this is empty
+     *  else this = [empty Item]
+     * </pre>
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void clear(boolean keepCapacity) {
+        if (!keepCapacity) {
+            this.clear();
+        } else {
+            this.unshareAll();
+
+            for (int w = 0; w < this.occupied.length; w++) {
+                long bits = this.occupied[w];
+
+                while (bits != 0) {
+                    int i = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                    this.tags.remove(i, this.slotAt(i));
+                    this.slots[i >>> CHUNK_BITS][i & CHUNK_MASK] = null;
+                    bits &= bits - 1;
+                }
+
+                this.occupied[w] = 0;
+            }
+
+            this.reqBits = 0;
+            this.reqHigh = new int[0];
+            this.index = new ArrayList<SlotSet>();
+            this.modCount++;
+        }
+    }
+
+    /**
+     * Returns the number of slots {@code this} has storage for, which is
+     * never less than {@code |this|}.
+     *
+     * @return the capacity of {@code this}
+     *
+     * @ensures capacity >= |this|
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Makes sure {@code this} has storage for at least {@code minCapacity}
+     * slots, so that growing it to that many slots with {@code resize}
+     * reallocates nothing. When it must grow, the capacity grows by at least
+     * half, so a run of growing calls costs amortized constant time per slot
+     * added. A lazy Inventory1 still allocates its slots only as they fill.
+     *
+     * @param minCapacity
+     *            the number of slots to make room for
+     *
+     * @requires minCapacity <= Integer.MAX_VALUE - 2^CHUNK_BITS
+     *
+     * @ensures this = #this and capacity() >= minCapacity
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void ensureCapacity(int minCapacity) {
+        assert minCapacity <= MAX_CAPACITY : ""
+                + "Violation of minCapacity <= "
+                + "Integer.MAX_VALUE - 2^CHUNK_BITS";
+
+        if (minCapacity > this.capacity) {
+            long grown = this.capacity + (long) (this.capacity / 2);
+
+            this.reallocate(
+                    (int) Math.max(minCapacity, Math.min(grown, MAX_CAPACITY)));
+        }
+    }
+
+    /**
+     * Changes the number of slots in {@code this} to {@code newSize}. The
+     * Items, restrictions and indexes of {@code this} are kept as they are;
+     * new slots are empty. Growing past the capacity grows it as
+     * {@code ensureCapacity} does, and shrinking to a quarter of the
+     * capacity or less gives back storage down to twice the new size, so
+     * growing and shrinking by turns never reallocates on every call.
+     *
+     * @param newSize
+     *            the number of slots this will have
+     *
+     * @updates this
+     *
+     * @requires <pre>
+     * 0 < newSize <= Integer.MAX_VALUE - 2^CHUNK_BITS and
+     * every slot of this at or after newSize is empty
+     * </pre>
+     *
+     * @ensures |this| = newSize and
+     *          this[0, min(newSize, |#this|)) = #this[0, min(newSize, |#this|))
+     *          and every slot of this at or after |#this| is empty
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void resize(int newSize) {
+        assert newSize > 0 : "Violation of newSize > 0";
+        assert newSize >= this.size || this.emptyFrom(newSize) : ""
+                + "Violation of every slot of this at or after newSize "
+                + "is empty";
+
+        if (newSize > this.capacity) {
+            this.ensureCapacity(newSize);
+        } else if (newSize <= this.capacity / SHRINK_RATIO) {
+            this.reallocate(2 * newSize);
+        }
+
+        this.size = newSize;
+        this.modCount++;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -203,18 +923,299 @@ public class Inventory1 extends InventorySecondary {
 
         Inventory1 localSrc = (Inventory1) src;
 
-        this.reqs = localSrc.reqs;
+        this.unshareAll();
+        this.unwatchAll();
+        this.reqBits = localSrc.reqBits;
+        this.reqHigh = localSrc.reqHigh;
         this.slots = localSrc.slots;
+        this.size = localSrc.size;
+        this.capacity = localSrc.capacity;
+        this.lazy = localSrc.lazy;
+        this.index = localSrc.index;
+        this.occupied = localSrc.occupied;
+        this.tags = localSrc.tags;
+        this.tags.setChangeListener(this::itemChanging);
+        this.shared = localSrc.shared;
+        this.modCount++;
+
+        localSrc.createNewRep(1, false);
+        localSrc.modCount++;
+    }
+
+    /**
+     * Returns an immutable view of {@code this} as it is now. The view shares
+     * its slots and Items with {@code this} until they change, so taking it
+     * costs one small object per chunk of slots, and each later change to
+     * {@code this}, including changes to its Items through aliases, copies
+     * at most one chunk. Chunks holding Items whose changes {@code this}
+     * cannot observe (any Item that is not a {@code BasicItem}, or one that
+     * sits in another Inventory1 as well) are copied straight away. The view
+     * is consistent for code that reads it between changes to {@code this};
+     * reading it from another thread while {@code this} changes needs the
+     * same synchronization as reading {@code this}.
+     *
+     * @return a snapshot of {@code this}
+     *
+     * @ensures snapshot = this and snapshot.restrictions = this.restrictions
+     *          and snapshot can not be changed
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public Inventory snapshot() {
+        if (this.shared == null) {
+            this.shared = new InventorySnapshot.Chunk[this.slots.length];
+        }
+
+        InventorySnapshot.Chunk[] chunks =
+                new InventorySnapshot.Chunk[this.slots.length];
+        final int chunkWords = CHUNK_SIZE / Long.SIZE;
+
+        for (int c = 0; c < this.slots.length; c++) {
+            boolean watched = true;
+
+            if (this.shared[c] == null) {
+                this.shared[c] = new InventorySnapshot.Chunk(this.slots[c]);
+
+                int last = Math.min((c + 1) * chunkWords,
+                        this.occupied.length);
+
+                for (int w = c * chunkWords; watched && w < last; w++) {
+                    watched = this.tags.unwatched(w) == 0;
+                }
+            }
+
+            chunks[c] = this.shared[c];
+
+            if (!watched) {
+                this.unshare(c);
+            }
+        }
+
+        return new InventorySnapshot(this.size, chunks, this.reqBits,
+                this.reqHigh);
+    }
+
+    /**
+     * Writes {@code this}, including its restrictions, to {@code out} in the
+     * binary format of {@code InventoryFormat}: a versioned header, then each
+     * non-empty slot with names and tags dictionary encoded and numbers as
+     * varints. Runs of empty slots take a byte or two, and memory use does not
+     * grow with the size of {@code this}. {@code out} is flushed but left
+     * open.
+     *
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if {@code out} cannot be written
+     *
+     * @requires out is not null
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void writeTo(OutputStream out) throws IOException {
+        assert out != null : "Violation of out is not null";
+
+        int[] restrictions = new int[Long.bitCount(this.reqBits)
+                + this.reqHigh.length];
+        long bits = this.reqBits;
+        int k = 0;
+
+        while (bits != 0) {
+            restrictions[k] = Long.numberOfTrailingZeros(bits);
+            k++;
+            bits &= bits - 1;
+        }
+
+        System.arraycopy(this.reqHigh, 0, restrictions, k,
+                this.reqHigh.length);
+
+        InventoryFormat.Writer writer = new InventoryFormat.Writer(out);
+        writer.writeHeader(this.size, restrictions);
+
+        for (int i = 0; i < this.size; i++) {
+            writer.writeItem(this.peekItem(i));
+        }
+
+        writer.finish();
+    }
+
+    /**
+     * Writes {@code this} to {@code out}, as {@code writeTo(OutputStream)}
+     * does.
+     *
+     * @param out
+     *            the channel to write to
+     * @throws IOException
+     *             if {@code out} cannot be written
+     *
+     * @requires out is not null
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void writeTo(WritableByteChannel out) throws IOException {
+        assert out != null : "Violation of out is not null";
+
+        this.writeTo(Channels.newOutputStream(out));
+    }
+
+    /**
+     * Reads the Inventory in {@code reader} into a new Inventory1, lazy if
+     * {@code lazy}. The whole stream is read and checked before storage is
+     * allocated for the number of slots its header gives, so a stream that
+     * is cut short or malformed fails without allocating for a size it only
+     * claims.
+     *
+     * @param reader
+     *            the reader to take the Inventory from
+     * @param lazy
+     *            whether the new Inventory1 is lazy
+     * @return the Inventory read
+     * @throws IOException
+     *             if the input cannot be read or does not hold an Inventory
+     */
+    private static Inventory1 read(InventoryFormat.Reader reader, boolean lazy)
+            throws IOException {
+        int size = reader.readHeader();
+
+        if (size > MAX_CAPACITY) {
+            throw new IOException("Inventory size " + size
+                    + " is above the most an Inventory1 can hold");
+        }
+
+        String[] restrictions = reader.readRestrictions();
+        ArrayList<Item> items = new ArrayList<>();
+        int[] slots = new int[Long.SIZE];
+        Item item = reader.readItem();
+
+        while (item != null) {
+            if (items.size() == slots.length) {
+                slots = Arrays.copyOf(slots, 2 * slots.length);
+            }
+
+            slots[items.size()] = reader.slot();
+            items.add(item);
+            item = reader.readItem();
+        }
+
+        reader.finish();
+
+        Inventory1 read = new Inventory1(size, lazy);
 
-        localSrc.createNewRep(1);
+        for (String tag : restrictions) {
+            read.restrict(tag);
+        }
+
+        for (int k = 0; k < items.size(); k++) {
+            if (!read.isAllowed(items.get(k))) {
+                throw new IOException(
+                        "Item breaks a restriction: " + items.get(k));
+            }
+
+            read.addItem(slots[k], items.get(k));
+        }
+
+        return read;
     }
 
+    /**
+     * Replaces {@code this} with the Inventory read from {@code in}, as
+     * written by {@code writeTo}. Whether {@code this} is lazy is kept. No
+     * byte after the end of the Inventory is consumed, so another stream may
+     * follow it in {@code in}. The Inventory is read into new storage, which
+     * is only allocated once the whole stream has been read and checked, so
+     * if the input is not a valid Inventory, {@code this} is left unchanged.
+     *
+     * <p>
+     * Because no byte past the end may be consumed, a stream that does not
+     * support {@code mark} is read with one call to {@code read} per byte.
+     * On a raw {@code FileInputStream} or socket stream that is a system
+     * call per byte, orders of magnitude slower than reading in blocks; wrap
+     * such a stream in a {@code BufferedInputStream}, or use
+     * {@code readFrom(ReadableByteChannel)} with a {@code FileChannel},
+     * before reading anything but a small Inventory.
+     *
+     * @param in
+     *            the stream to read from
+     * @throws IOException
+     *             if {@code in} cannot be read or does not hold an Inventory
+     *
+     * @replaces this
+     *
+     * @requires in is not null
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void readFrom(InputStream in) throws IOException {
+        assert in != null : "Violation of in is not null";
+
+        Inventory1 read = read(new InventoryFormat.Reader(in), this.lazy);
+
+        this.clear();
+        this.transferFrom(read);
+    }
+
+    /**
+     * Replaces {@code this} with the Inventory read from {@code in}, as
+     * {@code readFrom(InputStream)} does. A {@code SeekableByteChannel} is
+     * read in blocks and then positioned just after the Inventory; any other
+     * channel is read one byte at a time.
+     *
+     * @param in
+     *            the channel to read from
+     * @throws IOException
+     *             if {@code in} cannot be read or does not hold an Inventory
+     *
+     * @replaces this
+     *
+     * @requires in is not null
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void readFrom(ReadableByteChannel in) throws IOException {
+        assert in != null : "Violation of in is not null";
+
+        if (in instanceof SeekableByteChannel) {
+            SeekableByteChannel channel = (SeekableByteChannel) in;
+            long start = channel.position();
+            InventoryFormat.Reader reader = new InventoryFormat.Reader(
+                    Channels.newInputStream(channel), channel.size() - start);
+            Inventory1 read = read(reader, this.lazy);
+
+            channel.position(start + reader.consumed());
+            this.clear();
+            this.transferFrom(read);
+        } else {
+            this.readFrom(Channels.newInputStream(in));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The iterator reads the slots directly, as {@code peekItem} does, so it
+     * allocates nothing and changes nothing; empty slots yield a shared empty
+     * Item. Adding or removing Items other than through the iterator while it
+     * is in use makes its next call to {@code next} throw
+     * {@code ConcurrentModificationException}.
+     */
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public Iterator<Item> iterator() {
         return new InventoryIterator();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The spliterator reads the slots directly and splits its range in half,
+     * so parallel streams over a large Inventory1 share the work evenly. Like
+     * the iterator, it yields a shared empty Item for empty slots and fails
+     * with {@code ConcurrentModificationException} if Items are added or
+     * removed while it is in use.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Spliterator<Item> spliterator() {
+        return new SlotSpliterator(0, this.size, this.modCount);
+    }
+
     /**
      * Implementation of {@code Iterator} interface for {@code Inventory1}.
      */
@@ -223,11 +1224,15 @@ public class Inventory1 extends InventorySecondary {
         /** The current index. */
         private int i;
 
+        /** The {@code modCount} of the Inventory this iterator expects. */
+        private final int expectedModCount;
+
         /**
          * Creates a new Iterator.
          */
         private InventoryIterator() {
             this.i = 0;
+            this.expectedModCount = Inventory1.this.modCount;
         }
 
         @Override
@@ -237,15 +1242,22 @@ public class Inventory1 extends InventorySecondary {
 
         @Override
         public Item next() {
+            if (Inventory1.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
 
-            Item removed = Inventory1.this.removeItem(this.i);
-            Inventory1.this.addItem(this.i, removed);
+            Item next = Inventory1.this.slotAt(this.i);
             this.i++;
 
-            return removed;
+            if (next == null) {
+                next = EMPTY_ITEM;
+            }
+
+            return next;
         }
 
         @Override
@@ -255,4 +1267,114 @@ public class Inventory1 extends InventorySecondary {
         }
 
     }
+
+    /**
+     * Implementation of {@code Spliterator} interface for {@code Inventory1},
+     * covering the slots from {@code origin} up to, but not including,
+     * {@code fence}.
+     */
+    private final class SlotSpliterator implements Spliterator<Item> {
+
+        /** The next slot to visit. */
+        private int origin;
+
+        /** One past the last slot to visit. */
+        private final int fence;
+
+        /** The {@code modCount} of the Inventory this spliterator expects. */
+        private final int expectedModCount;
+
+        /**
+         * Creates a new Spliterator over a range of slots.
+         *
+         * @param origin
+         *            the first slot
+         * @param fence
+         *            one past the last slot
+         * @param expectedModCount
+         *            the {@code modCount} the Inventory must keep
+         */
+        private SlotSpliterator(int origin, int fence, int expectedModCount) {
+            this.origin = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        /**
+         * Returns the Item at {@code slot}, or the shared empty Item.
+         *
+         * @param slot
+         *            the slot to read
+         * @return the Item at {@code slot}
+         */
+        private Item itemAt(int slot) {
+            Item item = Inventory1.this.slotAt(slot);
+
+            if (item == null) {
+                item = EMPTY_ITEM;
+            }
+
+            return item;
+        }
+
+        /**
+         * Throws {@code ConcurrentModificationException} if the Inventory has
+         * changed since this was created.
+         */
+        private void checkForComodification() {
+            if (Inventory1.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Item> action) {
+            boolean advanced = this.origin < this.fence;
+
+            if (advanced) {
+                Item item = this.itemAt(this.origin);
+                this.origin++;
+                action.accept(item);
+                this.checkForComodification();
+            }
+
+            return advanced;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Item> action) {
+            for (int i = this.origin; i < this.fence; i++) {
+                action.accept(this.itemAt(i));
+            }
+
+            this.origin = this.fence;
+            this.checkForComodification();
+        }
+
+        @Override
+        public Spliterator<Item> trySplit() {
+            int mid = (this.origin + this.fence) >>> 1;
+
+            SlotSpliterator prefix = null;
+
+            if (this.origin < mid) {
+                prefix = new SlotSpliterator(this.origin, mid,
+                        this.expectedModCount);
+                this.origin = mid;
+            }
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.fence - this.origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED
+                    | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+    }
 }
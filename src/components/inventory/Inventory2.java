@@ -0,0 +1,601 @@
+package components.inventory;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Implementation of Inventory on parallel primitive arrays (one column per
+ * field) rather than on an array of Item objects. Each slot is a name id and a
+ * count, and each tag that has been seen gets its own value column and
+ * presence bitmap. Names and tags are numbered by symbol tables private to
+ * {@code this}, so ids stay dense. Items added to {@code this} are copied into
+ * the columns; {@code peekItem} hands out a view of its slot that reads and
+ * writes through to the columns, and {@code removeItem} rebuilds a detached
+ * {@code BasicItem}.
+ *
+ * @convention <pre>
+ * $this.size > 0 and
+ * |$this.nameId| = |$this.count| = $this.size and
+ * |$this.tagValue| = |$this.tagPresent| and
+ * for all 0 <= k < |$this.tagValue|:
+ *  [$this.tagValue[k] is null iff $this.tagPresent[k] is null] and
+ *  [if k < |$this.tags| and $this.tags.symbol(k) has been put on an Item in
+ *   this, $this.tagValue[k] is not null] and
+ *  [if $this.tagValue[k] is not null, |$this.tagValue[k]| = $this.size and
+ *   |$this.tagPresent[k]| = ceiling($this.size / 64)]
+ * and
+ * for all 0 <= i < $this.size:
+ *  [0 <= $this.nameId[i] < |$this.names|] and
+ *  [if $this.nameId[i] = 0, $this.count[i] = 0 and no tag is present at i] and
+ *  [if $this.nameId[i] != 0, the tags present at i include all of this.reqs]
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = [for each slot i, an Item named $this.names.symbol($this.nameId[i])
+ *          with count $this.count[i] and tags
+ *          {($this.tags.symbol(k), $this.tagValue[k][i]) :
+ *          bit (i mod 64) of $this.tagPresent[k][i / 64] is set}]
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public class Inventory2 extends InventorySecondary {
+
+    /** Initial number of tag columns allocated. */
+    private static final int INITIAL_TAG_COLUMNS = 4;
+
+    /** The number of slots in this. */
+    private int size;
+
+    /** The name id of the Item in each slot, 0 for empty. */
+    private int[] nameId;
+
+    /** The count of the Item in each slot. */
+    private int[] count;
+
+    /** The ids of the Item names this has seen. */
+    private SymbolTable names;
+
+    /** The ids of the tags (other than count) this has seen. */
+    private SymbolTable tags;
+
+    /** The value of each tag in each slot, by tag id. */
+    private int[][] tagValue;
+
+    /** One bit per slot for each tag id, set when the slot has that tag. */
+    private long[][] tagPresent;
+
+    /** The requirements for an Item to be added to this. */
+    private Set<String> reqs;
+
+    /**
+     * The number of times the slots of this have been changed, so iterators
+     * can detect changes made behind their backs.
+     */
+    private int modCount;
+
+    /**
+     * Creates initial representation.
+     *
+     * @param size
+     *            - the number of slots this will have
+     */
+    private void createNewRep(int size) {
+        this.size = size;
+        this.nameId = new int[size];
+        this.count = new int[size];
+        this.names = new SymbolTable();
+        this.tags = new SymbolTable();
+        this.tagValue = new int[INITIAL_TAG_COLUMNS][];
+        this.tagPresent = new long[INITIAL_TAG_COLUMNS][];
+        this.reqs = new HashSet<String>();
+    }
+
+    /**
+     * Returns the id of the tag {@code tag}, allocating a column for it if it
+     * has not been seen before.
+     *
+     * @param tag
+     *            the tag
+     * @return the id of {@code tag}
+     */
+    private int internTag(String tag) {
+        int id = this.tags.intern(tag);
+
+        if (id >= this.tagValue.length) {
+            int columns = Math.max(id + 1, this.tagValue.length * 2);
+            int[][] values = new int[columns][];
+            long[][] present = new long[columns][];
+            System.arraycopy(this.tagValue, 0, values, 0,
+                    this.tagValue.length);
+            System.arraycopy(this.tagPresent, 0, present, 0,
+                    this.tagPresent.length);
+            this.tagValue = values;
+            this.tagPresent = present;
+        }
+
+        if (this.tagValue[id] == null) {
+            this.tagValue[id] = new int[this.size];
+            this.tagPresent[id] = new long[(this.size + Long.SIZE - 1)
+                    / Long.SIZE];
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns whether the tag with id {@code t} is present at {@code slot}.
+     *
+     * @param t
+     *            the tag id
+     * @param slot
+     *            the slot
+     * @return true if {@code slot} has tag {@code t}
+     */
+    private boolean present(int t, int slot) {
+        return 0 <= t && t < this.tagPresent.length
+                && this.tagPresent[t] != null
+                && (this.tagPresent[t][slot / Long.SIZE] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Sets tag {@code tag} to {@code value} at {@code slot}.
+     *
+     * @param slot
+     *            the slot
+     * @param tag
+     *            the tag, which is not Item.COUNT
+     * @param value
+     *            the tag value
+     */
+    private void putSlotTag(int slot, String tag, int value) {
+        int t = this.internTag(tag);
+        this.tagValue[t][slot] = value;
+        this.tagPresent[t][slot / Long.SIZE] |= 1L << slot;
+    }
+
+    /**
+     * Creates a new Inventory with a single slot.
+     */
+    public Inventory2() {
+        this.createNewRep(1);
+    }
+
+    /**
+     * Create a new Inventory with one or more slots.
+     *
+     * @param size
+     *            the number of slots this will have
+     *
+     * @requires size > 0
+     */
+    public Inventory2(int size) {
+        assert size > 0 : "Violation of size > 0";
+
+        this.createNewRep(size);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItem(int slot, Item item) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+        assert item != null : "Violation of item is not null";
+        assert this.nameId[slot] == 0
+                || this.names.symbol(this.nameId[slot]).equals(
+                        item.getName()) : "Violation of slot is empty or has Item with same name";
+        assert this.isAllowed(item) : "Violation of isAllowed(item)";
+
+        if (!item.isEmpty()) {
+            this.modCount++;
+
+            if (this.nameId[slot] == 0) {
+                this.nameId[slot] = this.names.intern(item.getName());
+            }
+
+            this.count[slot] += item.getCount();
+
+            for (Map.Entry<String, Integer> tag : item.getTags().entrySet()) {
+
+                if (!tag.getKey().equals(Item.COUNT)) {
+                    this.putSlotTag(slot, tag.getKey(), tag.getValue());
+                }
+            }
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item removeItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item removed;
+
+        if (this.nameId[slot] == 0) {
+            removed = new BasicItem();
+        } else {
+            removed = new BasicItem(this.names.symbol(this.nameId[slot]),
+                    this.count[slot]);
+            this.modCount++;
+            this.nameId[slot] = 0;
+            this.count[slot] = 0;
+
+            long bit = 1L << slot;
+            int w = slot / Long.SIZE;
+
+            for (int t = 0; t < this.tagPresent.length; t++) {
+
+                if (this.tagPresent[t] != null
+                        && (this.tagPresent[t][w] & bit) != 0) {
+                    removed.putTag(this.tags.symbol(t), this.tagValue[t][slot]);
+                    this.tagPresent[t][w] &= ~bit;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        if (!this.reqs.contains(tag)) {
+            this.reqs.add(tag);
+        }
+
+        ArrayList<Item> removed = new ArrayList<>();
+        int t = this.internTag(tag);
+
+        for (int i = 0; i < this.size; i++) {
+
+            if (this.nameId[i] != 0 && !this.present(t, i)) {
+                removed.add(this.removeItem(i));
+            }
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void freeRestrictions() {
+        this.reqs = new HashSet<>();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAllowed(Item item) {
+        assert item != null : "Violation of item is not null";
+
+        boolean allow = true;
+
+        if (!item.isEmpty()) {
+            Iterator<String> required = this.reqs.iterator();
+
+            while (allow && required.hasNext()) {
+                allow = item.hasTag(required.next());
+            }
+        }
+
+        return allow;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+        int id = this.names.idOf(name);
+
+        if (id != SymbolTable.NO_ID) {
+            int i = pos;
+
+            while (next < 0 && i < this.size) {
+                if (this.nameId[i] == id) {
+                    next = i;
+                }
+                i++;
+            }
+        }
+
+        return next;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextEmptySlot(int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        return this.nextIndexOf(Item.EMPTY_NAME, pos);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A non-empty Item returned by this method is a view of {@code slot}: it
+     * reads and writes the columns of {@code this} directly, so changes made
+     * through it are seen by {@code this} and vice versa.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item item;
+
+        if (this.nameId[slot] == 0) {
+            item = EMPTY_ITEM;
+        } else {
+            item = new SlotItem(slot);
+        }
+
+        return item;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void clear() {
+        this.createNewRep(1);
+        this.modCount++;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Inventory newInstance() {
+        return new Inventory2();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferFrom(Inventory src) {
+        assert src != null : "Violation of: source is not null";
+        assert src != this : "Violation of: source is not this";
+        assert src instanceof Inventory2 : ""
+                + "Violation of: source is of dynamic type Inventory2";
+
+        Inventory2 localSrc = (Inventory2) src;
+
+        this.size = localSrc.size;
+        this.nameId = localSrc.nameId;
+        this.count = localSrc.count;
+        this.names = localSrc.names;
+        this.tags = localSrc.tags;
+        this.tagValue = localSrc.tagValue;
+        this.tagPresent = localSrc.tagPresent;
+        this.reqs = localSrc.reqs;
+        this.modCount++;
+
+        localSrc.createNewRep(1);
+        localSrc.modCount++;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Iterator<Item> iterator() {
+        return new InventoryIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Inventory2}.
+     */
+    private final class InventoryIterator implements Iterator<Item> {
+
+        /** The current index. */
+        private int i;
+
+        /** The {@code modCount} of the Inventory this iterator expects. */
+        private final int expectedModCount;
+
+        /**
+         * Creates a new Iterator.
+         */
+        private InventoryIterator() {
+            this.i = 0;
+            this.expectedModCount = Inventory2.this.modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.i < Inventory2.this.size;
+        }
+
+        @Override
+        public Item next() {
+            if (Inventory2.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Item next = Inventory2.this.getItem(this.i);
+            this.i++;
+
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * View of a single occupied slot of {@code Inventory2} as an {@code Item}.
+     * The view follows the slot, not the Item: once the Item is removed from
+     * the slot the view should no longer be used.
+     */
+    private final class SlotItem implements Item {
+
+        /** The slot this is a view of. */
+        private final int slot;
+
+        /**
+         * Creates a view of {@code slot}.
+         *
+         * @param slot
+         *            the slot to view
+         */
+        private SlotItem(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return Inventory2.this.nameId[this.slot] == 0;
+        }
+
+        @Override
+        public String getName() {
+            return Inventory2.this.names
+                    .symbol(Inventory2.this.nameId[this.slot]);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>
+         * The map returned is a copy; changes to it are not seen by the slot.
+         */
+        @Override
+        public Map<String, Integer> getTags() {
+            Map<String, Integer> copy = new TreeMap<String, Integer>();
+            copy.put(Item.COUNT, Inventory2.this.count[this.slot]);
+
+            for (int t = 0; t < Inventory2.this.tagPresent.length; t++) {
+
+                if (Inventory2.this.present(t, this.slot)) {
+                    copy.put(Inventory2.this.tags.symbol(t),
+                            Inventory2.this.tagValue[t][this.slot]);
+                }
+            }
+
+            return copy;
+        }
+
+        @Override
+        public boolean hasTag(String tag) {
+            int t = Inventory2.this.tags.idOf(tag);
+
+            return tag.equals(Item.COUNT) || (t != SymbolTable.NO_ID
+                    && Inventory2.this.present(t, this.slot));
+        }
+
+        @Override
+        public void putTag(String tag, int tagVal) {
+            if (tag.equals(Item.COUNT)) {
+                Inventory2.this.count[this.slot] = tagVal;
+            } else {
+                Inventory2.this.putSlotTag(this.slot, tag, tagVal);
+            }
+        }
+
+        @Override
+        public void removeTag(String tag) {
+            assert !tag.equals(COUNT);
+
+            int t = Inventory2.this.tags.idOf(tag);
+
+            if (Inventory2.this.present(t, this.slot)) {
+                Inventory2.this.tagPresent[t][this.slot / Long.SIZE] &= ~(1L
+                        << this.slot);
+            }
+        }
+
+        @Override
+        public int tagValue(String tag) {
+            int value;
+
+            if (tag.equals(Item.COUNT)) {
+                value = Inventory2.this.count[this.slot];
+            } else {
+                int t = Inventory2.this.tags.idOf(tag);
+                assert Inventory2.this.present(t, this.slot);
+
+                value = Inventory2.this.tagValue[t][this.slot];
+            }
+
+            return value;
+        }
+
+        @Override
+        public int getCount() {
+            return Inventory2.this.count[this.slot];
+        }
+
+        @Override
+        public void setCount(int count) {
+            Inventory2.this.count[this.slot] = count;
+        }
+
+        @Override
+        public int addCount(int delta) {
+            Inventory2.this.count[this.slot] += delta;
+
+            return Inventory2.this.count[this.slot];
+        }
+
+        @Override
+        public int hashCode() {
+            return this.getName().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            boolean equal = false;
+
+            if (o instanceof Item) {
+                Item i = (Item) o;
+
+                equal = i.getName().equals(this.getName());
+
+                for (Map.Entry<String, Integer> tag : this.getTags()
+                        .entrySet()) {
+
+                    if (!tag.getKey().equals(Item.COUNT)) {
+                        equal &= i.hasTag(tag.getKey())
+                                && i.tagValue(tag.getKey()) == tag.getValue();
+                    }
+                }
+            }
+
+            return equal;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder rep = new StringBuilder(this.getName()).append(":{");
+
+            for (Map.Entry<String, Integer> tag : this.getTags().entrySet()) {
+                rep.append('(').append(tag.getKey()).append(", ")
+                        .append(tag.getValue()).append("), ");
+            }
+
+            rep.setLength(rep.length() - 2);
+
+            return rep.append(" }").toString();
+        }
+    }
+}
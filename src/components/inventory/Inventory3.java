@@ -0,0 +1,1038 @@
+package components.inventory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Implementation of Inventory on direct (off-heap) ByteBuffers, so that large
+ * Inventories put next to nothing on the Java heap. The buffers are divided
+ * into 64-byte blocks, numbered across them. Block i, for i < size, is the
+ * record of slot i: its name id, count, number of tags, a link to an overflow
+ * block, and room for {@code TAG_SLOTS} (tag id, value) pairs. An Item with
+ * more tags than that continues them in a chain of overflow blocks kept after
+ * the slot records; freed overflow blocks are linked into a free list for
+ * reuse. Names and tags are numbered by symbol tables private to
+ * {@code this}. Items added to {@code this} are copied into their record;
+ * {@code peekItem} hands out a small view of its slot that reads and writes
+ * through to the blocks, and {@code removeItem} rebuilds a detached
+ * {@code BasicItem}.
+ *
+ * <p>
+ * The blocks are held in segments of {@code SEGMENT_BLOCKS} blocks, one buffer
+ * each, so that an Inventory is not limited to the 2 GB a single buffer can
+ * hold.
+ *
+ * <p>
+ * The blocks can also live in a memory-mapped file, through {@code create}
+ * and {@code open}. Changes are made to a private mapping of the file, and
+ * {@code force} moves every change since the last one to the file at once,
+ * through a redo log, together with the number of blocks and the head of the
+ * free list. The file so always holds the state of some {@code force}, and
+ * opening it reads only its header, its dictionary of names and tags and,
+ * after a crash, the log; the blocks are paged in as they are used. The
+ * {@code forceEvery} argument makes a force happen automatically after every
+ * so many changes. Restrictions are not stored in the file.
+ *
+ * @convention <pre>
+ * 0 < $this.size <= $this.blocks <= $this.capacity and
+ * |$this.segments| = ceiling($this.capacity / SEGMENT_BLOCKS) and
+ * every segment but the last holds SEGMENT_BLOCKS blocks and
+ * the last holds the rest and
+ * [if $this.file is not null, $this.segments is $this.file.segments()] and
+ * for all 0 <= i < $this.size, where NAME(i), COUNT(i), TAGS(i) and NEXT(i)
+ * are the ints at offsets 0, 4, 8 and 12 of block i:
+ *  [0 <= NAME(i) < |$this.names|] and
+ *  [if NAME(i) = 0, COUNT(i) = 0 and TAGS(i) = 0] and
+ *  [NEXT(i) heads a chain of exactly ceiling(TAGS(i) / TAG_SLOTS) - 1
+ *   overflow blocks, linked by NEXT and ended by NO_BLOCK] and
+ *  [the first TAGS(i) pairs of the chain have distinct tag ids] and
+ *  [if NAME(i) != 0, the tags of slot i include all of this.reqs]
+ * and
+ * every block j with $this.size <= j < $this.blocks is in exactly one slot
+ * chain or in the free list headed by $this.free and linked by NEXT
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = [for each slot i, an Item named $this.names.symbol(NAME(i)) with
+ *          count COUNT(i) and tags {($this.tags.symbol(t), v) : (t, v) is one
+ *          of the first TAGS(i) pairs of the chain of block i}]
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public class Inventory3 extends InventorySecondary implements Closeable {
+
+    /** The number of bytes in each block. */
+    static final int BLOCK_BYTES = 64;
+
+    /** Offset of the name id in a slot record. */
+    private static final int NAME_FIELD = 0;
+
+    /** Offset of the count in a slot record. */
+    private static final int COUNT_FIELD = 4;
+
+    /** Offset of the number of tags in a slot record. */
+    private static final int TAGS_FIELD = 8;
+
+    /** Offset of the link to the next block of tags. */
+    private static final int NEXT_FIELD = 12;
+
+    /** Offset of the first (tag id, value) pair. */
+    private static final int PAIRS_FIELD = 16;
+
+    /** The number of bytes in each (tag id, value) pair. */
+    private static final int PAIR_BYTES = 8;
+
+    /** The number of tag pairs that fit in a block. */
+    private static final int TAG_SLOTS = (BLOCK_BYTES - PAIRS_FIELD)
+            / PAIR_BYTES;
+
+    /**
+     * Link value marking the end of a chain of blocks. Block 0 is always a
+     * slot record, never an overflow block, so a zeroed block is an empty
+     * slot with no overflow.
+     */
+    private static final int NO_BLOCK = 0;
+
+    /** Byte order of the blocks, in memory and on disk. */
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** The base 2 logarithm of {@code SEGMENT_BLOCKS}. */
+    private static final int SEGMENT_SHIFT = 24;
+
+    /** The number of blocks in each segment, 1 GB worth. */
+    static final int SEGMENT_BLOCKS = 1 << SEGMENT_SHIFT;
+
+    /** Mask giving the position of a block within its segment. */
+    private static final int SEGMENT_MASK = SEGMENT_BLOCKS - 1;
+
+    /** The largest number of blocks, which are numbered by int. */
+    static final int MAX_BLOCKS = Integer.MAX_VALUE;
+
+    /** The number of slots in this. */
+    private int size;
+
+    /** The records of this and their overflow blocks, by segment. */
+    private ByteBuffer[] segments;
+
+    /** The number of blocks {@code segments} have room for. */
+    private int capacity;
+
+    /** The number of blocks in use or in the free list. */
+    private int blocks;
+
+    /** The first free overflow block, or {@code NO_BLOCK}. */
+    private int free;
+
+    /** The file holding {@code segments}, or null if only in memory. */
+    private InventoryFile file;
+
+    /** The ids of the Item names this has seen. */
+    private SymbolTable names;
+
+    /** The ids of the tags (other than count) this has seen. */
+    private SymbolTable tags;
+
+    /** The requirements for an Item to be added to this. */
+    private Set<String> reqs;
+
+    /**
+     * The number of times the slots of this have been changed, so iterators
+     * can detect changes made behind their backs.
+     */
+    private int modCount;
+
+    /**
+     * Creates initial representation.
+     *
+     * @param size
+     *            - the number of slots this will have
+     */
+    private void createNewRep(int size) {
+        this.size = size;
+        this.capacity = size;
+        this.segments = resize(new ByteBuffer[0], size);
+        this.blocks = size;
+        this.free = NO_BLOCK;
+        this.file = null;
+        this.names = new SymbolTable();
+        this.tags = new SymbolTable();
+        this.reqs = new HashSet<String>();
+    }
+
+    /**
+     * Takes the representation from the inventory file {@code file}, as of
+     * its last force.
+     *
+     * @param file
+     *            the mapped file
+     */
+    private void createFileRep(InventoryFile file) {
+        this.size = file.size();
+        this.capacity = file.capacity();
+        this.segments = file.segments();
+        this.blocks = file.blocks();
+        this.free = file.free();
+        this.file = file;
+        this.names = file.names();
+        this.tags = file.tags();
+        this.reqs = new HashSet<String>();
+    }
+
+    /**
+     * Notes a change to the blocks, forcing them to disk if this is backed by
+     * a file whose policy calls for it.
+     */
+    private void written() {
+        if (this.file != null && this.file.written()) {
+            this.force();
+        }
+    }
+
+    /**
+     * Forces and closes the file behind this, if any. The representation is
+     * left as it was and must be replaced.
+     */
+    private void detach() {
+        if (this.file != null) {
+            this.force();
+            this.file.close();
+            this.file = null;
+        }
+    }
+
+    /**
+     * Returns the int at offset {@code field} of block {@code block}.
+     *
+     * @param block
+     *            the block
+     * @param field
+     *            the offset within the block
+     * @return the int stored there
+     */
+    private int get(int block, int field) {
+        return this.segments[block >>> SEGMENT_SHIFT]
+                .getInt((block & SEGMENT_MASK) * BLOCK_BYTES + field);
+    }
+
+    /**
+     * Stores {@code value} at offset {@code field} of block {@code block}.
+     *
+     * @param block
+     *            the block
+     * @param field
+     *            the offset within the block
+     * @param value
+     *            the int to store
+     */
+    private void put(int block, int field, int value) {
+        this.segments[block >>> SEGMENT_SHIFT]
+                .putInt((block & SEGMENT_MASK) * BLOCK_BYTES + field, value);
+
+        if (this.file != null) {
+            this.file.changed(block);
+        }
+    }
+
+    /**
+     * Returns the number of segments needed to hold {@code blocks} blocks.
+     *
+     * @param blocks
+     *            the number of blocks
+     * @return ceiling(blocks / SEGMENT_BLOCKS)
+     */
+    static int segmentCount(int blocks) {
+        return (int) (((long) blocks + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * Returns the number of blocks in segment {@code k} of {@code blocks}
+     * blocks.
+     *
+     * @param blocks
+     *            the number of blocks
+     * @param k
+     *            the segment
+     * @return the number of blocks held by segment {@code k}
+     */
+    static int segmentBlocks(int blocks, int k) {
+        return (int) Math.min(SEGMENT_BLOCKS,
+                blocks - ((long) k << SEGMENT_SHIFT));
+    }
+
+    /**
+     * Returns direct segments holding {@code blocks} blocks, whose leading
+     * blocks are those of {@code old}. Full segments of {@code old} are kept
+     * as they are; the rest are copied into new ones.
+     *
+     * @param old
+     *            the segments to keep
+     * @param blocks
+     *            the number of blocks needed
+     * @return the segments
+     */
+    private static ByteBuffer[] resize(ByteBuffer[] old, int blocks) {
+        ByteBuffer[] resized = new ByteBuffer[segmentCount(blocks)];
+
+        for (int k = 0; k < resized.length; k++) {
+            int bytes = segmentBlocks(blocks, k) * BLOCK_BYTES;
+
+            if (k < old.length && old[k].capacity() == bytes) {
+                resized[k] = old[k];
+            } else {
+                resized[k] = ByteBuffer.allocateDirect(bytes).order(ORDER);
+
+                if (k < old.length) {
+                    old[k].clear();
+                    resized[k].put(old[k]);
+                    resized[k].clear();
+                }
+            }
+        }
+
+        return resized;
+    }
+
+    /**
+     * Returns the offset of pair {@code k} within its block.
+     *
+     * @param k
+     *            the position of the pair in its chain
+     * @return the offset of the tag id of that pair
+     */
+    private static int pairField(int k) {
+        return PAIRS_FIELD + (k % TAG_SLOTS) * PAIR_BYTES;
+    }
+
+    /**
+     * Returns the block of the chain of {@code slot} holding pair {@code k}.
+     *
+     * @param slot
+     *            the slot
+     * @param k
+     *            the position of the pair
+     * @return the block holding it
+     */
+    private int blockOf(int slot, int k) {
+        int block = slot;
+
+        for (int hops = k / TAG_SLOTS; hops > 0; hops--) {
+            block = this.get(block, NEXT_FIELD);
+        }
+
+        return block;
+    }
+
+    /**
+     * Takes a block from the free list, or adds one to the blocks, growing
+     * if it is full.
+     *
+     * @return an unused block with no link
+     */
+    private int allocateBlock() {
+        int block = this.free;
+
+        if (block != NO_BLOCK) {
+            this.free = this.get(block, NEXT_FIELD);
+        } else {
+            if (this.blocks == this.capacity) {
+                assert this.capacity < MAX_BLOCKS : ""
+                        + "Violation of segments have room for another block";
+
+                int grown = (int) Math.min(MAX_BLOCKS, 2L * this.capacity);
+
+                if (this.file != null) {
+                    this.segments = this.file.grow(grown);
+                } else {
+                    this.segments = resize(this.segments, grown);
+                }
+
+                this.capacity = grown;
+            }
+
+            block = this.blocks;
+            this.blocks++;
+        }
+
+        this.put(block, NEXT_FIELD, NO_BLOCK);
+
+        return block;
+    }
+
+    /**
+     * Returns {@code block} to the free list.
+     *
+     * @param block
+     *            the overflow block to free
+     */
+    private void freeBlock(int block) {
+        this.put(block, NEXT_FIELD, this.free);
+        this.free = block;
+    }
+
+    /**
+     * Returns the position of the tag with id {@code t} in the chain of
+     * {@code slot}, or -1 if the slot does not have it.
+     *
+     * @param slot
+     *            the slot
+     * @param t
+     *            the tag id, or {@code SymbolTable.NO_ID}
+     * @return the position of the pair for {@code t}, or -1
+     */
+    private int findTag(int slot, int t) {
+        int found = -1;
+        int tagCount = this.get(slot, TAGS_FIELD);
+        int block = slot;
+
+        for (int k = 0; found < 0 && k < tagCount; k++) {
+
+            if (k > 0 && k % TAG_SLOTS == 0) {
+                block = this.get(block, NEXT_FIELD);
+            }
+
+            if (this.get(block, pairField(k)) == t) {
+                found = k;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Sets tag {@code tag} to {@code value} at {@code slot}, adding it if the
+     * slot does not have it yet.
+     *
+     * @param slot
+     *            the slot
+     * @param tag
+     *            the tag, which is not Item.COUNT
+     * @param value
+     *            the tag value
+     */
+    private void putSlotTag(int slot, String tag, int value) {
+        int t = this.tags.intern(tag);
+        int k = this.findTag(slot, t);
+
+        if (k < 0) {
+            k = this.get(slot, TAGS_FIELD);
+
+            if (k > 0 && k % TAG_SLOTS == 0) {
+                int next = this.allocateBlock();
+                this.put(this.blockOf(slot, k - 1), NEXT_FIELD, next);
+            }
+
+            this.put(this.blockOf(slot, k), pairField(k), t);
+            this.put(slot, TAGS_FIELD, k + 1);
+        }
+
+        this.put(this.blockOf(slot, k), pairField(k) + Integer.BYTES, value);
+    }
+
+    /**
+     * Removes tag {@code tag} from {@code slot}, if the slot has it, by moving
+     * the last pair of the chain into its place.
+     *
+     * @param slot
+     *            the slot
+     * @param tag
+     *            the tag, which is not Item.COUNT
+     */
+    private void removeSlotTag(int slot, String tag) {
+        int k = this.findTag(slot, this.tags.idOf(tag));
+
+        if (k >= 0) {
+            int last = this.get(slot, TAGS_FIELD) - 1;
+            int lastBlock = this.blockOf(slot, last);
+            int block = this.blockOf(slot, k);
+
+            this.put(block, pairField(k), this.get(lastBlock, pairField(last)));
+            this.put(block, pairField(k) + Integer.BYTES,
+                    this.get(lastBlock, pairField(last) + Integer.BYTES));
+            this.put(slot, TAGS_FIELD, last);
+
+            if (last > 0 && last % TAG_SLOTS == 0) {
+                this.put(this.blockOf(slot, last - 1), NEXT_FIELD, NO_BLOCK);
+                this.freeBlock(lastBlock);
+            }
+        }
+    }
+
+    /**
+     * Returns whether {@code slot} has tag {@code tag}.
+     *
+     * @param slot
+     *            the slot
+     * @param tag
+     *            the tag
+     * @return true if {@code slot} has {@code tag}
+     */
+    private boolean hasSlotTag(int slot, String tag) {
+        return tag.equals(Item.COUNT)
+                || this.findTag(slot, this.tags.idOf(tag)) >= 0;
+    }
+
+    /**
+     * Returns the tags of {@code slot}, other than its count, as a new map.
+     *
+     * @param slot
+     *            the slot
+     * @return a map from each tag of {@code slot} to its value
+     */
+    private Map<String, Integer> slotTags(int slot) {
+        Map<String, Integer> copy = new TreeMap<String, Integer>();
+        int tagCount = this.get(slot, TAGS_FIELD);
+        int block = slot;
+
+        for (int k = 0; k < tagCount; k++) {
+
+            if (k > 0 && k % TAG_SLOTS == 0) {
+                block = this.get(block, NEXT_FIELD);
+            }
+
+            copy.put(this.tags.symbol(this.get(block, pairField(k))),
+                    this.get(block, pairField(k) + Integer.BYTES));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Creates a new Inventory with a single slot.
+     */
+    public Inventory3() {
+        this.createNewRep(1);
+    }
+
+    /**
+     * Create a new Inventory with one or more slots.
+     *
+     * @param size
+     *            the number of slots this will have
+     *
+     * @requires size > 0
+     */
+    public Inventory3(int size) {
+        assert size > 0 : "Violation of size > 0";
+
+        this.createNewRep(size);
+    }
+
+    /**
+     * Creates an Inventory backed by the file {@code file}.
+     *
+     * @param file
+     *            the mapped file
+     */
+    private Inventory3(InventoryFile file) {
+        this.createFileRep(file);
+    }
+
+    /**
+     * Creates a new inventory file at {@code path} with {@code size} empty
+     * slots, replacing any inventory file already there, and returns an
+     * Inventory3 backed by it. The file is sparse where the operating system
+     * allows, so creating a large one is quick.
+     *
+     * @param path
+     *            the file to create
+     * @param size
+     *            the number of slots
+     * @param forceEvery
+     *            the number of changes after which the file is forced to
+     *            disk, or 0 to force only on {@code force}, {@code clear} and
+     *            {@code close}
+     * @return an empty Inventory3 backed by the new file
+     * @throws IOException
+     *             if the file cannot be created
+     *
+     * @requires size > 0 and forceEvery >= 0
+     */
+    public static Inventory3 create(Path path, int size, int forceEvery)
+            throws IOException {
+        assert path != null : "Violation of path is not null";
+        assert size > 0 : "Violation of size > 0";
+        assert forceEvery >= 0 : "Violation of forceEvery >= 0";
+
+        return new Inventory3(InventoryFile.create(path, size, forceEvery));
+    }
+
+    /**
+     * Opens the inventory file at {@code path}, made by {@code create}, and
+     * returns an Inventory3 backed by it, holding what the file held at its
+     * last {@code force}. Only the header, the dictionary and any redo log
+     * left by a crash are read, so this is quick however large the file is.
+     *
+     * @param path
+     *            the file to open
+     * @param forceEvery
+     *            the number of changes after which the file is forced to
+     *            disk, or 0 to force only on {@code force}, {@code clear} and
+     *            {@code close}
+     * @return an unrestricted Inventory3 backed by the file
+     * @throws IOException
+     *             if the file cannot be read, is not an inventory file or has
+     *             a bad header
+     *
+     * @requires forceEvery >= 0
+     */
+    public static Inventory3 open(Path path, int forceEvery)
+            throws IOException {
+        assert path != null : "Violation of path is not null";
+        assert forceEvery >= 0 : "Violation of forceEvery >= 0";
+
+        return new Inventory3(InventoryFile.open(path, forceEvery));
+    }
+
+    /**
+     * Makes every change to {@code this} so far durable, if it is backed by
+     * a file; otherwise does nothing.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void force() {
+        if (this.file != null) {
+            this.segments = this.file.force(this.blocks, this.free);
+        }
+    }
+
+    /**
+     * Forces and closes the file behind {@code this}, if any, then clears
+     * {@code this}; the same as {@code clear}.
+     *
+     * @clears this
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void close() {
+        this.clear();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItem(int slot, Item item) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+        assert item != null : "Violation of item is not null";
+        assert this.get(slot, NAME_FIELD) == 0
+                || this.names.symbol(this.get(slot, NAME_FIELD)).equals(
+                        item.getName()) : "Violation of slot is empty or has Item with same name";
+        assert this.isAllowed(item) : "Violation of isAllowed(item)";
+
+        if (!item.isEmpty()) {
+            this.modCount++;
+
+            if (this.get(slot, NAME_FIELD) == 0) {
+                this.put(slot, NAME_FIELD, this.names.intern(item.getName()));
+            }
+
+            this.put(slot, COUNT_FIELD,
+                    this.get(slot, COUNT_FIELD) + item.getCount());
+
+            for (Map.Entry<String, Integer> tag : item.getTags().entrySet()) {
+
+                if (!tag.getKey().equals(Item.COUNT)) {
+                    this.putSlotTag(slot, tag.getKey(), tag.getValue());
+                }
+            }
+
+            this.written();
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item removeItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item removed;
+
+        if (this.get(slot, NAME_FIELD) == 0) {
+            removed = new BasicItem();
+        } else {
+            removed = new BasicItem(
+                    this.names.symbol(this.get(slot, NAME_FIELD)),
+                    this.get(slot, COUNT_FIELD));
+            this.modCount++;
+
+            for (Map.Entry<String, Integer> tag : this.slotTags(slot)
+                    .entrySet()) {
+                removed.putTag(tag.getKey(), tag.getValue());
+            }
+
+            int block = this.get(slot, NEXT_FIELD);
+
+            while (block != NO_BLOCK) {
+                int next = this.get(block, NEXT_FIELD);
+                this.freeBlock(block);
+                block = next;
+            }
+
+            this.put(slot, NAME_FIELD, 0);
+            this.put(slot, COUNT_FIELD, 0);
+            this.put(slot, TAGS_FIELD, 0);
+            this.put(slot, NEXT_FIELD, NO_BLOCK);
+            this.written();
+        }
+
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A non-empty Item returned by this method is a view of {@code slot}: it
+     * reads and writes the record of the slot directly, so changes made
+     * through it are seen by {@code this} and vice versa.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item item;
+
+        if (this.get(slot, NAME_FIELD) == 0) {
+            item = EMPTY_ITEM;
+        } else {
+            item = new SlotItem(slot);
+        }
+
+        return item;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        if (!this.reqs.contains(tag)) {
+            this.reqs.add(tag);
+        }
+
+        ArrayList<Item> removed = new ArrayList<>();
+
+        for (int i = 0; i < this.size; i++) {
+
+            if (this.get(i, NAME_FIELD) != 0 && !this.hasSlotTag(i, tag)) {
+                removed.add(this.removeItem(i));
+            }
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void freeRestrictions() {
+        this.reqs = new HashSet<>();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAllowed(Item item) {
+        assert item != null : "Violation of item is not null";
+
+        boolean allow = true;
+
+        if (!item.isEmpty()) {
+            Iterator<String> required = this.reqs.iterator();
+
+            while (allow && required.hasNext()) {
+                allow = item.hasTag(required.next());
+            }
+        }
+
+        return allow;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+        int id = this.names.idOf(name);
+
+        if (id != SymbolTable.NO_ID) {
+            int i = pos;
+
+            while (next < 0 && i < this.size) {
+                if (this.get(i, NAME_FIELD) == id) {
+                    next = i;
+                }
+                i++;
+            }
+        }
+
+        return next;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextEmptySlot(int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        return this.nextIndexOf(Item.EMPTY_NAME, pos);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void clear() {
+        this.detach();
+        this.createNewRep(1);
+        this.modCount++;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Inventory newInstance() {
+        return new Inventory3();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferFrom(Inventory src) {
+        assert src != null : "Violation of: source is not null";
+        assert src != this : "Violation of: source is not this";
+        assert src instanceof Inventory3 : ""
+                + "Violation of: source is of dynamic type Inventory3";
+
+        Inventory3 localSrc = (Inventory3) src;
+
+        this.detach();
+        this.size = localSrc.size;
+        this.segments = localSrc.segments;
+        this.capacity = localSrc.capacity;
+        this.blocks = localSrc.blocks;
+        this.free = localSrc.free;
+        this.file = localSrc.file;
+        this.names = localSrc.names;
+        this.tags = localSrc.tags;
+        this.reqs = localSrc.reqs;
+        this.modCount++;
+
+        localSrc.createNewRep(1);
+        localSrc.modCount++;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Iterator<Item> iterator() {
+        return new InventoryIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Inventory3}.
+     */
+    private final class InventoryIterator implements Iterator<Item> {
+
+        /** The current index. */
+        private int i;
+
+        /** The {@code modCount} of the Inventory this iterator expects. */
+        private final int expectedModCount;
+
+        /**
+         * Creates a new Iterator.
+         */
+        private InventoryIterator() {
+            this.i = 0;
+            this.expectedModCount = Inventory3.this.modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.i < Inventory3.this.size;
+        }
+
+        @Override
+        public Item next() {
+            if (Inventory3.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Item next = Inventory3.this.getItem(this.i);
+            this.i++;
+
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * View of a single occupied slot of {@code Inventory3} as an {@code Item}.
+     * The view holds nothing but the slot number; every call reads or writes
+     * the buffer. The view follows the slot, not the Item: once the Item is
+     * removed from the slot the view should no longer be used.
+     */
+    private final class SlotItem implements Item {
+
+        /** The slot this is a view of. */
+        private final int slot;
+
+        /**
+         * Creates a view of {@code slot}.
+         *
+         * @param slot
+         *            the slot to view
+         */
+        private SlotItem(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return Inventory3.this.get(this.slot, NAME_FIELD) == 0;
+        }
+
+        @Override
+        public String getName() {
+            return Inventory3.this.names
+                    .symbol(Inventory3.this.get(this.slot, NAME_FIELD));
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>
+         * The map returned is a copy; changes to it are not seen by the slot.
+         */
+        @Override
+        public Map<String, Integer> getTags() {
+            Map<String, Integer> copy = Inventory3.this.slotTags(this.slot);
+            copy.put(Item.COUNT, this.getCount());
+
+            return copy;
+        }
+
+        @Override
+        public boolean hasTag(String tag) {
+            return Inventory3.this.hasSlotTag(this.slot, tag);
+        }
+
+        @Override
+        public void putTag(String tag, int tagVal) {
+            if (tag.equals(Item.COUNT)) {
+                this.setCount(tagVal);
+            } else {
+                Inventory3.this.putSlotTag(this.slot, tag, tagVal);
+                Inventory3.this.written();
+            }
+        }
+
+        @Override
+        public void removeTag(String tag) {
+            assert !tag.equals(Item.COUNT);
+
+            Inventory3.this.removeSlotTag(this.slot, tag);
+            Inventory3.this.written();
+        }
+
+        @Override
+        public int tagValue(String tag) {
+            int value;
+
+            if (tag.equals(Item.COUNT)) {
+                value = this.getCount();
+            } else {
+                int k = Inventory3.this.findTag(this.slot,
+                        Inventory3.this.tags.idOf(tag));
+                assert k >= 0 : "Violation of (tag, x) is in this.tags";
+
+                value = Inventory3.this.get(
+                        Inventory3.this.blockOf(this.slot, k),
+                        pairField(k) + Integer.BYTES);
+            }
+
+            return value;
+        }
+
+        @Override
+        public int getCount() {
+            return Inventory3.this.get(this.slot, COUNT_FIELD);
+        }
+
+        @Override
+        public void setCount(int count) {
+            Inventory3.this.put(this.slot, COUNT_FIELD, count);
+            Inventory3.this.written();
+        }
+
+        @Override
+        public int addCount(int delta) {
+            int count = this.getCount() + delta;
+            this.setCount(count);
+
+            return count;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.getName().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            boolean equal = false;
+
+            if (o instanceof Item) {
+                Item i = (Item) o;
+
+                equal = i.getName().equals(this.getName());
+
+                for (Map.Entry<String, Integer> tag : Inventory3.this
+                        .slotTags(this.slot).entrySet()) {
+                    equal &= i.hasTag(tag.getKey())
+                            && i.tagValue(tag.getKey()) == tag.getValue();
+                }
+            }
+
+            return equal;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder rep = new StringBuilder(this.getName()).append(":{");
+
+            for (Map.Entry<String, Integer> tag : this.getTags().entrySet()) {
+                rep.append('(').append(tag.getKey()).append(", ")
+                        .append(tag.getValue()).append("), ");
+            }
+
+            rep.setLength(rep.length() - 2);
+
+            return rep.append(" }").toString();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package components.inventory;
+
+import java.util.Arrays;
+
+import components.inventory.Inventory.Item;
+
+/**
+ * A sequence of {@code addItem} and {@code removeItem} calls, recorded to be
+ * applied to an Inventory at once by {@code Inventory.applyBatch}. Recording
+ * an operation checks nothing; the Inventory checks each operation as it
+ * applies it. The Items recorded are aliased, not copied.
+ *
+ * @convention <pre>
+ * 0 <= $this.length <= |$this.slots| = |$this.items|
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = [($this.slots[k], $this.items[k]) for 0 <= k < $this.length],
+ *         where an entry with a null Item is a removal
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public final class InventoryBatch {
+
+    /** The number of operations room is made for at first. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The slot of each operation. */
+    private int[] slots;
+
+    /** The Item each operation adds, or null if it removes. */
+    private Item[] items;
+
+    /** The number of operations recorded. */
+    private int length;
+
+    /**
+     * Creates an empty batch.
+     */
+    public InventoryBatch() {
+        this.slots = new int[INITIAL_CAPACITY];
+        this.items = new Item[INITIAL_CAPACITY];
+        this.length = 0;
+    }
+
+    /**
+     * Appends an operation to this.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item to add, or null to remove
+     */
+    private void append(int slot, Item item) {
+        if (this.length == this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, 2 * this.length);
+            this.items = Arrays.copyOf(this.items, 2 * this.length);
+        }
+
+        this.slots[this.length] = slot;
+        this.items[this.length] = item;
+        this.length++;
+    }
+
+    /**
+     * Records {@code addItem(slot, item)}.
+     *
+     * @param slot
+     *            the slot to add at
+     * @param item
+     *            the Item to add
+     * @return this
+     *
+     * @requires item is not null
+     *
+     * @ensures this = #this * [(slot, item)]
+     */
+    public InventoryBatch add(int slot, Item item) {
+        assert item != null : "Violation of item is not null";
+
+        this.append(slot, item);
+
+        return this;
+    }
+
+    /**
+     * Records {@code removeItem(slot)}.
+     *
+     * @param slot
+     *            the slot to remove from
+     * @return this
+     *
+     * @ensures this = #this * [(slot, removal)]
+     */
+    public InventoryBatch remove(int slot) {
+        this.append(slot, null);
+
+        return this;
+    }
+
+    /**
+     * Returns the number of operations recorded.
+     *
+     * @return |this|
+     */
+    public int size() {
+        return this.length;
+    }
+
+    /**
+     * Forgets every operation recorded.
+     *
+     * @clears this
+     */
+    public void clear() {
+        Arrays.fill(this.items, 0, this.length, null);
+        this.length = 0;
+    }
+
+    /**
+     * Returns the slots of the operations, in order; only the first
+     * {@code size()} entries are used.
+     *
+     * @return the slots
+     */
+    int[] slots() {
+        return this.slots;
+    }
+
+    /**
+     * Returns the Items of the operations, in order, with null for each
+     * removal; only the first {@code size()} entries are used.
+     *
+     * @return the Items
+     */
+    Item[] items() {
+        return this.items;
+    }
+}
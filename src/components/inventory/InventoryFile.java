@@ -0,0 +1,942 @@
+package components.inventory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Memory-mapped file holding the blocks of an {@code Inventory3}. The file
+ * starts with a header block recording the layout version, the number of
+ * slots, the number of blocks in use, the head of the free list and the
+ * generation of the last force; the rest of the header is reserved. The
+ * blocks follow, exactly as {@code Inventory3} lays them out in memory, and
+ * are mapped in segments of {@code Inventory3.SEGMENT_BLOCKS} blocks, so the
+ * file is not limited to the 2 GB one mapping can hold. The names and tags
+ * the blocks refer to by id are kept in a dictionary file next to it, named
+ * after it with {@code DICTIONARY_SUFFIX} appended.
+ *
+ * <p>
+ * The segments are private mappings: changes to them are seen by
+ * {@code this} at once but never reach the file by themselves. Each changed
+ * block is noted, and {@code force} moves them all to the file at once. It
+ * first makes the dictionary durable, then writes every changed block and
+ * the new header to a redo log next to the file, named after it with
+ * {@code LOG_SUFFIX} appended, and forces the log; only then does it write
+ * the same blocks and header into the file and force it. A crash before the
+ * log is whole leaves the file as the previous force left it, and its
+ * checksum fails; a crash after leaves a log whose generation is newer than
+ * the header's, and {@code open} writes it into the file again. So the file
+ * always holds exactly what it held at some {@code force}, and opening it
+ * needs to read only the header, the dictionary and any such log; the
+ * blocks are paged in as they are used. How often a force happens is set by
+ * {@code forceEvery}.
+ *
+ * <pre>
+ * log   = generation count entry* crc
+ * generation = 8-byte big-endian generation of the force
+ * count = 4-byte big-endian number of entries
+ * entry = 4-byte big-endian block number, or -1 for the header, then
+ *         the BLOCK_BYTES bytes of the block
+ * crc   = 4-byte big-endian CRC-32 of everything before it
+ * </pre>
+ *
+ * <p>
+ * A page of a segment that has been changed is a private copy held in
+ * memory until the segment is mapped again, which happens once
+ * {@code REMAP_BLOCKS} of its blocks have been forced since it was mapped.
+ *
+ * @author David Stuckey
+ */
+final class InventoryFile {
+
+    /** Suffix of the dictionary file that goes with an inventory file. */
+    static final String DICTIONARY_SUFFIX = ".dict";
+
+    /** Suffix of the redo log that goes with an inventory file. */
+    static final String LOG_SUFFIX = ".log";
+
+    /** Marks the start of an inventory file. */
+    private static final int MAGIC = 0x494E5633;
+
+    /** The version of the layout written by this class. */
+    private static final int VERSION = 2;
+
+    /** The number of bytes in the header, which is one block. */
+    private static final int HEADER_BYTES = Inventory3.BLOCK_BYTES;
+
+    /** Offset of the magic number in the header. */
+    private static final int MAGIC_FIELD = 0;
+
+    /** Offset of the layout version in the header. */
+    private static final int VERSION_FIELD = 4;
+
+    /** Offset of the number of slots in the header. */
+    private static final int SIZE_FIELD = 8;
+
+    /** Offset of the number of blocks in use or free in the header. */
+    private static final int BLOCKS_FIELD = 12;
+
+    /** Offset of the head of the free list in the header. */
+    private static final int FREE_FIELD = 16;
+
+    /** Offset of the generation of the last force in the header. */
+    private static final int GENERATION_FIELD = 24;
+
+    /** The block number of the header in a log entry. */
+    private static final int HEADER_ENTRY = -1;
+
+    /** The number of bytes in a log file other than its entries. */
+    private static final int LOG_FRAME_BYTES = Long.BYTES + 2 * Integer.BYTES;
+
+    /** The number of bytes in each log entry. */
+    private static final int LOG_ENTRY_BYTES = Integer.BYTES
+            + Inventory3.BLOCK_BYTES;
+
+    /**
+     * The number of blocks of a segment forced since it was mapped after
+     * which it is mapped again, dropping the private copies of its pages.
+     */
+    private static final int REMAP_BLOCKS = 1 << 14;
+
+    /** The number of bytes in a full segment of blocks. */
+    private static final long SEGMENT_BYTES = (long) Inventory3.SEGMENT_BLOCKS
+            * Inventory3.BLOCK_BYTES;
+
+    /** The file. */
+    private final Path path;
+
+    /** The dictionary file. */
+    private final Path dictionary;
+
+    /** The redo log. */
+    private final Path log;
+
+    /** The directory holding the file and its dictionary. */
+    private final Path directory;
+
+    /** The open channel to the file. */
+    private final FileChannel channel;
+
+    /** The open channel to the redo log. */
+    private final FileChannel logChannel;
+
+    /** The private mappings of the blocks, one per segment. */
+    private MappedByteBuffer[] segments;
+
+    /** The number of blocks forced in each segment since it was mapped. */
+    private int[] forcedSinceMapped;
+
+    /** The number of blocks the segments have room for. */
+    private int capacity;
+
+    /** The number of slots recorded in the header. */
+    private final int size;
+
+    /** The number of blocks in use or free recorded in the header. */
+    private int blocks;
+
+    /** The head of the free list recorded in the header. */
+    private int free;
+
+    /** The generation of the last force. */
+    private long generation;
+
+    /** The blocks changed since the last force. */
+    private final BitSet changed;
+
+    /** The blocks changed since the last force, in the order first changed. */
+    private int[] changedList;
+
+    /** The number of blocks in {@code changedList}. */
+    private int changedCount;
+
+    /** The number of changes to allow between forces, or 0 for no limit. */
+    private final int forceEvery;
+
+    /** The number of changes since the last force. */
+    private int unforced;
+
+    /** The number of names in the dictionary file. */
+    private int namesWritten;
+
+    /** The number of tags in the dictionary file. */
+    private int tagsWritten;
+
+    /** The names read from the dictionary file. */
+    private final SymbolTable names;
+
+    /** The tags read from the dictionary file. */
+    private final SymbolTable tags;
+
+    /**
+     * Opens {@code path}, which is open on {@code channel}: replays its redo
+     * log if the last force did not finish, reads its header and dictionary
+     * and maps its blocks.
+     *
+     * @param path
+     *            the file
+     * @param channel
+     *            an open read/write channel to it
+     * @param forceEvery
+     *            the number of changes to allow between forces, or 0
+     * @throws IOException
+     *             if the file, its log or its dictionary cannot be read, or
+     *             the file is not an inventory file
+     */
+    private InventoryFile(Path path, FileChannel channel, int forceEvery)
+            throws IOException {
+        this.path = path;
+        this.dictionary = path
+                .resolveSibling(path.getFileName() + DICTIONARY_SUFFIX);
+        this.log = path.resolveSibling(path.getFileName() + LOG_SUFFIX);
+        this.directory = path.toAbsolutePath().getParent();
+        this.channel = channel;
+        this.forceEvery = forceEvery;
+        this.unforced = 0;
+        this.names = new SymbolTable();
+        this.tags = new SymbolTable();
+        this.changed = new BitSet();
+        this.changedList = new int[Integer.SIZE];
+        this.changedCount = 0;
+
+        ByteBuffer header = this.readHeader();
+
+        if (Files.exists(this.log) && this.replayLog(header.getLong(
+                GENERATION_FIELD))) {
+            header = this.readHeader();
+        }
+
+        this.size = header.getInt(SIZE_FIELD);
+        this.blocks = header.getInt(BLOCKS_FIELD);
+        this.free = header.getInt(FREE_FIELD);
+        this.generation = header.getLong(GENERATION_FIELD);
+        this.segments = new MappedByteBuffer[0];
+        this.forcedSinceMapped = new int[0];
+        this.map((int) Math.min(Inventory3.MAX_BLOCKS,
+                (channel.size() - HEADER_BYTES) / Inventory3.BLOCK_BYTES));
+
+        if (Files.exists(this.dictionary)) {
+            this.readDictionary();
+        }
+
+        this.namesWritten = this.names.size();
+        this.tagsWritten = this.tags.size();
+
+        boolean newLog = !Files.exists(this.log);
+        this.logChannel = FileChannel.open(this.log,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        if (newLog) {
+            this.syncDirectory();
+        }
+    }
+
+    /**
+     * Creates a new inventory file at {@code path} with {@code size} empty
+     * slots, replacing any file already there. Every block starts out zeroed,
+     * which {@code Inventory3} reads as an empty slot, so this does not have
+     * to write the slots.
+     *
+     * @param path
+     *            the file to create
+     * @param size
+     *            the number of slots
+     * @param forceEvery
+     *            the number of changes to allow between forces, or 0
+     * @return the new file, mapped
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    static InventoryFile create(Path path, int size, int forceEvery)
+            throws IOException {
+        Files.deleteIfExists(path.resolveSibling(
+                path.getFileName() + DICTIONARY_SUFFIX));
+        Files.deleteIfExists(
+                path.resolveSibling(path.getFileName() + LOG_SUFFIX));
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        InventoryFile file;
+
+        try {
+            channel.write(ByteBuffer.allocate(1),
+                    HEADER_BYTES + (long) size * Inventory3.BLOCK_BYTES - 1);
+            writeFully(channel, header(size, size, 0, 0), 0);
+            channel.force(true);
+            file = new InventoryFile(path, channel, forceEvery);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return file;
+    }
+
+    /**
+     * Opens the inventory file at {@code path}, finishing the last force if
+     * a crash interrupted it, and checks that its header is sound and that
+     * the file is long enough for the blocks it records. Only the header,
+     * the log and the dictionary are read; the blocks are paged in as they
+     * are used.
+     *
+     * @param path
+     *            the file to open
+     * @param forceEvery
+     *            the number of changes to allow between forces, or 0
+     * @return the file, mapped
+     * @throws IOException
+     *             if the file cannot be read or is not an inventory file
+     */
+    static InventoryFile open(Path path, int forceEvery) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        InventoryFile file;
+
+        try {
+            file = new InventoryFile(path, channel, forceEvery);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (file.size <= 0 || file.blocks < file.size
+                || file.blocks > file.capacity) {
+            file.close();
+            throw new IOException(path + " records " + file.size
+                    + " slots and " + file.blocks
+                    + " blocks but has room for " + file.capacity);
+        }
+
+        if (file.free != 0 && (file.free < file.size
+                || file.free >= file.blocks)) {
+            file.close();
+            throw new IOException(
+                    path + " has bad free list head " + file.free);
+        }
+
+        return file;
+    }
+
+    /**
+     * Returns a header block recording the given values.
+     *
+     * @param size
+     *            the number of slots
+     * @param blocks
+     *            the number of blocks in use or free
+     * @param free
+     *            the head of the free list
+     * @param generation
+     *            the generation of the force
+     * @return the header, ready to write
+     */
+    private static ByteBuffer header(int size, int blocks, int free,
+            long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_FIELD, MAGIC);
+        header.putInt(VERSION_FIELD, VERSION);
+        header.putInt(SIZE_FIELD, size);
+        header.putInt(BLOCKS_FIELD, blocks);
+        header.putInt(FREE_FIELD, free);
+        header.putLong(GENERATION_FIELD, generation);
+
+        return header;
+    }
+
+    /**
+     * Reads and checks the header of the file.
+     *
+     * @return the header
+     * @throws IOException
+     *             if the file cannot be read or is not an inventory file
+     */
+    private ByteBuffer readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        while (header.hasRemaining()
+                && this.channel.read(header, header.position()) > 0) {
+            continue;
+        }
+
+        if (header.hasRemaining() || header.getInt(MAGIC_FIELD) != MAGIC) {
+            throw new IOException(this.path + " is not an inventory file");
+        }
+
+        if (header.getInt(VERSION_FIELD) != VERSION) {
+            throw new IOException(this.path + " has unknown layout version "
+                    + header.getInt(VERSION_FIELD));
+        }
+
+        return header;
+    }
+
+    /**
+     * Writes the blocks and header in the redo log into the file, if the log
+     * is whole and newer than {@code generation}, and forces the file.
+     *
+     * @param generation
+     *            the generation recorded in the file's header
+     * @return true if the log was written into the file
+     * @throws IOException
+     *             if the log or the file cannot be read or written
+     */
+    private boolean replayLog(long generation) throws IOException {
+        long length = Files.size(this.log);
+        boolean replay = false;
+
+        if (length >= LOG_FRAME_BYTES) {
+            CRC32 crc = new CRC32();
+
+            try (DataInputStream in = new DataInputStream(
+                    new CheckedInputStream(new BufferedInputStream(
+                            Files.newInputStream(this.log)), crc))) {
+                long logged = in.readLong();
+                long count = in.readInt();
+
+                if (logged > generation && count >= 0 && length
+                        == LOG_FRAME_BYTES + count * LOG_ENTRY_BYTES) {
+                    in.skipNBytes(count * LOG_ENTRY_BYTES);
+                    long expected = crc.getValue();
+                    replay = in.readInt() == (int) expected;
+                }
+            } catch (EOFException e) {
+                replay = false;
+            }
+        }
+
+        if (replay) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(this.log)))) {
+                in.readLong();
+                int count = in.readInt();
+                byte[] block = new byte[Inventory3.BLOCK_BYTES];
+
+                for (int k = 0; k < count; k++) {
+                    long position = HEADER_BYTES
+                            + (long) in.readInt() * Inventory3.BLOCK_BYTES;
+                    in.readFully(block);
+                    writeFully(this.channel, ByteBuffer.wrap(block),
+                            position);
+                }
+            }
+
+            this.channel.force(true);
+        }
+
+        return replay;
+    }
+
+    /**
+     * Writes all of {@code bytes} to {@code channel} at {@code position}.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param bytes
+     *            the bytes to write, from their position to their limit
+     * @param position
+     *            where in the file to write them
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer bytes,
+            long position) throws IOException {
+        long at = position;
+
+        while (bytes.hasRemaining()) {
+            at += channel.write(bytes, at);
+        }
+    }
+
+    /**
+     * Maps segment {@code k} of the file, holding {@code blocks} blocks.
+     *
+     * @param k
+     *            the segment
+     * @param blocks
+     *            the number of blocks in it
+     * @return the private mapping of the segment
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    private MappedByteBuffer mapSegment(int k, int blocks)
+            throws IOException {
+        MappedByteBuffer segment = this.channel.map(
+                FileChannel.MapMode.PRIVATE, HEADER_BYTES + k * SEGMENT_BYTES,
+                (long) blocks * Inventory3.BLOCK_BYTES);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+
+        return segment;
+    }
+
+    /**
+     * Maps the first {@code blocks} blocks of the file, growing it if needed.
+     * Full segments that are already mapped are kept as they are; the blocks
+     * changed since the last force are copied into any segment mapped again.
+     *
+     * @param blocks
+     *            the number of blocks to map
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    private void map(int blocks) throws IOException {
+        long length = HEADER_BYTES + (long) blocks * Inventory3.BLOCK_BYTES;
+
+        if (this.channel.size() < length) {
+            writeFully(this.channel, ByteBuffer.allocate(1), length - 1);
+        }
+
+        MappedByteBuffer[] mapped = new MappedByteBuffer[Inventory3
+                .segmentCount(blocks)];
+        int[] forced = Arrays.copyOf(this.forcedSinceMapped, mapped.length);
+
+        for (int k = 0; k < mapped.length; k++) {
+            int segmentBlocks = Inventory3.segmentBlocks(blocks, k);
+
+            if (k < this.segments.length && this.segments[k]
+                    .capacity() == segmentBlocks * Inventory3.BLOCK_BYTES) {
+                mapped[k] = this.segments[k];
+            } else {
+                mapped[k] = this.mapSegment(k, segmentBlocks);
+                forced[k] = 0;
+
+                if (k < this.segments.length) {
+                    this.copyChanged(this.segments[k], mapped[k], k);
+                }
+            }
+        }
+
+        this.segments = mapped;
+        this.forcedSinceMapped = forced;
+        this.capacity = blocks;
+    }
+
+    /**
+     * Copies the blocks of segment {@code k} changed since the last force
+     * from {@code from} to {@code to}.
+     *
+     * @param from
+     *            the old mapping of the segment
+     * @param to
+     *            the new mapping of the segment
+     * @param k
+     *            the segment
+     */
+    private void copyChanged(ByteBuffer from, ByteBuffer to, int k) {
+        for (int j = 0; j < this.changedCount; j++) {
+            int block = this.changedList[j];
+
+            if (block / Inventory3.SEGMENT_BLOCKS == k) {
+                int offset = (block % Inventory3.SEGMENT_BLOCKS)
+                        * Inventory3.BLOCK_BYTES;
+                to.put(offset, from, offset, Inventory3.BLOCK_BYTES);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the blocks {@code first} up to {@code last},
+     * which are in the same segment.
+     *
+     * @param first
+     *            the first block
+     * @param last
+     *            the last block
+     * @return a view of the blocks, from its position to its limit
+     */
+    private ByteBuffer span(int first, int last) {
+        ByteBuffer span = this.segments[first / Inventory3.SEGMENT_BLOCKS]
+                .duplicate();
+        int offset = (first % Inventory3.SEGMENT_BLOCKS)
+                * Inventory3.BLOCK_BYTES;
+        span.limit(offset + (last - first + 1) * Inventory3.BLOCK_BYTES);
+        span.position(offset);
+
+        return span;
+    }
+
+    /**
+     * Returns the blocks of the file, as one buffer per segment whose byte 0
+     * is byte 0 of the first block of the segment.
+     *
+     * @return the mapped segments
+     */
+    ByteBuffer[] segments() {
+        return this.segments.clone();
+    }
+
+    /**
+     * Grows the file to hold at least {@code blocks} blocks and returns the
+     * new mapping of the blocks.
+     *
+     * @param blocks
+     *            the number of blocks needed
+     * @return the mapped segments
+     */
+    ByteBuffer[] grow(int blocks) {
+        try {
+            this.map(blocks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return this.segments();
+    }
+
+    /**
+     * Returns the number of blocks the file has room for.
+     *
+     * @return the capacity of the file, in blocks
+     */
+    int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of slots recorded in the header.
+     *
+     * @return the number of slots
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of blocks in use or free as of the last force.
+     *
+     * @return the number of blocks
+     */
+    int blocks() {
+        return this.blocks;
+    }
+
+    /**
+     * Returns the head of the free list as of the last force.
+     *
+     * @return the first free block
+     */
+    int free() {
+        return this.free;
+    }
+
+    /**
+     * Returns the names read from the dictionary file.
+     *
+     * @return the name table
+     */
+    SymbolTable names() {
+        return this.names;
+    }
+
+    /**
+     * Returns the tags read from the dictionary file.
+     *
+     * @return the tag table
+     */
+    SymbolTable tags() {
+        return this.tags;
+    }
+
+    /**
+     * Notes that {@code block} has been changed, so the next force writes
+     * it to the file.
+     *
+     * @param block
+     *            the block
+     */
+    void changed(int block) {
+        if (!this.changed.get(block)) {
+            this.changed.set(block);
+
+            if (this.changedCount == this.changedList.length) {
+                this.changedList = Arrays.copyOf(this.changedList,
+                        2 * this.changedCount);
+            }
+
+            this.changedList[this.changedCount] = block;
+            this.changedCount++;
+        }
+    }
+
+    /**
+     * Records one change to the blocks, and reports whether the policy calls
+     * for a force now.
+     *
+     * @return true if {@code force} should be called
+     */
+    boolean written() {
+        this.unforced++;
+
+        return this.forceEvery > 0 && this.unforced >= this.forceEvery;
+    }
+
+    /**
+     * Makes every change to the blocks durable at once, recording
+     * {@code blocks} and {@code free} as the allocator's state, and returns
+     * the mapping of the blocks, which may have changed.
+     *
+     * @param blocks
+     *            the number of blocks in use or free
+     * @param free
+     *            the head of the free list
+     * @return the mapped segments
+     */
+    ByteBuffer[] force(int blocks, int free) {
+        if (this.changedCount > 0 || blocks != this.blocks
+                || free != this.free || this.names.size() != this.namesWritten
+                || this.tags.size() != this.tagsWritten) {
+            try {
+                if (this.names.size() != this.namesWritten
+                        || this.tags.size() != this.tagsWritten) {
+                    this.writeDictionary();
+                }
+
+                int[] sorted = Arrays.copyOf(this.changedList,
+                        this.changedCount);
+                Arrays.sort(sorted);
+                ByteBuffer header = header(this.size, blocks, free,
+                        this.generation + 1);
+
+                this.writeLog(sorted, header);
+                this.apply(sorted, header);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.blocks = blocks;
+            this.free = free;
+            this.generation++;
+            this.changed.clear();
+            this.changedCount = 0;
+        }
+
+        this.unforced = 0;
+
+        return this.segments();
+    }
+
+    /**
+     * Replaces the redo log with the blocks {@code sorted} and
+     * {@code header}, and waits until it has reached the disk.
+     *
+     * @param sorted
+     *            the changed blocks, in increasing order
+     * @param header
+     *            the new header
+     * @throws IOException
+     *             if the log cannot be written
+     */
+    private void writeLog(int[] sorted, ByteBuffer header)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[Inventory3.BLOCK_BYTES];
+
+        this.logChannel.truncate(0);
+
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(
+                        Channels.newOutputStream(this.logChannel)),
+                crc));
+
+        out.writeLong(this.generation + 1);
+        out.writeInt(sorted.length + 1);
+
+        for (int b : sorted) {
+            this.span(b, b).get(block);
+            out.writeInt(b);
+            out.write(block);
+        }
+
+        out.writeInt(HEADER_ENTRY);
+        out.write(header.array());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        this.logChannel.force(true);
+    }
+
+    /**
+     * Writes the blocks {@code sorted} and {@code header} into the file, a
+     * run of adjacent blocks at a time, and waits until they have reached
+     * the disk. Segments that have had {@code REMAP_BLOCKS} blocks forced
+     * since they were mapped are then mapped again.
+     *
+     * @param sorted
+     *            the changed blocks, in increasing order
+     * @param header
+     *            the new header
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private void apply(int[] sorted, ByteBuffer header) throws IOException {
+        int j = 0;
+
+        while (j < sorted.length) {
+            int first = sorted[j];
+            int segment = first / Inventory3.SEGMENT_BLOCKS;
+            j++;
+
+            while (j < sorted.length && sorted[j] == sorted[j - 1] + 1
+                    && sorted[j] / Inventory3.SEGMENT_BLOCKS == segment) {
+                j++;
+            }
+
+            writeFully(this.channel, this.span(first, sorted[j - 1]),
+                    HEADER_BYTES + (long) first * Inventory3.BLOCK_BYTES);
+            this.forcedSinceMapped[segment] += sorted[j - 1] - first + 1;
+        }
+
+        writeFully(this.channel, header, 0);
+        this.channel.force(true);
+
+        for (int k = 0; k < this.segments.length; k++) {
+            if (this.forcedSinceMapped[k] >= REMAP_BLOCKS) {
+                this.segments[k] = this.mapSegment(k,
+                        Inventory3.segmentBlocks(this.capacity, k));
+                this.forcedSinceMapped[k] = 0;
+            }
+        }
+    }
+
+    /**
+     * Closes the file and its log, dropping any change not yet forced. The
+     * mappings stay valid until they are garbage collected, but must no
+     * longer be used.
+     */
+    void close() {
+        try {
+            this.channel.close();
+            this.logChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the dictionary file into {@code names} and {@code tags}.
+     *
+     * @throws IOException
+     *             if the dictionary cannot be read
+     */
+    private void readDictionary() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(this.dictionary)))) {
+
+            for (SymbolTable table : new SymbolTable[] {this.names,
+                    this.tags }) {
+                int count = in.readInt();
+
+                for (int id = 0; id < count; id++) {
+                    String symbol = in.readUTF();
+
+                    if (table.intern(symbol) != id) {
+                        throw new IOException(this.dictionary
+                                + " lists a symbol twice: " + symbol);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the dictionary file with {@code names} and {@code tags}, and
+     * waits until the new dictionary has reached the disk. The new dictionary
+     * is written and forced beside the old one, then moved over it, so the
+     * file is never left half written; the directory is forced before the
+     * move, so the new file is there to move, and after it, so the move
+     * itself survives a crash.
+     *
+     * @throws IOException
+     *             if the dictionary cannot be written
+     */
+    private void writeDictionary() throws IOException {
+        Path next = this.dictionary.resolveSibling(
+                this.dictionary.getFileName() + ".tmp");
+        int namesSize = this.names.size();
+        int tagsSize = this.tags.size();
+
+        try (FileChannel channel = FileChannel.open(next,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+
+            out.writeInt(namesSize);
+
+            for (int id = 0; id < namesSize; id++) {
+                out.writeUTF(this.names.symbol(id));
+            }
+
+            out.writeInt(tagsSize);
+
+            for (int id = 0; id < tagsSize; id++) {
+                out.writeUTF(this.tags.symbol(id));
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        this.syncDirectory();
+        Files.move(next, this.dictionary, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.syncDirectory();
+        this.namesWritten = namesSize;
+        this.tagsWritten = tagsSize;
+    }
+
+    /**
+     * Forces the directory holding the file to disk, so that files created,
+     * replaced or moved in it survive a crash. Some platforms cannot open a
+     * directory as a channel; there this does nothing, and such changes are
+     * as durable as the platform makes them.
+     *
+     * @throws IOException
+     *             if the directory cannot be forced
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel dir;
+
+        try {
+            dir = FileChannel.open(this.directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            dir = null;
+        }
+
+        if (dir != null) {
+            try {
+                dir.force(true);
+            } finally {
+                dir.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.path.toString();
+    }
+}
@@ -0,0 +1,800 @@
+package components.inventory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Binary format for Inventories, written and read as a stream so that neither
+ * side needs more memory than the names and tags in use. All numbers are
+ * unsigned LEB128 varints; signed values (counts and tag values) are zigzag
+ * encoded first. Names and tags are dictionary encoded inline: the first use
+ * of a symbol writes it out in full and gives it the next id, and later uses
+ * write only the id. The layout is:
+ *
+ * <pre>
+ * stream       = magic version size restrictions item* END
+ * magic        = the 4 bytes "INV1"
+ * version      = 1 byte, VERSION
+ * size         = varint number of slots
+ * restrictions = varint n, then n tag refs
+ * item         = varint gap (empty slots skipped since the last item)
+ *                name-ref zigzag(count) varint m, then m (tag-ref
+ *                zigzag(value)) pairs, count excluded
+ * name-ref     = 0 (END) | 1 (NEW_NAME) string | varint (stream id + 2)
+ * tag-ref      = 0 (NEW_TAG) string | varint (stream id + 1)
+ * string       = varint byte length, then UTF-8 bytes
+ * </pre>
+ *
+ * <p>
+ * {@code InventoryJournal} builds its records from the same pieces, through
+ * {@code writeItemBody} and {@code readItemBody}.
+ *
+ * @author David Stuckey
+ */
+final class InventoryFormat {
+
+    /** The bytes that start every stream. */
+    private static final byte[] MAGIC = {'I', 'N', 'V', '1' };
+
+    /** The version of the layout written by this class. */
+    static final int VERSION = 1;
+
+    /** Name ref marking the end of the items; the gap before it is unused. */
+    private static final int END = 0;
+
+    /** Name ref announcing a new name, written out in full. */
+    private static final int NEW_NAME = 1;
+
+    /** Tag ref announcing a new tag, written out in full. */
+    private static final int NEW_TAG = 0;
+
+    /** The number of bytes buffered on each side of the stream. */
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /** The longest name or tag a stream may hold, in UTF-8 bytes. */
+    static final int MAX_STRING_BYTES = 1 << 16;
+
+    /** The number of payload bits in each varint byte. */
+    private static final int VARINT_BITS = 7;
+
+    /** Mask for the payload bits of a varint byte. */
+    private static final int VARINT_MASK = 0x7F;
+
+    /** Flag set on every varint byte but the last. */
+    private static final int VARINT_MORE = 0x80;
+
+    /** Byte mask. */
+    private static final int BYTE_MASK = 0xFF;
+
+    /** Mask for an int read as unsigned. */
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private InventoryFormat() {
+    }
+
+    /**
+     * Returns {@code value} zigzag encoded, so that values near 0 of either
+     * sign have short varints.
+     *
+     * @param value
+     *            the signed value
+     * @return the encoded value
+     */
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> (Integer.SIZE - 1));
+    }
+
+    /**
+     * Returns the value {@code encoded} was zigzag encoded from.
+     *
+     * @param encoded
+     *            the encoded value
+     * @return the signed value
+     */
+    private static int unzigzag(int encoded) {
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /**
+     * Writes an Inventory to a stream. Symbols are given stream ids in the
+     * order they first appear, and the ids are kept in maps holding only the
+     * symbols of this stream, so a Writer costs the same however many
+     * symbols the process has seen. Names are written from the Item and
+     * never added to {@code SymbolTable.NAMES}.
+     */
+    static final class Writer {
+
+        /** The stream written to. */
+        private final OutputStream out;
+
+        /** Bytes not yet passed on to {@code out}. */
+        private final byte[] buffer;
+
+        /** The number of bytes in {@code buffer}. */
+        private int length;
+
+        /** Stream id + 1 of each name written so far. */
+        private final Map<String, Integer> names;
+
+        /** Stream id + 1 of each tag written so far. */
+        private final Map<String, Integer> tags;
+
+        /** Empty slots seen since the last Item written. */
+        private int gap;
+
+        /**
+         * Creates a Writer on {@code out}.
+         *
+         * @param out
+         *            the stream to write to
+         */
+        Writer(OutputStream out) {
+            this.out = out;
+            this.buffer = new byte[BUFFER_BYTES];
+            this.length = 0;
+            this.names = new HashMap<String, Integer>();
+            this.tags = new HashMap<String, Integer>();
+            this.gap = 0;
+        }
+
+        /**
+         * Writes the header: magic, version, size and restrictions.
+         *
+         * @param size
+         *            the number of slots
+         * @param restrictions
+         *            the ids in {@code SymbolTable.TAGS} of the required tags
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void writeHeader(int size, int[] restrictions) throws IOException {
+            for (byte b : MAGIC) {
+                this.writeByte(b);
+            }
+
+            this.writeByte(VERSION);
+            this.writeVarint(size);
+            this.writeVarint(restrictions.length);
+
+            for (int t : restrictions) {
+                this.writeTag(SymbolTable.TAGS.symbol(t));
+            }
+        }
+
+        /**
+         * Writes the Item in the next slot.
+         *
+         * @param item
+         *            the Item, which may be empty
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void writeItem(Item item) throws IOException {
+            if (item.isEmpty()) {
+                this.gap++;
+            } else {
+                this.writeVarint(this.gap);
+                this.gap = 0;
+                this.writeItemBody(item);
+            }
+        }
+
+        /**
+         * Writes the name, count and tags of {@code item}, without the gap
+         * that precedes them in an Inventory stream.
+         *
+         * @param item
+         *            the Item, which must not be empty
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void writeItemBody(Item item) throws IOException {
+            if (item instanceof BasicItem) {
+                BasicItem basic = (BasicItem) item;
+
+                this.writeName(basic.getName());
+                this.writeVarint(zigzag(basic.getCount()));
+                this.writeVarint(basic.tagCount());
+
+                for (int k = 0; k < basic.tagCount(); k++) {
+                    this.writeTag(SymbolTable.TAGS.symbol(basic.tagIdAt(k)));
+                    this.writeVarint(zigzag(basic.tagValueAt(k)));
+                }
+            } else {
+                Map<String, Integer> itemTags = item.getTags();
+
+                this.writeName(item.getName());
+                this.writeVarint(zigzag(item.getCount()));
+                this.writeVarint(itemTags.size() - 1);
+
+                for (Map.Entry<String, Integer> tag : itemTags.entrySet()) {
+                    if (!tag.getKey().equals(Item.COUNT)) {
+                        this.writeTag(tag.getKey());
+                        this.writeVarint(zigzag(tag.getValue()));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a reference to {@code tag}.
+         *
+         * @param tag
+         *            the tag
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void writeTagRef(String tag) throws IOException {
+            this.writeTag(tag);
+        }
+
+        /**
+         * Passes everything written so far on to the stream and flushes it,
+         * without writing the end marker.
+         *
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void flush() throws IOException {
+            this.out.write(this.buffer, 0, this.length);
+            this.length = 0;
+            this.out.flush();
+        }
+
+        /**
+         * Writes the end marker and flushes everything to the stream, which
+         * is left open.
+         *
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void finish() throws IOException {
+            this.writeVarint(0);
+            this.writeVarint(END);
+            this.flush();
+        }
+
+        /**
+         * Writes a reference to the name {@code name}.
+         *
+         * @param name
+         *            the name
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        private void writeName(String name) throws IOException {
+            Integer id = this.names.get(name);
+
+            if (id == null) {
+                this.names.put(name, this.names.size() + 1);
+                this.writeVarint(NEW_NAME);
+                this.writeString(name);
+            } else {
+                this.writeVarint(id + NEW_NAME);
+            }
+        }
+
+        /**
+         * Writes a reference to the tag {@code tag}.
+         *
+         * @param tag
+         *            the tag
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        private void writeTag(String tag) throws IOException {
+            Integer id = this.tags.get(tag);
+
+            if (id == null) {
+                this.tags.put(tag, this.tags.size() + 1);
+                this.writeVarint(NEW_TAG);
+                this.writeString(tag);
+            } else {
+                this.writeVarint(id);
+            }
+        }
+
+        /**
+         * Writes {@code s} as its UTF-8 length and bytes.
+         *
+         * @param s
+         *            the string
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        private void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+            if (bytes.length > MAX_STRING_BYTES) {
+                throw new IOException("Name or tag too long to write");
+            }
+
+            this.writeVarint(bytes.length);
+
+            for (byte b : bytes) {
+                this.writeByte(b);
+            }
+        }
+
+        /**
+         * Writes {@code value} as an unsigned varint.
+         *
+         * @param value
+         *            the value, taken as unsigned
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void writeVarint(int value) throws IOException {
+            int rest = value;
+
+            while ((rest & ~VARINT_MASK) != 0) {
+                this.writeByte((rest & VARINT_MASK) | VARINT_MORE);
+                rest >>>= VARINT_BITS;
+            }
+
+            this.writeByte(rest);
+        }
+
+        /**
+         * Writes the low byte of {@code b}.
+         *
+         * @param b
+         *            the byte
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        private void writeByte(int b) throws IOException {
+            if (this.length == this.buffer.length) {
+                this.out.write(this.buffer, 0, this.length);
+                this.length = 0;
+            }
+
+            this.buffer[this.length] = (byte) b;
+            this.length++;
+        }
+    }
+
+    /**
+     * Reads an Inventory from a stream written by {@code Writer}. Every
+     * length read is checked before anything is allocated for it, against
+     * {@code MAX_STRING_BYTES} and against the bytes left when the length of
+     * the stream is known, so bad input fails with an {@code IOException}.
+     * Once {@code finish} is called, no byte past the last one used has been
+     * taken from the stream: a stream of known length is never read past
+     * its end, one that supports {@code mark} is reset to the last byte
+     * used, and any other stream is read one byte at a time, with a call to
+     * {@code read} for each. The size in the header is only checked to be
+     * positive; a caller must not allocate for it before the rest of the
+     * stream has been read and checked.
+     */
+    static final class Reader {
+
+        /** The stream read from. */
+        private final InputStream in;
+
+        /** Bytes read from {@code in} but not yet used. */
+        private final byte[] buffer;
+
+        /** The position of the next unused byte in {@code buffer}. */
+        private int position;
+
+        /** The number of bytes in {@code buffer}. */
+        private int limit;
+
+        /** The number of bytes used before those in {@code buffer}. */
+        private long base;
+
+        /**
+         * The number of bytes of the stream not yet read from {@code in}, or
+         * -1 if the length of the stream is not known.
+         */
+        private long unread;
+
+        /** The names read so far, by stream id. */
+        private final ArrayList<String> names;
+
+        /** The tags read so far, by stream id. */
+        private final ArrayList<String> tags;
+
+        /** The number of slots, once the header is read. */
+        private int size;
+
+        /** The slot of the last Item read, or -1. */
+        private int slot;
+
+        /**
+         * Creates a Reader on {@code in}.
+         *
+         * @param in
+         *            the stream to read from
+         */
+        Reader(InputStream in) {
+            this(in, -1);
+        }
+
+        /**
+         * Creates a Reader on {@code in}, which holds {@code length} bytes.
+         *
+         * @param in
+         *            the stream to read from
+         * @param length
+         *            the number of bytes in the stream, or -1 if not known
+         */
+        Reader(InputStream in, long length) {
+            this.in = in;
+            this.buffer = new byte[BUFFER_BYTES];
+            this.position = 0;
+            this.limit = 0;
+            this.base = 0;
+            this.unread = length;
+            this.names = new ArrayList<String>();
+            this.tags = new ArrayList<String>();
+            this.slot = -1;
+        }
+
+        /**
+         * Reads the header and returns the number of slots.
+         *
+         * @return the number of slots
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        int readHeader() throws IOException {
+            for (byte b : MAGIC) {
+                if (this.readByte() != b) {
+                    throw new IOException("Not an inventory stream");
+                }
+            }
+
+            int version = this.readByte();
+
+            if (version != VERSION) {
+                throw new IOException(
+                        "Unknown inventory stream version " + version);
+            }
+
+            this.size = this.readVarint();
+
+            if (this.size <= 0) {
+                throw new IOException("Bad inventory size " + this.size);
+            }
+
+            return this.size;
+        }
+
+        /**
+         * Reads the restrictions, which follow the header.
+         *
+         * @return the required tags
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        String[] readRestrictions() throws IOException {
+            int n = this.readLength(Integer.MAX_VALUE, "restriction count");
+            ArrayList<String> restrictions = new ArrayList<String>();
+
+            for (int k = 0; k < n; k++) {
+                restrictions.add(this.readTag());
+            }
+
+            return restrictions.toArray(new String[restrictions.size()]);
+        }
+
+        /**
+         * Reads the next Item, or returns null at the end of the stream.
+         *
+         * @return the next Item, or null
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        BasicItem readItem() throws IOException {
+            int gap = this.readVarint();
+            int ref = this.readVarint();
+
+            BasicItem item = null;
+
+            if (ref != END) {
+                String name = this.readName(ref);
+
+                if (gap < 0 || gap >= this.size - this.slot - 1) {
+                    throw new IOException("Item past the last slot");
+                }
+
+                this.slot += gap + 1;
+                item = this.readItemRest(name);
+            }
+
+            return item;
+        }
+
+        /**
+         * Reads the name, count and tags of an Item, as written by
+         * {@code Writer.writeItemBody}.
+         *
+         * @return the Item
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        BasicItem readItemBody() throws IOException {
+            int ref = this.readVarint();
+
+            if (ref == END) {
+                throw new IOException("Missing item name");
+            }
+
+            return this.readItemRest(this.readName(ref));
+        }
+
+        /**
+         * Reads the count and tags of an Item called {@code name}.
+         *
+         * @param name
+         *            the name of the Item
+         * @return the Item
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        private BasicItem readItemRest(String name) throws IOException {
+            BasicItem item = new BasicItem(name, unzigzag(this.readVarint()));
+
+            for (int k = this.readVarint(); k > 0; k--) {
+                String tag = this.readTag();
+                item.putTag(tag, unzigzag(this.readVarint()));
+            }
+
+            return item;
+        }
+
+        /**
+         * Reads the rest of the name reference {@code ref}, which is not
+         * {@code END}.
+         *
+         * @param ref
+         *            the name reference already read
+         * @return the name
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        private String readName(int ref) throws IOException {
+            String name;
+
+            if (ref == NEW_NAME) {
+                name = this.readString();
+                this.names.add(name);
+            } else if (ref - NEW_NAME - 1 < this.names.size()) {
+                name = this.names.get(ref - NEW_NAME - 1);
+            } else {
+                throw new IOException("Unknown name ref " + ref);
+            }
+
+            return name;
+        }
+
+        /**
+         * Reports whether the stream has ended, reading ahead if needed.
+         *
+         * @return true if no bytes are left
+         * @throws IOException
+         *             if the stream cannot be read
+         */
+        boolean atEnd() throws IOException {
+            return this.position == this.limit && !this.fill();
+        }
+
+        /**
+         * Gives back to the stream, if it supports {@code mark}, the bytes
+         * read ahead but not used, so that reading it carries on right after
+         * the last byte used. Nothing may be read after this.
+         *
+         * @throws IOException
+         *             if the stream cannot be reset
+         */
+        void finish() throws IOException {
+            if (this.position < this.limit && this.unread < 0) {
+                this.in.reset();
+                long skipped = 0;
+
+                while (skipped < this.position) {
+                    long n = this.in.skip(this.position - skipped);
+
+                    if (n <= 0) {
+                        n = 1;
+
+                        if (this.in.read() < 0) {
+                            throw new EOFException(
+                                    "Inventory stream shrank on reset");
+                        }
+                    }
+
+                    skipped += n;
+                }
+
+                this.base += this.position;
+                this.position = 0;
+                this.limit = 0;
+            }
+        }
+
+        /**
+         * Returns the number of bytes of the stream used so far.
+         *
+         * @return the number of bytes used
+         */
+        long consumed() {
+            return this.base + this.position;
+        }
+
+        /**
+         * Returns the slot of the last Item read.
+         *
+         * @return the slot of the last Item returned by {@code readItem}
+         */
+        int slot() {
+            return this.slot;
+        }
+
+        /**
+         * Reads a tag reference.
+         *
+         * @return the tag
+         * @throws IOException
+         *             if the stream cannot be read or is not in this format
+         */
+        String readTag() throws IOException {
+            int ref = this.readVarint();
+
+            String tag;
+
+            if (ref == NEW_TAG) {
+                tag = this.readString();
+                this.tags.add(tag);
+            } else if (ref - 1 < this.tags.size()) {
+                tag = this.tags.get(ref - 1);
+            } else {
+                throw new IOException("Unknown tag ref " + ref);
+            }
+
+            return tag;
+        }
+
+        /**
+         * Reads a string written as its UTF-8 length and bytes.
+         *
+         * @return the string
+         * @throws IOException
+         *             if the stream cannot be read
+         */
+        private String readString() throws IOException {
+            byte[] bytes = new byte[this.readLength(MAX_STRING_BYTES,
+                    "string")];
+
+            for (int k = 0; k < bytes.length; k++) {
+                bytes[k] = (byte) this.readByte();
+            }
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads a length or count of at most {@code max}, each unit of which
+         * takes at least one byte of the stream.
+         *
+         * @param max
+         *            the largest length allowed
+         * @param what
+         *            what the length is of, for the error message
+         * @return the length
+         * @throws IOException
+         *             if the stream cannot be read, or the length is negative,
+         *             above {@code max} or more than the bytes left
+         */
+        private int readLength(int max, String what) throws IOException {
+            int length = this.readVarint();
+            long left = Long.MAX_VALUE;
+
+            if (this.unread >= 0) {
+                left = this.unread + this.limit - this.position;
+            }
+
+            if (length < 0 || length > max || length > left) {
+                throw new IOException(
+                        "Bad " + what + " length " + (length & LOW_BITS));
+            }
+
+            return length;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @return the value
+         * @throws IOException
+         *             if the stream cannot be read or the varint is too long
+         */
+        int readVarint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                if (shift >= Integer.SIZE) {
+                    throw new IOException("Varint too long");
+                }
+
+                b = this.readByte();
+                value |= (b & VARINT_MASK) << shift;
+                shift += VARINT_BITS;
+            } while ((b & VARINT_MORE) != 0);
+
+            return value;
+        }
+
+        /**
+         * Refills {@code buffer} from the stream, once every byte in it has
+         * been used, taking only bytes the stream is known to hold, or
+         * marking the stream first so they can be given back, or else a
+         * single byte.
+         *
+         * @return false if the stream has ended
+         * @throws IOException
+         *             if the stream cannot be read
+         */
+        private boolean fill() throws IOException {
+            this.base += this.limit;
+            this.position = 0;
+            int want = this.buffer.length;
+
+            if (this.unread >= 0) {
+                want = (int) Math.min(want, this.unread);
+            } else if (this.in.markSupported()) {
+                this.in.mark(want);
+            } else {
+                want = 1;
+            }
+
+            int n = -1;
+
+            if (want > 0) {
+                n = this.in.read(this.buffer, 0, want);
+            }
+
+            this.limit = Math.max(n, 0);
+
+            if (this.unread >= 0) {
+                this.unread -= this.limit;
+            }
+
+            return this.limit > 0;
+        }
+
+        /**
+         * Reads one byte.
+         *
+         * @return the byte, from 0 to 255
+         * @throws IOException
+         *             if the stream cannot be read or has ended
+         */
+        private int readByte() throws IOException {
+            if (this.position == this.limit && !this.fill()) {
+                throw new EOFException("Inventory stream ended early");
+            }
+
+            int b = this.buffer[this.position] & BYTE_MASK;
+            this.position++;
+
+            return b;
+        }
+    }
+}
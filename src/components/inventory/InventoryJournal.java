@@ -0,0 +1,604 @@
+package components.inventory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import components.inventory.Inventory.Item;
+
+/**
+ * Append-only log of the kernel changes made to an Inventory. The file starts
+ * with a header holding the number of slots; the records follow in frames,
+ * each of which is the length and CRC-32 of its payload, then the payload.
+ * Records are buffered in memory and a whole frame is written and forced to
+ * disk at once (a group commit), so many small changes share one
+ * {@code force}. How many records a frame may hold is set by
+ * {@code commitEvery}.
+ *
+ * <p>
+ * Each frame is a self-contained {@code InventoryFormat} stream with its own
+ * dictionary of names and tags, and holds whole records only. A frame that
+ * was being written when the process died is the last in the file, and is
+ * short, fails its checksum, or is still zeros; replaying stops there, and
+ * {@code open} cuts it off before appending, so the log always holds exactly
+ * the frames that were committed. A bad frame with more bytes after it was
+ * not torn but damaged later, so replaying it is refused with an
+ * {@code IOException} and the file is left as it is.
+ *
+ * <pre>
+ * file    = magic version size frame*
+ * magic   = the 4 bytes "INVJ"
+ * version = 1 byte, VERSION
+ * size    = 4-byte big-endian number of slots
+ * frame   = 4-byte length, 4-byte CRC-32 of the payload, payload
+ * payload = record+
+ * record  = ADD varint slot item-body | REMOVE varint slot
+ *         | RESTRICT tag-ref | FREE_RESTRICTIONS
+ * </pre>
+ *
+ * @author David Stuckey
+ */
+final class InventoryJournal {
+
+    /** The bytes that start every journal. */
+    private static final byte[] MAGIC = {'I', 'N', 'V', 'J' };
+
+    /** The version of the layout written by this class. */
+    private static final int VERSION = 1;
+
+    /** The number of bytes in the header. */
+    private static final int HEADER_BYTES = MAGIC.length + 1 + Integer.BYTES;
+
+    /** The number of bytes before the payload of each frame. */
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * The payload size past which a frame is committed whatever
+     * {@code commitEvery} says, which bounds the memory used.
+     */
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+    /** Record of {@code addItem(slot, item)}. */
+    private static final int ADD = 1;
+
+    /** Record of {@code removeItem(slot)}. */
+    private static final int REMOVE = 2;
+
+    /** Record of {@code restrict(tag)}. */
+    private static final int RESTRICT = 3;
+
+    /** Record of {@code freeRestrictions()}. */
+    private static final int FREE_RESTRICTIONS = 4;
+
+    /** The file. */
+    private final Path path;
+
+    /** The open channel to the file, positioned at its end. */
+    private final FileChannel channel;
+
+    /** The number of records to allow in a frame, or 0 for no limit. */
+    private final int commitEvery;
+
+    /** The payload of the frame being built. */
+    private final ByteArrayOutputStream payload;
+
+    /** The writer of the frame being built. */
+    private InventoryFormat.Writer writer;
+
+    /** The number of records in the frame being built. */
+    private int records;
+
+    /** The number of slots recorded in the header. */
+    private final int size;
+
+    /**
+     * Starts appending to {@code path}, which is open on {@code channel}.
+     *
+     * @param path
+     *            the file
+     * @param channel
+     *            an open channel to it, positioned at the end of the last
+     *            whole frame
+     * @param commitEvery
+     *            the number of records to allow in a frame, or 0
+     * @param size
+     *            the number of slots recorded in the header
+     */
+    private InventoryJournal(Path path, FileChannel channel, int commitEvery,
+            int size) {
+        this.path = path;
+        this.channel = channel;
+        this.commitEvery = commitEvery;
+        this.size = size;
+        this.payload = new ByteArrayOutputStream();
+        this.writer = new InventoryFormat.Writer(this.payload);
+        this.records = 0;
+    }
+
+    /**
+     * Creates a new, empty journal at {@code path} for an Inventory with
+     * {@code size} slots, replacing any file already there. The header is
+     * forced to disk before this returns.
+     *
+     * @param path
+     *            the file to create
+     * @param size
+     *            the number of slots
+     * @param commitEvery
+     *            the number of records to allow in a frame, or 0
+     * @return the new journal
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    static InventoryJournal create(Path path, int size, int commitEvery)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.put(MAGIC).put((byte) VERSION).putInt(size).flip();
+            writeFully(channel, header);
+            channel.force(true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new InventoryJournal(path, channel, commitEvery, size);
+    }
+
+    /**
+     * Opens the journal at {@code path}, replays it into {@code target}, cuts
+     * off any torn frame at its end, and returns it ready to append to.
+     *
+     * @param path
+     *            the file to open
+     * @param commitEvery
+     *            the number of records to allow in a frame, or 0
+     * @param target
+     *            the Inventory to replay into, which must be empty and have
+     *            as many slots as the journal records
+     * @return the journal
+     * @throws IOException
+     *             if the file cannot be read, is not a journal, or is
+     *             damaged before its last frame
+     */
+    static InventoryJournal open(Path path, int commitEvery, Inventory target)
+            throws IOException {
+        long valid = replay(path, target);
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE);
+
+        try {
+            if (channel.size() > valid) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+
+            channel.position(valid);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new InventoryJournal(path, channel, commitEvery,
+                target.size());
+    }
+
+    /**
+     * Returns the number of slots recorded in the header of the journal at
+     * {@code path}.
+     *
+     * @param path
+     *            the journal
+     * @return the number of slots
+     * @throws IOException
+     *             if the file cannot be read or is not a journal
+     */
+    static int size(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(path))) {
+            return readHeader(in, path);
+        }
+    }
+
+    /**
+     * Applies every committed record in the journal at {@code path} to
+     * {@code target}, in order.
+     *
+     * @param path
+     *            the journal
+     * @param target
+     *            the Inventory to apply the records to
+     * @return the length of the file up to the end of the last whole frame
+     * @throws IOException
+     *             if the file cannot be read, is not a journal, is damaged
+     *             before its last frame, or holds a record that does not
+     *             apply to {@code target}
+     */
+    static long replay(Path path, Inventory target) throws IOException {
+        long length = Files.size(path);
+        long valid = HEADER_BYTES;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+
+            if (readHeader(in, path) != target.size()) {
+                throw new IOException(path + " is for a different size");
+            }
+
+            byte[] frame = readFrame(in, length - valid, path, valid);
+
+            while (frame != null) {
+                replayFrame(frame, target);
+                valid += FRAME_HEADER_BYTES + frame.length;
+                frame = readFrame(in, length - valid, path, valid);
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Reads and checks the header of a journal.
+     *
+     * @param in
+     *            the journal, at its start
+     * @param path
+     *            the journal's file, for messages
+     * @return the number of slots
+     * @throws IOException
+     *             if {@code in} cannot be read or is not a journal
+     */
+    private static int readHeader(DataInputStream in, Path path)
+            throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+
+        try {
+            in.readFully(magic);
+
+            for (int k = 0; k < MAGIC.length; k++) {
+                if (magic[k] != MAGIC[k]) {
+                    throw new IOException(path + " is not a journal");
+                }
+            }
+
+            int version = in.readUnsignedByte();
+
+            if (version != VERSION) {
+                throw new IOException(
+                        path + " has unknown journal version " + version);
+            }
+
+            int slots = in.readInt();
+
+            if (slots <= 0) {
+                throw new IOException(path + " has bad size " + slots);
+            }
+
+            return slots;
+        } catch (EOFException e) {
+            throw new IOException(path + " is not a journal", e);
+        }
+    }
+
+    /**
+     * Reads the next frame and returns its payload, or returns null if there
+     * is no frame left or the last frame is torn: its header or payload runs
+     * past the end of the file, its payload fails its checksum and ends the
+     * file, or its length and everything after it are zeros.
+     *
+     * @param in
+     *            the journal, at the start of a frame
+     * @param remaining
+     *            the number of bytes left in the file
+     * @param path
+     *            the journal's file, for messages
+     * @param offset
+     *            the position of the frame in the file, for messages
+     * @return the payload, or null
+     * @throws IOException
+     *             if the file cannot be read, or the frame is bad and is not
+     *             the last in the file
+     */
+    private static byte[] readFrame(DataInputStream in, long remaining,
+            Path path, long offset) throws IOException {
+        byte[] frame = null;
+
+        if (remaining >= FRAME_HEADER_BYTES) {
+            int length = in.readInt();
+            int crc = in.readInt();
+            long after = remaining - FRAME_HEADER_BYTES;
+
+            if (length <= 0) {
+                if (length != 0 || crc != 0 || !zeros(in, after)) {
+                    throw damaged(path, offset);
+                }
+            } else if (length <= after) {
+                frame = new byte[length];
+                in.readFully(frame);
+
+                if (crc(frame, length) != crc) {
+                    if (length < after) {
+                        throw damaged(path, offset);
+                    }
+
+                    frame = null;
+                }
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Reads the next {@code count} bytes of {@code in} and reports whether
+     * they are all zero.
+     *
+     * @param in
+     *            the stream to read
+     * @param count
+     *            the number of bytes to read
+     * @return true iff every byte read is zero
+     * @throws IOException
+     *             if {@code in} cannot be read
+     */
+    private static boolean zeros(DataInputStream in, long count)
+            throws IOException {
+        boolean zeros = true;
+
+        for (long k = 0; zeros && k < count; k++) {
+            zeros = in.readUnsignedByte() == 0;
+        }
+
+        return zeros;
+    }
+
+    /**
+     * Returns the exception for a journal with a bad frame that is not its
+     * last.
+     *
+     * @param path
+     *            the journal's file
+     * @param offset
+     *            the position of the bad frame
+     * @return the exception
+     */
+    private static IOException damaged(Path path, long offset) {
+        return new IOException(path + " is damaged at offset " + offset);
+    }
+
+    /**
+     * Applies the records in one frame to {@code target}.
+     *
+     * @param frame
+     *            the payload of the frame
+     * @param target
+     *            the Inventory to apply the records to
+     * @throws IOException
+     *             if the payload holds a record that cannot be read or does
+     *             not apply to {@code target}
+     */
+    private static void replayFrame(byte[] frame, Inventory target)
+            throws IOException {
+        InventoryFormat.Reader reader = new InventoryFormat.Reader(
+                new ByteArrayInputStream(frame), frame.length);
+
+        while (!reader.atEnd()) {
+            int op = reader.readVarint();
+
+            if (op == ADD || op == REMOVE) {
+                int slot = reader.readVarint();
+
+                if (slot < 0 || slot >= target.size()) {
+                    throw new IOException("Record past the last slot");
+                }
+
+                if (op == REMOVE) {
+                    target.removeItem(slot);
+                } else {
+                    Item item = reader.readItemBody();
+                    Item there = target.peekItem(slot);
+
+                    if ((!there.isEmpty()
+                            && !there.getName().equals(item.getName()))
+                            || !target.isAllowed(item)) {
+                        throw new IOException("Record does not apply: add "
+                                + item + " at " + slot);
+                    }
+
+                    target.addItem(slot, item);
+                }
+            } else if (op == RESTRICT) {
+                target.restrict(reader.readTag());
+            } else if (op == FREE_RESTRICTIONS) {
+                target.freeRestrictions();
+            } else {
+                throw new IOException("Unknown journal record " + op);
+            }
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of the first {@code length} bytes of {@code bytes}.
+     *
+     * @param bytes
+     *            the bytes
+     * @param length
+     *            the number of bytes to check
+     * @return the checksum
+     */
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes all of {@code buffer} to {@code channel}.
+     *
+     * @param channel
+     *            the channel
+     * @param buffer
+     *            the bytes to write
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of slots recorded in the header.
+     *
+     * @return the number of slots
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Records {@code addItem(slot, item)}.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item, as it is being added
+     */
+    void add(int slot, Item item) {
+        try {
+            this.writer.writeVarint(ADD);
+            this.writer.writeVarint(slot);
+            this.writer.writeItemBody(item);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.recorded();
+    }
+
+    /**
+     * Records {@code removeItem(slot)}.
+     *
+     * @param slot
+     *            the slot
+     */
+    void remove(int slot) {
+        try {
+            this.writer.writeVarint(REMOVE);
+            this.writer.writeVarint(slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.recorded();
+    }
+
+    /**
+     * Records {@code restrict(tag)}.
+     *
+     * @param tag
+     *            the tag
+     */
+    void restrict(String tag) {
+        try {
+            this.writer.writeVarint(RESTRICT);
+            this.writer.writeTagRef(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.recorded();
+    }
+
+    /**
+     * Records {@code freeRestrictions()}.
+     */
+    void freeRestrictions() {
+        try {
+            this.writer.writeVarint(FREE_RESTRICTIONS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.recorded();
+    }
+
+    /**
+     * Notes that a whole record has been written to the frame, and commits
+     * the frame if the policy, or its size, calls for it.
+     */
+    private void recorded() {
+        this.records++;
+
+        try {
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (this.commitEvery > 0 && this.records >= this.commitEvery
+                || this.payload.size() >= MAX_PAYLOAD_BYTES) {
+            this.commit();
+        }
+    }
+
+    /**
+     * Writes the frame being built, if it holds any records, and forces the
+     * file to disk, so every record so far is durable.
+     */
+    void commit() {
+        if (this.records > 0) {
+            try {
+                byte[] bytes = this.payload.toByteArray();
+                ByteBuffer frame = ByteBuffer
+                        .allocate(FRAME_HEADER_BYTES + bytes.length);
+                frame.putInt(bytes.length).putInt(crc(bytes, bytes.length))
+                        .put(bytes).flip();
+                writeFully(this.channel, frame);
+                this.channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.payload.reset();
+            this.writer = new InventoryFormat.Writer(this.payload);
+            this.records = 0;
+        }
+    }
+
+    /**
+     * Commits and closes the journal.
+     */
+    void close() {
+        this.commit();
+
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.path.toString();
+    }
+}
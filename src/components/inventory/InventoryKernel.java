@@ -55,6 +55,23 @@ public interface InventoryKernel extends Standard<Inventory>, Iterable<Item> {
      */
     Item removeItem(int slot);
 
+    /**
+     * Returns the Item at {@code slot} without changing {@code this}. If the
+     * slot is empty, the empty Item returned may be shared; such an Item
+     * throws {@code UnsupportedOperationException} if it is changed.
+     *
+     * @param slot
+     *            the position to read
+     * @return the Item at {@code slot}
+     *
+     * @requires 0 <= slot < |this|
+     *
+     * @ensures peekItem = this[slot]
+     *
+     * @aliases the Item in the slot, if it is not empty
+     */
+    Item peekItem(int slot);
+
     /**
      * Requires Items that are added to {@code this} to have tag {@code tag} and
      * returns existing Items without tag {@code tag}.
@@ -115,6 +132,21 @@ public interface InventoryKernel extends Standard<Inventory>, Iterable<Item> {
      */
     int nextIndexOf(String name, int pos);
 
+    /**
+     * Returns position of the first empty slot in the Inventory at or after
+     * position {@code pos}.
+     *
+     * @param pos
+     *            the starting position
+     * @return the index of the first such slot, or -1 if there are none
+     *
+     * @requires 0 <= pos < |this|
+     *
+     * @ensures nextEmptySlot >= 0 iff an empty Item is in {@code this} at slot
+     *          pos or higher
+     */
+    int nextEmptySlot(int pos);
+
     /**
      * Returns the total number of slots in {@code this}.
      *
@@ -1,7 +1,19 @@
 package components.inventory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Layered implementations of secondary methods for Inventory.
@@ -10,16 +22,26 @@ import java.util.TreeMap;
  */
 public abstract class InventorySecondary implements Inventory {
 
+    /**
+     * The empty Item that {@code peekItem} and iterators may return for any
+     * empty slot. It is frozen: changing it throws
+     * {@code UnsupportedOperationException}.
+     */
+    static final Item EMPTY_ITEM = new BasicItem(Item.EMPTY_NAME, 0, true);
+
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public Item getItem(int slot) {
 
         assert slot >= 0 && slot < this.size();
 
-        Item removed = this.removeItem(slot);
-        this.addItem(slot, removed);
+        Item item = this.peekItem(slot);
 
-        return removed;
+        if (item.isEmpty()) {
+            item = new BasicItem();
+        }
+
+        return item;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -87,27 +109,124 @@ public abstract class InventorySecondary implements Inventory {
 
         assert srcSlot >= 0 && srcSlot < src.size();
         assert destSlot >= 0 && destSlot < this.size();
-        assert 0 <= count && count <= src.getItem(srcSlot).tagValue(Item.COUNT);
-        assert this.getItem(destSlot).isEmpty();
+        assert 0 <= count && count <= src.peekItem(srcSlot).getCount();
+        assert this.peekItem(destSlot).isEmpty();
 
         if (count > 0) {
-            Item oldStack = src.removeItem(srcSlot);
-            Item newStack = new BasicItem(oldStack.getName());
-
-            for (String tag : oldStack.getTags().keySet()) {
-                newStack.putTag(tag, oldStack.tagValue(tag));
+            if (isPlainKernel(src) && isPlainKernel(this)
+                    && this.isAllowed(src.peekItem(srcSlot))) {
+                // Nothing in moveCount can fail here, so skip the log
+                moveCount(src, this, srcSlot, destSlot, count);
+            } else {
+                InventoryTransaction split = new InventoryTransaction();
+
+                try {
+                    moveCount(split.enlist(src), split.enlist(this), srcSlot,
+                            destSlot, count);
+                    split.commit();
+                } catch (RuntimeException | AssertionError e) {
+                    // Put back whatever was moved before the failure
+                    split.rollback();
+                    throw e;
+                }
             }
+        }
+    }
 
-            newStack.putTag(Item.COUNT, count);
-            int newCount = oldStack.tagValue(Item.COUNT) - count;
+    /**
+     * Reports whether {@code inv} is one of the kernels of this package and
+     * not a subclass, so that its {@code addItem} and {@code removeItem} can
+     * only fail on a precondition the caller can check first.
+     *
+     * @param inv
+     *            the Inventory to check
+     * @return true iff the class of {@code inv} is exactly a kernel class
+     */
+    private static boolean isPlainKernel(Inventory inv) {
+        Class<?> c = inv.getClass();
 
-            if (newCount > 0) {
-                oldStack.putTag(Item.COUNT, newCount);
-                src.addItem(srcSlot, oldStack);
-            }
+        return c == Inventory1.class || c == Inventory2.class
+                || c == Inventory3.class;
+    }
+
+    /**
+     * Moves {@code count} of the Item at {@code srcSlot} of {@code from} to
+     * the empty {@code destSlot} of {@code to}, as {@code splitItem} does.
+     *
+     * @param from
+     *            the Inventory to take from
+     * @param to
+     *            the Inventory to put into
+     * @param srcSlot
+     *            the slot to take from
+     * @param destSlot
+     *            the slot to put into
+     * @param count
+     *            the number to move
+     */
+    private static void moveCount(Inventory from, Inventory to, int srcSlot,
+            int destSlot, int count) {
+        Item oldStack = from.removeItem(srcSlot);
+        Item newStack = new BasicItem(oldStack.getName());
+
+        for (String tag : oldStack.getTags().keySet()) {
+            newStack.putTag(tag, oldStack.tagValue(tag));
+        }
+
+        newStack.setCount(count);
+        int newCount = oldStack.addCount(-count);
+
+        if (newCount > 0) {
+            from.addItem(srcSlot, oldStack);
+        }
+
+        to.addItem(destSlot, newStack);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItems(int[] slots, Item[] items) {
+        assert slots != null : "Violation of slots is not null";
+        assert items != null : "Violation of items is not null";
+        assert slots.length == items.length : "Violation of |slots| = |items|";
+
+        for (int k = 0; k < slots.length; k++) {
+            this.addItem(slots[k], items[k]);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> removeItems(int[] slots) {
+        assert slots != null : "Violation of slots is not null";
+
+        ArrayList<Item> removed = new ArrayList<>(slots.length);
+
+        for (int slot : slots) {
+            removed.add(this.removeItem(slot));
+        }
+
+        return removed;
+    }
 
-            this.addItem(destSlot, newStack);
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> applyBatch(InventoryBatch batch) {
+        assert batch != null : "Violation of batch is not null";
+
+        int[] slots = batch.slots();
+        Item[] items = batch.items();
+        ArrayList<Item> removed = new ArrayList<>();
+
+        for (int k = 0; k < batch.size(); k++) {
+            if (items[k] == null) {
+                removed.add(this.removeItem(slots[k]));
+            } else {
+                this.addItem(slots[k], items[k]);
+            }
         }
+
+        return removed;
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -129,8 +248,8 @@ public abstract class InventorySecondary implements Inventory {
             if (pos >= 0) {
 
                 //Make sure the stack is not full
-                if (maxStack <= 0 || this.getItem(pos).tagValue(Item.COUNT)
-                        + item.tagValue(Item.COUNT) <= maxStack) {
+                if (maxStack <= 0 || this.peekItem(pos).getCount()
+                        + item.getCount() <= maxStack) {
 
                     doneCheckingStacks = true;
                 } else {
@@ -146,7 +265,7 @@ public abstract class InventorySecondary implements Inventory {
 
         //If no viable stack is found, start a new one if possible
         if (pos < 0) {
-            pos = this.nextIndexOf(Item.EMPTY_NAME, 0);
+            pos = this.nextEmptySlot(0);
         }
 
         return pos;
@@ -160,16 +279,11 @@ public abstract class InventorySecondary implements Inventory {
 
         Item removed = this.removeItem(slot);
 
-        int newCount = removed.tagValue(Item.COUNT) - 1;
-
-        if (newCount > 0) {
+        if (removed.getCount() > 1) {
 
-            removed.putTag(Item.COUNT, removed.tagValue(Item.COUNT) - 1);
+            removed.addCount(-1);
 
             this.addItem(slot, removed);
-
-        } else {
-            this.addItem(slot, new BasicItem());
         }
 
         return removed.getName();
@@ -181,8 +295,53 @@ public abstract class InventorySecondary implements Inventory {
 
         assert slot >= 0 && slot < this.size();
 
-        return this.getItem(slot).getName().equals(name);
+        return this.peekItem(slot).getName().equals(name);
+
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexWithTag(String tag, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size() : "Violation of pos < |this|";
+
+        int next = -1;
+
+        for (int i = pos; next < 0 && i < this.size(); i++) {
+            Item item = this.peekItem(i);
+
+            if (!item.isEmpty() && item.hasTag(tag)) {
+                next = i;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Unlike the default from {@code Iterable}, the spliterator returned knows
+     * its size, since an Inventory always has {@code size()} slots.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Spliterator<Item> spliterator() {
+        return Spliterators.spliterator(this.iterator(), this.size(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Stream<Item> stream() {
+        return StreamSupport.stream(this.spliterator(), false);
+    }
 
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Stream<Item> parallelStream() {
+        return StreamSupport.stream(this.spliterator(), true);
     }
 
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -196,17 +355,8 @@ public abstract class InventorySecondary implements Inventory {
             if (this.size() == n.size()) {
                 equals = true;
 
-                for (int i = 0; i < this.size(); i++) {
-
-                    Item removed1 = this.removeItem(i);
-                    Item removed2 = n.removeItem(i);
-
-                    if (!removed1.equals(removed2)) {
-                        equals = false;
-                    }
-
-                    this.addItem(i, removed1);
-                    n.addItem(i, removed2);
+                for (int i = 0; equals && i < this.size(); i++) {
+                    equals = this.peekItem(i).equals(n.peekItem(i));
                 }
             }
 
@@ -226,30 +376,132 @@ public abstract class InventorySecondary implements Inventory {
     //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public String toString() {
-        String rep = "{ ";
+        StringBuilder rep = new StringBuilder("{ ");
 
         for (int i = 0; i < this.size(); i++) {
-            Item removed = this.removeItem(i);
-            rep += removed.toString() + "; ";
-            this.addItem(i, removed);
+            rep.append(this.peekItem(i)).append("; ");
         }
 
-        return rep.substring(0, rep.length() - 2) + " }";
+        rep.setLength(rep.length() - 2);
+
+        return rep.append(" }").toString();
     }
 
     /**
-     * A basic implementation of {@code Item} interface.
+     * A basic implementation of {@code Item} interface. The count is the low
+     * half of a long field, whose high half {@code ConcurrentInventory} uses
+     * to update it atomically, and the other tags are kept as two parallel
+     * int arrays sorted by tag id in {@code SymbolTable.TAGS}, so reading or
+     * writing a tag value does not box. {@code getTags} is a view over both,
+     * including {@code Item.COUNT}, that is only created when asked for. The
+     * presence of each tag whose id is below 64 is also kept as one bit of a
+     * long, so an Inventory can check all of its restrictions at once.
      */
     public static final class BasicItem implements Item {
 
+        /**
+         * Receiver of changes to a {@code BasicItem} while it sits in a slot
+         * of an Inventory that indexes its tags.
+         */
+        interface TagObserver {
+
+            /**
+             * Reports that the count or tags of the Item at {@code slot} are
+             * about to change. The Item still holds its old values.
+             *
+             * @param slot
+             *            the slot the Item is watched at
+             */
+            void itemChanging(int slot);
+
+            /**
+             * Reports that the Item at {@code slot} gained the tag with id
+             * {@code tag}.
+             *
+             * @param slot
+             *            the slot the Item is watched at
+             * @param tag
+             *            the tag id in {@code SymbolTable.TAGS}
+             */
+            void tagAdded(int slot, int tag);
+
+            /**
+             * Reports that the Item at {@code slot} lost the tag with id
+             * {@code tag}.
+             *
+             * @param slot
+             *            the slot the Item is watched at
+             * @param tag
+             *            the tag id in {@code SymbolTable.TAGS}
+             */
+            void tagRemoved(int slot, int tag);
+        }
+
+        /** The bits of {@code countWord} that hold the count. */
+        private static final long LOW_HALF = 0xFFFFFFFFL;
+
+        /** Handle for the atomic access to {@code countWord}. */
+        private static final VarHandle COUNT_WORD;
+
+        static {
+            try {
+                COUNT_WORD = MethodHandles.lookup().findVarHandle(
+                        BasicItem.class, "countWord", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /** Initial room for tags, which covers most Items. */
+        private static final int INITIAL_TAGS = 4;
+
+        /** The id of {@code Item.COUNT} in {@code SymbolTable.TAGS}. */
+        private static final int COUNT_ID = SymbolTable.TAGS
+                .intern(Item.COUNT);
+
         /** The name of this item, which serves as its primary identifier. */
         private String name;
 
         /**
-         * Tags denoting the properties of the item, with integer values when
-         * appropriate.
+         * The id of {@code name} in {@code SymbolTable.NAMES}, or
+         * {@code SymbolTable.NO_ID} until an Inventory first asks for it.
+         */
+        private int nameId;
+
+        /**
+         * The number of this item, the value of its {@code Item.COUNT} tag, in
+         * the low 32 bits. The high 32 bits are left alone by every method of
+         * this class, and belong to {@code ConcurrentInventory}.
+         */
+        private long countWord;
+
+        /**
+         * The ids of the tags other than {@code Item.COUNT} denoting the
+         * properties of the item, in ascending order in the first
+         * {@code tagCount} entries.
          */
-        private Map<String, Integer> tags;
+        private int[] tagIds;
+
+        /** The integer value of each tag, parallel to {@code tagIds}. */
+        private int[] tagValues;
+
+        /** The number of tags of this item, other than its count. */
+        private int tagCount;
+
+        /** Bit {@code id} is set iff this has the tag with id {@code id} < 64. */
+        private long tagBits;
+
+        /** The {@code Map} view of the tags, created on first use. */
+        private Map<String, Integer> tagView;
+
+        /** The observer of the tags of this, or null if it is not watched. */
+        private TagObserver observer;
+
+        /** The slot reported to {@code observer}. */
+        private int observedSlot;
+
+        /** Whether every change to this Item is refused. */
+        private final boolean frozen;
 
         /** Constructs an empty Item. */
         public BasicItem() {
@@ -275,15 +527,352 @@ public abstract class InventorySecondary implements Inventory {
          *            the number of this Item.
          */
         public BasicItem(String name, int count) {
-            this.tags = new TreeMap<String, Integer>();
+            this(name, count, false);
+        }
+
+        /**
+         * Constructs an Item with count n that may be frozen against change.
+         *
+         * @param name
+         *            a String identifier for the Item.
+         * @param count
+         *            the number of this Item.
+         * @param frozen
+         *            whether every change to the Item is refused
+         */
+        private BasicItem(String name, int count, boolean frozen) {
+            this.frozen = frozen;
+            this.tagIds = new int[INITIAL_TAGS];
+            this.tagValues = new int[INITIAL_TAGS];
+            this.tagCount = 0;
             this.name = name;
-            this.tags.put("count", count);
+            this.nameId = SymbolTable.NO_ID;
+
+            if (name.equals(Item.EMPTY_NAME)) {
+                this.nameId = 0;
+            }
+            this.countWord = count & LOW_HALF;
+            this.tagBits = bitOf(COUNT_ID);
+        }
+
+        /**
+         * Returns the bit standing for tag id {@code id} in {@code tagBits}, or
+         * 0 if {@code id} is too large to have one.
+         *
+         * @param id
+         *            the tag id
+         * @return the bit for {@code id}, or 0
+         */
+        static long bitOf(int id) {
+            long bit = 0;
+
+            if (id < Long.SIZE) {
+                bit = 1L << id;
+            }
+
+            return bit;
+        }
+
+        /**
+         * Returns the position of tag id {@code id} in {@code tagIds}, or
+         * {@code -(insertion point) - 1} if this does not have it.
+         *
+         * @param id
+         *            the tag id to look for
+         * @return the position of {@code id}, as for
+         *         {@code Arrays.binarySearch}
+         */
+        private int find(int id) {
+            return Arrays.binarySearch(this.tagIds, 0, this.tagCount, id);
+        }
+
+        /**
+         * Returns the position of {@code tag} in {@code tagIds}, or a negative
+         * number if this does not have it.
+         *
+         * @param tag
+         *            the tag to look for, which is not {@code Item.COUNT}
+         * @return the position of {@code tag}, or a negative number
+         */
+        private int find(String tag) {
+            int id = SymbolTable.TAGS.idOf(tag);
+
+            int pos = -1;
+
+            if (id != SymbolTable.NO_ID) {
+                pos = this.find(id);
+            }
+
+            return pos;
+        }
+
+        /**
+         * Adds or updates the tag with id {@code id}.
+         *
+         * @param id
+         *            the tag id
+         * @param value
+         *            the tag value
+         */
+        void putTagId(int id, int value) {
+            this.checkMutable();
+            this.changing();
+
+            if (id == COUNT_ID) {
+                this.countWord = withCount(this.countWord, value);
+            } else {
+                int pos = this.find(id);
+
+                if (pos >= 0) {
+                    this.tagValues[pos] = value;
+                } else {
+                    this.insertTag(-pos - 1, id, value);
+                }
+            }
+        }
+
+        /**
+         * Inserts a new tag at position {@code pos} of the tag arrays, growing
+         * them if they are full.
+         *
+         * @param pos
+         *            the position that keeps {@code tagIds} sorted
+         * @param id
+         *            the tag id
+         * @param value
+         *            the tag value
+         */
+        private void insertTag(int pos, int id, int value) {
+            if (this.tagCount == this.tagIds.length) {
+                this.tagIds = Arrays.copyOf(this.tagIds, this.tagCount * 2);
+                this.tagValues = Arrays.copyOf(this.tagValues,
+                        this.tagCount * 2);
+            }
+
+            System.arraycopy(this.tagIds, pos, this.tagIds, pos + 1,
+                    this.tagCount - pos);
+            System.arraycopy(this.tagValues, pos, this.tagValues, pos + 1,
+                    this.tagCount - pos);
+            this.tagIds[pos] = id;
+            this.tagValues[pos] = value;
+            this.tagCount++;
+            this.tagBits |= bitOf(id);
+
+            if (this.observer != null) {
+                this.observer.tagAdded(this.observedSlot, id);
+            }
+        }
+
+        /**
+         * Refuses to let a frozen Item change.
+         *
+         * @throws UnsupportedOperationException
+         *             if this Item is frozen
+         */
+        private void checkMutable() {
+            if (this.frozen) {
+                throw new UnsupportedOperationException(
+                        "shared empty Item cannot be changed");
+            }
+        }
+
+        /**
+         * Tells the observer, if any, that this Item is about to change.
+         */
+        private void changing() {
+            if (this.observer != null) {
+                this.observer.itemChanging(this.observedSlot);
+            }
+        }
+
+        /**
+         * Returns a copy of this Item, with the same name, count and tags,
+         * that is not watched.
+         *
+         * @return the copy
+         */
+        BasicItem copy() {
+            BasicItem copy = new BasicItem(this.name, this.getCount());
+            copy.nameId = this.nameId;
+            copy.tagIds = Arrays.copyOf(this.tagIds, this.tagIds.length);
+            copy.tagValues = Arrays.copyOf(this.tagValues,
+                    this.tagValues.length);
+            copy.tagCount = this.tagCount;
+            copy.tagBits = this.tagBits;
+
+            return copy;
+        }
+
+        /**
+         * Starts reporting tag changes of this Item to {@code observer}, unless
+         * another observer is already watching it.
+         *
+         * @param observer
+         *            the observer
+         * @param slot
+         *            the slot to report changes for
+         * @return true if {@code observer} now watches this Item
+         */
+        boolean watch(TagObserver observer, int slot) {
+            boolean watched = this.observer == null;
+
+            if (watched) {
+                this.observer = observer;
+                this.observedSlot = slot;
+            }
+
+            return watched;
+        }
+
+        /**
+         * Returns whether an observer is watching this Item.
+         *
+         * @return true if this Item is watched
+         */
+        boolean watched() {
+            return this.observer != null;
+        }
+
+        /**
+         * Returns {@code word} with its low 32 bits replaced by {@code count}.
+         *
+         * @param word
+         *            a value of {@code countWord}
+         * @param count
+         *            the new count
+         * @return the new value of {@code countWord}
+         */
+        static long withCount(long word, int count) {
+            return (word & ~LOW_HALF) | (count & LOW_HALF);
+        }
+
+        /**
+         * Returns the whole count word of this Item, read with volatile
+         * semantics: the count in the low 32 bits, and whatever
+         * {@code ConcurrentInventory} keeps in the high 32 bits.
+         *
+         * @return the count word
+         */
+        long countWord() {
+            return (long) COUNT_WORD.getVolatile(this);
+        }
+
+        /**
+         * Atomically sets the count word of this Item to {@code word} if it is
+         * still {@code expected}. Observers are not told, so it is only for
+         * Items that are not watched.
+         *
+         * @param expected
+         *            the count word read before
+         * @param word
+         *            the new count word
+         * @return true if the count word was {@code expected} and is now
+         *         {@code word}
+         */
+        boolean compareAndSetCountWord(long expected, long word) {
+            return COUNT_WORD.compareAndSet(this, expected, word);
+        }
+
+        /**
+         * Stops reporting tag changes of this Item.
+         */
+        void unwatch() {
+            this.observer = null;
+        }
+
+        /**
+         * Returns the presence bits of the tags of this Item: bit {@code id} is
+         * set iff this has the tag with id {@code id}, for ids below 64.
+         *
+         * @return the tag presence bits
+         */
+        long tagBits() {
+            return this.tagBits;
+        }
+
+        /**
+         * Returns whether this Item has the tag with id {@code id}.
+         *
+         * @param id
+         *            the tag id
+         * @return true if this has that tag
+         */
+        boolean hasTagId(int id) {
+            boolean has;
+
+            if (id == COUNT_ID) {
+                has = true;
+            } else if (id < Long.SIZE) {
+                has = (this.tagBits & (1L << id)) != 0;
+            } else {
+                has = this.find(id) >= 0;
+            }
+
+            return has;
+        }
+
+        /**
+         * Returns the number of tags of this Item other than its count.
+         *
+         * @return the number of tags other than {@code Item.COUNT}
+         */
+        int tagCount() {
+            return this.tagCount;
+        }
+
+        /**
+         * Returns the id of the {@code k}th tag of this Item other than its
+         * count, in id order.
+         *
+         * @param k
+         *            the position of the tag
+         * @return its id in {@code SymbolTable.TAGS}
+         *
+         * @requires 0 <= k < this.tagCount()
+         */
+        int tagIdAt(int k) {
+            return this.tagIds[k];
+        }
+
+        /**
+         * Returns the value of the {@code k}th tag of this Item other than its
+         * count, in id order.
+         *
+         * @param k
+         *            the position of the tag
+         * @return its value
+         *
+         * @requires 0 <= k < this.tagCount()
+         */
+        int tagValueAt(int k) {
+            return this.tagValues[k];
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public boolean isEmpty() {
-            return this.name.equals(Item.EMPTY_NAME);
+            return this.nameId == 0;
+        }
+
+        /**
+         * Returns the id of the name of this Item in
+         * {@code SymbolTable.NAMES}, interning the name on first use. Names
+         * are interned only here, when an Item meets an Inventory that
+         * indexes by id, so Items that are only decoded, copied or written
+         * leave the shared table alone. Racing threads intern the same name
+         * and so store the same id.
+         *
+         * @return the id of {@code this.name}
+         */
+        int nameId() {
+            int id = this.nameId;
+
+            if (id == SymbolTable.NO_ID) {
+                id = SymbolTable.NAMES.intern(this.name);
+                this.nameId = id;
+            }
+
+            return id;
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -292,35 +881,102 @@ public abstract class InventorySecondary implements Inventory {
             return this.name;
         }
 
+        /**
+         * {@inheritDoc}
+         *
+         * <p>
+         * The map returned is a live view of the tags of {@code this}, in tag
+         * id order; {@code put} and {@code remove} on it act like
+         * {@code putTag} and {@code removeTag}.
+         */
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public Map<String, Integer> getTags() {
-            return this.tags;
+            if (this.tagView == null) {
+                this.tagView = new TagView();
+            }
+
+            return this.tagView;
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public boolean hasTag(String tag) {
-            return this.tags.containsKey(tag);
+            return tag.equals(Item.COUNT) || this.find(tag) >= 0;
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public void putTag(String tag, int value) {
-            this.tags.put(tag, value);
+            this.putTagId(SymbolTable.TAGS.intern(tag), value);
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public void removeTag(String tag) {
             assert !tag.equals(COUNT);
-            this.tags.remove(tag);
+
+            this.checkMutable();
+            int pos = this.find(tag);
+
+            if (pos >= 0) {
+                int id = this.tagIds[pos];
+
+                this.changing();
+                this.tagBits &= ~bitOf(id);
+                this.tagCount--;
+                System.arraycopy(this.tagIds, pos + 1, this.tagIds, pos,
+                        this.tagCount - pos);
+                System.arraycopy(this.tagValues, pos + 1, this.tagValues, pos,
+                        this.tagCount - pos);
+
+                if (this.observer != null) {
+                    this.observer.tagRemoved(this.observedSlot, id);
+                }
+            }
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
         @Override
         public int tagValue(String tag) {
-            return this.tags.get(tag);
+            int value;
+
+            if (tag.equals(Item.COUNT)) {
+                value = this.getCount();
+            } else {
+                int pos = this.find(tag);
+
+                assert pos >= 0 : "Violation of (tag, x) is in this.tags";
+
+                value = this.tagValues[pos];
+            }
+
+            return value;
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int getCount() {
+            return (int) this.countWord;
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public void setCount(int count) {
+            this.checkMutable();
+            this.changing();
+            this.countWord = withCount(this.countWord, count);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int addCount(int delta) {
+            this.checkMutable();
+            this.changing();
+            this.countWord = withCount(this.countWord,
+                    (int) this.countWord + delta);
+
+            return (int) this.countWord;
         }
 
         //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
@@ -334,20 +990,17 @@ public abstract class InventorySecondary implements Inventory {
         public boolean equals(Object o) {
             boolean equal = false;
 
-            if (o != null) {
-                if (o.getClass().equals(this.getClass())) {
+            if (o instanceof Item) {
 
-                    BasicItem i = (BasicItem) o;
+                Item i = (Item) o;
 
-                    equal = i.name.equals(this.name);
+                equal = i.getName().equals(this.name);
 
-                    for (String tag : this.tags.keySet()) {
+                for (int k = 0; equal && k < this.tagCount; k++) {
 
-                        if (tag != Item.COUNT) {
-                            equal &= i.hasTag(tag)
-                                    && i.tagValue(tag) == this.tagValue(tag);
-                        }
-                    }
+                    String tag = SymbolTable.TAGS.symbol(this.tagIds[k]);
+                    equal = i.hasTag(tag)
+                            && i.tagValue(tag) == this.tagValues[k];
                 }
             }
 
@@ -358,13 +1011,144 @@ public abstract class InventorySecondary implements Inventory {
         @Override
         public String toString() {
 
-            String rep = this.name + ":{";
+            StringBuilder rep = new StringBuilder(this.name).append(":{(")
+                    .append(Item.COUNT).append(", ").append(this.getCount())
+                    .append("), ");
+
+            for (int k = 0; k < this.tagCount; k++) {
+                String tag = SymbolTable.TAGS.symbol(this.tagIds[k]);
+                rep.append('(').append(tag).append(", ")
+                        .append(this.tagValues[k]).append("), ");
+            }
+
+            rep.setLength(rep.length() - 2);
+
+            return rep.append(" }").toString();
+        }
+
+        /**
+         * Live {@code Map} view of the tags of a {@code BasicItem}.
+         */
+        private final class TagView extends AbstractMap<String, Integer> {
+
+            @Override
+            public int size() {
+                return BasicItem.this.tagCount + 1;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String
+                        && BasicItem.this.hasTag((String) key);
+            }
+
+            @Override
+            public Integer get(Object key) {
+                Integer value = null;
+
+                if (Item.COUNT.equals(key)) {
+                    value = BasicItem.this.getCount();
+                } else if (key instanceof String) {
+                    int pos = BasicItem.this.find((String) key);
+
+                    if (pos >= 0) {
+                        value = BasicItem.this.tagValues[pos];
+                    }
+                }
+
+                return value;
+            }
+
+            @Override
+            public Integer put(String key, Integer value) {
+                Integer old = this.get(key);
+                BasicItem.this.putTag(key, value);
+
+                return old;
+            }
+
+            @Override
+            public Integer remove(Object key) {
+                Integer old = this.get(key);
+
+                if (old != null) {
+                    BasicItem.this.removeTag((String) key);
+                }
+
+                return old;
+            }
+
+            @Override
+            public Set<Map.Entry<String, Integer>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Integer>>() {
+
+                    @Override
+                    public int size() {
+                        return BasicItem.this.tagCount + 1;
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, Integer>> iterator() {
+                        return new TagIterator();
+                    }
+                };
+            }
+        }
+
+        /**
+         * Iterator over the tags of a {@code BasicItem} as {@code Map}
+         * entries, starting with {@code Item.COUNT}.
+         */
+        private final class TagIterator
+                implements Iterator<Map.Entry<String, Integer>> {
+
+            /** The position of the next tag, where -1 is the count. */
+            private int k = -1;
+
+            @Override
+            public boolean hasNext() {
+                return this.k < BasicItem.this.tagCount;
+            }
+
+            @Override
+            public Map.Entry<String, Integer> next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final int id;
+                int value;
+
+                if (this.k < 0) {
+                    id = COUNT_ID;
+                    value = BasicItem.this.getCount();
+                } else {
+                    id = BasicItem.this.tagIds[this.k];
+                    value = BasicItem.this.tagValues[this.k];
+                }
+
+                this.k++;
 
-            for (String tag : this.tags.keySet()) {
-                rep += "(" + tag + ", " + this.tags.get(tag) + "), ";
+                return new AbstractMap.SimpleEntry<String, Integer>(
+                        SymbolTable.TAGS.symbol(id), value) {
+
+                    /** Serial version, as required of a SimpleEntry. */
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Integer setValue(Integer value) {
+                        BasicItem.this.putTagId(id, value);
+
+                        return super.setValue(value);
+                    }
+                };
             }
 
-            return rep.substring(0, rep.length() - 2) + " }";
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException(
+                        "remove operation not supported");
+            }
         }
     }
 }
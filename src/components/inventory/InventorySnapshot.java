@@ -0,0 +1,400 @@
+package components.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Immutable view of an {@code Inventory1} as it was when
+ * {@code Inventory1.snapshot} was called. The slots are read through one
+ * {@code Chunk} per chunk of the Inventory. While the Inventory leaves a
+ * chunk alone, its {@code Chunk} shares the Inventory's own array and Items;
+ * just before the Inventory first changes the chunk, or any Item in it, it
+ * gives the {@code Chunk} a copy of the chunk and its Items and stops sharing
+ * it. Taking a snapshot therefore costs one {@code Chunk} per chunk, and each
+ * later change copies at most one chunk.
+ *
+ * <p>
+ * Every method that would change {@code this} throws
+ * {@code UnsupportedOperationException}. A non-empty slot is handed out as a
+ * read-only view of that slot of the snapshot, never as the Item itself, since
+ * that may still be the one in the Inventory; changing the view throws too.
+ *
+ * @convention <pre>
+ * $this.size > 0 and
+ * |$this.chunks| >= ceiling($this.size / 2^Inventory1.CHUNK_BITS) and
+ * for all 0 <= c < |$this.chunks|:
+ *  [$this.chunks[c].items is null or
+ *   |$this.chunks[c].items| >= min(2^CHUNK_BITS,
+ *                                  $this.size - c * 2^CHUNK_BITS)]
+ * and
+ * $this.reqHigh is sorted in ascending order and is never changed
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = [SLOT(i) for 0 <= i < $this.size, with an empty Item for each
+ *          null, where SLOT(i) = $this.chunks[i / 2^CHUNK_BITS].items is null
+ *          ? null : $this.chunks[i / 2^CHUNK_BITS].items[i mod 2^CHUNK_BITS]]
+ *  this.restrictions = {SymbolTable.TAGS.symbol(t) :
+ *                       bit t of $this.reqBits is set or t is in $this.reqHigh}
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+final class InventorySnapshot extends InventorySecondary {
+
+    /**
+     * The contents of one chunk of slots as seen by the snapshots sharing
+     * it.
+     */
+    static final class Chunk {
+
+        /** The slots of the chunk, or null if all of them are empty. */
+        private Item[] items;
+
+        /**
+         * Creates a Chunk reading {@code items}.
+         *
+         * @param items
+         *            the slots, or null
+         */
+        Chunk(Item[] items) {
+            this.items = items;
+        }
+
+        /**
+         * Stops sharing the slots with the Inventory, by replacing them with
+         * a copy of them and of every Item in them.
+         */
+        void detach() {
+            if (this.items != null) {
+                Item[] copy = new Item[this.items.length];
+
+                for (int i = 0; i < copy.length; i++) {
+                    if (this.items[i] != null) {
+                        copy[i] = copyOf(this.items[i]);
+                    }
+                }
+
+                this.items = copy;
+            }
+        }
+
+        /**
+         * Returns a copy of {@code item}.
+         *
+         * @param item
+         *            the Item to copy
+         * @return a new Item with the same name, count and tags
+         */
+        private static Item copyOf(Item item) {
+            Item copy;
+
+            if (item instanceof BasicItem) {
+                copy = ((BasicItem) item).copy();
+            } else {
+                copy = new BasicItem(item.getName(), item.getCount());
+
+                for (String tag : item.getTags().keySet()) {
+                    if (!tag.equals(Item.COUNT)) {
+                        copy.putTag(tag, item.tagValue(tag));
+                    }
+                }
+            }
+
+            return copy;
+        }
+    }
+
+    /** The number of slots. */
+    private final int size;
+
+    /** The slots, by chunk. */
+    private final Chunk[] chunks;
+
+    /** The required tags with ids below 64, as for {@code Inventory1}. */
+    private final long reqBits;
+
+    /** The ids of the other required tags, as for {@code Inventory1}. */
+    private final int[] reqHigh;
+
+    /**
+     * Creates a snapshot of {@code size} slots read from {@code chunks}.
+     *
+     * @param size
+     *            the number of slots
+     * @param chunks
+     *            the slots, by chunk
+     * @param reqBits
+     *            the required tags with ids below 64
+     * @param reqHigh
+     *            the ids of the other required tags, which must not change
+     */
+    InventorySnapshot(int size, Chunk[] chunks, long reqBits, int[] reqHigh) {
+        this.size = size;
+        this.chunks = chunks;
+        this.reqBits = reqBits;
+        this.reqHigh = reqHigh;
+    }
+
+    /**
+     * Returns the Item stored at {@code slot}, or null if it is empty.
+     *
+     * @param slot
+     *            the slot to read
+     * @return the Item at {@code slot}, or null
+     */
+    private Item slotAt(int slot) {
+        Item[] items = this.chunks[slot >>> Inventory1.CHUNK_BITS].items;
+
+        Item item = null;
+
+        if (items != null) {
+            item = items[slot & ((1 << Inventory1.CHUNK_BITS) - 1)];
+        }
+
+        return item;
+    }
+
+    /**
+     * Throws {@code UnsupportedOperationException}, since a snapshot cannot
+     * be changed.
+     *
+     * @return never returns
+     */
+    private static UnsupportedOperationException immutable() {
+        throw new UnsupportedOperationException("snapshot cannot be changed");
+    }
+
+    @Override
+    public void addItem(int slot, Item item) {
+        throw immutable();
+    }
+
+    @Override
+    public Item removeItem(int slot) {
+        throw immutable();
+    }
+
+    @Override
+    public Item peekItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size : "Violation of slot < |this|";
+
+        Item item = EMPTY_ITEM;
+
+        if (this.slotAt(slot) != null) {
+            item = new SlotView(slot);
+        }
+
+        return item;
+    }
+
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        throw immutable();
+    }
+
+    @Override
+    public void freeRestrictions() {
+        throw immutable();
+    }
+
+    @Override
+    public boolean isAllowed(Item item) {
+        assert item != null : "Violation of item is not null";
+
+        return Inventory1.allows(this.reqBits, this.reqHigh, item);
+    }
+
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+
+        for (int i = pos; next < 0 && i < this.size; i++) {
+            Item item = this.slotAt(i);
+
+            if (item != null && item.getName().equals(name)) {
+                next = i;
+            }
+        }
+
+        return next;
+    }
+
+    @Override
+    public int nextEmptySlot(int pos) {
+        assert 0 <= pos : "Violation of 0 <= pos";
+        assert pos < this.size : "Violation of pos < |this|";
+
+        int next = -1;
+
+        for (int i = pos; next < 0 && i < this.size; i++) {
+            if (this.slotAt(i) == null) {
+                next = i;
+            }
+        }
+
+        return next;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public void clear() {
+        throw immutable();
+    }
+
+    @Override
+    public Inventory newInstance() {
+        return new Inventory1().snapshot();
+    }
+
+    @Override
+    public void transferFrom(Inventory src) {
+        throw immutable();
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return new Iterator<Item>() {
+
+            /** The next slot to visit. */
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.i < InventorySnapshot.this.size;
+            }
+
+            @Override
+            public Item next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Item next = InventorySnapshot.this.peekItem(this.i);
+                this.i++;
+
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException(
+                        "remove operation not supported");
+            }
+        };
+    }
+
+    /**
+     * Read-only view of a non-empty slot of the snapshot. Every read goes
+     * to the Item the snapshot holds at the time, so the view keeps showing
+     * the snapshot once its chunk stops being shared with the Inventory.
+     */
+    private final class SlotView implements Item {
+
+        /** The slot this is a view of. */
+        private final int slot;
+
+        /**
+         * Creates a view of {@code slot}.
+         *
+         * @param slot
+         *            the slot to view, which holds an Item
+         */
+        private SlotView(int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * Returns the Item the snapshot holds at the slot now.
+         *
+         * @return the Item
+         */
+        private Item item() {
+            return InventorySnapshot.this.slotAt(this.slot);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.item().isEmpty();
+        }
+
+        @Override
+        public String getName() {
+            return this.item().getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>
+         * The map returned is an unmodifiable copy.
+         */
+        @Override
+        public Map<String, Integer> getTags() {
+            return Collections.unmodifiableMap(
+                    new TreeMap<String, Integer>(this.item().getTags()));
+        }
+
+        @Override
+        public boolean hasTag(String tag) {
+            return this.item().hasTag(tag);
+        }
+
+        @Override
+        public void putTag(String tag, int tagVal) {
+            throw immutable();
+        }
+
+        @Override
+        public void removeTag(String tag) {
+            throw immutable();
+        }
+
+        @Override
+        public int tagValue(String tag) {
+            return this.item().tagValue(tag);
+        }
+
+        @Override
+        public int getCount() {
+            return this.item().getCount();
+        }
+
+        @Override
+        public void setCount(int count) {
+            throw immutable();
+        }
+
+        @Override
+        public int addCount(int delta) {
+            throw immutable();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.item().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this.item().equals(o);
+        }
+
+        @Override
+        public String toString() {
+            return this.item().toString();
+        }
+    }
+}
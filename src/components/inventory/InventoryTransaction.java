@@ -0,0 +1,378 @@
+package components.inventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import components.inventory.Inventory.Item;
+
+/**
+ * A group of changes to one or more Inventories that is kept or undone as a
+ * unit. Each Inventory taking part is enlisted once, and changed only
+ * through the view {@code enlist} returns until the transaction ends. The
+ * view passes every call on to the Inventory and, for each {@code addItem}
+ * and {@code removeItem}, logs what that call changed: the slot, and the
+ * Item removed or the count and tags a stacked Item gained. Secondary methods
+ * are built on the kernel, so their changes are logged too.
+ * {@code rollback} applies the log in reverse, and {@code commit} forgets
+ * it; either way the transaction can then be used again.
+ *
+ * <p>
+ * Changes made to Items through aliases are not logged, except that an Item
+ * removed in the transaction gets back the count it had when it was removed
+ * if the removal is rolled back. {@code restrict}, {@code freeRestrictions},
+ * {@code clear} and {@code transferFrom} cannot be undone this way and throw
+ * {@code UnsupportedOperationException} on a view.
+ *
+ * @convention <pre>
+ * $this.views holds one view for each Inventory enlisted, in the order they
+ * were enlisted, and $this.log holds the changes made through them since the
+ * transaction began, oldest first
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this.enlisted = [v.inner for v in $this.views]
+ *  this.changes = $this.log
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public final class InventoryTransaction {
+
+    /** The views of the Inventories enlisted. */
+    private final ArrayList<Enlisted> views;
+
+    /** What each change logged so far did, oldest first. */
+    private final ArrayList<Undo> log;
+
+    /**
+     * Creates an empty transaction.
+     */
+    public InventoryTransaction() {
+        this.views = new ArrayList<>();
+        this.log = new ArrayList<>();
+    }
+
+    /**
+     * Returns the view through which {@code inv} takes part in this
+     * transaction, enlisting it if it is not already.
+     *
+     * @param inv
+     *            the Inventory to enlist
+     * @return the view of {@code inv}
+     *
+     * @requires inv is not null
+     *
+     * @ensures enlist = inv and changes made through enlist are logged in
+     *          this
+     *
+     * @aliases enlist is a view of inv
+     */
+    public Inventory enlist(Inventory inv) {
+        assert inv != null : "Violation of inv is not null";
+
+        Inventory target = inv;
+
+        if (inv instanceof Enlisted && ((Enlisted) inv).owner() == this) {
+            target = ((Enlisted) inv).inner;
+        }
+
+        Enlisted view = null;
+
+        for (int k = 0; view == null && k < this.views.size(); k++) {
+            if (this.views.get(k).inner == target) {
+                view = this.views.get(k);
+            }
+        }
+
+        if (view == null) {
+            view = new Enlisted(target);
+            this.views.add(view);
+        }
+
+        return view;
+    }
+
+    /**
+     * Keeps every change made in this transaction and begins a new one.
+     *
+     * @clears this.changes
+     */
+    public void commit() {
+        this.log.clear();
+    }
+
+    /**
+     * Undoes every change made in this transaction, newest first, and begins
+     * a new one.
+     *
+     * @updates this.enlisted
+     *
+     * @clears this.changes
+     *
+     * @ensures the enlisted Inventories hold what they held when the
+     *          transaction began
+     */
+    public void rollback() {
+        for (int k = this.log.size() - 1; k >= 0; k--) {
+            this.log.get(k).undo();
+        }
+
+        this.log.clear();
+    }
+
+    /**
+     * One change logged in a transaction, and how to undo it. Every undo goes
+     * through the kernel of the Inventory changed, never through an alias of
+     * one of its Items, so whatever that Inventory does on each change
+     * (journaling, locking, indexing) sees the undo as well.
+     */
+    private static final class Undo {
+
+        /** An Item was placed in an empty slot. */
+        private static final int PLACED = 0;
+
+        /** An Item was stacked onto the Item in the slot. */
+        private static final int STACKED = 1;
+
+        /** The Item in the slot was removed. */
+        private static final int REMOVED = 2;
+
+        /** The Inventory changed. */
+        private final Inventory inner;
+
+        /** The slot changed. */
+        private final int slot;
+
+        /** What was done to the slot. */
+        private final int kind;
+
+        /** The Item removed from the slot, or null if none was. */
+        private final Item removed;
+
+        /**
+         * The count the removed Item had, or the count added to the Item
+         * already in the slot; 0 if an Item was placed.
+         */
+        private final int count;
+
+        /**
+         * The values the Item already in the slot had for the tags stacking
+         * gave it, with null for tags it lacked; null if there were none.
+         */
+        private final Map<String, Integer> tags;
+
+        /**
+         * Creates a log entry.
+         *
+         * @param inner
+         *            the Inventory changed
+         * @param slot
+         *            the slot changed
+         * @param kind
+         *            what was done to the slot
+         * @param removed
+         *            the Item removed, or null
+         * @param count
+         *            the count removed or stacked, or 0
+         * @param tags
+         *            the tag values stacking replaced, or null
+         */
+        private Undo(Inventory inner, int slot, int kind, Item removed,
+                int count, Map<String, Integer> tags) {
+            this.inner = inner;
+            this.slot = slot;
+            this.kind = kind;
+            this.removed = removed;
+            this.count = count;
+            this.tags = tags;
+        }
+
+        /**
+         * Undoes the change.
+         */
+        private void undo() {
+            if (this.kind == REMOVED) {
+                this.removed.setCount(this.count);
+                this.inner.addItem(this.slot, this.removed);
+            } else if (this.kind == PLACED) {
+                this.inner.removeItem(this.slot);
+            } else {
+                Item dest = this.inner.removeItem(this.slot);
+                dest.addCount(-this.count);
+
+                if (this.tags != null) {
+                    for (Map.Entry<String, Integer> tag : this.tags
+                            .entrySet()) {
+                        if (tag.getValue() == null) {
+                            dest.removeTag(tag.getKey());
+                        } else {
+                            dest.putTag(tag.getKey(), tag.getValue());
+                        }
+                    }
+                }
+
+                this.inner.addItem(this.slot, dest);
+            }
+        }
+    }
+
+    /**
+     * The view through which an Inventory takes part in the transaction.
+     */
+    private final class Enlisted extends InventorySecondary {
+
+        /** The Inventory every call is passed on to. */
+        private final Inventory inner;
+
+        /**
+         * Creates a view of {@code inner}.
+         *
+         * @param inner
+         *            the Inventory to pass calls on to
+         */
+        private Enlisted(Inventory inner) {
+            this.inner = inner;
+        }
+
+        /**
+         * Returns the transaction this view belongs to.
+         *
+         * @return the transaction
+         */
+        private InventoryTransaction owner() {
+            return InventoryTransaction.this;
+        }
+
+        /**
+         * Throws, for changes that cannot be undone.
+         *
+         * @return never returns
+         */
+        private UnsupportedOperationException irreversible() {
+            throw new UnsupportedOperationException(
+                    "change cannot be undone in a transaction");
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public void addItem(int slot, Item item) {
+            assert item != null : "Violation of item is not null";
+
+            Item dest = this.inner.peekItem(slot);
+            Undo undo = null;
+
+            if (!dest.isEmpty()) {
+                Map<String, Integer> tags = null;
+
+                for (String tag : item.getTags().keySet()) {
+                    if (!tag.equals(Item.COUNT)) {
+                        if (tags == null) {
+                            tags = new HashMap<>();
+                        }
+
+                        tags.put(tag, dest.hasTag(tag) ? dest.tagValue(tag)
+                                : null);
+                    }
+                }
+
+                undo = new Undo(this.inner, slot, Undo.STACKED, null,
+                        item.getCount(), tags);
+            } else if (!item.isEmpty()) {
+                undo = new Undo(this.inner, slot, Undo.PLACED, null, 0, null);
+            }
+
+            this.inner.addItem(slot, item);
+
+            if (undo != null) {
+                InventoryTransaction.this.log.add(undo);
+            }
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public Item removeItem(int slot) {
+            Item removed = this.inner.removeItem(slot);
+
+            if (!removed.isEmpty()) {
+                InventoryTransaction.this.log.add(new Undo(this.inner, slot,
+                        Undo.REMOVED, removed, removed.getCount(), null));
+            }
+
+            return removed;
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public Item peekItem(int slot) {
+            return this.inner.peekItem(slot);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public ArrayList<Item> restrict(String tag) {
+            throw this.irreversible();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public void freeRestrictions() {
+            throw this.irreversible();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public boolean isAllowed(Item item) {
+            return this.inner.isAllowed(item);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int nextIndexOf(String name, int pos) {
+            return this.inner.nextIndexOf(name, pos);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int nextIndexWithTag(String tag, int pos) {
+            return this.inner.nextIndexWithTag(tag, pos);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int nextEmptySlot(int pos) {
+            return this.inner.nextEmptySlot(pos);
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public int size() {
+            return this.inner.size();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public void clear() {
+            throw this.irreversible();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public Inventory newInstance() {
+            return this.inner.newInstance();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public void transferFrom(Inventory src) {
+            throw this.irreversible();
+        }
+
+        //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+        @Override
+        public Iterator<Item> iterator() {
+            return this.inner.iterator();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package components.inventory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Inventory that passes every call on to an {@code Inventory1} and, when it
+ * is backed by a journal file, records each kernel change ({@code addItem},
+ * {@code removeItem}, {@code restrict} and {@code freeRestrictions}) there
+ * once the {@code Inventory1} has accepted it, so a call that fails its
+ * preconditions leaves no record behind. Secondary methods are built on the
+ * kernel, so their changes are recorded too. Records are committed to disk
+ * in groups: a group is forced once it holds {@code commitEvery} records, or
+ * on {@code commit}, {@code clear} and {@code close}, so a crash loses at
+ * most the records since the last commit. {@code open} rebuilds the
+ * Inventory by replaying the journal into a fresh {@code Inventory1}.
+ *
+ * <p>
+ * An Item is recorded as it is when it is added. Changes made afterwards
+ * through an alias of it, such as the one {@code getItem} returns, are not
+ * recorded; remove the Item and add it back to make such a change durable.
+ *
+ * @convention <pre>
+ * $this.inner is not null and
+ * [if $this.journal is not null, replaying $this.journal into an empty
+ *  Inventory1 of $this.journal.size() slots gives $this.inner, once the
+ *  records not yet committed are included]
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = $this.inner
+ *  this.restrictions = $this.inner.restrictions
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public class JournaledInventory extends InventorySecondary
+        implements Closeable {
+
+    /** The Inventory every call is passed on to. */
+    private Inventory inner;
+
+    /** The journal changes are recorded in, or null if there is none. */
+    private InventoryJournal journal;
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param inner
+     *            the Inventory to pass calls on to
+     * @param journal
+     *            the journal to record changes in, or null
+     */
+    private void createNewRep(Inventory inner, InventoryJournal journal) {
+        this.inner = inner;
+        this.journal = journal;
+    }
+
+    /**
+     * Commits and closes the journal behind this, if any. The representation
+     * is left as it was and must be replaced.
+     */
+    private void detach() {
+        if (this.journal != null) {
+            this.journal.close();
+            this.journal = null;
+        }
+    }
+
+    /**
+     * No-argument constructor, for an Inventory without a journal.
+     */
+    public JournaledInventory() {
+        this.createNewRep(new Inventory1(), null);
+    }
+
+    /**
+     * Constructor for an Inventory of {@code size} slots without a journal.
+     *
+     * @param size
+     *            the number of slots
+     *
+     * @requires size > 0
+     */
+    public JournaledInventory(int size) {
+        assert size > 0 : "Violation of size > 0";
+
+        this.createNewRep(new Inventory1(size), null);
+    }
+
+    /**
+     * Constructor for an Inventory passing calls on to {@code inner} and
+     * recording changes in {@code journal}.
+     *
+     * @param inner
+     *            the Inventory to pass calls on to
+     * @param journal
+     *            the journal to record changes in
+     */
+    private JournaledInventory(Inventory inner, InventoryJournal journal) {
+        this.createNewRep(inner, journal);
+    }
+
+    /**
+     * Creates a new journal at {@code path}, replacing any file already there,
+     * and returns an empty Inventory of {@code size} slots that records its
+     * changes in it.
+     *
+     * @param path
+     *            the journal file to create
+     * @param size
+     *            the number of slots
+     * @param commitEvery
+     *            the number of changes after which they are committed to
+     *            disk, or 0 to commit only on {@code commit}, {@code clear}
+     *            and {@code close}
+     * @return an empty JournaledInventory backed by the new journal
+     * @throws IOException
+     *             if the file cannot be created
+     *
+     * @requires size > 0 and commitEvery >= 0
+     */
+    public static JournaledInventory create(Path path, int size,
+            int commitEvery) throws IOException {
+        assert path != null : "Violation of path is not null";
+        assert size > 0 : "Violation of size > 0";
+        assert commitEvery >= 0 : "Violation of commitEvery >= 0";
+
+        return new JournaledInventory(new Inventory1(size),
+                InventoryJournal.create(path, size, commitEvery));
+    }
+
+    /**
+     * Opens the journal at {@code path}, made by {@code create}, replays it
+     * into a fresh {@code Inventory1}, and returns an Inventory that carries
+     * on recording its changes there. Records left half written by a crash
+     * are discarded; a journal damaged anywhere else is refused and left
+     * as it is.
+     *
+     * @param path
+     *            the journal file to open
+     * @param commitEvery
+     *            the number of changes after which they are committed to
+     *            disk, or 0 to commit only on {@code commit}, {@code clear}
+     *            and {@code close}
+     * @return a JournaledInventory holding every committed change
+     * @throws IOException
+     *             if the file cannot be read, is not a journal, or is
+     *             damaged before its last frame
+     *
+     * @requires commitEvery >= 0
+     */
+    public static JournaledInventory open(Path path, int commitEvery)
+            throws IOException {
+        assert path != null : "Violation of path is not null";
+        assert commitEvery >= 0 : "Violation of commitEvery >= 0";
+
+        Inventory1 inv = new Inventory1(InventoryJournal.size(path));
+
+        return new JournaledInventory(inv,
+                InventoryJournal.open(path, commitEvery, inv));
+    }
+
+    /**
+     * Replays the journal at {@code path} into a fresh {@code Inventory1}
+     * and returns it, leaving the file untouched.
+     *
+     * @param path
+     *            the journal file to read
+     * @return an Inventory1 holding every committed change
+     * @throws IOException
+     *             if the file cannot be read, is not a journal, or is
+     *             damaged before its last frame
+     */
+    public static Inventory1 replay(Path path) throws IOException {
+        assert path != null : "Violation of path is not null";
+
+        Inventory1 inv = new Inventory1(InventoryJournal.size(path));
+        InventoryJournal.replay(path, inv);
+
+        return inv;
+    }
+
+    /**
+     * Makes every change to {@code this} so far durable, if it is backed by
+     * a journal; otherwise does nothing.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    public void commit() {
+        if (this.journal != null) {
+            this.journal.commit();
+        }
+    }
+
+    /**
+     * Commits and closes the journal behind {@code this}, if any, then clears
+     * {@code this}; the same as {@code clear}.
+     *
+     * @clears this
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void close() {
+        this.clear();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItem(int slot, Item item) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size() : "Violation of slot < |this|";
+        assert item != null : "Violation of item is not null";
+
+        this.inner.addItem(slot, item);
+
+        if (this.journal != null && !item.isEmpty()) {
+            this.journal.add(slot, item);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item removeItem(int slot) {
+        assert 0 <= slot : "Violation of 0 <= slot";
+        assert slot < this.size() : "Violation of slot < |this|";
+
+        Item removed = this.inner.removeItem(slot);
+
+        if (this.journal != null && !removed.isEmpty()) {
+            this.journal.remove(slot);
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        return this.inner.peekItem(slot);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        ArrayList<Item> removed = this.inner.restrict(tag);
+
+        if (this.journal != null) {
+            this.journal.restrict(tag);
+        }
+
+        return removed;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void freeRestrictions() {
+        this.inner.freeRestrictions();
+
+        if (this.journal != null) {
+            this.journal.freeRestrictions();
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAllowed(Item item) {
+        return this.inner.isAllowed(item);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        return this.inner.nextIndexOf(name, pos);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexWithTag(String tag, int pos) {
+        return this.inner.nextIndexWithTag(tag, pos);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextEmptySlot(int pos) {
+        return this.inner.nextEmptySlot(pos);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int size() {
+        return this.inner.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The journal behind {@code this}, if any, is committed and closed first,
+     * and keeps the changes recorded so far; {@code this} no longer has one
+     * afterwards.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void clear() {
+        this.detach();
+        this.createNewRep(new Inventory1(), null);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Inventory newInstance() {
+        return new JournaledInventory();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The journal behind {@code src}, if any, moves with its contents.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferFrom(Inventory src) {
+        assert src != null : "Violation of: source is not null";
+        assert src != this : "Violation of: source is not this";
+        assert src instanceof JournaledInventory : ""
+                + "Violation of: source is of dynamic type JournaledInventory";
+
+        JournaledInventory localSrc = (JournaledInventory) src;
+
+        this.detach();
+        this.createNewRep(localSrc.inner, localSrc.journal);
+        localSrc.createNewRep(new Inventory1(), null);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Iterator<Item> iterator() {
+        return this.inner.iterator();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Spliterator<Item> spliterator() {
+        return this.inner.spliterator();
+    }
+}
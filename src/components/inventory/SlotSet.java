@@ -0,0 +1,209 @@
+package components.inventory;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of slot numbers, kept as a bitmap split into pages of
+ * {@code PAGE_SIZE} slots. Only pages holding at least one slot are stored,
+ * in ascending order of page number, so a set costs memory in proportion to
+ * the number of pages it touches rather than to the largest slot in it.
+ * Adding or removing a slot is a single bit operation, except when it creates
+ * or empties a page; slots added in ascending order then only ever append
+ * pages. Lookups binary search the page numbers, after trying the last page
+ * and the page found last, so runs of nearby slots skip the search.
+ *
+ * @convention <pre>
+ * 0 <= $this.used <= |$this.keys| = |$this.pages| and
+ * $this.keys[0, $this.used) is sorted in strictly ascending order and
+ * for all 0 <= k < $this.used:
+ *  [$this.pages[k] is not null and |$this.pages[k]| = PAGE_WORDS and
+ *   not all words of $this.pages[k] are 0]
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = {PAGE_SIZE * $this.keys[k] + 64 * w + b : 0 <= k < $this.used and
+ *          bit b of $this.pages[k][w] is set}
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+final class SlotSet {
+
+    /** log2 of the number of slots in each page. */
+    private static final int PAGE_BITS = 10;
+
+    /** The number of slots in each page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** The number of words in each page. */
+    private static final int PAGE_WORDS = PAGE_SIZE / Long.SIZE;
+
+    /** log2 of the number of slots in each word. */
+    private static final int WORD_BITS = 6;
+
+    /** The page number of each page in use, in ascending order. */
+    private int[] keys;
+
+    /** The bits of each page in use, parallel to {@code keys}. */
+    private long[][] pages;
+
+    /** The number of pages in use. */
+    private int used;
+
+    /** Where the page found last was; may be stale, so always checked. */
+    private int hint;
+
+    /**
+     * Creates an empty set.
+     */
+    SlotSet() {
+        this.keys = new int[1];
+        this.pages = new long[1][];
+        this.used = 0;
+        this.hint = 0;
+    }
+
+    /**
+     * Returns where the page numbered {@code key} is, or
+     * {@code -(insertion point) - 1} if it is not in use.
+     *
+     * @param key
+     *            the page number
+     * @return its index in {@code keys}, as {@code Arrays.binarySearch}
+     */
+    private int find(int key) {
+        int k;
+
+        if (this.hint < this.used && this.keys[this.hint] == key) {
+            k = this.hint;
+        } else if (this.used == 0 || this.keys[this.used - 1] < key) {
+            k = -this.used - 1;
+        } else if (this.keys[this.used - 1] == key) {
+            k = this.used - 1;
+        } else {
+            k = Arrays.binarySearch(this.keys, 0, this.used, key);
+        }
+
+        if (k >= 0) {
+            this.hint = k;
+        }
+
+        return k;
+    }
+
+    /**
+     * Adds {@code slot} to this.
+     *
+     * @param slot
+     *            the slot
+     *
+     * @requires slot >= 0
+     */
+    void add(int slot) {
+        int key = slot >>> PAGE_BITS;
+        int k = this.find(key);
+
+        if (k < 0) {
+            k = -k - 1;
+
+            if (this.used == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, 2 * this.used);
+                this.pages = Arrays.copyOf(this.pages, 2 * this.used);
+            }
+
+            System.arraycopy(this.keys, k, this.keys, k + 1, this.used - k);
+            System.arraycopy(this.pages, k, this.pages, k + 1,
+                    this.used - k);
+            this.keys[k] = key;
+            this.pages[k] = new long[PAGE_WORDS];
+            this.used++;
+        }
+
+        this.pages[k][(slot >>> WORD_BITS) & (PAGE_WORDS - 1)] |= 1L << slot;
+    }
+
+    /**
+     * Removes {@code slot} from this, if it is there.
+     *
+     * @param slot
+     *            the slot
+     *
+     * @requires slot >= 0
+     */
+    void remove(int slot) {
+        int k = this.find(slot >>> PAGE_BITS);
+
+        if (k >= 0) {
+            long[] page = this.pages[k];
+            int at = (slot >>> WORD_BITS) & (PAGE_WORDS - 1);
+            page[at] &= ~(1L << slot);
+            boolean empty = page[at] == 0;
+
+            for (int w = 0; empty && w < PAGE_WORDS; w++) {
+                empty = page[w] == 0;
+            }
+
+            if (empty) {
+                this.used--;
+                System.arraycopy(this.keys, k + 1, this.keys, k,
+                        this.used - k);
+                System.arraycopy(this.pages, k + 1, this.pages, k,
+                        this.used - k);
+                this.pages[this.used] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest slot in this that is at least {@code pos}, or -1
+     * if there is none.
+     *
+     * @param pos
+     *            the lowest slot to report
+     * @return the next slot, or -1
+     *
+     * @requires pos >= 0
+     */
+    int ceiling(int pos) {
+        int k = this.find(pos >>> PAGE_BITS);
+        int w = (pos >>> WORD_BITS) & (PAGE_WORDS - 1);
+        long mask = -1L << pos;
+
+        if (k < 0) {
+            k = -k - 1;
+            w = 0;
+            mask = -1L;
+        }
+
+        int next = -1;
+
+        while (next < 0 && k < this.used) {
+            long[] page = this.pages[k];
+
+            while (w < PAGE_WORDS && (page[w] & mask) == 0) {
+                w++;
+                mask = -1L;
+            }
+
+            if (w < PAGE_WORDS) {
+                next = (this.keys[k] << PAGE_BITS) + (w << WORD_BITS)
+                        + Long.numberOfTrailingZeros(page[w] & mask);
+            }
+
+            k++;
+            w = 0;
+            mask = -1L;
+        }
+
+        return next;
+    }
+
+    /**
+     * Returns whether this is empty.
+     *
+     * @return true if no slot is in this
+     */
+    boolean isEmpty() {
+        return this.used == 0;
+    }
+}
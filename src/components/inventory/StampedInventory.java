@@ -0,0 +1,592 @@
+package components.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe Inventory that passes every call on to an {@code Inventory1}
+ * guarded by a {@code StampedLock}, for workloads made mostly of lookups.
+ * Methods that change {@code this} take the write lock. Methods that only
+ * read it first run without any lock, as an optimistic read, and keep the
+ * result only if no write began meanwhile; otherwise they run again under the
+ * read lock. Readers therefore never write to shared memory while no writer
+ * is active, and do not slow each other down.
+ *
+ * <p>
+ * An optimistic read may see the {@code Inventory1} half changed. What it
+ * returns then is thrown away, since the stamp no longer validates, and so
+ * are the exceptions a half-changed array or list can cause: index out of
+ * bounds, null pointer and concurrent modification. The read lock then
+ * decides. Any other exception, such as a failed assertion, is a real
+ * error and is passed on. {@code useItem} and
+ * {@code swapItems(int, int)} are atomic, as are the batch methods
+ * {@code addItems}, {@code removeItems} and {@code applyBatch}; the other
+ * secondary methods that change {@code this} are built on the kernel and
+ * take the write lock once per kernel call. The iterator and spliterator
+ * work on a copy of the slots taken under the read lock, so they never fail,
+ * and do not see later changes.
+ *
+ * <p>
+ * Items added are aliased as in {@code Inventory1}, and changing one through
+ * such an alias is up to the caller to synchronize. {@code peekItem} and
+ * {@code getItem}, however, hand out a view of the slot whose reads
+ * validate like any other and whose changes take the write lock, and the
+ * iterator hands out copies, so a reader never holds an Item another thread
+ * may be changing.
+ *
+ * @convention <pre>
+ * $this.inner is not null and
+ * $this.inner is only changed while the write lock of $this.lock is held
+ * </pre>
+ *
+ * @correspondence <pre>
+ *  this = $this.inner
+ *  this.restrictions = $this.inner.restrictions
+ *</pre>
+ *
+ * @author David Stuckey
+ */
+public class StampedInventory extends InventorySecondary {
+
+    /** Source of the ids that order the locks of different Inventories. */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /** The Inventory every call is passed on to. */
+    private Inventory1 inner;
+
+    /** The lock guarding {@code inner}. */
+    private final StampedLock lock;
+
+    /** The position of this Inventory in the global lock order. */
+    private final long id;
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param inner
+     *            the Inventory to pass calls on to
+     */
+    private void createNewRep(Inventory1 inner) {
+        this.inner = inner;
+    }
+
+    /**
+     * No-argument constructor.
+     */
+    public StampedInventory() {
+        this.lock = new StampedLock();
+        this.id = NEXT_ID.getAndIncrement();
+        this.createNewRep(new Inventory1());
+    }
+
+    /**
+     * Constructor for an Inventory of {@code size} slots.
+     *
+     * @param size
+     *            the number of slots
+     *
+     * @requires size > 0
+     */
+    public StampedInventory(int size) {
+        assert size > 0 : "Violation of size > 0";
+
+        this.lock = new StampedLock();
+        this.id = NEXT_ID.getAndIncrement();
+        this.createNewRep(new Inventory1(size));
+    }
+
+    /**
+     * Returns the result of {@code reader}, run as an optimistic read and,
+     * if that does not validate, again under the read lock.
+     *
+     * @param reader
+     *            a read of {@code inner} that changes nothing
+     * @return its result
+     */
+    private int readInt(IntSupplier reader) {
+        long stamp = this.lock.tryOptimisticRead();
+        int result = 0;
+        boolean valid = false;
+
+        if (stamp != 0) {
+            try {
+                result = reader.getAsInt();
+                valid = this.lock.validate(stamp);
+            } catch (IndexOutOfBoundsException | NullPointerException
+                    | ConcurrentModificationException e) {
+                // Seen half changed by a writer; the locked read decides
+            }
+        }
+
+        if (!valid) {
+            stamp = this.lock.readLock();
+
+            try {
+                result = reader.getAsInt();
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the result of {@code reader}, run as an optimistic read and,
+     * if that does not validate, again under the read lock.
+     *
+     * @param <T>
+     *            the type of the result
+     * @param reader
+     *            a read of {@code inner} that changes nothing
+     * @return its result
+     */
+    private <T> T read(Supplier<T> reader) {
+        long stamp = this.lock.tryOptimisticRead();
+        T result = null;
+        boolean valid = false;
+
+        if (stamp != 0) {
+            try {
+                result = reader.get();
+                valid = this.lock.validate(stamp);
+            } catch (IndexOutOfBoundsException | NullPointerException
+                    | ConcurrentModificationException e) {
+                // Seen half changed by a writer; the locked read decides
+            }
+        }
+
+        if (!valid) {
+            stamp = this.lock.readLock();
+
+            try {
+                result = reader.get();
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a copy of {@code item} that shares nothing with {@code inner}.
+     * The frozen empty Item is returned as it is, and an Item other than a
+     * {@code BasicItem} is copied into a new {@code BasicItem}.
+     *
+     * @param item
+     *            an Item in {@code inner}
+     * @return the copy
+     */
+    private static Item copyOf(Item item) {
+        Item copy = item;
+
+        if (item instanceof BasicItem && item != EMPTY_ITEM) {
+            copy = ((BasicItem) item).copy();
+        } else if (!(item instanceof BasicItem)) {
+            copy = new BasicItem(item.getName());
+
+            for (Map.Entry<String, Integer> tag : item.getTags()
+                    .entrySet()) {
+                copy.putTag(tag.getKey(), tag.getValue());
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns the result of {@code writer}, run under the write lock.
+     *
+     * @param <T>
+     *            the type of the result
+     * @param writer
+     *            a change to {@code inner}
+     * @return its result
+     */
+    private <T> T write(Supplier<T> writer) {
+        long stamp = this.lock.writeLock();
+        T result;
+
+        try {
+            result = writer.get();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a copy of the slots of {@code this}, and of the Items in them,
+     * taken under the read lock.
+     *
+     * @return the Items in the slots, in order
+     */
+    private List<Item> contents() {
+        long stamp = this.lock.readLock();
+        List<Item> items = new ArrayList<>();
+
+        try {
+            for (Item item : this.inner) {
+                items.add(copyOf(item));
+            }
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+        return Collections.unmodifiableList(items);
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItem(int slot, Item item) {
+        this.write(() -> {
+            this.inner.addItem(slot, item);
+            return null;
+        });
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item removeItem(int slot) {
+        return this.write(() -> this.inner.removeItem(slot));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * A non-empty Item returned by this method is a view of {@code slot}:
+     * each read through it is a read of {@code this}, and each change takes
+     * the write lock.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Item peekItem(int slot) {
+        Item item = EMPTY_ITEM;
+
+        if (!this.read(() -> this.inner.peekItem(slot).isEmpty())) {
+            item = new SlotItem(slot);
+        }
+
+        return item;
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> restrict(String tag) {
+        return this.write(() -> this.inner.restrict(tag));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void freeRestrictions() {
+        this.write(() -> {
+            this.inner.freeRestrictions();
+            return null;
+        });
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAllowed(Item item) {
+        return this.read(() -> this.inner.isAllowed(item));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public boolean isAt(int slot, String name) {
+        return this.read(() -> this.inner.isAt(slot, name));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexOf(String name, int pos) {
+        return this.readInt(() -> this.inner.nextIndexOf(name, pos));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextIndexWithTag(String tag, int pos) {
+        return this.readInt(() -> this.inner.nextIndexWithTag(tag, pos));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextEmptySlot(int pos) {
+        return this.readInt(() -> this.inner.nextEmptySlot(pos));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int nextPlacement(Item item, int maxStack) {
+        return this.readInt(() -> this.inner.nextPlacement(item, maxStack));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int size() {
+        return this.readInt(() -> this.inner.size());
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public String useItem(int slot) {
+        return this.write(() -> this.inner.useItem(slot));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void swapItems(int slot1, int slot2) {
+        this.write(() -> {
+            this.inner.swapItems(slot1, slot2);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Takes the write lock once for the whole batch, so the batch is atomic.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void addItems(int[] slots, Item[] items) {
+        this.write(() -> {
+            this.inner.addItems(slots, items);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Takes the write lock once for the whole batch, so the batch is atomic.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> removeItems(int[] slots) {
+        return this.write(() -> this.inner.removeItems(slots));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Takes the write lock once for the whole batch, so the batch is atomic.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public ArrayList<Item> applyBatch(InventoryBatch batch) {
+        return this.write(() -> this.inner.applyBatch(batch));
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void clear() {
+        this.write(() -> {
+            this.createNewRep(new Inventory1());
+            return null;
+        });
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Inventory newInstance() {
+        return new StampedInventory();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Holds the write locks of both Inventories, taken in a global order so
+     * that two opposite transfers cannot deadlock.
+     */
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void transferFrom(Inventory src) {
+        assert src != null : "Violation of: source is not null";
+        assert src != this : "Violation of: source is not this";
+        assert src instanceof StampedInventory : ""
+                + "Violation of: source is of dynamic type StampedInventory";
+
+        StampedInventory localSrc = (StampedInventory) src;
+        StampedInventory first = this;
+        StampedInventory second = localSrc;
+
+        if (localSrc.id < this.id) {
+            first = localSrc;
+            second = this;
+        }
+
+        long firstStamp = first.lock.writeLock();
+
+        try {
+            long secondStamp = second.lock.writeLock();
+
+            try {
+                this.createNewRep(localSrc.inner);
+                localSrc.createNewRep(new Inventory1());
+            } finally {
+                second.lock.unlockWrite(secondStamp);
+            }
+        } finally {
+            first.lock.unlockWrite(firstStamp);
+        }
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Iterator<Item> iterator() {
+        return this.contents().iterator();
+    }
+
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public Spliterator<Item> spliterator() {
+        return Spliterators.spliterator(this.contents(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * View of a single occupied slot of {@code StampedInventory} as an
+     * {@code Item}. The view holds nothing but the slot number. Each read is
+     * a read of the Item in the slot, optimistic first like any other read,
+     * and each change is made to that Item under the write lock. Reads that
+     * visit more than one field work on a copy taken in one read. The view
+     * follows the slot, not the Item: once the Item is removed from the slot
+     * the view should no longer be used.
+     */
+    private final class SlotItem implements Item {
+
+        /** The slot this is a view of. */
+        private final int slot;
+
+        /**
+         * Creates a view of {@code slot}.
+         *
+         * @param slot
+         *            the slot to view
+         */
+        private SlotItem(int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * Returns the Item in the slot. Must be called within a read or
+         * write of the enclosing Inventory.
+         *
+         * @return the Item in the slot
+         */
+        private Item live() {
+            return StampedInventory.this.inner.peekItem(this.slot);
+        }
+
+        /**
+         * Returns a copy of the Item in the slot, taken in one read.
+         *
+         * @return the copy
+         */
+        private Item copy() {
+            return StampedInventory.this.read(() -> copyOf(this.live()));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return StampedInventory.this.read(() -> this.live().isEmpty());
+        }
+
+        @Override
+        public String getName() {
+            return StampedInventory.this.read(() -> this.live().getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>
+         * The map returned is a copy; changes to it are not seen by the slot.
+         */
+        @Override
+        public Map<String, Integer> getTags() {
+            return new TreeMap<String, Integer>(this.copy().getTags());
+        }
+
+        @Override
+        public boolean hasTag(String tag) {
+            return StampedInventory.this
+                    .read(() -> this.live().hasTag(tag));
+        }
+
+        @Override
+        public void putTag(String tag, int tagVal) {
+            StampedInventory.this.write(() -> {
+                this.live().putTag(tag, tagVal);
+                return null;
+            });
+        }
+
+        @Override
+        public void removeTag(String tag) {
+            StampedInventory.this.write(() -> {
+                this.live().removeTag(tag);
+                return null;
+            });
+        }
+
+        @Override
+        public int tagValue(String tag) {
+            return this.copy().tagValue(tag);
+        }
+
+        @Override
+        public int getCount() {
+            return StampedInventory.this
+                    .readInt(() -> this.live().getCount());
+        }
+
+        @Override
+        public void setCount(int count) {
+            StampedInventory.this.write(() -> {
+                this.live().setCount(count);
+                return null;
+            });
+        }
+
+        @Override
+        public int addCount(int delta) {
+            return StampedInventory.this
+                    .write(() -> this.live().addCount(delta));
+        }
+
+        @Override
+        public int hashCode() {
+            return this.getName().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this.copy().equals(o);
+        }
+
+        @Override
+        public String toString() {
+            return this.copy().toString();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package components.inventory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table assigning dense int ids to Item names and tags, so they can be
+ * compared, hashed and indexed as ints. Ids are handed out in order starting
+ * from 0, and {@code Item.EMPTY_NAME} always has id 0. Symbols are never
+ * removed, so an id stays valid for the life of the table.
+ *
+ * <p>
+ * {@link #NAMES} and {@link #TAGS} are shared by every {@code BasicItem} and
+ * {@code Inventory1}. Names and tags are numbered separately so that tag ids
+ * stay small enough to use as bit positions. Since neither table ever
+ * shrinks, a name is added to {@code NAMES} only when an Item enters an
+ * Inventory that indexes by name id, not when it is built or decoded.
+ * Implementations that keep columns indexed by id may use tables of their
+ * own to keep their id space small. Lookups are safe from any thread.
+ *
+ * @author David Stuckey
+ */
+public final class SymbolTable {
+
+    /** The Item names shared by Items and Inventories in this process. */
+    public static final SymbolTable NAMES = new SymbolTable();
+
+    /** The tags shared by Items and Inventories in this process. */
+    public static final SymbolTable TAGS = new SymbolTable();
+
+    /** Id returned by {@code idOf} for a symbol that has no id yet. */
+    public static final int NO_ID = -1;
+
+    /** Initial capacity of the symbol array. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The id of each symbol in this. */
+    private final Map<String, Integer> ids;
+
+    /** The symbols in this, by id. */
+    private volatile String[] symbols;
+
+    /** The number of symbols in this. */
+    private volatile int size;
+
+    /**
+     * Creates a table holding only {@code Item.EMPTY_NAME}, with id 0.
+     */
+    public SymbolTable() {
+        this.ids = new ConcurrentHashMap<String, Integer>();
+        this.symbols = new String[INITIAL_CAPACITY];
+        this.size = 0;
+
+        this.intern(Inventory.Item.EMPTY_NAME);
+    }
+
+    /**
+     * Returns the id of {@code symbol}, assigning the next free id if it does
+     * not have one yet.
+     *
+     * @param symbol
+     *            the name or tag to look up
+     * @return the id of {@code symbol}
+     *
+     * @requires symbol is not null
+     *
+     * @ensures this.symbol(intern) = symbol
+     */
+    public int intern(String symbol) {
+        assert symbol != null : "Violation of symbol is not null";
+
+        Integer id = this.ids.get(symbol);
+
+        if (id == null) {
+            id = this.add(symbol);
+        }
+
+        return id;
+    }
+
+    /**
+     * Assigns the next free id to {@code symbol} unless another thread got
+     * there first.
+     *
+     * @param symbol
+     *            the symbol to add
+     * @return the id of {@code symbol}
+     */
+    private synchronized int add(String symbol) {
+        Integer id = this.ids.get(symbol);
+
+        if (id == null) {
+            id = this.size;
+
+            if (id == this.symbols.length) {
+                String[] grown = new String[id * 2];
+                System.arraycopy(this.symbols, 0, grown, 0, id);
+                this.symbols = grown;
+            }
+
+            this.symbols[id] = symbol;
+            this.size = id + 1;
+            this.ids.put(symbol, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the id of {@code symbol}, or {@code NO_ID} if it has none. Unlike
+     * {@code intern}, this never adds to the table.
+     *
+     * @param symbol
+     *            the name or tag to look up
+     * @return the id of {@code symbol}, or {@code NO_ID}
+     *
+     * @requires symbol is not null
+     */
+    public int idOf(String symbol) {
+        assert symbol != null : "Violation of symbol is not null";
+
+        Integer id = this.ids.get(symbol);
+
+        int result = NO_ID;
+
+        if (id != null) {
+            result = id;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the symbol with id {@code id}.
+     *
+     * @param id
+     *            the id to look up
+     * @return the symbol with that id
+     *
+     * @requires 0 <= id < this.size()
+     */
+    public String symbol(int id) {
+        assert 0 <= id && id < this.size : "Violation of 0 <= id < |this|";
+
+        return this.symbols[id];
+    }
+
+    /**
+     * Returns the number of symbols in {@code this}; every id is less than
+     * this.
+     *
+     * @return the number of symbols
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,191 @@
+package components.inventory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Inverted index from tag ids in {@code SymbolTable.TAGS} to the slots of an
+ * Inventory holding an Item with that tag, kept as one bitmap per tag.
+ *
+ * <p>
+ * A {@code BasicItem} added to the index is watched: it reports tags added to
+ * or removed from it while it sits in its slot, so the index stays exact even
+ * when the Item is changed through an alias. Any other Item, or a
+ * {@code BasicItem} that is already watched by some index, cannot be tracked
+ * and is marked as unwatched instead; callers must check such slots directly.
+ * {@code Item.COUNT} is never indexed; every slot counts as having it. A
+ * listener may also be told before any watched Item changes at all.
+ *
+ * @author David Stuckey
+ */
+final class TagIndex implements BasicItem.TagObserver {
+
+    /** The id of {@code Item.COUNT}, which every non-empty Item has. */
+    private static final int COUNT_ID = SymbolTable.TAGS.intern(Item.COUNT);
+
+    /** The number of words in each bitmap. */
+    private int words;
+
+    /** The slot bitmap of each tag id, or null if no slot has that tag. */
+    private final ArrayList<long[]> slots;
+
+    /** One bit per slot, set when it holds an Item that is not watched. */
+    private long[] unwatched;
+
+    /** Told the slot of each watched Item about to change, or null. */
+    private IntConsumer changeListener;
+
+    /**
+     * Creates an empty index for an Inventory with {@code size} slots.
+     *
+     * @param size
+     *            the number of slots
+     */
+    TagIndex(int size) {
+        this.words = (size + Long.SIZE - 1) / Long.SIZE;
+        this.slots = new ArrayList<long[]>();
+        this.unwatched = new long[this.words];
+    }
+
+    /**
+     * Makes the index cover {@code size} slots. Bits for slots that are
+     * dropped are lost, so those slots should be empty.
+     *
+     * @param size
+     *            the new number of slots
+     */
+    void resize(int size) {
+        this.words = (size + Long.SIZE - 1) / Long.SIZE;
+        this.unwatched = Arrays.copyOf(this.unwatched, this.words);
+
+        for (int t = 0; t < this.slots.size(); t++) {
+            if (this.slots.get(t) != null) {
+                this.slots.set(t, Arrays.copyOf(this.slots.get(t), this.words));
+            }
+        }
+    }
+
+    /**
+     * Records the tags of {@code item}, now at {@code slot}, and watches it if
+     * possible.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the non-empty Item placed there
+     */
+    void add(int slot, Item item) {
+        if (item instanceof BasicItem && ((BasicItem) item).watch(this, slot)) {
+            BasicItem basic = (BasicItem) item;
+
+            for (int k = 0; k < basic.tagCount(); k++) {
+                this.tagAdded(slot, basic.tagIdAt(k));
+            }
+
+        } else {
+            this.unwatched[slot / Long.SIZE] |= 1L << slot;
+        }
+    }
+
+    /**
+     * Forgets the tags of {@code item}, which is leaving {@code slot}, and
+     * stops watching it.
+     *
+     * @param slot
+     *            the slot
+     * @param item
+     *            the Item leaving it
+     */
+    void remove(int slot, Item item) {
+        long bit = 1L << slot;
+        int w = slot / Long.SIZE;
+
+        if ((this.unwatched[w] & bit) != 0) {
+            this.unwatched[w] &= ~bit;
+        } else {
+            BasicItem basic = (BasicItem) item;
+
+            for (int k = 0; k < basic.tagCount(); k++) {
+                this.tagRemoved(slot, basic.tagIdAt(k));
+            }
+
+            basic.unwatch();
+        }
+    }
+
+    /**
+     * Sets the listener told the slot of each watched Item about to change.
+     *
+     * @param listener
+     *            the listener, or null for none
+     */
+    void setChangeListener(IntConsumer listener) {
+        this.changeListener = listener;
+    }
+
+    @Override
+    public void itemChanging(int slot) {
+        if (this.changeListener != null) {
+            this.changeListener.accept(slot);
+        }
+    }
+
+    @Override
+    public void tagAdded(int slot, int tag) {
+        while (this.slots.size() <= tag) {
+            this.slots.add(null);
+        }
+
+        long[] tagged = this.slots.get(tag);
+
+        if (tagged == null) {
+            tagged = new long[this.words];
+            this.slots.set(tag, tagged);
+        }
+
+        tagged[slot / Long.SIZE] |= 1L << slot;
+    }
+
+    @Override
+    public void tagRemoved(int slot, int tag) {
+        long[] tagged = this.slots.get(tag);
+        tagged[slot / Long.SIZE] &= ~(1L << slot);
+    }
+
+    /**
+     * Returns word {@code w} of the bitmap of slots known to have tag
+     * {@code tag}. Every bit is set for {@code Item.COUNT}.
+     *
+     * @param tag
+     *            the tag id
+     * @param w
+     *            the word
+     * @return the bits for slots {@code 64 * w} to {@code 64 * w + 63}
+     */
+    long tagged(int tag, int w) {
+        long bits = 0;
+
+        if (tag == COUNT_ID) {
+            bits = -1L;
+        } else if (tag < this.slots.size() && this.slots.get(tag) != null) {
+            bits = this.slots.get(tag)[w];
+        }
+
+        return bits;
+    }
+
+    /**
+     * Returns word {@code w} of the bitmap of slots holding unwatched Items.
+     *
+     * @param w
+     *            the word
+     * @return the bits for slots {@code 64 * w} to {@code 64 * w + 63}
+     */
+    long unwatched(int w) {
+        return this.unwatched[w];
+    }
+}
@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import components.inventory.Inventory;
 import components.inventory.Inventory.Item;
 import components.inventory.Inventory1;
+import components.inventory.InventoryTransaction;
 import components.inventory.InventorySecondary.BasicItem;
 
 /**
@@ -135,7 +136,7 @@ public final class InventoryManager {
 
             if (!namesOnly) {
 
-                display += " : " + temp.tagValue(Item.COUNT);
+                display += " : " + temp.getCount();
 
                 for (String tag : temp.getTags().keySet()) {
                     if (tag != Item.COUNT) {
@@ -205,7 +206,7 @@ public final class InventoryManager {
 
                     int partialPos = shelf.nextPlacement(buffer.getItem(0),
                             maxStack);
-                    buffer.getItem(0).putTag(Item.COUNT, numItems);
+                    buffer.getItem(0).setCount(numItems);
                     int fullPos = shelf.nextPlacement(buffer.getItem(0),
                             maxStack);
 
@@ -215,7 +216,7 @@ public final class InventoryManager {
                         System.out.println("Added all items requested.");
 
                     } else if (partialPos >= 0) {
-                        shelf.getItem(partialPos).putTag(Item.COUNT, maxStack);
+                        shelf.getItem(partialPos).setCount(maxStack);
                         System.out.println(
                                 "Added as many items as could be placed in a slot.");
                     } else {
@@ -233,10 +234,12 @@ public final class InventoryManager {
                     System.out.println("Sell how Many?\n");
 
                     int numSell = getInputOption(in,
-                            shelf.getItem(shelfSlot).tagValue(Item.COUNT));
+                            shelf.getItem(shelfSlot).getCount());
 
                     buffer.clear();
-                    buffer.splitItem(shelf, shelfSlot, 0, numSell);
+                    InventoryTransaction sale = new InventoryTransaction();
+                    sale.enlist(buffer).splitItem(sale.enlist(shelf),
+                            shelfSlot, 0, numSell);
 
                     final double centsToDollars = 100.0;
                     double price = 0.00;
@@ -251,11 +254,12 @@ public final class InventoryManager {
                     int sellChoice = getInputOption(in, 2);
 
                     if (sellChoice == 0) {
+                        sale.commit();
                         buffer.clear();
                         System.out.println("Sold.");
 
                     } else {
-                        shelf.addItem(shelfSlot, buffer.removeItem(shelfSlot));
+                        sale.rollback();
                         System.out.println("Items returned to shelf.");
                     }
 
@@ -270,7 +274,7 @@ public final class InventoryManager {
                     System.out.println("Remove how Many?\n");
 
                     int numRemove = getInputOption(in,
-                            shelf.getItem(shelfSlot2).tagValue(Item.COUNT));
+                            shelf.getItem(shelfSlot2).getCount());
 
                     buffer.clear();
                     buffer.splitItem(shelf, shelfSlot2, 0, numRemove);
@@ -0,0 +1,166 @@
+package demos.benchmarks;
+
+import java.util.ArrayList;
+
+import components.inventory.Inventory;
+import components.inventory.Inventory.Item;
+import components.inventory.Inventory1;
+import components.inventory.InventoryBatch;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Measures the cost per Item of loading and unloading an {@code Inventory1}
+ * one call at a time against the batch entry points {@code addItems},
+ * {@code removeItems} and {@code applyBatch}. Both sides run on the current
+ * {@code Inventory1}: the baseline is a loop of {@code addItem} and
+ * {@code removeItem} calls, which keeps the Items it removes in a list just
+ * as the batch calls return them. Each Inventory is filled slot by slot with
+ * Items of {@code NAMES} names, with and without a restriction in force, then
+ * emptied again; the mixed workload removes every other Item and adds new
+ * ones in their place.
+ *
+ * <p>
+ * {@code Inventory1} takes the batch calls from {@code InventorySecondary},
+ * which loop over the single calls, so the ratio should stay near 1; a
+ * kernel that overrides them can be measured against its own single calls
+ * the same way.
+ *
+ * @author David Stuckey
+ */
+public final class BatchBenchmark {
+
+    /** The number of slots in the benchmarked Inventories. */
+    private static final int SLOTS = 1 << 20;
+
+    /** The number of distinct names placed in the Inventories. */
+    private static final int NAMES = 100;
+
+    /** The number of times each workload is run; the fastest run counts. */
+    private static final int ROUNDS = 5;
+
+    /** The tag required by the restricted workload. */
+    private static final String TAG = "fresh";
+
+    /** Private constructor to prevent instantiation. */
+    private BatchBenchmark() {
+
+    }
+
+    /**
+     * Returns new Items for every slot, named by slot.
+     *
+     * @return the Items, by slot
+     */
+    private static Item[] newItems() {
+        Item[] items = new Item[SLOTS];
+
+        for (int i = 0; i < SLOTS; i++) {
+            items[i] = new BasicItem("Item" + (i % NAMES));
+            items[i].putTag(TAG, 1);
+        }
+
+        return items;
+    }
+
+    /**
+     * Returns an Inventory of {@code SLOTS} slots, restricted to {@code TAG}
+     * if {@code restricted}.
+     *
+     * @param restricted
+     *            whether to restrict the Inventory
+     * @return the Inventory
+     */
+    private static Inventory newInventory(boolean restricted) {
+        Inventory inv = new Inventory1(SLOTS);
+
+        if (restricted) {
+            inv.restrict(TAG);
+        }
+
+        return inv;
+    }
+
+    /**
+     * Returns the nanoseconds per Item of one run of a workload.
+     *
+     * @param batch
+     *            whether to use the batch entry points
+     * @param kind
+     *            0 to add, 1 to add under a restriction, 2 to remove, and 3
+     *            for the mixed workload
+     * @return the time per Item
+     */
+    private static double run(boolean batch, int kind) {
+        int[] slots = new int[SLOTS];
+
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = i;
+        }
+
+        Item[] items = newItems();
+        Inventory inv = newInventory(kind == 1);
+
+        if (kind >= 2) {
+            inv.addItems(slots, items);
+            items = newItems();
+        }
+
+        InventoryBatch mixed = new InventoryBatch();
+
+        for (int i = 0; kind == 3 && i < SLOTS; i += 2) {
+            mixed.remove(i).add(i, items[i]);
+        }
+
+        ArrayList<Item> removed = new ArrayList<>(SLOTS);
+        long start = System.nanoTime();
+
+        if (kind < 2 && batch) {
+            inv.addItems(slots, items);
+        } else if (kind < 2) {
+            for (int i = 0; i < SLOTS; i++) {
+                inv.addItem(i, items[i]);
+            }
+        } else if (kind == 2 && batch) {
+            inv.removeItems(slots);
+        } else if (kind == 2) {
+            for (int i = 0; i < SLOTS; i++) {
+                removed.add(inv.removeItem(i));
+            }
+        } else if (batch) {
+            inv.applyBatch(mixed);
+        } else {
+            for (int i = 0; i < SLOTS; i += 2) {
+                removed.add(inv.removeItem(i));
+                inv.addItem(i, items[i]);
+            }
+        }
+
+        return (System.nanoTime() - start) / (double) SLOTS;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; ignored
+     */
+    public static void main(String[] args) {
+        String[] kinds = {"add", "add restricted", "remove", "mixed" };
+
+        System.out.printf("%16s %14s %14s %8s%n", "workload", "calls ns/item",
+                "batch ns/item", "ratio");
+
+        for (int kind = 0; kind < kinds.length; kind++) {
+            double calls = Double.MAX_VALUE;
+            double batch = Double.MAX_VALUE;
+
+            for (int r = 0; r < ROUNDS; r++) {
+                calls = Math.min(calls, run(false, kind));
+                batch = Math.min(batch, run(true, kind));
+            }
+
+            System.out.printf("%16s %14.1f %14.1f %8.2f%n", kinds[kind], calls,
+                    batch, calls / batch);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package demos.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import components.inventory.ConcurrentInventory;
+import components.inventory.Inventory;
+import components.inventory.Inventory1;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Measures the throughput of two workloads on {@code ConcurrentInventory}
+ * against {@code Inventory1} behind one global lock, from 1 to 64 threads.
+ * In the spread workload each operation picks a random slot and either reads
+ * it, adds an Item to it (stacking if one is there) or removes its Item, in
+ * the ratio 2:1:1. In the hot workload every thread stacks onto, or uses one
+ * unit of, one of a few stacks, as in a flash sale.
+ *
+ * @author David Stuckey
+ */
+public final class ConcurrentInventoryBenchmark {
+
+    /** The number of slots in the benchmarked Inventories. */
+    private static final int SLOTS = 100000;
+
+    /** The thread counts to measure. */
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64 };
+
+    /** How long each measurement runs, in milliseconds. */
+    private static final long RUN_MILLIS = 1000;
+
+    /** The number of slots the hot workload works on. */
+    private static final int HOT_SLOTS = 4;
+
+    /** The number of operation kinds drawn from. */
+    private static final int KINDS = 4;
+
+    /** Milliseconds per second. */
+    private static final double MILLIS = 1000.0;
+
+    /** Private constructor to prevent instantiation. */
+    private ConcurrentInventoryBenchmark() {
+
+    }
+
+    /**
+     * Runs one random operation on {@code inv}.
+     *
+     * @param inv
+     *            the Inventory
+     * @param random
+     *            the random source of the calling thread
+     */
+    private static void operate(Inventory inv, ThreadLocalRandom random) {
+        int slot = random.nextInt(SLOTS);
+
+        switch (random.nextInt(KINDS)) {
+            case 0:
+                inv.addItem(slot, new BasicItem("Item"));
+                break;
+            case 1:
+                inv.removeItem(slot);
+                break;
+            default:
+                inv.isAt(slot, "Item");
+                break;
+        }
+    }
+
+    /**
+     * Runs one random operation of the hot workload on {@code inv}.
+     *
+     * @param inv
+     *            the Inventory
+     * @param random
+     *            the random source of the calling thread
+     */
+    private static void operateHot(Inventory inv, ThreadLocalRandom random) {
+        int slot = random.nextInt(HOT_SLOTS);
+
+        if (random.nextBoolean()) {
+            inv.addItem(slot, new BasicItem("Item"));
+        } else {
+            inv.useItem(slot);
+        }
+    }
+
+    /**
+     * Runs {@code operation} on {@code threads} threads for
+     * {@code RUN_MILLIS} and returns the number of operations per second.
+     *
+     * @param operation
+     *            the workload
+     * @param inv
+     *            the Inventory
+     * @param threads
+     *            the number of threads
+     * @param global
+     *            whether every operation holds the lock of {@code inv}
+     * @return the throughput
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    private static double measure(
+            BiConsumer<Inventory, ThreadLocalRandom> operation, Inventory inv,
+            int threads, boolean global) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        long end = System.currentTimeMillis() + RUN_MILLIS;
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+
+                while (System.currentTimeMillis() < end) {
+                    if (global) {
+                        synchronized (inv) {
+                            operation.accept(inv, random);
+                        }
+                    } else {
+                        operation.accept(inv, random);
+                    }
+
+                    done++;
+                }
+
+                ops.add(done);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return ops.sum() * MILLIS / RUN_MILLIS;
+    }
+
+    /**
+     * Prints the throughput of {@code operation} on each Inventory at each
+     * thread count.
+     *
+     * @param title
+     *            the name of the workload
+     * @param operation
+     *            the workload
+     * @param slots
+     *            the number of slots in the Inventories
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    private static void report(String title,
+            BiConsumer<Inventory, ThreadLocalRandom> operation, int slots)
+            throws InterruptedException {
+        measure(operation, new ConcurrentInventory(slots), 2, false);
+        measure(operation, new Inventory1(slots), 2, true);
+
+        System.out.printf("%s%n%8s %18s %18s%n", title, "threads",
+                "concurrent ops/s", "global lock ops/s");
+
+        for (int threads : THREADS) {
+            double striped = measure(operation,
+                    new ConcurrentInventory(slots), threads, false);
+            double locked = measure(operation, new Inventory1(slots),
+                    threads, true);
+
+            System.out.printf("%8d %18.0f %18.0f%n", threads, striped, locked);
+        }
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; ignored
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        report("spread", ConcurrentInventoryBenchmark::operate, SLOTS);
+        report("hot", ConcurrentInventoryBenchmark::operateHot, HOT_SLOTS);
+    }
+}
@@ -0,0 +1,142 @@
+package demos.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import components.inventory.Inventory.Item;
+import components.inventory.Inventory1;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Measures the round-trip throughput of {@code Inventory1.writeTo} and
+ * {@code Inventory1.readFrom} through a file channel, on an Inventory of a
+ * million slots, half of them occupied.
+ *
+ * @author David Stuckey
+ */
+public final class SerializationBenchmark {
+
+    /** The number of slots in the benchmarked Inventory. */
+    private static final int SLOTS = 1000000;
+
+    /** The number of distinct Item names used. */
+    private static final int NAMES = 100;
+
+    /** The number of distinct tags used. */
+    private static final int TAGS = 8;
+
+    /** The number of untimed round trips run first. */
+    private static final int WARMUP = 3;
+
+    /** The number of timed round trips. */
+    private static final int ROUNDS = 10;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS = 1e9;
+
+    /** Bytes per megabyte. */
+    private static final double MEGABYTE = 1 << 20;
+
+    /** Private constructor to prevent instantiation. */
+    private SerializationBenchmark() {
+
+    }
+
+    /**
+     * Builds the Inventory to benchmark: every other slot holds an Item with
+     * one of {@code NAMES} names and up to three of {@code TAGS} tags.
+     *
+     * @return the Inventory
+     */
+    private static Inventory1 build() {
+        Inventory1 inv = new Inventory1(SLOTS);
+
+        for (int i = 0; i < SLOTS; i += 2) {
+            Item item = new BasicItem("Item" + (i % NAMES), 1 + i % 2 + 1);
+
+            for (int t = 0; t < i % (2 + 2); t++) {
+                item.putTag("Tag" + ((i + t) % TAGS), i);
+            }
+
+            inv.addItem(i, item);
+        }
+
+        return inv;
+    }
+
+    /**
+     * Writes {@code inv} to {@code path} and reads it back into
+     * {@code target}.
+     *
+     * @param inv
+     *            the Inventory to write
+     * @param target
+     *            the Inventory to read into
+     * @param path
+     *            the file to use
+     * @return the number of bytes written
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    private static long roundTrip(Inventory1 inv, Inventory1 target,
+            Path path) throws IOException {
+        try (FileChannel out = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            inv.writeTo(out);
+        }
+
+        try (FileChannel in = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            target.readFrom(in);
+        }
+
+        return Files.size(path);
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; ignored
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        Inventory1 inv = build();
+        Inventory1 target = new Inventory1();
+        Path path = Files.createTempFile("inventory", ".bin");
+
+        try {
+            long bytes = 0;
+
+            for (int i = 0; i < WARMUP; i++) {
+                bytes = roundTrip(inv, target, path);
+            }
+
+            if (!target.equals(inv)) {
+                throw new IllegalStateException("Round trip changed contents");
+            }
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < ROUNDS; i++) {
+                roundTrip(inv, target, path);
+            }
+
+            double seconds = (System.nanoTime() - start) / NANOS;
+
+            System.out.printf("Slots: %d, encoded size: %d bytes%n", SLOTS,
+                    bytes);
+            System.out.printf("Round trip: %.1f ms, %.1f MB/s, %.0f slots/s%n",
+                    seconds * 1000 / ROUNDS,
+                    bytes * ROUNDS / MEGABYTE / seconds,
+                    (double) SLOTS * ROUNDS / seconds);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package demos.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import components.inventory.Inventory;
+import components.inventory.Inventory1;
+import components.inventory.InventorySecondary.BasicItem;
+import components.inventory.StampedInventory;
+
+/**
+ * Measures the throughput of a lookup-heavy workload on
+ * {@code StampedInventory} against {@code Inventory1} behind one
+ * {@code synchronized} lock, from 1 to 64 threads. Of every 100 operations,
+ * 95 are {@code getItem}, {@code isAt} or {@code nextIndexOf} on random slots
+ * and names, and 5 add or remove an Item.
+ *
+ * @author David Stuckey
+ */
+public final class StampedInventoryBenchmark {
+
+    /** The number of slots in the benchmarked Inventories. */
+    private static final int SLOTS = 10000;
+
+    /** The number of distinct names placed in the Inventories. */
+    private static final int NAMES = 100;
+
+    /** The thread counts to measure. */
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64 };
+
+    /** How long each measurement runs, in milliseconds. */
+    private static final long RUN_MILLIS = 1000;
+
+    /** Out of how many operations the writes are counted. */
+    private static final int PERCENT = 100;
+
+    /** The number of writes among every {@code PERCENT} operations. */
+    private static final int WRITES = 5;
+
+    /** The number of kinds of lookup. */
+    private static final int LOOKUPS = 3;
+
+    /** Milliseconds per second. */
+    private static final double MILLIS = 1000.0;
+
+    /** Private constructor to prevent instantiation. */
+    private StampedInventoryBenchmark() {
+
+    }
+
+    /**
+     * Fills every other slot of {@code inv} with one of {@code NAMES} names.
+     *
+     * @param inv
+     *            the Inventory to fill
+     * @return {@code inv}
+     */
+    private static Inventory fill(Inventory inv) {
+        for (int i = 0; i < SLOTS; i += 2) {
+            inv.addItem(i, new BasicItem("Item" + (i % NAMES)));
+        }
+
+        return inv;
+    }
+
+    /**
+     * Runs one random operation on {@code inv}.
+     *
+     * @param inv
+     *            the Inventory
+     * @param random
+     *            the random source of the calling thread
+     */
+    private static void operate(Inventory inv, ThreadLocalRandom random) {
+        int slot = random.nextInt(SLOTS);
+        int kind = random.nextInt(PERCENT);
+        String name = "Item" + (slot % NAMES);
+
+        if (kind < WRITES) {
+            if (inv.isAt(slot, name)) {
+                inv.removeItem(slot);
+            } else if (inv.peekItem(slot).isEmpty()) {
+                inv.addItem(slot, new BasicItem(name));
+            }
+        } else if (kind % LOOKUPS == 0) {
+            inv.getItem(slot);
+        } else if (kind % LOOKUPS == 1) {
+            inv.isAt(slot, name);
+        } else {
+            inv.nextIndexOf(name, slot);
+        }
+    }
+
+    /**
+     * Runs the workload on {@code threads} threads for {@code RUN_MILLIS}
+     * and returns the number of operations per second.
+     *
+     * @param inv
+     *            the Inventory
+     * @param threads
+     *            the number of threads
+     * @param global
+     *            whether every operation holds the lock of {@code inv}
+     * @return the throughput
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    private static double measure(Inventory inv, int threads, boolean global)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        long end = System.currentTimeMillis() + RUN_MILLIS;
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+
+                while (System.currentTimeMillis() < end) {
+                    if (global) {
+                        synchronized (inv) {
+                            operate(inv, random);
+                        }
+                    } else {
+                        operate(inv, random);
+                    }
+
+                    done++;
+                }
+
+                ops.add(done);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return ops.sum() * MILLIS / RUN_MILLIS;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; ignored
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        measure(fill(new StampedInventory(SLOTS)), 2, false);
+        measure(fill(new Inventory1(SLOTS)), 2, true);
+
+        System.out.printf("%8s %18s %18s%n", "threads", "stamped ops/s",
+                "synchronized ops/s");
+
+        for (int threads : THREADS) {
+            double stamped = measure(fill(new StampedInventory(SLOTS)),
+                    threads, false);
+            double locked = measure(fill(new Inventory1(SLOTS)), threads,
+                    true);
+
+            System.out.printf("%8d %18.0f %18.0f%n", threads, stamped, locked);
+        }
+    }
+}
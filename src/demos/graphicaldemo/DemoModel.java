@@ -287,7 +287,7 @@ public final class DemoModel {
             switch (inv) {
                 case GENERAL:
                 case USABLE:
-                    int count = i.tagValue(Item.COUNT);
+                    int count = i.getCount();
                     final int radix = 10;
 
                     label += count;
@@ -398,7 +398,7 @@ public final class DemoModel {
     /** Increments the number of items to split. */
     public void incrementCount() {
         if (this.savedPos >= 0 && this.count < this.invs.get(this.savedInv)
-                .getItem(this.savedPos).tagValue(Item.COUNT)) {
+                .getItem(this.savedPos).getCount()) {
             this.count++;
         }
 
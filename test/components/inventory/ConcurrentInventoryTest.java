@@ -0,0 +1,502 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for ConcurrentInventory.
+ *
+ * @author David Stuckey
+ */
+public class ConcurrentInventoryTest {
+
+    /** The number of threads used by the tests that run threads. */
+    private static final int THREADS = 8;
+
+    /**
+     * Runs {@code task} once on each of {@code THREADS} threads, passing it
+     * the thread's number, and waits for all of them.
+     *
+     * @param task
+     *            the work for each thread
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static void runThreads(IntConsumer task)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int number = t;
+            Thread thread = new Thread(() -> task.accept(number));
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /** Test for adding, stacking and removing Items on one thread. */
+    @Test
+    public final void testKernelOneThread() {
+        final int invSize = 130;
+        Inventory testInv = new ConcurrentInventory(invSize);
+        Item foo = new BasicItem("Foo", 2);
+        foo.putTag("TEST", 1);
+
+        testInv.addItem(invSize - 1, foo);
+        testInv.addItem(invSize - 1, new BasicItem("Foo", 1));
+        testInv.addItem(0, new BasicItem("Bar"));
+
+        assertEquals(testInv.getItem(invSize - 1).getCount(), 2 + 1);
+        assertEquals(testInv.nextIndexOf("Foo", 0), invSize - 1);
+        assertEquals(testInv.nextIndexOf("Foo", invSize - 1), invSize - 1);
+        assertEquals(testInv.nextEmptySlot(0), 1);
+        assertTrue(testInv.isAt(0, "Bar"));
+
+        assertEquals(testInv.removeItem(invSize - 1).tagValue("TEST"), 1);
+        assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+        assertTrue(testInv.removeItem(invSize - 1).isEmpty());
+    }
+
+    /** Test for restrict(), freeRestrictions() and isAllowed(). */
+    @Test
+    public final void testRestrict() {
+        final int invSize = 100;
+        Inventory testInv = new ConcurrentInventory(invSize);
+        Item tagged = new BasicItem("Foo");
+        tagged.putTag("TEST", 1);
+
+        testInv.addItem(2, tagged);
+        testInv.addItem(invSize - 1, new BasicItem("Bar"));
+
+        ArrayList<Item> removed = testInv.restrict("TEST");
+
+        assertEquals(removed.size(), 1);
+        assertEquals(removed.get(0).getName(), "Bar");
+        assertTrue(testInv.isAt(2, "Foo"));
+        assertFalse(testInv.isAllowed(new BasicItem("Bar")));
+        assertEquals(testInv.nextIndexOf("Bar", 0), -1);
+
+        testInv.freeRestrictions();
+
+        assertTrue(testInv.isAllowed(new BasicItem("Bar")));
+    }
+
+    /** Test for nextPlacement() with full and open stacks. */
+    @Test
+    public final void testNextPlacement() {
+        final int maxStack = 5;
+        Inventory testInv = new ConcurrentInventory(2 + 2);
+
+        testInv.addItem(1, new BasicItem("Foo", maxStack));
+        testInv.addItem(2, new BasicItem("Foo", 2));
+
+        assertEquals(testInv.nextPlacement(new BasicItem("Foo", 2),
+                maxStack), 2);
+        assertEquals(testInv.nextPlacement(new BasicItem("Foo", maxStack),
+                maxStack), 0);
+        assertEquals(testInv.nextPlacement(new BasicItem("Bar"), 0), 0);
+    }
+
+    /** Test for clear(), newInstance() and transferFrom(). */
+    @Test
+    public final void testClearAndTransferFrom() {
+        ConcurrentInventory testInv = new ConcurrentInventory(2);
+        ConcurrentInventory source = new ConcurrentInventory(2 + 1);
+        source.addItem(2, new BasicItem("Foo"));
+
+        testInv.addItem(0, new BasicItem("Bar"));
+        testInv.transferFrom(source);
+
+        assertEquals(testInv.size(), 2 + 1);
+        assertTrue(testInv.isAt(2, "Foo"));
+        assertEquals(source, new ConcurrentInventory());
+
+        testInv.clear();
+
+        assertEquals(testInv, testInv.newInstance());
+    }
+
+    /**
+     * Test that the iterator does not fail when the Inventory changes under
+     * it.
+     */
+    @Test
+    public final void testIteratorWeaklyConsistent() {
+        Inventory testInv = new ConcurrentInventory(2);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        List<String> names = new ArrayList<>();
+
+        for (Item item : testInv) {
+            names.add(item.getName());
+            testInv.addItem(1, new BasicItem("Bar"));
+        }
+
+        assertEquals(names.get(0), "Foo");
+        assertEquals(names.get(1), "Bar");
+    }
+
+    /**
+     * Test that threads filling and emptying their own slots all succeed.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsOwnSlots() throws InterruptedException {
+        final int perThread = 500;
+        final int rounds = 20;
+        Inventory testInv = new ConcurrentInventory(THREADS * perThread);
+
+        runThreads(t -> {
+            for (int r = 0; r < rounds; r++) {
+                for (int i = t; i < THREADS * perThread; i += THREADS) {
+                    testInv.addItem(i, new BasicItem("Item" + t));
+                }
+
+                for (int i = t; i < THREADS * perThread; i += THREADS) {
+                    if (r < rounds - 1) {
+                        assertEquals(testInv.removeItem(i).getName(),
+                                "Item" + t);
+                    }
+                }
+            }
+        });
+
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(testInv.nextIndexOf("Item" + t, 0), t);
+        }
+
+        assertEquals(testInv.nextEmptySlot(0), -1);
+    }
+
+    /**
+     * Test that stacking onto one slot from many threads loses no counts.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsStackOneSlot() throws InterruptedException {
+        final int adds = 10000;
+        Inventory testInv = new ConcurrentInventory(1);
+        testInv.addItem(0, new BasicItem("Foo", 0));
+
+        runThreads(t -> {
+            for (int k = 0; k < adds; k++) {
+                testInv.addItem(0, new BasicItem("Foo"));
+            }
+        });
+
+        assertEquals(testInv.peekItem(0).getCount(), THREADS * adds);
+    }
+
+    /**
+     * Test that restrict() removes every Item without the tag, while other
+     * threads keep adding Items with it.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsRestrict() throws InterruptedException {
+        final int invSize = 1000;
+        Inventory testInv = new ConcurrentInventory(invSize);
+
+        for (int i = 1; i < invSize; i += 2) {
+            testInv.addItem(i, new BasicItem("Bar"));
+        }
+
+        runThreads(t -> {
+            if (t == 0) {
+                assertEquals(testInv.restrict("TEST").size(), invSize / 2);
+            } else {
+                for (int i = 2 * t; i < invSize; i += 2 * THREADS) {
+                    Item item = new BasicItem("Foo");
+                    item.putTag("TEST", 1);
+                    testInv.addItem(i, item);
+                }
+            }
+        });
+
+        assertEquals(testInv.nextIndexOf("Bar", 0), -1);
+        assertEquals(testInv.nextIndexOf("Foo", 0), 2);
+    }
+
+    /** Test for useItem() down to an empty slot on one thread. */
+    @Test
+    public final void testUseItem() {
+        Inventory testInv = new ConcurrentInventory(2);
+        testInv.addItem(0, new BasicItem("Foo", 2));
+
+        assertEquals(testInv.useItem(0), "Foo");
+        assertEquals(testInv.peekItem(0).getCount(), 1);
+        assertEquals(testInv.useItem(0), "Foo");
+        assertTrue(testInv.peekItem(0).isEmpty());
+        assertEquals(testInv.nextEmptySlot(0), 0);
+        assertEquals(testInv.useItem(0), Item.EMPTY_NAME);
+
+        testInv.addItem(0, new BasicItem("Bar"));
+
+        assertTrue(testInv.isAt(0, "Bar"));
+    }
+
+    /**
+     * Test that an Item removed from a slot keeps its count, and takes no
+     * later stacking.
+     */
+    @Test
+    public final void testRemovedItemDetached() {
+        Inventory testInv = new ConcurrentInventory(1);
+        Item foo = new BasicItem("Foo", 2);
+        testInv.addItem(0, foo);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        Item removed = testInv.removeItem(0);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        assertTrue(removed == foo);
+        assertEquals(removed.getCount(), 2 + 1);
+        assertEquals(testInv.peekItem(0).getCount(), 1);
+        assertFalse(testInv.peekItem(0) == foo);
+    }
+
+    /**
+     * Test that threads using one stack use each unit exactly once.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsUseOneSlot() throws InterruptedException {
+        final int uses = 5000;
+        Inventory testInv = new ConcurrentInventory(1);
+        testInv.addItem(0, new BasicItem("Foo", THREADS * uses));
+
+        runThreads(t -> {
+            for (int k = 0; k < uses; k++) {
+                assertEquals(testInv.useItem(0), "Foo");
+            }
+        });
+
+        assertTrue(testInv.peekItem(0).isEmpty());
+        assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+        assertEquals(testInv.nextEmptySlot(0), 0);
+    }
+
+    /**
+     * Test that stacking and using one slot from many threads, emptying it
+     * and starting it again, loses no counts.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsStackAndUse() throws InterruptedException {
+        final int ops = 10000;
+        Inventory testInv = new ConcurrentInventory(1);
+        LongAdder used = new LongAdder();
+
+        runThreads(t -> {
+            for (int k = 0; k < ops; k++) {
+                if (t % 2 == 0) {
+                    testInv.addItem(0, new BasicItem("Foo"));
+                } else if (testInv.useItem(0).equals("Foo")) {
+                    used.increment();
+                }
+            }
+        });
+
+        assertEquals(testInv.peekItem(0).getCount(),
+                THREADS / 2 * ops - used.intValue());
+    }
+
+    /**
+     * Test that every unit stacked onto a slot ends up either in an Item
+     * removed from it or in the slot.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsStackAndRemove()
+            throws InterruptedException {
+        final int adds = 10000;
+        Inventory testInv = new ConcurrentInventory(1);
+        LongAdder removed = new LongAdder();
+
+        runThreads(t -> {
+            for (int k = 0; k < adds; k++) {
+                if (t == 0) {
+                    removed.add(testInv.removeItem(0).getCount());
+                } else {
+                    testInv.addItem(0, new BasicItem("Foo"));
+                }
+            }
+        });
+
+        assertEquals(testInv.peekItem(0).getCount() + removed.intValue(),
+                (THREADS - 1) * adds);
+    }
+
+    /**
+     * Test that stacking during transferFrom() lands either in the Item that
+     * was transferred or in the emptied source.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsStackDuringTransfer()
+            throws InterruptedException {
+        final int adds = 10000;
+        ConcurrentInventory source = new ConcurrentInventory(1);
+        ConcurrentInventory dest = new ConcurrentInventory(1);
+        source.addItem(0, new BasicItem("Foo", 0));
+
+        runThreads(t -> {
+            if (t == 0) {
+                while (source.peekItem(0).getCount() < adds) {
+                    Thread.yield();
+                }
+
+                dest.transferFrom(source);
+            } else {
+                for (int k = 0; k < adds; k++) {
+                    source.addItem(0, new BasicItem("Foo"));
+                }
+            }
+        });
+
+        assertEquals(source.peekItem(0).getCount()
+                + dest.peekItem(0).getCount(), (THREADS - 1) * adds);
+    }
+
+    /** Test for transferItem() and swapItems() on one thread. */
+    @Test
+    public final void testTransferAndSwapItems() {
+        final int invSize = 130;
+        ConcurrentInventory testInv = new ConcurrentInventory(invSize);
+        ConcurrentInventory other = new ConcurrentInventory(2);
+        testInv.addItem(0, new BasicItem("Foo", 2));
+        testInv.addItem(invSize - 1, new BasicItem("Bar"));
+        other.addItem(1, new BasicItem("Foo"));
+
+        testInv.transferItem(other, 1, 0);
+
+        assertEquals(testInv.peekItem(0).getCount(), 2 + 1);
+        assertTrue(other.peekItem(1).isEmpty());
+
+        testInv.swapItems(0, invSize - 1);
+
+        assertTrue(testInv.isAt(0, "Bar"));
+        assertTrue(testInv.isAt(invSize - 1, "Foo"));
+        assertEquals(testInv.nextIndexOf("Foo", 0), invSize - 1);
+
+        testInv.swapItems(other, 0, 0);
+
+        assertTrue(testInv.peekItem(0).isEmpty());
+        assertTrue(other.isAt(0, "Bar"));
+        assertEquals(other.nextIndexOf("Bar", 0), 0);
+    }
+
+    /** Test for moveItem() stacking, swapping and refusing. */
+    @Test
+    public final void testMoveItem() {
+        ConcurrentInventory testInv = new ConcurrentInventory(2);
+        ConcurrentInventory other = new ConcurrentInventory(2);
+        Item tagged = new BasicItem("Foo");
+        tagged.putTag("TEST", 1);
+        testInv.addItem(0, tagged);
+        other.addItem(0, new BasicItem("Foo", 2));
+        other.addItem(1, new BasicItem("Bar"));
+
+        assertTrue(testInv.moveItem(other, 0, 0));
+        assertEquals(testInv.peekItem(0).getCount(), 2 + 1);
+        assertTrue(other.peekItem(0).isEmpty());
+
+        assertTrue(other.moveItem(testInv, 0, 1));
+        assertTrue(other.isAt(1, "Foo"));
+        assertTrue(testInv.isAt(0, "Bar"));
+
+        other.restrict("TEST");
+
+        assertFalse(other.moveItem(testInv, 0, 1));
+        assertTrue(testInv.isAt(0, "Bar"));
+        assertTrue(other.isAt(1, "Foo"));
+    }
+
+    /**
+     * Test that swaps and moves between two Inventories, both ways at once,
+     * neither deadlock nor lose or copy Items.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsSwapBothWays() throws InterruptedException {
+        final int invSize = 256;
+        final int swaps = 5000;
+        ConcurrentInventory first = new ConcurrentInventory(invSize);
+        ConcurrentInventory second = new ConcurrentInventory(invSize);
+
+        for (int i = 0; i < invSize; i++) {
+            first.addItem(i, new BasicItem("Item" + i));
+        }
+
+        runThreads(t -> {
+            Random random = new Random(t);
+
+            for (int k = 0; k < swaps; k++) {
+                int a = random.nextInt(invSize);
+                int b = random.nextInt(invSize);
+
+                if (k % 2 == 0) {
+                    first.swapItems(second, a, b);
+                } else if (t % 2 == 0) {
+                    first.moveItem(second, a, b);
+                } else {
+                    second.moveItem(first, a, b);
+                }
+            }
+        });
+
+        for (int i = 0; i < invSize; i++) {
+            int found = 0;
+
+            if (first.nextIndexOf("Item" + i, 0) >= 0) {
+                found++;
+            }
+
+            if (second.nextIndexOf("Item" + i, 0) >= 0) {
+                found++;
+            }
+
+            assertEquals(found, 1);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for Inventory1 writeTo() and readFrom().
+ *
+ * @author David Stuckey
+ */
+public class Inventory1FormatTest {
+
+    /**
+     * Writes {@code inv} to a byte array.
+     *
+     * @param inv
+     *            the Inventory to write
+     * @return the bytes written
+     * @throws IOException
+     *             if writing fails
+     */
+    private static byte[] write(Inventory1 inv) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        inv.writeTo(out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads an Inventory1 from {@code bytes}.
+     *
+     * @param bytes
+     *            the bytes to read
+     * @return the Inventory read
+     * @throws IOException
+     *             if reading fails
+     */
+    private static Inventory1 read(byte[] bytes) throws IOException {
+        Inventory1 inv = new Inventory1();
+        inv.readFrom(new ByteArrayInputStream(bytes));
+
+        return inv;
+    }
+
+    /**
+     * Test for a round trip of an empty Inventory.
+     *
+     * @throws IOException
+     *             if the round trip fails
+     */
+    @Test
+    public final void testRoundTripEmpty() throws IOException {
+        final int invSize = 7;
+        Inventory1 testInv = new Inventory1(invSize);
+
+        assertEquals(read(write(testInv)), new Inventory1(invSize));
+    }
+
+    /**
+     * Test for a round trip of Items with counts and tags, including
+     * negative values and a repeated name.
+     *
+     * @throws IOException
+     *             if the round trip fails
+     */
+    @Test
+    public final void testRoundTripItems() throws IOException {
+        final int invSize = 6;
+        final int bigValue = 1 << 20;
+        Inventory1 testInv = new Inventory1(invSize);
+        Inventory1 expectedInv = new Inventory1(invSize);
+
+        for (Inventory1 inv : new Inventory1[] {testInv, expectedInv }) {
+            Item foo = new BasicItem("Foo", 2);
+            foo.putTag("Price", bigValue);
+            foo.putTag("Offset", -1);
+            inv.addItem(0, foo);
+
+            Item bar = new BasicItem("B\u00e4r", 2 + 1);
+            bar.putTag("Price", 0);
+            inv.addItem(2, bar);
+
+            inv.addItem(invSize - 1, new BasicItem("Foo", 1));
+        }
+
+        Inventory1 readInv = read(write(testInv));
+
+        assertEquals(readInv, expectedInv);
+        assertEquals(readInv.getItem(0).getCount(), 2);
+        assertEquals(readInv.getItem(0).tagValue("Offset"), -1);
+        assertEquals(readInv.getItem(2).getCount(), 2 + 1);
+        assertEquals(readInv.nextIndexOf("Foo", 1), invSize - 1);
+        assertEquals(testInv, expectedInv);
+    }
+
+    /**
+     * Test that restrictions survive a round trip.
+     *
+     * @throws IOException
+     *             if the round trip fails
+     */
+    @Test
+    public final void testRoundTripRestrictions() throws IOException {
+        final int tagCount = 70;
+        Inventory1 testInv = new Inventory1(2);
+
+        Item allTags = new BasicItem("Foo");
+
+        for (int i = 0; i < tagCount; i++) {
+            testInv.restrict("FORMAT" + i);
+            allTags.putTag("FORMAT" + i, i);
+        }
+
+        testInv.addItem(1, allTags);
+
+        Inventory1 readInv = read(write(testInv));
+
+        assertTrue(readInv.isAllowed(allTags));
+        assertFalse(readInv.isAllowed(new BasicItem("Bar")));
+        assertEquals(readInv.getItem(1), allTags);
+    }
+
+    /**
+     * Test that a large, sparse Inventory writes compactly and reads back
+     * through channels.
+     *
+     * @throws IOException
+     *             if the round trip fails
+     */
+    @Test
+    public final void testRoundTripSparseChannel() throws IOException {
+        final int invSize = 100000;
+        final int step = 1000;
+        final int maxBytes = 1000;
+        Inventory1 testInv = new Inventory1(invSize, true);
+
+        for (int i = 0; i < invSize; i += step) {
+            testInv.addItem(i, new BasicItem("Foo", i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        testInv.writeTo(Channels.newChannel(out));
+        byte[] bytes = out.toByteArray();
+
+        Inventory1 readInv = new Inventory1();
+        readInv.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes)));
+
+        assertTrue(bytes.length < maxBytes);
+        assertEquals(readInv, testInv);
+        assertEquals(readInv.getItem(step).getCount(), step);
+    }
+
+    /**
+     * Test that a stream with the wrong magic number is rejected.
+     *
+     * @throws IOException
+     *             as expected
+     */
+    @Test(expected = IOException.class)
+    public final void testReadBadMagic() throws IOException {
+        byte[] bytes = write(new Inventory1(2));
+        bytes[0] = 'X';
+
+        read(bytes);
+    }
+
+    /**
+     * Test that a truncated stream is rejected.
+     *
+     * @throws IOException
+     *             as expected
+     */
+    @Test(expected = IOException.class)
+    public final void testReadTruncated() throws IOException {
+        Inventory1 testInv = new Inventory1(2);
+        testInv.addItem(1, new BasicItem("Foo"));
+        byte[] bytes = write(testInv);
+
+        read(Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    /**
+     * Test that lengths that are negative, too large or past the end of the
+     * input are rejected with an IOException, leaving the target unchanged.
+     *
+     * @throws IOException
+     *             if the target cannot be written
+     */
+    @Test
+    public final void testReadBadLengths() throws IOException {
+        final byte[] header = {'I', 'N', 'V', '1', 1, 2 };
+        final byte[][] bodies = {
+            {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F },
+            {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+            {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+            {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F },
+            {1, 0, 2 + 2, 'T' }, };
+        Inventory1 testInv = new Inventory1(2);
+        testInv.addItem(1, new BasicItem("Foo"));
+        Inventory1 refInv = new Inventory1(2);
+        refInv.addItem(1, new BasicItem("Foo"));
+
+        for (byte[] body : bodies) {
+            byte[] bytes = Arrays.copyOf(header, header.length + body.length);
+            System.arraycopy(body, 0, bytes, header.length, body.length);
+
+            for (boolean channel : new boolean[] {false, true }) {
+                boolean rejected = false;
+
+                try {
+                    if (channel) {
+                        testInv.readFrom(Channels
+                                .newChannel(new ByteArrayInputStream(bytes)));
+                    } else {
+                        testInv.readFrom(new ByteArrayInputStream(bytes));
+                    }
+                } catch (IOException e) {
+                    rejected = true;
+                }
+
+                assertTrue(rejected);
+                assertEquals(testInv, refInv);
+            }
+        }
+    }
+
+    /**
+     * Test that a header claiming a huge number of slots is rejected with an
+     * IOException, without allocating for them: above the most an
+     * Inventory1 can hold, and within it but with nothing after it.
+     *
+     * @throws IOException
+     *             if the target cannot be written
+     */
+    @Test
+    public final void testReadHugeSize() throws IOException {
+        final byte[][] streams = {
+            {'I', 'N', 'V', '1', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x07 },
+            {'I', 'N', 'V', '1', 1, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0xFF, 0x03 }, };
+        Inventory1 testInv = new Inventory1(2);
+
+        for (byte[] bytes : streams) {
+            boolean rejected = false;
+
+            try {
+                testInv.readFrom(new ByteArrayInputStream(bytes));
+            } catch (IOException e) {
+                rejected = true;
+            }
+
+            assertTrue(rejected);
+            assertEquals(testInv, new Inventory1(2));
+        }
+    }
+
+    /**
+     * Test that two Inventories written one after the other can be read back
+     * one after the other, from a stream with and without mark support and
+     * from a file channel.
+     *
+     * @throws IOException
+     *             if the round trip fails
+     */
+    @Test
+    public final void testReadBackToBack() throws IOException {
+        final int invSize = 3;
+        Inventory1 first = new Inventory1(invSize);
+        first.addItem(0, new BasicItem("Foo"));
+        Inventory1 second = new Inventory1(2);
+        second.addItem(1, new BasicItem("Bar", 2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.writeTo(out);
+        second.writeTo(out);
+        out.write('!');
+        byte[] bytes = out.toByteArray();
+
+        InputStream[] ins = {new ByteArrayInputStream(bytes),
+            Channels.newInputStream(
+                    Channels.newChannel(new ByteArrayInputStream(bytes))) };
+
+        for (InputStream in : ins) {
+            Inventory1 readInv = new Inventory1();
+            readInv.readFrom(in);
+
+            assertEquals(readInv, first);
+
+            readInv.readFrom(in);
+
+            assertEquals(readInv, second);
+            assertEquals(in.read(), '!');
+        }
+
+        Path path = Files.createTempFile("inventory", ".inv");
+
+        try {
+            Files.write(path, bytes);
+
+            try (FileChannel in = FileChannel.open(path)) {
+                Inventory1 readInv = new Inventory1();
+                readInv.readFrom(in);
+
+                assertEquals(readInv, first);
+
+                readInv.readFrom(in);
+
+                assertEquals(readInv, second);
+                assertEquals(in.position(), bytes.length - 1);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Test that Items that are only built and written leave the shared name
+     * table alone, and that a name is interned once an Inventory1 holds it.
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    @Test
+    public final void testWriteDoesNotInternNames() throws IOException {
+        final String name = "WrittenOnly";
+        BasicItem item = new BasicItem(name, 2);
+        item.putTag("Bar", 1);
+
+        InventoryFormat.Writer writer = new InventoryFormat.Writer(
+                new ByteArrayOutputStream());
+        writer.writeItemBody(item);
+        writer.writeItemBody(item.copy());
+        writer.finish();
+
+        assertEquals(SymbolTable.NAMES.idOf(name), SymbolTable.NO_ID);
+
+        Inventory1 inv = new Inventory1(1);
+        inv.addItem(0, item);
+
+        assertTrue(SymbolTable.NAMES.idOf(name) != SymbolTable.NO_ID);
+    }
+}
@@ -0,0 +1,100 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for lazily allocated Inventory1 slot storage.
+ *
+ * @author David Stuckey
+ */
+public class Inventory1LazyTest {
+
+    /** Test for lazy constructor with a large size. */
+    @Test
+    public final void testLazyLarge() {
+
+        final int invSize = 5000000;
+        Inventory testInv = new Inventory1(invSize, true);
+
+        assertEquals(testInv.size(), invSize);
+        assertTrue(testInv.isAllowed(new BasicItem()));
+        assertEquals(testInv.nextEmptySlot(invSize - 1), invSize - 1);
+    }
+
+    /**
+     * Test that a lazy inventory holds the same Items as an eager one after
+     * Items are added to and removed from slots in different chunks.
+     */
+    @Test
+    public final void testLazyMatchesEager() {
+
+        final int invSize = 3000;
+        final int[] used = {0, 1023, 1024, 2999 };
+        Inventory lazyInv = new Inventory1(invSize, true);
+        Inventory eagerInv = new Inventory1(invSize);
+
+        for (int slot : used) {
+            lazyInv.addItem(slot, new BasicItem("Foo"));
+            eagerInv.addItem(slot, new BasicItem("Foo"));
+        }
+
+        lazyInv.removeItem(used[1]);
+        eagerInv.removeItem(used[1]);
+
+        int count = 0;
+
+        for (Item item : lazyInv) {
+            assertTrue(item != null);
+            count++;
+        }
+
+        assertEquals(count, invSize);
+        assertEquals(lazyInv.nextIndexOf("Foo", 1), used[2]);
+        assertEquals(lazyInv.removeItem(used[3]), new BasicItem("Foo"));
+        assertEquals(eagerInv.removeItem(used[3]), new BasicItem("Foo"));
+        assertEquals(lazyInv, eagerInv);
+    }
+
+    /**
+     * Test that a lazy Inventory1 holds the same Items as an eager one after
+     * batches that fill and empty slots in different chunks.
+     */
+    @Test
+    public final void testBatchLazyMatchesEager() {
+        final int invSize = 3000;
+        final int[] used = {0, 1023, 1024, 2999 };
+        Inventory lazyInv = new Inventory1(invSize, true);
+        Inventory eagerInv = new Inventory1(invSize);
+        Item[] lazyItems = new Item[used.length];
+        Item[] eagerItems = new Item[used.length];
+
+        for (int k = 0; k < used.length; k++) {
+            lazyItems[k] = new BasicItem("Foo");
+            eagerItems[k] = new BasicItem("Foo");
+        }
+
+        lazyInv.addItems(used, lazyItems);
+        eagerInv.addItems(used, eagerItems);
+
+        final int[] emptied = {used[1], used[2], used[1] };
+        assertEquals(lazyInv.removeItems(emptied),
+                eagerInv.removeItems(emptied));
+        assertEquals(lazyInv, eagerInv);
+        assertEquals(lazyInv.nextIndexOf("Foo", 1), used[2 + 1]);
+        assertEquals(lazyInv.nextEmptySlot(used[1]), used[1]);
+
+        lazyInv.applyBatch(new InventoryBatch()
+                .add(used[2], new BasicItem("Bar")).remove(used[2 + 1]));
+        eagerInv.applyBatch(new InventoryBatch()
+                .add(used[2], new BasicItem("Bar")).remove(used[2 + 1]));
+
+        assertEquals(lazyInv, eagerInv);
+        assertEquals(lazyInv.nextIndexOf("Bar", 0), used[2]);
+    }
+}
@@ -0,0 +1,223 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for Inventory1 resize(), ensureCapacity() and clear(boolean).
+ *
+ * @author David Stuckey
+ */
+public class Inventory1ResizeTest {
+
+    /** A size spanning several chunks. */
+    private static final int LARGE = 5000;
+
+    /**
+     * Fills slots 0, 2 and {@code last} of {@code inv} with Items tagged
+     * TEST.
+     *
+     * @param inv
+     *            the Inventory to fill
+     * @param last
+     *            the last slot to fill
+     */
+    private static void fill(Inventory inv, int last) {
+        Item foo = new BasicItem("Foo", 2);
+        foo.putTag("TEST", 1);
+        inv.addItem(0, foo);
+
+        Item bar = new BasicItem("Bar");
+        bar.putTag("TEST", 2);
+        inv.addItem(2, bar);
+
+        Item baz = new BasicItem("Foo", 2 + 1);
+        baz.putTag("TEST", 2 + 1);
+        inv.addItem(last, baz);
+    }
+
+    /** Test that growing keeps Items, restrictions and indexes. */
+    @Test
+    public final void testResizeGrow() {
+        final int invSize = 4;
+        Inventory1 testInv = new Inventory1(invSize);
+        fill(testInv, invSize - 1);
+        testInv.restrict("TEST");
+
+        testInv.resize(LARGE);
+
+        assertEquals(testInv.size(), LARGE);
+        assertTrue(testInv.capacity() >= LARGE);
+        assertEquals(testInv.getItem(0).getCount(), 2);
+        assertTrue(testInv.isAt(2, "Bar"));
+        assertEquals(testInv.nextIndexOf("Foo", 1), invSize - 1);
+        assertEquals(testInv.nextIndexWithTag("TEST", 2 + 1), invSize - 1);
+        assertEquals(testInv.nextEmptySlot(invSize - 1), invSize);
+        assertFalse(testInv.isAllowed(new BasicItem("Foo")));
+
+        Item far = new BasicItem("Foo");
+        far.putTag("TEST", 0);
+        testInv.addItem(LARGE - 1, far);
+
+        assertEquals(testInv.nextIndexOf("Foo", invSize), LARGE - 1);
+        assertEquals(testInv.nextIndexWithTag("TEST", invSize), LARGE - 1);
+        assertEquals(testInv.nextEmptySlot(LARGE - 1), -1);
+    }
+
+    /** Test that shrinking keeps the Items left and gives back storage. */
+    @Test
+    public final void testResizeShrink() {
+        Inventory1 testInv = new Inventory1(LARGE);
+        fill(testInv, LARGE - 1);
+        testInv.removeItem(LARGE - 1);
+
+        final int newSize = 3;
+        testInv.resize(newSize);
+
+        assertEquals(testInv.size(), newSize);
+        assertTrue(testInv.capacity() < LARGE);
+        assertTrue(testInv.isAt(0, "Foo"));
+        assertTrue(testInv.isAt(2, "Bar"));
+        assertEquals(testInv.nextIndexOf("Foo", 1), -1);
+        assertEquals(testInv.nextIndexWithTag("TEST", 1), 2);
+        assertEquals(testInv.nextEmptySlot(2), -1);
+
+        testInv.resize(LARGE);
+
+        assertTrue(testInv.peekItem(LARGE - 1).isEmpty());
+        assertEquals(testInv.nextIndexOf("Foo", 1), -1);
+        assertEquals(testInv.nextIndexWithTag("TEST", 2 + 1), -1);
+    }
+
+    /** Test that shrinking past an Item is refused. */
+    @Test
+    public final void testResizeOccupied() {
+        final int invSize = 4;
+        Inventory1 testInv = new Inventory1(invSize);
+        fill(testInv, invSize - 1);
+
+        boolean refused = false;
+
+        try {
+            testInv.resize(invSize - 1);
+        } catch (AssertionError e) {
+            refused = true;
+        }
+
+        assertTrue(refused);
+        assertEquals(testInv.size(), invSize);
+    }
+
+    /** Test that growing one slot at a time only reallocates rarely. */
+    @Test
+    public final void testResizeAmortized() {
+        final int maxReallocations = 30;
+        Inventory1 testInv = new Inventory1(1);
+        int reallocations = 0;
+
+        for (int n = 2; n <= LARGE; n++) {
+            int capacity = testInv.capacity();
+            testInv.resize(n);
+            testInv.addItem(n - 1, new BasicItem("Foo"));
+
+            if (testInv.capacity() != capacity) {
+                reallocations++;
+            }
+        }
+
+        assertTrue(reallocations <= maxReallocations);
+        assertEquals(testInv.nextIndexOf("Foo", 0), 1);
+        assertEquals(testInv.nextEmptySlot(0), 0);
+
+        for (int n = LARGE; n > 1; n--) {
+            testInv.removeItem(n - 1);
+            testInv.resize(n - 1);
+        }
+
+        assertTrue(testInv.capacity() <= 2);
+        assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+    }
+
+    /** Test ensureCapacity() on eager and lazy Inventories. */
+    @Test
+    public final void testEnsureCapacity() {
+        final int invSize = 4;
+
+        for (boolean lazy : new boolean[] {false, true }) {
+            Inventory1 testInv = new Inventory1(invSize, lazy);
+            Inventory1 refInv = new Inventory1(invSize);
+            fill(testInv, invSize - 1);
+            fill(refInv, invSize - 1);
+
+            testInv.ensureCapacity(LARGE);
+
+            assertEquals(testInv, refInv);
+            assertTrue(testInv.capacity() >= LARGE);
+
+            int capacity = testInv.capacity();
+            testInv.resize(LARGE);
+            testInv.ensureCapacity(invSize);
+
+            assertEquals(testInv.capacity(), capacity);
+            assertEquals(testInv.nextIndexOf("Foo", 1), invSize - 1);
+        }
+    }
+
+    /** Test that a snapshot taken before a resize keeps its contents. */
+    @Test
+    public final void testResizeSnapshot() {
+        final int invSize = 4;
+        Inventory1 testInv = new Inventory1(invSize);
+        Inventory1 refInv = new Inventory1(invSize);
+        fill(testInv, invSize - 1);
+        fill(refInv, invSize - 1);
+
+        Inventory snapshot = testInv.snapshot();
+        testInv.resize(LARGE);
+        testInv.getItem(0).setCount(1);
+        testInv.addItem(LARGE - 1, new BasicItem("Foo"));
+
+        assertEquals(snapshot.size(), invSize);
+
+        for (int i = 0; i < invSize; i++) {
+            assertEquals(snapshot.peekItem(i), refInv.peekItem(i));
+        }
+
+        assertEquals(snapshot.getItem(0).getCount(), 2);
+    }
+
+    /** Test that clear(true) keeps the slots but nothing else. */
+    @Test
+    public final void testClearKeepCapacity() {
+        for (boolean lazy : new boolean[] {false, true }) {
+            Inventory1 testInv = new Inventory1(LARGE, lazy);
+            fill(testInv, LARGE - 1);
+            testInv.restrict("TEST");
+            int capacity = testInv.capacity();
+
+            testInv.clear(true);
+
+            assertEquals(testInv.size(), LARGE);
+            assertEquals(testInv.capacity(), capacity);
+            assertEquals(testInv, new Inventory1(LARGE));
+            assertTrue(testInv.isAllowed(new BasicItem("Foo")));
+            assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+            assertEquals(testInv.nextIndexWithTag("TEST", 0), -1);
+
+            fill(testInv, LARGE - 1);
+
+            assertEquals(testInv.nextIndexOf("Foo", 1), LARGE - 1);
+            assertEquals(testInv.nextIndexWithTag("TEST", 1), 2);
+
+            testInv.clear(false);
+
+            assertEquals(testInv, new Inventory1());
+        }
+    }
+}
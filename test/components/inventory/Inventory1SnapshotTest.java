@@ -0,0 +1,293 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for Inventory1 snapshot().
+ *
+ * @author David Stuckey
+ */
+public class Inventory1SnapshotTest {
+
+    /**
+     * Asserts that {@code actual} holds the same Items as {@code expected},
+     * slot by slot.
+     *
+     * @param actual
+     *            the Inventory to check
+     * @param expected
+     *            the Inventory it should match
+     */
+    private static void assertSameItems(Inventory actual,
+            Inventory expected) {
+        assertEquals(actual.size(), expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(actual.peekItem(i), expected.peekItem(i));
+            assertEquals(actual.peekItem(i).getCount(),
+                    expected.peekItem(i).getCount());
+        }
+    }
+
+    /**
+     * Fills slots 0, 1 and 2 of {@code inv} with Items.
+     *
+     * @param inv
+     *            the Inventory to fill
+     */
+    private static void fill(Inventory inv) {
+        Item foo = new BasicItem("Foo", 2);
+        foo.putTag("TEST", 1);
+        inv.addItem(0, foo);
+        inv.addItem(1, new BasicItem("Bar"));
+        inv.addItem(2, new BasicItem("Foo", 2 + 1));
+    }
+
+    /**
+     * Test that a snapshot keeps its contents while Items are added,
+     * stacked and removed.
+     */
+    @Test
+    public final void testSnapshotKernelChanges() {
+        final int invSize = 4;
+        Inventory1 testInv = new Inventory1(invSize);
+        Inventory1 expectedInv = new Inventory1(invSize);
+        fill(testInv);
+        fill(expectedInv);
+
+        Inventory snapshot = testInv.snapshot();
+
+        testInv.addItem(0, new BasicItem("Foo", 2));
+        testInv.removeItem(1);
+        testInv.addItem(invSize - 1, new BasicItem("Baz"));
+
+        assertSameItems(snapshot, expectedInv);
+        assertEquals(testInv.getItem(0).getCount(), 2 + 2);
+        assertEquals(snapshot.nextIndexOf("Baz", 0), -1);
+        assertEquals(snapshot.nextEmptySlot(0), invSize - 1);
+    }
+
+    /**
+     * Test that a snapshot keeps its contents while Items are changed through
+     * aliases.
+     */
+    @Test
+    public final void testSnapshotAliasChanges() {
+        final int invSize = 3;
+        Inventory1 testInv = new Inventory1(invSize);
+        Inventory1 expectedInv = new Inventory1(invSize);
+        fill(testInv);
+        fill(expectedInv);
+
+        Item alias = testInv.getItem(0);
+        Inventory snapshot = testInv.snapshot();
+
+        alias.setCount(2 + 2 + 1);
+        alias.putTag("NEW", 1);
+        alias.removeTag("TEST");
+        testInv.getItem(2).addCount(1);
+
+        assertSameItems(snapshot, expectedInv);
+        assertTrue(snapshot.peekItem(0).hasTag("TEST"));
+        assertFalse(snapshot.peekItem(0).hasTag("NEW"));
+        assertEquals(testInv.getItem(0).getCount(), 2 + 2 + 1);
+    }
+
+    /**
+     * Test that snapshots taken at different times each keep their own
+     * contents.
+     */
+    @Test
+    public final void testSnapshotMany() {
+        Inventory1 testInv = new Inventory1(2);
+        Item foo = new BasicItem("Foo");
+        testInv.addItem(0, foo);
+
+        Inventory first = testInv.snapshot();
+        foo.setCount(2);
+        Inventory second = testInv.snapshot();
+        Inventory third = testInv.snapshot();
+        foo.setCount(2 + 1);
+        testInv.addItem(1, new BasicItem("Bar"));
+
+        assertEquals(first.peekItem(0).getCount(), 1);
+        assertEquals(second.peekItem(0).getCount(), 2);
+        assertEquals(third.peekItem(0).getCount(), 2);
+        assertTrue(third.peekItem(1).isEmpty());
+        assertEquals(testInv.peekItem(0).getCount(), 2 + 1);
+    }
+
+    /**
+     * Test that a snapshot keeps an Item the Inventory cannot watch, because
+     * it is also in another Inventory.
+     */
+    @Test
+    public final void testSnapshotUnwatched() {
+        Inventory1 other = new Inventory1(1);
+        Inventory1 testInv = new Inventory1(1);
+        Item foo = new BasicItem("Foo");
+        other.addItem(0, foo);
+        testInv.addItem(0, foo);
+
+        Inventory snapshot = testInv.snapshot();
+        foo.setCount(2);
+
+        assertEquals(snapshot.peekItem(0).getCount(), 1);
+        assertEquals(testInv.peekItem(0).getCount(), 2);
+    }
+
+    /**
+     * Test that a snapshot survives clear() and transferFrom() on the
+     * Inventory, and changes to its former Items.
+     */
+    @Test
+    public final void testSnapshotClearAndTransfer() {
+        Inventory1 testInv = new Inventory1(2);
+        Inventory1 other = new Inventory1(2);
+        Item foo = new BasicItem("Foo");
+        Item bar = new BasicItem("Bar");
+        testInv.addItem(0, foo);
+        other.addItem(1, bar);
+
+        Inventory snapshot = testInv.snapshot();
+        Inventory otherSnapshot = other.snapshot();
+        testInv.transferFrom(other);
+        bar.setCount(2);
+        testInv.clear();
+        foo.setCount(2);
+        bar.setCount(2 + 1);
+
+        assertEquals(snapshot.peekItem(0).getCount(), 1);
+        assertEquals(otherSnapshot.peekItem(1).getCount(), 1);
+        assertEquals(testInv, new Inventory1());
+    }
+
+    /**
+     * Test that a snapshot of a lazy Inventory stays empty where it was.
+     */
+    @Test
+    public final void testSnapshotLazy() {
+        final int invSize = 5000;
+        Inventory1 testInv = new Inventory1(invSize, true);
+
+        Inventory snapshot = testInv.snapshot();
+        testInv.addItem(invSize - 1, new BasicItem("Foo"));
+
+        assertEquals(snapshot.nextIndexOf("Foo", 0), -1);
+        assertEquals(snapshot.nextEmptySlot(invSize - 1), invSize - 1);
+        assertEquals(snapshot.stream().filter(i -> !i.isEmpty()).count(), 0);
+    }
+
+    /**
+     * Test that a snapshot keeps the restrictions.
+     */
+    @Test
+    public final void testSnapshotRestrictions() {
+        Inventory1 testInv = new Inventory1(1);
+        testInv.restrict("TEST");
+
+        Inventory snapshot = testInv.snapshot();
+        testInv.freeRestrictions();
+
+        Item foo = new BasicItem("Foo");
+        assertFalse(snapshot.isAllowed(foo));
+        foo.putTag("TEST", 1);
+        assertTrue(snapshot.isAllowed(foo));
+    }
+
+    /**
+     * Test that a snapshot cannot be changed.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public final void testSnapshotImmutable() {
+        Inventory1 testInv = new Inventory1(2);
+
+        testInv.snapshot().addItem(0, new BasicItem("Foo"));
+    }
+
+    /**
+     * Test that the Items a snapshot hands out cannot be changed, and keep
+     * showing the snapshot after the Inventory changes.
+     */
+    @Test
+    public final void testSnapshotItemsReadOnly() {
+        final int invSize = 4;
+        final int changed = 99;
+        Inventory1 testInv = new Inventory1(invSize);
+        fill(testInv);
+
+        Inventory snapshot = testInv.snapshot();
+        Item seen = snapshot.getItem(2);
+        int refused = 0;
+
+        try {
+            seen.setCount(changed);
+        } catch (UnsupportedOperationException e) {
+            refused++;
+        }
+
+        for (Item item : snapshot) {
+            try {
+                item.putTag("TEST", changed);
+            } catch (UnsupportedOperationException e) {
+                refused++;
+            }
+        }
+
+        try {
+            snapshot.peekItem(0).getTags().put("TEST", changed);
+        } catch (UnsupportedOperationException e) {
+            refused++;
+        }
+
+        assertEquals(refused, 1 + invSize + 1);
+        assertEquals(testInv.getItem(2).getCount(), 2 + 1);
+        assertEquals(testInv.getItem(0).tagValue("TEST"), 1);
+
+        testInv.getItem(2).setCount(changed);
+
+        assertEquals(seen.getCount(), 2 + 1);
+        assertEquals(snapshot.getItem(2).getCount(), 2 + 1);
+        assertEquals(seen, new BasicItem("Foo", 2 + 1));
+    }
+
+    /**
+     * Test that Items replaced by transferFrom() stop reporting their changes
+     * to the Inventory, which now holds shared chunks of another.
+     */
+    @Test
+    public final void testTransferFromUnwatchesOldItems() {
+        final int invSize = 4096;
+        final int slot = 4000;
+        final int count = 5;
+        Inventory1 testInv = new Inventory1(invSize);
+        Item alias = new BasicItem("Foo");
+        alias.putTag("TEST", 1);
+        testInv.addItem(slot, alias);
+
+        Inventory1 srcInv = new Inventory1(1);
+        srcInv.addItem(0, new BasicItem("Bar"));
+        Inventory snapshot = srcInv.snapshot();
+        testInv.transferFrom(srcInv);
+
+        alias.setCount(count);
+        alias.putTag("NEW", 2);
+
+        assertFalse(((BasicItem) alias).watched());
+        assertTrue(testInv.isAt(0, "Bar"));
+        assertTrue(snapshot.isAt(0, "Bar"));
+
+        Inventory1 otherInv = new Inventory1(2);
+        otherInv.addItem(1, alias);
+
+        assertTrue(((BasicItem) alias).watched());
+        assertEquals(otherInv.nextIndexWithTag("NEW", 0), 1);
+    }
+}
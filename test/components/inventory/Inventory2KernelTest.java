@@ -0,0 +1,20 @@
+package components.inventory;
+
+/**
+ * Test array for Inventory kernel methods, as implemented in Inventory2.
+ *
+ * @author David Stuckey
+ */
+public class Inventory2KernelTest extends InventoryKernelTest {
+
+    @Override
+    protected final Inventory constructor(int n) {
+
+        if (n == 0) {
+            return new Inventory2();
+        } else {
+            return new Inventory2(n);
+        }
+    }
+
+}
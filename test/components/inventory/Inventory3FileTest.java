@@ -0,0 +1,444 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for Inventory3 backed by a memory-mapped file.
+ *
+ * @author David Stuckey
+ */
+public class Inventory3FileTest {
+
+    /** The temporary directories created by the current test. */
+    private final List<Path> dirs = new ArrayList<>();
+
+    /**
+     * Returns a path for an inventory file in a new temporary directory,
+     * which is deleted once the test ends.
+     *
+     * @return the path, where no file exists yet
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    private Path newPath() throws IOException {
+        Path dir = Files.createTempDirectory("inventory");
+        this.dirs.add(dir);
+
+        return dir.resolve("test.inv");
+    }
+
+    /**
+     * Deletes the temporary directories created by the test, with
+     * everything in them.
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @After
+    public final void deleteDirs() throws IOException {
+        for (Path dir : this.dirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder())
+                        .toArray(Path[]::new)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        this.dirs.clear();
+    }
+
+    /**
+     * Writes {@code value} over the int at offset {@code field} of block
+     * {@code block} of the inventory file at {@code path}.
+     *
+     * @param path
+     *            the inventory file
+     * @param block
+     *            the block
+     * @param field
+     *            the offset within the block
+     * @param value
+     *            the int to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void poke(Path path, int block, int field, int value)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).putInt(0, value);
+            channel.write(bytes, Inventory3.BLOCK_BYTES
+                    + (long) block * Inventory3.BLOCK_BYTES + field);
+        }
+    }
+
+    /**
+     * Creates an inventory file at {@code path} with two slots: Foo in slot 0
+     * with {@code tagCount} tags, and Bar in slot 1 with one.
+     *
+     * @param path
+     *            the file to create
+     * @param tagCount
+     *            the number of tags of Foo
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void createFooBar(Path path, int tagCount)
+            throws IOException {
+        Inventory3 testInv = Inventory3.create(path, 2, 0);
+        Item foo = new BasicItem("Foo");
+
+        for (int i = 0; i < tagCount; i++) {
+            foo.putTag("MANY" + i, i);
+        }
+
+        testInv.addItem(0, foo);
+
+        Item bar = new BasicItem("Bar");
+        bar.putTag("TEST", 1);
+        testInv.addItem(1, bar);
+        testInv.close();
+    }
+
+    /**
+     * Test that a new file opens as an empty Inventory of the right size.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testCreateOpenEmpty() throws IOException {
+        final int invSize = 10;
+        Path path = this.newPath();
+
+        Inventory3.create(path, invSize, 0).close();
+        Inventory3 testInv = Inventory3.open(path, 0);
+
+        assertEquals(testInv, new Inventory3(invSize));
+        testInv.close();
+    }
+
+    /**
+     * Test that Items, counts and tags survive closing and opening the file.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testReopen() throws IOException {
+        final int invSize = 5;
+        final int tagCount = 20;
+        Path path = this.newPath();
+
+        Inventory3 testInv = Inventory3.create(path, invSize, 0);
+        Inventory expectedInv = new Inventory3(invSize);
+
+        for (Inventory inv : new Inventory[] {testInv, expectedInv }) {
+            Item foo = new BasicItem("Foo", 2);
+            foo.putTag("TEST", 1);
+            inv.addItem(1, foo);
+
+            Item bar = new BasicItem("Bar");
+
+            for (int i = 0; i < tagCount; i++) {
+                bar.putTag("MANY" + i, i);
+            }
+
+            inv.addItem(invSize - 1, bar);
+            inv.getItem(1).setCount(2 + 1);
+        }
+
+        testInv.close();
+        testInv = Inventory3.open(path, 0);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(testInv.getItem(1).getCount(), 2 + 1);
+        assertEquals(testInv.getItem(invSize - 1).tagValue("MANY7"), 7);
+        assertEquals(testInv.nextIndexOf("Bar", 0), invSize - 1);
+        testInv.close();
+    }
+
+    /**
+     * Test that changes made after reopening are kept, including removals
+     * that free overflow blocks.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testReopenTwice() throws IOException {
+        final int tagCount = 20;
+        Path path = this.newPath();
+
+        Inventory3 testInv = Inventory3.create(path, 2, 1);
+        Item foo = new BasicItem("Foo");
+
+        for (int i = 0; i < tagCount; i++) {
+            foo.putTag("MANY" + i, i);
+        }
+
+        testInv.addItem(0, foo);
+        testInv.close();
+
+        testInv = Inventory3.open(path, 1);
+        testInv.removeItem(0);
+        testInv.addItem(1, new BasicItem("Bar", 2));
+        testInv.getItem(1).putTag("NEW", 1);
+        testInv.force();
+
+        Inventory3 reopened = Inventory3.open(path, 0);
+
+        assertTrue(reopened.getItem(0).isEmpty());
+        assertEquals(reopened.getItem(1).getCount(), 2);
+        assertEquals(reopened.getItem(1).tagValue("NEW"), 1);
+        reopened.close();
+        testInv.close();
+    }
+
+    /**
+     * Test that transferFrom() moves the file, and clear() leaves it behind.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testTransferFromAndClear() throws IOException {
+        Path path = this.newPath();
+
+        Inventory3 fileInv = Inventory3.create(path, 2, 0);
+        Inventory3 testInv = new Inventory3();
+
+        testInv.transferFrom(fileInv);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.clear();
+
+        assertEquals(fileInv, new Inventory3());
+        assertEquals(testInv, new Inventory3());
+
+        Inventory3 reopened = Inventory3.open(path, 0);
+        assertTrue(reopened.isAt(0, "Foo"));
+        reopened.close();
+    }
+
+    /**
+     * Test that opening a file that is not an inventory file fails.
+     *
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Test(expected = IOException.class)
+    public final void testOpenNotInventory() throws IOException {
+        Path path = this.newPath();
+        Files.write(path, new byte[Inventory3.BLOCK_BYTES * 2]);
+
+        Inventory3.open(path, 0);
+    }
+
+    /**
+     * Test that changes made since the last force are not in the file, and
+     * that forcing puts all of them there.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testOpenSeesLastForce() throws IOException {
+        Path path = this.newPath();
+
+        Inventory3 testInv = Inventory3.create(path, 2, 0);
+        Item foo = new BasicItem("Foo", 2);
+        foo.putTag("TEST", 1);
+        testInv.addItem(1, foo);
+        testInv.force();
+        testInv.getItem(1).putTag("NEW", 2);
+        testInv.addItem(0, new BasicItem("Bar"));
+
+        Inventory3 reopened = Inventory3.open(path, 0);
+
+        assertTrue(reopened.isAt(1, "Foo"));
+        assertEquals(reopened.getItem(1).tagValue("TEST"), 1);
+        assertFalse(reopened.getItem(1).hasTag("NEW"));
+        assertTrue(reopened.getItem(0).isEmpty());
+        reopened.close();
+
+        testInv.force();
+        reopened = Inventory3.open(path, 0);
+
+        assertEquals(reopened.getItem(1).tagValue("NEW"), 2);
+        assertTrue(reopened.isAt(0, "Bar"));
+        reopened.close();
+        testInv.close();
+    }
+
+    /**
+     * Test that opening a file whose last force reached the log but not the
+     * file finishes the force, and that a torn log is ignored.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testOpenReplaysLog() throws IOException {
+        final int tagCount = 20;
+        Path path = this.newPath();
+        Path log = path.resolveSibling(
+                path.getFileName() + InventoryFile.LOG_SUFFIX);
+
+        Inventory3 testInv = Inventory3.create(path, 2, 0);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.force();
+        byte[] before = Files.readAllBytes(path);
+
+        Item bar = new BasicItem("Bar");
+
+        for (int i = 0; i < tagCount; i++) {
+            bar.putTag("MANY" + i, i);
+        }
+
+        testInv.addItem(1, bar);
+        testInv.removeItem(0);
+        testInv.close();
+        byte[] logged = Files.readAllBytes(log);
+
+        Files.write(path, before);
+        testInv = Inventory3.open(path, 0);
+
+        assertTrue(testInv.getItem(0).isEmpty());
+        assertEquals(testInv.getItem(1), bar);
+        testInv.close();
+
+        Files.write(path, before);
+        logged[logged.length - 1] ^= 1;
+        Files.write(log, logged);
+        testInv = Inventory3.open(path, 0);
+
+        assertTrue(testInv.isAt(0, "Foo"));
+        assertTrue(testInv.getItem(1).isEmpty());
+        testInv.close();
+    }
+
+    /**
+     * Test that opening restores the free list as of the last force, so that
+     * new overflow blocks never overwrite ones in use.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testReopenRebuildsFreeList() throws IOException {
+        final int tagCount = 20;
+        Path path = this.newPath();
+        createFooBar(path, tagCount);
+
+        Inventory3 testInv = Inventory3.open(path, 0);
+        Item foo = testInv.removeItem(0);
+        testInv.close();
+
+        testInv = Inventory3.open(path, 0);
+        Item bar = new BasicItem("Bar");
+
+        for (int i = 0; i < tagCount; i++) {
+            bar.putTag("OTHER" + i, -i);
+        }
+
+        testInv.addItem(1, bar);
+        testInv.addItem(0, foo);
+        testInv.close();
+
+        testInv = Inventory3.open(path, 0);
+
+        assertEquals(testInv.getItem(0), foo);
+        assertEquals(testInv.getItem(1).tagValue("TEST"), 1);
+        assertEquals(testInv.getItem(1).tagValue("OTHER7"), -7);
+        assertEquals(testInv.getItem(1).getCount(), 2);
+        assertEquals(testInv.getItem(1).getTags().size(), tagCount + 2);
+        testInv.close();
+    }
+
+    /**
+     * Test that opening a file whose header does not match its length, or
+     * whose allocator state is out of range, fails.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testOpenDamaged() throws IOException {
+        final int header = -1;
+        final int sizeField = 8;
+        final int blocksField = 12;
+        final int freeField = 16;
+        final int[][] damage = {
+            {header, sizeField, 1000 }, {header, sizeField, 0 },
+            {header, blocksField, 1 }, {header, blocksField, 1000 },
+            {header, freeField, 1 }, {header, freeField, 1000 } };
+
+        for (int[] poke : damage) {
+            Path path = this.newPath();
+            createFooBar(path, 2);
+            Inventory3.open(path, 0).close();
+            poke(path, poke[0], poke[1], poke[2]);
+
+            boolean refused = false;
+
+            try {
+                Inventory3.open(path, 0);
+            } catch (IOException e) {
+                refused = true;
+            }
+
+            assertTrue(refused);
+        }
+    }
+
+    /**
+     * Test a file larger than one mapping can hold, with Items in its first,
+     * second and last segments.
+     *
+     * @throws IOException
+     *             if the file cannot be used
+     */
+    @Test
+    public final void testLargeFile() throws IOException {
+        final int invSize = 2 * Inventory3.SEGMENT_BLOCKS + 2 + 1;
+        Path path = this.newPath();
+
+        Inventory3 testInv = Inventory3.create(path, invSize, 0);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.addItem(Inventory3.SEGMENT_BLOCKS, new BasicItem("Bar", 2));
+        testInv.addItem(invSize - 1, new BasicItem("Foo", 2 + 1));
+        testInv.close();
+
+        assertTrue(Files.size(path) > Integer.MAX_VALUE);
+
+        testInv = Inventory3.open(path, 0);
+
+        assertEquals(testInv.size(), invSize);
+        assertEquals(testInv.nextIndexOf("Bar", 0), Inventory3.SEGMENT_BLOCKS);
+        assertEquals(testInv.nextIndexOf("Foo", 1), invSize - 1);
+        assertEquals(testInv.getItem(invSize - 1).getCount(), 2 + 1);
+        testInv.close();
+    }
+}
@@ -0,0 +1,21 @@
+package components.inventory;
+
+/**
+ * Test array for Inventory secondary methods using Inventory3 kernel
+ * implementation.
+ *
+ * @author David Stuckey
+ */
+public class Inventory3SecondaryTest extends InventorySecondaryTest {
+
+    @Override
+    protected final Inventory constructor(int n) {
+
+        if (n == 0) {
+            return new Inventory3();
+        } else {
+            return new Inventory3(n);
+        }
+    }
+
+}
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -25,7 +27,8 @@ public class InventoryKernelTest {
      *            - the size of the desired inventory, or 0 for the default size
      * @return an instance of the inventory implementation under test
      */
-    private Inventory constructor(int n) {
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    protected Inventory constructor(int n) {
 
         if (n == 0) {
             return new Inventory1();
@@ -86,6 +89,91 @@ public class InventoryKernelTest {
         assertTrue(testInv.isAllowed(new BasicItem()));
     }
 
+    //Tests for iterator()
+
+    /** Test that iterating visits every slot in order without changes. */
+    @Test
+    public final void testIteratorOrder() {
+
+        Inventory testInv = this.constructor("Foo", Item.EMPTY_NAME, "Bar");
+        Inventory expectedInv = this.constructor("Foo", Item.EMPTY_NAME,
+                "Bar");
+
+        ArrayList<String> names = new ArrayList<>();
+
+        for (Item item : testInv) {
+            names.add(item.getName());
+        }
+
+        assertEquals(names.size(), 3);
+        assertEquals(names.get(0), "Foo");
+        assertTrue(names.get(1).equals(Item.EMPTY_NAME));
+        assertEquals(names.get(2), "Bar");
+        assertEquals(testInv, expectedInv);
+    }
+
+    /** Test that the iterator hands out the Items stored in the slots. */
+    @Test
+    public final void testIteratorAliases() {
+
+        Inventory testInv = this.constructor("Foo");
+
+        for (Item item : testInv) {
+            item.setCount(2 + 1);
+        }
+
+        assertEquals(testInv.getItem(0).getCount(), 2 + 1);
+    }
+
+    /** Test that the iterator fails once the inventory is changed. */
+    @Test(expected = ConcurrentModificationException.class)
+    public final void testIteratorFailFast() {
+
+        Inventory testInv = this.constructor("Foo", Item.EMPTY_NAME);
+
+        for (Item item : testInv) {
+            testInv.addItem(1, new BasicItem("Bar"));
+        }
+    }
+
+    /**
+     * Test that changing an empty Item handed out by the iterator either is
+     * refused or stays local to it, and never shows up in other Inventories.
+     */
+    @Test
+    public final void testIteratorEmptyItemChange() {
+
+        final int weapon = 7;
+        Inventory testInv = this.constructor(2);
+
+        for (Item item : testInv) {
+            try {
+                item.putTag("WEAPON", 1);
+            } catch (UnsupportedOperationException e) {
+                assertFalse(item.hasTag("WEAPON"));
+            }
+
+            try {
+                item.setCount(weapon);
+            } catch (UnsupportedOperationException e) {
+                assertEquals(item.getCount(), 0);
+            }
+        }
+
+        Inventory otherInv = this.constructor(2 + 1);
+
+        assertEquals(otherInv, this.constructor(2 + 1));
+
+        for (Item item : otherInv) {
+            assertTrue(item.isEmpty());
+            assertEquals(item.getCount(), 0);
+            assertFalse(item.hasTag("WEAPON"));
+        }
+
+        assertEquals(otherInv.peekItem(0).getCount(), 0);
+        assertEquals(otherInv.getItem(0), new BasicItem());
+    }
+
     //Test for size()
 
     /** Test for size() with minimum size inventory. */
@@ -362,6 +450,73 @@ public class InventoryKernelTest {
         }
     }
 
+    /** Test for addItems() and removeItem() with an item with many tags. */
+    @Test
+    public final void testAddItemManyTags() {
+        final int tagCount = 20;
+        Inventory testInv = this.constructor(2);
+
+        Item testItem = new BasicItem("Foo", 2);
+        Item expectedItem = new BasicItem("Foo", 2);
+
+        for (int i = 0; i < tagCount; i++) {
+            testItem.putTag("MANY" + i, i);
+            expectedItem.putTag("MANY" + i, i);
+        }
+
+        testInv.addItem(1, testItem);
+
+        assertEquals(testInv.getItem(1), expectedItem);
+        assertEquals(testInv.getItem(1).tagValue("MANY" + (tagCount - 1)),
+                tagCount - 1);
+        assertEquals(testInv.removeItem(1), expectedItem);
+        assertTrue(testInv.getItem(1).isEmpty());
+    }
+
+    /**
+     * Test for changing the tags of an item with many tags through getItem(),
+     * then reusing the space it held for another item.
+     */
+    @Test
+    public final void testRemoveTagManyTags() {
+        final int tagCount = 20;
+        Inventory testInv = this.constructor(2);
+
+        Item testItem = new BasicItem("Foo");
+        Item expectedItem = new BasicItem("Foo");
+
+        for (int i = 0; i < tagCount; i++) {
+            testItem.putTag("MANY" + i, i);
+
+            if (i % 2 == 1) {
+                expectedItem.putTag("MANY" + i, i);
+            }
+        }
+
+        testInv.addItem(0, testItem);
+
+        for (int i = 0; i < tagCount; i += 2) {
+            testInv.getItem(0).removeTag("MANY" + i);
+        }
+
+        assertFalse(testInv.getItem(0).hasTag("MANY0"));
+        assertTrue(testInv.getItem(0).hasTag("MANY1"));
+        assertEquals(testInv.removeItem(0), expectedItem);
+
+        Item otherItem = new BasicItem("Bar");
+        Item expectedOther = new BasicItem("Bar");
+
+        for (int i = 0; i < tagCount; i++) {
+            otherItem.putTag("OTHER" + i, -i);
+            expectedOther.putTag("OTHER" + i, -i);
+        }
+
+        testInv.addItem(1, otherItem);
+
+        assertEquals(testInv.getItem(1), expectedOther);
+        assertTrue(testInv.getItem(0).isEmpty());
+    }
+
     //Tests for removeItem()
 
     /** Test for removeItem() with empty item. */
@@ -379,6 +534,27 @@ public class InventoryKernelTest {
         assertEquals(removed, expected);
     }
 
+    /**
+     * Test for removeItem() from the same empty slot twice, which must hand out
+     * a separate empty Item each time.
+     */
+    @Test
+    public final void testRemoveItemEmptyTwice() {
+
+        Inventory testInv = this.constructor();
+        Inventory expectedInv = this.constructor();
+
+        Item expected = new BasicItem();
+
+        Item removed1 = testInv.removeItem(0);
+        Item removed2 = testInv.removeItem(0);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(removed1, expected);
+        assertEquals(removed2, expected);
+        assertFalse(removed1 == removed2);
+    }
+
     /** Test for removeItem() with non-empty item. */
     @Test
     public final void testRemoveItemNamed() {
@@ -430,6 +606,73 @@ public class InventoryKernelTest {
         assertEquals(removed, expected);
     }
 
+    //Tests for peekItem()
+
+    /** Test for peekItem() with an empty slot. */
+    @Test
+    public final void testPeekItemEmpty() {
+
+        Inventory testInv = this.constructor(2);
+        Inventory expectedInv = this.constructor(2);
+
+        Item peeked = testInv.peekItem(1);
+
+        assertTrue(peeked.isEmpty());
+        assertEquals(testInv, expectedInv);
+    }
+
+    /** Test for peekItem() with a non-empty slot with tags. */
+    @Test
+    public final void testPeekItemTags() {
+
+        Inventory testInv = this.constructor(2);
+        Inventory expectedInv = this.constructor(2);
+
+        Item testItem = new BasicItem("Foo", 2);
+        testItem.putTag("TEST", 0);
+        testInv.addItem(1, testItem);
+
+        Item expectedItem = new BasicItem("Foo", 2);
+        expectedItem.putTag("TEST", 0);
+        expectedInv.addItem(1, expectedItem);
+
+        Item peeked = testInv.peekItem(1);
+
+        assertEquals(peeked, expectedItem);
+        assertEquals(peeked.getCount(), 2);
+        assertEquals(testInv, expectedInv);
+        assertEquals(testInv.nextIndexOf("Foo", 0), 1);
+    }
+
+    /** Test that peekItem() aliases the Item in a non-empty slot. */
+    @Test
+    public final void testPeekItemAliases() {
+
+        Inventory testInv = this.constructor("Foo");
+
+        testInv.peekItem(0).setCount(3);
+        testInv.peekItem(0).putTag("TEST", 1);
+
+        assertEquals(testInv.getItem(0).getCount(), 3);
+        assertEquals(testInv.getItem(0).tagValue("TEST"), 1);
+    }
+
+    /** Test for peekItem() on a restricted inventory. */
+    @Test
+    public final void testPeekItemRestricted() {
+
+        Inventory testInv = this.constructor(2);
+
+        Item testItem = new BasicItem("Foo");
+        testItem.putTag("TEST", 0);
+        testInv.addItem(0, testItem);
+        testInv.restrict("TEST");
+
+        assertTrue(testInv.peekItem(0).hasTag("TEST"));
+        assertTrue(testInv.peekItem(1).isEmpty());
+        assertEquals(testInv.nextIndexOf("Foo", 0), 0);
+    }
+
     //Tests for nextIndexOf()
 
     /** Test for nextIndexof() starting from 0, with desired item at 0. */
@@ -537,6 +780,187 @@ public class InventoryKernelTest {
         assertEquals(actualPos, expectedPos);
     }
 
+    /**
+     * Test for nextIndexOf() with the desired item in several slots, starting
+     * between them.
+     */
+    @Test
+    public final void testNextIndexOfRepeatedName() {
+
+        Inventory testInv = this.constructor("Foo", "Bar", "Foo", "Bar");
+        Inventory expectedInv = this.constructor("Foo", "Bar", "Foo", "Bar");
+
+        final int expectedPos = 2;
+        int actualPos = testInv.nextIndexOf("Foo", 1);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(actualPos, expectedPos);
+    }
+
+    /** Test for nextIndexOf() after the desired item has been removed. */
+    @Test
+    public final void testNextIndexOfAfterRemove() {
+
+        Inventory testInv = this.constructor("Foo", "Bar", "Foo");
+        Inventory expectedInv = this.constructor("", "Bar", "Foo");
+
+        testInv.removeItem(0);
+
+        final int expectedPos = 2;
+        int actualPos = testInv.nextIndexOf("Foo", 0);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(actualPos, expectedPos);
+        assertEquals(testInv.nextIndexOf(Item.EMPTY_NAME, 0), 0);
+    }
+
+    /** Test for nextIndexOf() after Items were removed by restrict(). */
+    @Test
+    public final void testNextIndexOfAfterRestrict() {
+
+        Inventory testInv = this.constructor("Foo", "Bar");
+
+        Item tagged = new BasicItem("Foo");
+        tagged.putTag("TEST", 0);
+        testInv.removeItem(1);
+        testInv.addItem(1, tagged);
+
+        testInv.restrict("TEST");
+
+        final int expectedPos = 1;
+        int actualPos = testInv.nextIndexOf("Foo", 0);
+
+        assertEquals(actualPos, expectedPos);
+        assertEquals(testInv.nextIndexOf("Bar", 0), -1);
+    }
+
+    /** Test for nextIndexOf() on both sides of transferFrom(). */
+    @Test
+    public final void testNextIndexOfAfterTransferFrom() {
+
+        Inventory srcInv = this.constructor("Foo", "Bar");
+        Inventory destInv = this.constructor("Bar", "Foo", "Lorem");
+
+        destInv.transferFrom(srcInv);
+
+        assertEquals(destInv.nextIndexOf("Foo", 0), 0);
+        assertEquals(destInv.nextIndexOf("Lorem", 0), -1);
+        assertEquals(srcInv.nextIndexOf("Bar", 0), -1);
+    }
+
+    /**
+     * Test for nextIndexOf() against a scan of the slots, after Items are
+     * added and removed at random all over a large inventory, out of order.
+     */
+    @Test
+    public final void testNextIndexOfScattered() {
+
+        final int invSize = 5000;
+        final int ops = 4000;
+        final int probes = 200;
+        final long seed = 23;
+        final String[] names = {"Foo", "Bar", "Lorem" };
+        Inventory testInv = this.constructor(invSize);
+        String[] expected = new String[invSize];
+        Random random = new Random(seed);
+
+        for (int k = 0; k < ops; k++) {
+            int slot = random.nextInt(invSize);
+
+            if (expected[slot] != null) {
+                testInv.removeItem(slot);
+                expected[slot] = null;
+            } else {
+                expected[slot] = names[random.nextInt(names.length)];
+                testInv.addItem(slot, new BasicItem(expected[slot]));
+            }
+        }
+
+        for (int k = 0; k < probes; k++) {
+            int pos = random.nextInt(invSize);
+            String name = names[k % names.length];
+            int next = pos;
+
+            while (next < invSize && !name.equals(expected[next])) {
+                next++;
+            }
+
+            if (next == invSize) {
+                next = -1;
+            }
+
+            assertEquals(testInv.nextIndexOf(name, pos), next);
+        }
+    }
+
+    //Tests for nextEmptySlot()
+
+    /** Test for nextEmptySlot() on an empty inventory. */
+    @Test
+    public final void testNextEmptySlotAllEmpty() {
+
+        final int invSize = 10;
+        Inventory testInv = this.constructor(invSize);
+        Inventory expectedInv = this.constructor(invSize);
+
+        final int expectedPos = 4;
+        int actualPos = testInv.nextEmptySlot(expectedPos);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(actualPos, expectedPos);
+    }
+
+    /** Test for nextEmptySlot() skipping occupied slots. */
+    @Test
+    public final void testNextEmptySlotSkipsOccupied() {
+
+        Inventory testInv = this.constructor("Foo", "Bar", "", "Lorem");
+        Inventory expectedInv = this.constructor("Foo", "Bar", "", "Lorem");
+
+        final int expectedPos = 2;
+        int actualPos = testInv.nextEmptySlot(0);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(actualPos, expectedPos);
+        assertEquals(testInv.nextEmptySlot(expectedPos + 1), -1);
+    }
+
+    /** Test for nextEmptySlot() on a full inventory. */
+    @Test
+    public final void testNextEmptySlotFull() {
+
+        Inventory testInv = this.constructor("Foo", "Bar", "Lorem");
+        Inventory expectedInv = this.constructor("Foo", "Bar", "Lorem");
+
+        int actualPos = testInv.nextEmptySlot(0);
+
+        assertEquals(testInv, expectedInv);
+        assertEquals(actualPos, -1);
+    }
+
+    /**
+     * Test for nextEmptySlot() on a large inventory whose only empty slot is
+     * near the end.
+     */
+    @Test
+    public final void testNextEmptySlotLarge() {
+
+        final int invSize = 200;
+        final int emptySlot = 197;
+        Inventory testInv = this.constructor(invSize);
+
+        for (int i = 0; i < invSize; i++) {
+            testInv.addItem(i, new BasicItem("Foo"));
+        }
+
+        testInv.removeItem(emptySlot);
+
+        assertEquals(testInv.nextEmptySlot(0), emptySlot);
+        assertEquals(testInv.nextEmptySlot(emptySlot), emptySlot);
+        assertEquals(testInv.nextEmptySlot(emptySlot + 1), -1);
+        assertEquals(testInv.nextIndexOf(Item.EMPTY_NAME, 0), emptySlot);
+    }
+
     /* Combined tests for restrict() and isAllowed(). */
 
     /** Test for isAllowed() with an unrestricted inventory. */
@@ -673,6 +1097,68 @@ public class InventoryKernelTest {
         assertFalse(testInv.isAllowed(wrongTag2));
     }
 
+    /**
+     * Test for restrict() after tags of stored Items were changed through an
+     * alias.
+     */
+    @Test
+    public final void testRestrictAfterTagsChangedThroughAlias() {
+
+        Inventory testInv = this.constructor(3);
+
+        Item lost = new BasicItem("Foo");
+        lost.putTag("TEST", 0);
+        testInv.addItem(0, lost);
+        testInv.addItem(1, new BasicItem("Bar"));
+
+        testInv.getItem(0).removeTag("TEST");
+        testInv.getItem(1).putTag("TEST", 0);
+
+        ArrayList<Item> removed = testInv.restrict("TEST");
+
+        assertEquals(removed.size(), 1);
+        assertEquals(removed.get(0), new BasicItem("Foo"));
+        assertTrue(testInv.isAt(1, "Bar"));
+    }
+
+    /** Test for restrict() with the same Item in two inventories. */
+    @Test
+    public final void testRestrictSharedItem() {
+
+        Inventory first = this.constructor(2);
+        Inventory second = this.constructor(2);
+
+        Item shared = new BasicItem("Foo");
+        shared.putTag("TEST", 0);
+        first.addItem(0, shared);
+        second.addItem(1, shared);
+
+        first.getItem(0).removeTag("TEST");
+        assertEquals(first.restrict("TEST").size(), 1);
+
+        second.getItem(1).removeTag("TEST");
+        assertEquals(second.restrict("TEST").size(), 1);
+        assertEquals(first.nextIndexOf("Foo", 0), -1);
+        assertEquals(second.nextIndexOf("Foo", 0), -1);
+    }
+
+    /** Test for restrict() on an Item that was moved between inventories. */
+    @Test
+    public final void testRestrictMovedItem() {
+
+        Inventory first = this.constructor(2);
+        Inventory second = this.constructor(2);
+
+        first.addItem(0, new BasicItem("Foo"));
+        second.addItem(1, first.removeItem(0));
+
+        second.getItem(1).putTag("TEST", 0);
+
+        assertEquals(first.restrict("TEST").size(), 0);
+        assertEquals(second.restrict("TEST").size(), 0);
+        assertTrue(second.isAt(1, "Foo"));
+    }
+
     /* Tests for freeRestrictions() */
 
     /** Test for freeRestrictions() on an unrestricted inventory. */
@@ -698,6 +1184,43 @@ public class InventoryKernelTest {
         assertEquals(testInv, refInv);
     }
 
+    /**
+     * Test for isAllowed() and restrict() with more restrictions than fit in a
+     * single word of tag bits.
+     */
+    @Test
+    public final void testIsAllowedManyRestrictions() {
+        final int tagCount = 70;
+        Inventory testInv = this.constructor("Foo");
+
+        Item allTags = new BasicItem("Bar");
+        Item missingLast = new BasicItem("Lorem");
+
+        for (int i = 0; i < tagCount; i++) {
+            allTags.putTag("MANY" + i, i);
+
+            if (i < tagCount - 1) {
+                missingLast.putTag("MANY" + i, i);
+            }
+        }
+
+        ArrayList<Item> removed = new ArrayList<>();
+
+        for (int i = 0; i < tagCount; i++) {
+            removed.addAll(testInv.restrict("MANY" + i));
+        }
+
+        assertEquals(removed.size(), 1);
+        assertEquals(removed.get(0), new BasicItem("Foo"));
+        assertTrue(testInv.isAllowed(allTags));
+        assertFalse(testInv.isAllowed(missingLast));
+        assertTrue(testInv.isAllowed(new BasicItem()));
+
+        testInv.freeRestrictions();
+
+        assertTrue(testInv.isAllowed(missingLast));
+    }
+
     /** Test for freeRestrictions() on a singly-restricted inventory. */
     @Test
     public final void testFreeRestrictionsOneRestriction() {
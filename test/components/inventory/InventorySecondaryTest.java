@@ -4,6 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
 import org.junit.Test;
 
 import components.inventory.Inventory.Item;
@@ -24,7 +29,8 @@ public class InventorySecondaryTest {
      *            - the size of the desired inventory, or 0 for the default size
      * @return an instance of the inventory implementation under test
      */
-    private Inventory constructor(int n) {
+    //CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    protected Inventory constructor(int n) {
 
         if (n == 0) {
             return new Inventory1();
@@ -101,8 +107,11 @@ public class InventorySecondaryTest {
         Item result = testInv.getItem(0);
 
         assertEquals(result, refItem);
-        assertTrue(result == testItem);
         assertEquals(testInv, refInv);
+
+        result.putTag("ALIAS", 1);
+
+        assertTrue(testInv.getItem(0).hasTag("ALIAS"));
     }
 
     /* Tests for copyItem() */
@@ -627,6 +636,168 @@ public class InventorySecondaryTest {
         assertEquals(name, "Foo");
     }
 
+    /* Tests for addItems(), removeItems() and applyBatch() */
+
+    /** Test for addItems() placing, stacking and revisiting slots. */
+    @Test
+    public final void testAddItems() {
+        Inventory testInv = this.constructor(Item.EMPTY_NAME, "Foo",
+                Item.EMPTY_NAME, Item.EMPTY_NAME);
+        Inventory refInv = this.constructor(Item.EMPTY_NAME, "Foo",
+                Item.EMPTY_NAME, Item.EMPTY_NAME);
+
+        Item tagged = new BasicItem("Foo", 2);
+        tagged.putTag("TEST", 1);
+        final int[] slots = {0, 1, 2 + 1, 0, 2 };
+        Item[] items = {new BasicItem("Bar"), tagged,
+            new BasicItem("Lorem"), new BasicItem("Bar", 2),
+            new BasicItem() };
+
+        testInv.addItems(slots, items);
+
+        refInv.addItem(0, new BasicItem("Bar", 2 + 1));
+        Item refTagged = new BasicItem("Foo", 2);
+        refTagged.putTag("TEST", 1);
+        refInv.addItem(1, refTagged);
+        refInv.addItem(2 + 1, new BasicItem("Lorem"));
+
+        assertEquals(testInv, refInv);
+        assertEquals(testInv.nextIndexOf("Bar", 0), 0);
+        assertEquals(testInv.nextIndexWithTag("TEST", 0), 1);
+        assertEquals(testInv.nextEmptySlot(0), 2);
+    }
+
+    /** Test for removeItems() with full, empty and repeated slots. */
+    @Test
+    public final void testRemoveItems() {
+        Inventory testInv = this.constructor("Foo", Item.EMPTY_NAME, "Bar");
+        Inventory refInv = this.constructor(2 + 1);
+
+        final int[] slots = {2, 1, 0, 2 };
+        List<Item> removed = testInv.removeItems(slots);
+
+        assertEquals(removed.size(), slots.length);
+        assertEquals(removed.get(0), new BasicItem("Bar"));
+        assertTrue(removed.get(1).isEmpty());
+        assertEquals(removed.get(2), new BasicItem("Foo"));
+        assertTrue(removed.get(2 + 1).isEmpty());
+        assertEquals(testInv, refInv);
+        assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+    }
+
+    /** Test for applyBatch() replacing an Item with one of another name. */
+    @Test
+    public final void testApplyBatch() {
+        Inventory testInv = this.constructor("Foo", "Bar", Item.EMPTY_NAME);
+        Inventory refInv = this.constructor("Lorem", Item.EMPTY_NAME,
+                "Bar");
+
+        InventoryBatch batch = new InventoryBatch();
+        batch.remove(0).add(0, new BasicItem("Lorem"));
+        batch.remove(1).add(2, new BasicItem("Bar"));
+
+        List<Item> removed = testInv.applyBatch(batch);
+
+        assertEquals(batch.size(), 2 + 2);
+        assertEquals(removed.size(), 2);
+        assertEquals(removed.get(0), new BasicItem("Foo"));
+        assertEquals(removed.get(1), new BasicItem("Bar"));
+        assertEquals(testInv, refInv);
+        assertEquals(testInv.nextIndexOf("Bar", 0), 2);
+        assertEquals(testInv.nextIndexOf("Foo", 0), -1);
+
+        batch.clear();
+        assertTrue(testInv.applyBatch(batch).isEmpty());
+        assertEquals(testInv, refInv);
+    }
+
+    /** Test for addItems() and removeItems() on a restricted inventory. */
+    @Test
+    public final void testBatchRestricted() {
+        final int invSize = 3000;
+        Inventory testInv = this.constructor(invSize);
+        testInv.restrict("TEST");
+
+        int[] slots = new int[invSize / 2];
+        Item[] items = new Item[slots.length];
+
+        for (int k = 0; k < slots.length; k++) {
+            slots[k] = invSize - 1 - 2 * k;
+            items[k] = new BasicItem("Foo");
+            items[k].putTag("TEST", k);
+        }
+
+        testInv.addItems(slots, items);
+
+        assertEquals(testInv.nextIndexOf("Foo", 0), 1);
+        assertEquals(testInv.nextIndexWithTag("TEST", invSize / 2),
+                invSize / 2 + 1);
+        assertEquals(testInv.nextEmptySlot(1), 2);
+
+        List<Item> removed = testInv.removeItems(slots);
+
+        assertEquals(removed.get(0).tagValue("TEST"), 0);
+        assertEquals(testInv, this.constructor(invSize));
+    }
+
+    /**
+     * Returns whether applying {@code batch} to {@code inv} is refused.
+     *
+     * @param inv
+     *            the Inventory
+     * @param batch
+     *            the batch
+     * @return true if {@code applyBatch} fails its precondition
+     */
+    private static boolean refused(Inventory inv, InventoryBatch batch) {
+        boolean refused = false;
+
+        try {
+            inv.applyBatch(batch);
+        } catch (AssertionError e) {
+            refused = true;
+        }
+
+        return refused;
+    }
+
+    /**
+     * Test that applyBatch() checks each operation against the names left by
+     * earlier ones in the same batch.
+     */
+    @Test
+    public final void testApplyBatchRefused() {
+        final int invSize = 5000;
+        final int far = invSize - 1;
+
+        assertTrue(refused(this.constructor("Foo", Item.EMPTY_NAME),
+                new InventoryBatch().add(0, new BasicItem("Bar"))));
+        assertFalse(refused(this.constructor("Foo", Item.EMPTY_NAME),
+                new InventoryBatch().remove(0).add(0, new BasicItem("Bar"))));
+        assertTrue(refused(this.constructor("Foo", Item.EMPTY_NAME),
+                new InventoryBatch().add(1, new BasicItem("Bar")).add(1,
+                        new BasicItem("Lorem"))));
+        assertFalse(refused(this.constructor("Foo", Item.EMPTY_NAME),
+                new InventoryBatch().add(1, new BasicItem("Bar")).remove(1)
+                        .add(1, new BasicItem("Lorem"))));
+        assertTrue(refused(this.constructor("Foo", Item.EMPTY_NAME),
+                new InventoryBatch().remove(2)));
+
+        InventoryBatch many = new InventoryBatch();
+
+        for (int slot = 0; slot < invSize; slot++) {
+            many.add(slot, new BasicItem("Foo"));
+        }
+
+        many.remove(0).add(0, new BasicItem("Bar"));
+
+        assertFalse(refused(this.constructor(invSize), many));
+
+        many.add(far, new BasicItem("Bar"));
+
+        assertTrue(refused(this.constructor(invSize), many));
+    }
+
     /** Tests for isAt(). */
     @Test
     public final void testIsAt() {
@@ -648,4 +819,193 @@ public class InventorySecondaryTest {
         assertTrue(testInv.isAt(testInv.size() - 1, "Foo"));
         assertEquals(testInv, refInv);
     }
+
+    /* Tests for nextIndexWithTag() */
+
+    /** Test for nextIndexWithTag() over tagged and untagged Items. */
+    @Test
+    public final void testNextIndexWithTag() {
+        final int invSize = 5;
+        Inventory testInv = this.constructor(invSize);
+
+        Item first = new BasicItem("Foo");
+        first.putTag("TEST", 0);
+        Item second = new BasicItem("Bar");
+        second.putTag("TEST", 1);
+
+        testInv.addItem(1, first);
+        testInv.addItem(2, new BasicItem("Lorem"));
+        testInv.addItem(invSize - 1, second);
+
+        assertEquals(testInv.nextIndexWithTag("TEST", 0), 1);
+        assertEquals(testInv.nextIndexWithTag("TEST", 2), invSize - 1);
+        assertEquals(testInv.nextIndexWithTag("MISSING", 0), -1);
+        assertEquals(testInv.nextIndexWithTag(Item.COUNT, 0), 1);
+        assertEquals(testInv.nextIndexWithTag(Item.COUNT, 3), invSize - 1);
+    }
+
+    /** Test for nextIndexWithTag() after tags changed through getItem(). */
+    @Test
+    public final void testNextIndexWithTagAfterTagsChanged() {
+        Inventory testInv = this.constructor(3);
+
+        Item item = new BasicItem("Foo");
+        item.putTag("TEST", 0);
+        testInv.addItem(2, item);
+
+        testInv.getItem(2).removeTag("TEST");
+        assertEquals(testInv.nextIndexWithTag("TEST", 0), -1);
+
+        testInv.getItem(2).putTag("TEST", 0);
+        assertEquals(testInv.nextIndexWithTag("TEST", 0), 2);
+
+        testInv.removeItem(2);
+        assertEquals(testInv.nextIndexWithTag("TEST", 0), -1);
+    }
+
+    /* Tests for stream() and parallelStream() */
+
+    /** Test for stream() visiting every slot in order. */
+    @Test
+    public final void testStream() {
+        Inventory testInv = this.constructor("Foo", Item.EMPTY_NAME, "Bar");
+        Inventory refInv = this.constructor("Foo", Item.EMPTY_NAME, "Bar");
+
+        List<String> names = testInv.stream().map(Item::getName)
+                .collect(Collectors.toList());
+
+        assertEquals(names.size(), 3);
+        assertEquals(names.get(0), "Foo");
+        assertTrue(names.get(1).equals(Item.EMPTY_NAME));
+        assertEquals(names.get(2), "Bar");
+        assertEquals(testInv, refInv);
+    }
+
+    /** Test for parallelStream() over a large inventory. */
+    @Test
+    public final void testParallelStream() {
+        final int invSize = 5000;
+        final int step = 7;
+        Inventory testInv = this.constructor(invSize);
+
+        int expectedCount = 0;
+        int expectedItems = 0;
+
+        for (int i = 0; i < invSize; i += step) {
+            testInv.addItem(i, new BasicItem("Foo", i % step + 2));
+            expectedCount += i % step + 2;
+            expectedItems++;
+        }
+
+        long items = testInv.parallelStream().filter(item -> !item.isEmpty())
+                .count();
+        int count = testInv.parallelStream().mapToInt(Item::getCount).sum();
+
+        assertEquals(items, (long) expectedItems);
+        assertEquals(count, expectedCount);
+        assertEquals(testInv.stream().count(), (long) invSize);
+    }
+
+    /** Test that spliterator() is sized and splits without losing slots. */
+    @Test
+    public final void testSpliteratorSized() {
+        final int invSize = 100;
+        Inventory testInv = this.constructor(invSize);
+
+        Spliterator<Item> whole = testInv.spliterator();
+
+        assertTrue(whole.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(whole.getExactSizeIfKnown(), (long) invSize);
+
+        Spliterator<Item> prefix = whole.trySplit();
+
+        assertTrue(prefix != null);
+        assertEquals(prefix.estimateSize() + whole.estimateSize(),
+                (long) invSize);
+    }
+
+    /* Tests for BasicItem */
+
+    /** Test that getTags() reflects later putTag() and removeTag() calls. */
+    @Test
+    public final void testBasicItemTagsView() {
+        Item testItem = new BasicItem("Foo", 2);
+        Map<String, Integer> tags = testItem.getTags();
+
+        testItem.putTag("TEST", 1);
+        testItem.putTag("MORE", 2);
+        testItem.removeTag("TEST");
+
+        assertEquals(tags.size(), 2);
+        assertEquals(tags.get(Item.COUNT), Integer.valueOf(2));
+        assertEquals(tags.get("MORE"), Integer.valueOf(2));
+        assertFalse(tags.containsKey("TEST"));
+        assertFalse(testItem.hasTag("TEST"));
+    }
+
+    /** Test that writes through getTags() reach the Item. */
+    @Test
+    public final void testBasicItemTagsViewWrite() {
+        Item testItem = new BasicItem("Foo", 2);
+
+        testItem.getTags().put("TEST", 1);
+
+        for (Map.Entry<String, Integer> tag : testItem.getTags().entrySet()) {
+            tag.setValue(tag.getValue() + 1);
+        }
+
+        testItem.getTags().remove("TEST");
+
+        assertEquals(testItem.tagValue(Item.COUNT), 2 + 1);
+        assertFalse(testItem.hasTag("TEST"));
+    }
+
+    /** Test for an Item with more tags than its initial capacity. */
+    @Test
+    public final void testBasicItemManyTags() {
+        final int tagCount = 20;
+        Item testItem = new BasicItem("Foo");
+        Item refItem = new BasicItem("Foo");
+
+        for (int i = tagCount - 1; i >= 0; i--) {
+            testItem.putTag("T" + i, i);
+        }
+        for (int i = 0; i < tagCount; i++) {
+            refItem.putTag("T" + i, i);
+        }
+
+        assertEquals(testItem.getTags().size(), tagCount + 1);
+        assertEquals(testItem.tagValue("T7"), 7);
+        assertEquals(testItem, refItem);
+        assertEquals(refItem, testItem);
+    }
+
+    /** Test that the count fast paths agree with the count tag. */
+    @Test
+    public final void testBasicItemCount() {
+        Item testItem = new BasicItem("Foo", 2);
+
+        assertEquals(testItem.getCount(), 2);
+        assertEquals(testItem.addCount(2 + 1), 2 + 2 + 1);
+
+        testItem.putTag(Item.COUNT, 2);
+        assertEquals(testItem.getCount(), 2);
+
+        testItem.setCount(1);
+        assertEquals(testItem.tagValue(Item.COUNT), 1);
+        assertTrue(testItem.hasTag(Item.COUNT));
+        assertEquals(testItem.getTags().get(Item.COUNT), Integer.valueOf(1));
+    }
+
+    /** Test that getCount() on a stored Item follows stacking. */
+    @Test
+    public final void testGetItemCountStacked() {
+        Inventory testInv = this.constructor(2);
+
+        testInv.addItem(1, new BasicItem("Foo", 2));
+        testInv.addItem(1, new BasicItem("Foo", 2 + 1));
+        testInv.getItem(1).addCount(-1);
+
+        assertEquals(testInv.getItem(1).getCount(), 2 + 2);
+    }
 }
@@ -0,0 +1,252 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for InventoryTransaction.
+ *
+ * @author David Stuckey
+ */
+public class InventoryTransactionTest {
+
+    /**
+     * Returns an Inventory holding Items with the names given, one per slot,
+     * each with count 2 and tag TEST.
+     *
+     * @param names
+     *            the names, or Item.EMPTY_NAME for an empty slot
+     * @return the Inventory
+     */
+    private static Inventory filled(String... names) {
+        Inventory inv = new Inventory1(names.length);
+
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].isEmpty()) {
+                Item item = new BasicItem(names[i], 2);
+                item.putTag("TEST", i);
+                inv.addItem(i, item);
+            }
+        }
+
+        return inv;
+    }
+
+    /** Test that rollback() undoes placing, stacking and removing. */
+    @Test
+    public final void testRollback() {
+        Inventory testInv = filled("Foo", "Bar", Item.EMPTY_NAME);
+        Inventory refInv = filled("Foo", "Bar", Item.EMPTY_NAME);
+        Item foo = testInv.getItem(0);
+
+        InventoryTransaction tx = new InventoryTransaction();
+        Inventory view = tx.enlist(testInv);
+
+        Item stacked = new BasicItem("Foo", 2 + 1);
+        stacked.putTag("TEST", -1);
+        stacked.putTag("NEW", 1);
+        view.addItem(0, stacked);
+        view.addItem(2, new BasicItem("Lorem"));
+        view.useItem(1);
+        view.removeItem(1);
+        view.swapItems(0, 2);
+
+        assertTrue(view.isAt(0, "Lorem"));
+        assertTrue(testInv.isAt(0, "Lorem"));
+        assertFalse(testInv.equals(refInv));
+
+        tx.rollback();
+
+        assertEquals(testInv, refInv);
+        assertTrue(testInv.getItem(0) == foo);
+        assertEquals(foo.tagValue("TEST"), 0);
+        assertFalse(foo.hasTag("NEW"));
+        assertEquals(testInv.nextIndexOf("Lorem", 0), -1);
+    }
+
+    /**
+     * Test that rolling back a stacked add restores the count and tags on
+     * every Inventory implementation, and that a journal sees the undo.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testRollbackStackEachImplementation()
+            throws IOException {
+        final int invSize = 2;
+        final int stackedCount = 3;
+        Path dir = Files.createTempDirectory("inventory");
+        Path path = dir.resolve("test.log");
+
+        try {
+            JournaledInventory journaled = JournaledInventory.create(path,
+                    invSize, 1);
+            Inventory[] invs = {new Inventory1(invSize),
+                new Inventory2(invSize), new Inventory3(invSize),
+                new ConcurrentInventory(invSize),
+                new StampedInventory(invSize), journaled };
+
+            for (Inventory inv : invs) {
+                Item foo = new BasicItem("Foo", 2);
+                foo.putTag("TEST", 0);
+                inv.addItem(0, foo);
+
+                InventoryTransaction tx = new InventoryTransaction();
+                Item stacked = new BasicItem("Foo", stackedCount);
+                stacked.putTag("TEST", -1);
+                stacked.putTag("NEW", 1);
+                tx.enlist(inv).addItem(0, stacked);
+
+                assertEquals(inv.getItem(0).getCount(), 2 + stackedCount);
+
+                tx.rollback();
+
+                assertEquals(inv.getItem(0).getCount(), 2);
+                assertEquals(inv.getItem(0).tagValue("TEST"), 0);
+                assertFalse(inv.getItem(0).hasTag("NEW"));
+                assertEquals(inv.nextIndexWithTag("NEW", 0), -1);
+            }
+
+            journaled.close();
+            Inventory1 replayed = JournaledInventory.replay(path);
+
+            assertEquals(replayed.getItem(0).getCount(), 2);
+            assertEquals(replayed.getItem(0).tagValue("TEST"), 0);
+            assertFalse(replayed.getItem(0).hasTag("NEW"));
+            ((Inventory3) invs[2]).close();
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /** Test that commit() keeps changes and starts a new transaction. */
+    @Test
+    public final void testCommit() {
+        Inventory testInv = filled("Foo", Item.EMPTY_NAME);
+        Inventory refInv = filled("Foo", "Bar");
+
+        InventoryTransaction tx = new InventoryTransaction();
+        Inventory view = tx.enlist(testInv);
+
+        Item bar = new BasicItem("Bar", 2);
+        bar.putTag("TEST", 1);
+        view.addItem(1, bar);
+        tx.commit();
+
+        view.removeItem(0);
+        tx.rollback();
+
+        assertEquals(testInv, refInv);
+
+        tx.rollback();
+
+        assertEquals(testInv, refInv);
+    }
+
+    /** Test rollback() of a move between two Inventories. */
+    @Test
+    public final void testRollbackTwoInventories() {
+        Inventory shelf = filled("Foo", "Bar");
+        Inventory buffer = filled(Item.EMPTY_NAME);
+        Inventory refShelf = filled("Foo", "Bar");
+        Inventory refBuffer = filled(Item.EMPTY_NAME);
+
+        InventoryTransaction tx = new InventoryTransaction();
+        Inventory from = tx.enlist(shelf);
+        Inventory to = tx.enlist(buffer);
+
+        assertTrue(tx.enlist(shelf) == from);
+        assertTrue(tx.enlist(from) == from);
+
+        to.splitItem(from, 1, 0, 1);
+
+        assertEquals(shelf.getItem(1).getCount(), 1);
+        assertEquals(buffer.getItem(0).getCount(), 1);
+
+        tx.rollback();
+
+        assertEquals(shelf, refShelf);
+        assertEquals(buffer, refBuffer);
+        assertEquals(shelf.getItem(1).getCount(), 2);
+    }
+
+    /** Test that splitItem() puts everything back when a step fails. */
+    @Test
+    public final void testSplitItemFailure() {
+        Inventory src = filled("Foo");
+        Inventory refSrc = filled("Foo");
+        Inventory dest = new Inventory1(1);
+        dest.restrict("MISSING");
+
+        boolean failed = false;
+
+        try {
+            dest.splitItem(src, 0, 0, 1);
+        } catch (AssertionError e) {
+            failed = true;
+        }
+
+        assertTrue(failed);
+        assertEquals(src, refSrc);
+        assertEquals(src.getItem(0).getCount(), 2);
+        assertTrue(dest.getItem(0).isEmpty());
+    }
+
+    /**
+     * Test that splitItem() into a subclass of a kernel still puts
+     * everything back when the subclass refuses the Item.
+     */
+    @Test
+    public final void testSplitItemSubclassFailure() {
+        Inventory src = filled("Foo");
+        Inventory refSrc = filled("Foo");
+        Inventory dest = new Inventory1(1) {
+            @Override
+            public void addItem(int slot, Item item) {
+                throw new IllegalStateException("refused");
+            }
+        };
+
+        boolean failed = false;
+
+        try {
+            dest.splitItem(src, 0, 0, 1);
+        } catch (IllegalStateException e) {
+            failed = true;
+        }
+
+        assertTrue(failed);
+        assertEquals(src, refSrc);
+        assertEquals(src.getItem(0).getCount(), 2);
+    }
+
+    /** Test that changes that cannot be undone are refused. */
+    @Test
+    public final void testIrreversible() {
+        Inventory testInv = filled("Foo");
+        Inventory view = new InventoryTransaction().enlist(testInv);
+
+        boolean refused = false;
+
+        try {
+            view.clear();
+        } catch (UnsupportedOperationException e) {
+            refused = true;
+        }
+
+        assertTrue(refused);
+        assertEquals(testInv, filled("Foo"));
+    }
+}
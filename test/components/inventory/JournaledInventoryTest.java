@@ -0,0 +1,338 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for JournaledInventory.
+ *
+ * @author David Stuckey
+ */
+public class JournaledInventoryTest {
+
+    /** The temporary directories created by the current test. */
+    private final List<Path> dirs = new ArrayList<>();
+
+    /**
+     * Returns a path for a journal in a new temporary directory, which is
+     * deleted once the test ends.
+     *
+     * @return the path, where no file exists yet
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    private Path newPath() throws IOException {
+        Path dir = Files.createTempDirectory("inventory");
+        this.dirs.add(dir);
+
+        return dir.resolve("test.log");
+    }
+
+    /**
+     * Deletes the temporary directories created by the test, with
+     * everything in them.
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @After
+    public final void deleteDirs() throws IOException {
+        for (Path dir : this.dirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder())
+                        .toArray(Path[]::new)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        this.dirs.clear();
+    }
+
+    /**
+     * Test that kernel and secondary changes are replayed in order.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testReplay() throws IOException {
+        final int invSize = 5;
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, invSize,
+                2);
+        Inventory expectedInv = new Inventory1(invSize);
+
+        for (Inventory inv : new Inventory[] {testInv, expectedInv }) {
+            Item foo = new BasicItem("Foo", 2);
+            foo.putTag("TEST", -1);
+            inv.addItem(0, foo);
+            inv.addItem(0, new BasicItem("Foo", 1));
+            inv.addItem(2, new BasicItem("Bar"));
+            inv.swapItems(2, invSize - 1);
+            inv.splitItem(inv, 0, 1, 1);
+            inv.useItem(invSize - 1);
+        }
+
+        testInv.close();
+
+        Inventory1 replayed = JournaledInventory.replay(path);
+
+        assertEquals(replayed, expectedInv);
+        assertEquals(replayed.getItem(0).getCount(), 2);
+        assertEquals(replayed.getItem(1).tagValue("TEST"), -1);
+        assertEquals(testInv, new JournaledInventory());
+    }
+
+    /**
+     * Test that restrictions are replayed.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testReplayRestrictions() throws IOException {
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 1);
+        Item foo = new BasicItem("Foo");
+        foo.putTag("TEST", 1);
+
+        testInv.addItem(0, new BasicItem("Bar"));
+        testInv.addItem(1, foo);
+        assertEquals(testInv.restrict("TEST").size(), 1);
+        testInv.close();
+
+        JournaledInventory reopened = JournaledInventory.open(path, 1);
+
+        assertTrue(reopened.getItem(0).isEmpty());
+        assertFalse(reopened.isAllowed(new BasicItem("Bar")));
+
+        reopened.freeRestrictions();
+        reopened.close();
+
+        assertTrue(JournaledInventory.replay(path)
+                .isAllowed(new BasicItem("Bar")));
+    }
+
+    /**
+     * Test that changes are only durable once committed.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testCommit() throws IOException {
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 0);
+        testInv.addItem(1, new BasicItem("Foo"));
+
+        assertEquals(JournaledInventory.replay(path), new Inventory1(2));
+
+        testInv.commit();
+
+        assertTrue(JournaledInventory.replay(path).isAt(1, "Foo"));
+        testInv.close();
+    }
+
+    /**
+     * Test that calls refused by their preconditions leave no record, so the
+     * journal still opens.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testRefusedCallNotRecorded() throws IOException {
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 1);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        boolean refused = false;
+
+        try {
+            testInv.addItem(0, new BasicItem("Shield"));
+        } catch (AssertionError e) {
+            refused = true;
+        }
+
+        assertTrue(refused);
+
+        testInv.restrict("TEST");
+        refused = false;
+        Item bar = new BasicItem("Bar");
+
+        try {
+            testInv.addItem(1, bar);
+        } catch (AssertionError e) {
+            refused = true;
+        }
+
+        assertTrue(refused);
+
+        bar.putTag("TEST", 1);
+        testInv.addItem(1, bar);
+        testInv.close();
+
+        testInv = JournaledInventory.open(path, 1);
+
+        assertTrue(testInv.peekItem(0).isEmpty());
+        assertTrue(testInv.isAt(1, "Bar"));
+        assertFalse(testInv.isAllowed(new BasicItem("Shield")));
+        testInv.close();
+    }
+
+    /**
+     * Test that opening a journal continues it, after dropping a torn frame
+     * at its end.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testOpenTornTail() throws IOException {
+        final byte[] torn = {0, 0, 0, 2 + 2, 1, 2, 2 + 1 };
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 1);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.close();
+
+        Files.write(path, torn, StandardOpenOption.APPEND);
+
+        testInv = JournaledInventory.open(path, 1);
+        testInv.addItem(1, new BasicItem("Bar", 2));
+        testInv.close();
+
+        Inventory1 replayed = JournaledInventory.replay(path);
+
+        assertTrue(replayed.isAt(0, "Foo"));
+        assertEquals(replayed.getItem(1).getCount(), 2);
+    }
+
+    /**
+     * Test that a last frame whose payload fails its checksum, and a zeroed
+     * frame at the end, are both dropped as torn.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testOpenTornChecksum() throws IOException {
+        final byte[] torn = {0, 0, 0, 2, 0, 0, 0, 0, 1, 2 };
+        final byte[] zeroed = new byte[2 * 2 * 2 + 2];
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 1);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.close();
+        long length = Files.size(path);
+
+        Files.write(path, torn, StandardOpenOption.APPEND);
+        JournaledInventory.open(path, 1).close();
+        assertEquals(Files.size(path), length);
+
+        Files.write(path, zeroed, StandardOpenOption.APPEND);
+        testInv = JournaledInventory.open(path, 1);
+
+        assertTrue(testInv.isAt(0, "Foo"));
+        testInv.close();
+        assertEquals(Files.size(path), length);
+    }
+
+    /**
+     * Test that a bad frame with another after it is refused, and the file
+     * is left as it was.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testOpenDamagedMiddle() throws IOException {
+        final int header = 2 + 2 + 1 + 2 + 2;
+        final int payload = header + 2 * 2 * 2;
+        Path path = this.newPath();
+
+        JournaledInventory testInv = JournaledInventory.create(path, 2, 1);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.addItem(1, new BasicItem("Bar"));
+        testInv.close();
+
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[payload] ^= 1;
+        Files.write(path, bytes);
+
+        for (int k = 0; k < 2; k++) {
+            try {
+                if (k == 0) {
+                    JournaledInventory.open(path, 1);
+                } else {
+                    JournaledInventory.replay(path);
+                }
+                fail("opened a damaged journal");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("damaged"));
+            }
+        }
+
+        assertTrue(Arrays.equals(Files.readAllBytes(path), bytes));
+    }
+
+    /**
+     * Test that transferFrom() moves the journal, and clear() leaves it
+     * behind.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public final void testTransferFromAndClear() throws IOException {
+        Path path = this.newPath();
+
+        JournaledInventory journaled = JournaledInventory.create(path, 2, 0);
+        JournaledInventory testInv = new JournaledInventory();
+
+        testInv.transferFrom(journaled);
+        testInv.addItem(0, new BasicItem("Foo"));
+        testInv.clear();
+        testInv.addItem(0, new BasicItem("Bar"));
+
+        assertEquals(journaled, new JournaledInventory());
+        assertTrue(JournaledInventory.replay(path).isAt(0, "Foo"));
+    }
+
+    /**
+     * Test that opening a file that is not a journal fails.
+     *
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Test(expected = IOException.class)
+    public final void testOpenNotJournal() throws IOException {
+        Path path = this.newPath();
+        Files.write(path, new byte[] {'I', 'N', 'V', '1', 1 });
+
+        JournaledInventory.open(path, 0);
+    }
+}
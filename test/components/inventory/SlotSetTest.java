@@ -0,0 +1,166 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Test array for SlotSet.
+ *
+ * @author David Stuckey
+ */
+public class SlotSetTest {
+
+    /** A slot far enough out to need many pages before it. */
+    private static final int FAR = 1 << 20;
+
+    /**
+     * Checks that {@code ceiling} on {@code set} agrees with
+     * {@code expected} at every position up to {@code limit}.
+     *
+     * @param set
+     *            the set to check
+     * @param expected
+     *            the slots it should hold
+     * @param limit
+     *            one past the last position to check
+     */
+    private static void assertSame(SlotSet set, TreeSet<Integer> expected,
+            int limit) {
+        for (int pos = 0; pos < limit; pos++) {
+            Integer next = expected.ceiling(pos);
+            assertEquals(set.ceiling(pos), next == null ? -1 : next);
+        }
+
+        assertEquals(set.isEmpty(), expected.isEmpty());
+    }
+
+    /** Test that a new set is empty. */
+    @Test
+    public final void testConstructor() {
+        SlotSet set = new SlotSet();
+
+        assertTrue(set.isEmpty());
+        assertEquals(set.ceiling(0), -1);
+    }
+
+    /** Test ceiling() within and across pages, and past the last slot. */
+    @Test
+    public final void testCeiling() {
+        final int[] slots = {0, 63, 64, 1023, 1024, 5000, FAR };
+        SlotSet set = new SlotSet();
+
+        for (int slot : slots) {
+            set.add(slot);
+        }
+
+        assertEquals(set.ceiling(0), 0);
+        assertEquals(set.ceiling(1), 63);
+        assertEquals(set.ceiling(65), 1023);
+        assertEquals(set.ceiling(1025), 5000);
+        assertEquals(set.ceiling(5001), FAR);
+        assertEquals(set.ceiling(FAR + 1), -1);
+    }
+
+    /** Test that slots added out of order insert pages in order. */
+    @Test
+    public final void testAddOutOfOrder() {
+        final int step = 997;
+        final int limit = 60000;
+        SlotSet set = new SlotSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int slot = limit - 1; slot >= 0; slot -= step) {
+            set.add(slot);
+            expected.add(slot);
+        }
+
+        set.add(limit / 2);
+        expected.add(limit / 2);
+
+        assertSame(set, expected, limit);
+    }
+
+    /** Test that removing the last slot of a page drops the page. */
+    @Test
+    public final void testRemoveEmptiesPage() {
+        final int limit = 4000;
+        SlotSet set = new SlotSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int slot = 0; slot < limit; slot += 2 + 1) {
+            set.add(slot);
+            expected.add(slot);
+        }
+
+        for (int slot = 0; slot < limit; slot += 2) {
+            set.remove(slot);
+            expected.remove(slot);
+        }
+
+        assertSame(set, expected, limit);
+
+        for (int slot = 0; slot < limit; slot++) {
+            set.remove(slot);
+        }
+
+        assertTrue(set.isEmpty());
+        assertEquals(set.ceiling(0), -1);
+    }
+
+    /**
+     * Test that removing a slot that is not there, including on a page
+     * that is not in use, changes nothing.
+     */
+    @Test
+    public final void testRemoveAbsent() {
+        SlotSet set = new SlotSet();
+        set.add(1);
+        set.remove(2);
+        set.remove(FAR);
+
+        assertFalse(set.isEmpty());
+        assertEquals(set.ceiling(0), 1);
+        assertEquals(set.ceiling(2), -1);
+    }
+
+    /**
+     * Test that lookups stay right when pages move under the remembered
+     * page, by inserting and dropping pages before it.
+     */
+    @Test
+    public final void testHintAfterPagesMove() {
+        final int page = 1024;
+        final int first = 2 * page;
+        final int middle = 4 * page;
+        final int last = 6 * page;
+        final int limit = 8 * page;
+        SlotSet set = new SlotSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int slot : new int[] {first, middle, last }) {
+            set.add(slot);
+            expected.add(slot);
+        }
+
+        assertEquals(set.ceiling(middle), middle);
+
+        set.add(page);
+        expected.add(page);
+        set.add(middle + 1);
+        expected.add(middle + 1);
+        set.remove(first);
+        expected.remove(first);
+
+        assertEquals(set.ceiling(middle + 1), middle + 1);
+
+        set.remove(page);
+        expected.remove(page);
+
+        assertSame(set, expected, limit);
+    }
+}
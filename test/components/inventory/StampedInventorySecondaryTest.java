@@ -0,0 +1,20 @@
+package components.inventory;
+
+/**
+ * Test array for Inventory secondary methods using StampedInventory.
+ *
+ * @author David Stuckey
+ */
+public class StampedInventorySecondaryTest extends InventorySecondaryTest {
+
+    @Override
+    protected final Inventory constructor(int n) {
+
+        if (n == 0) {
+            return new StampedInventory();
+        } else {
+            return new StampedInventory(n);
+        }
+    }
+
+}
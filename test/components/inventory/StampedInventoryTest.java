@@ -0,0 +1,177 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+import components.inventory.InventorySecondary.BasicItem;
+
+/**
+ * Test array for StampedInventory under threads.
+ *
+ * @author David Stuckey
+ */
+public class StampedInventoryTest {
+
+    /** The number of threads used by the tests that run threads. */
+    private static final int THREADS = 8;
+
+    /**
+     * Runs {@code task} once on each of {@code THREADS} threads, passing it
+     * the thread's number, and waits for all of them.
+     *
+     * @param task
+     *            the work for each thread
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static void runThreads(IntConsumer task)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int number = t;
+            Thread thread = new Thread(() -> task.accept(number));
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /** Test that the iterator keeps the slots it started with. */
+    @Test
+    public final void testIteratorCopy() {
+        Inventory testInv = new StampedInventory(2);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        List<String> names = new ArrayList<>();
+
+        for (Item item : testInv) {
+            names.add(item.getName());
+            testInv.addItem(1, new BasicItem("Bar"));
+        }
+
+        assertEquals(names.get(0), "Foo");
+        assertEquals(names.get(1), Item.EMPTY_NAME);
+        assertTrue(testInv.isAt(1, "Bar"));
+    }
+
+    /**
+     * Test that lookups racing swaps and stacking always see the one Item
+     * being moved, somewhere.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsReadDuringWrites()
+            throws InterruptedException {
+        final int invSize = 300;
+        final int ops = 20000;
+        Inventory testInv = new StampedInventory(invSize);
+        testInv.addItem(0, new BasicItem("Foo"));
+
+        runThreads(t -> {
+            for (int k = 0; k < ops; k++) {
+                if (t == 0) {
+                    int at = testInv.nextIndexOf("Foo", 0);
+                    int to = (at + 1 + k % (invSize - 2)) % (invSize - 1);
+                    testInv.swapItems(at, to);
+                } else if (t == 1) {
+                    testInv.addItem(invSize - 1, new BasicItem("Bar"));
+                } else {
+                    int at = testInv.nextIndexOf("Foo", 0);
+
+                    assertTrue(at >= 0);
+                    assertTrue(testInv.nextEmptySlot(0) >= 0);
+                }
+            }
+        });
+
+        assertEquals(testInv.peekItem(invSize - 1).getCount(), ops);
+    }
+
+    /**
+     * Test that an Item read through getItem() while another thread adds and
+     * removes its tags is always whole, and that changes made through it
+     * reach the slot.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsReadItemDuringTagChanges()
+            throws InterruptedException {
+        final int ops = 20000;
+        final int tagCount = 40;
+        Inventory testInv = new StampedInventory(1);
+        testInv.addItem(0, new BasicItem("Foo", 2));
+
+        runThreads(t -> {
+            for (int k = 0; k < ops; k++) {
+                Item item = testInv.getItem(0);
+
+                if (t == 0 && k % 2 == 0) {
+                    item.putTag("TAG" + k % tagCount, k);
+                } else if (t == 0) {
+                    item.removeTag("TAG" + (k - 1) % tagCount);
+                } else {
+                    Map<String, Integer> tags = item.getTags();
+
+                    assertEquals((int) tags.get(Item.COUNT), 2);
+                    assertTrue(item.toString().startsWith("Foo"));
+                }
+            }
+        });
+
+        testInv.getItem(0).putTag("LAST", 1);
+
+        assertEquals(testInv.getItem(0).getTags().size(), 2);
+        assertEquals(testInv.peekItem(0).tagValue("LAST"), 1);
+    }
+
+    /**
+     * Test that transfers both ways at once do not deadlock.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void testThreadsTransferBothWays()
+            throws InterruptedException {
+        final int transfers = 2000;
+        StampedInventory first = new StampedInventory(2);
+        StampedInventory second = new StampedInventory(2);
+        first.addItem(0, new BasicItem("Foo"));
+
+        runThreads(t -> {
+            for (int k = 0; k < transfers; k++) {
+                if (t % 2 == 0) {
+                    first.transferFrom(second);
+                } else {
+                    second.transferFrom(first);
+                }
+            }
+        });
+
+        assertEquals(first.size() + second.size(), 1 + 1);
+    }
+}
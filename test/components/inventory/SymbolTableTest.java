@@ -0,0 +1,81 @@
+package components.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.inventory.Inventory.Item;
+
+/**
+ * Test array for SymbolTable.
+ *
+ * @author David Stuckey
+ */
+public class SymbolTableTest {
+
+    /** Test that a new table holds only the empty name, with id 0. */
+    @Test
+    public final void testConstructor() {
+
+        SymbolTable table = new SymbolTable();
+
+        assertEquals(table.size(), 1);
+        assertEquals(table.idOf(Item.EMPTY_NAME), 0);
+        assertEquals(table.symbol(0), Item.EMPTY_NAME);
+    }
+
+    /** Test that intern() hands out dense ids in order. */
+    @Test
+    public final void testInternNew() {
+
+        SymbolTable table = new SymbolTable();
+
+        assertEquals(table.intern("Foo"), 1);
+        assertEquals(table.intern("Bar"), 2);
+        assertEquals(table.size(), 3);
+        assertEquals(table.symbol(2), "Bar");
+    }
+
+    /** Test that intern() returns the same id for a repeated symbol. */
+    @Test
+    public final void testInternRepeated() {
+
+        SymbolTable table = new SymbolTable();
+
+        int id = table.intern("Foo");
+
+        assertEquals(table.intern(new String("Foo")), id);
+        assertEquals(table.idOf("Foo"), id);
+        assertEquals(table.size(), 2);
+    }
+
+    /** Test that idOf() does not add a missing symbol. */
+    @Test
+    public final void testIdOfMissing() {
+
+        SymbolTable table = new SymbolTable();
+
+        assertEquals(table.idOf("Foo"), SymbolTable.NO_ID);
+        assertEquals(table.size(), 1);
+    }
+
+    /** Test that ids survive growing the table past its initial capacity. */
+    @Test
+    public final void testInternMany() {
+
+        final int symbols = 1000;
+        SymbolTable table = new SymbolTable();
+
+        for (int i = 0; i < symbols; i++) {
+            table.intern("S" + i);
+        }
+
+        assertEquals(table.size(), symbols + 1);
+
+        for (int i = 0; i < symbols; i++) {
+            assertTrue(table.symbol(table.idOf("S" + i)).equals("S" + i));
+        }
+    }
+
+}